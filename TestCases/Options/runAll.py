@@ -0,0 +1,242 @@
+#!/usr/bin/env python
+# -*- coding: utf-8 -*-
+# vim: ts=4 sw=4 expandtab:
+
+"""
+此脚本执行当前目录下的所有 *.test 脚本，把输出与 output 目录下的标准答案比较。
+测试脚本每行一条命令（# 开头的行是注释）：
+    decaf 参数...           用这些参数运行编译器，可以用 "< 文件" 指定标准输入，
+                            文件以 .jsonl 结尾时每行是一条 LSP 消息，自动加上 Content-Length 头
+    copy 源文件 目标文件    复制文件，用来在两次编译之间修改源文件（先写临时文件再改名，
+                            -watch 不会看到写了一半的文件）
+    remove 文件或目录
+    list 目录               按名字顺序列出目录（含子目录）中的文件
+    cat 文件                输出文件的内容，文件不存在时输出 [no file]
+    watch 参数...           在后台运行 decaf -watch 参数...，等它完成第一次编译
+    wait                    等 -watch 完成下一次编译（修改文件之后）
+    stop                    结束 -watch，输出它的全部输出（编译用时换成 N）
+    cds 目录...             把 jar 复制到 tmp/cds，用这些目录中的文件训练它的 AppCDS 归档
+    decafc 参数...          用 tools/decafc 运行 tmp/cds 中的 jar，最后给出 decaf.Driver 是否来自归档
+    jfr 参数...             录制 Flight Recorder 事件运行 decaf，最后列出所有 decaf.* 事件的字段（按字典序）
+每条 decaf 命令的输出前面是 "$ " 加上这条命令，退出码不为 0 时输出后面是 [exit 码]。
+测试前建立空的 tmp 目录、测试后删除它，测试生成的文件都应放在其中。
+加参数 update 时改为用当前的输出重新生成标准答案。
+"""
+
+import json
+import os
+import re
+import shlex
+import shutil
+import subprocess
+import sys
+import threading
+import time
+
+WATCH_TIMEOUT = 30
+
+CDS_DIR = os.path.join('tmp', 'cds')
+
+TOOLS_DIR = os.path.join('..', '..', 'tools')
+
+def frame(path):
+    data = b''
+    with open(path, 'rb') as f:
+        for line in f:
+            line = line.strip()
+            if line:
+                data += b'Content-Length: ' + str(len(line)).encode() + b'\r\n\r\n' + line
+    return data
+
+def execute(decaf_jar, args, command=None, env=None):
+    data = b''
+    if '<' in args:
+        i = args.index('<')
+        path = args[i + 1]
+        args = args[:i]
+        if path.endswith('.jsonl'):
+            data = frame(path)
+        else:
+            with open(path, 'rb') as f:
+                data = f.read()
+    proc = subprocess.Popen((command or ['java', '-jar', decaf_jar]) + args, env=env,
+            stdin=subprocess.PIPE, stdout=subprocess.PIPE, stderr=subprocess.STDOUT)
+    out = proc.communicate(data)[0].decode('utf-8').replace('\r', '')
+    if out and not out.endswith('\n'):
+        out += '\n'
+    if proc.returncode != 0:
+        out += '[exit {0}]\n'.format(proc.returncode)
+    return out
+
+def train(decaf_jar, dirs):
+    if not os.path.isdir(CDS_DIR):
+        os.makedirs(CDS_DIR)
+    shutil.copyfile(decaf_jar, os.path.join(CDS_DIR, 'decaf.jar'))
+    out = execute(None, [os.path.join(CDS_DIR, 'decaf.jar'), os.path.join(CDS_DIR, 'decaf.jsa')] + dirs,
+            ['sh', os.path.join(TOOLS_DIR, 'cds', 'train.sh')])
+    # 载入的类数与 JDK 的版本有关
+    return re.sub(r'\d+ class\(es\)', 'N class(es)', out)
+
+def decafc(args):
+    log = os.path.join(CDS_DIR, 'load.log')
+    env = dict(os.environ)
+    env['DECAF_JAR'] = os.path.join(CDS_DIR, 'decaf.jar')
+    env['JDK_JAVA_OPTIONS'] = '-Xlog:class+load=info:file=' + log
+    out = execute(None, args, ['sh', os.path.join(TOOLS_DIR, 'decafc')], env)
+    out = ''.join(l for l in out.splitlines(True) if not l.startswith('NOTE: Picked up JDK_JAVA_OPTIONS'))
+    with open(log, 'r') as f:
+        shared = re.search(r' decaf\.Driver source: shared objects file', f.read())
+    os.remove(log)
+    return out + '[decaf.Driver from the {0}]\n'.format('archive' if shared else 'jar')
+
+def record(decaf_jar, args):
+    recording = os.path.join('tmp', 'decaf.jfr')
+    out = execute(decaf_jar, args, ['java', '-XX:StartFlightRecording=filename=' + recording,
+            '-jar', decaf_jar])
+    out = ''.join(l for l in out.splitlines(True) if '[jfr,startup]' not in l)
+    proc = subprocess.Popen(['jfr', 'print', '--json', '--events', 'decaf.*', recording],
+            stdout=subprocess.PIPE)
+    events = json.loads(proc.communicate()[0].decode('utf-8'))['recording']['events']
+    os.remove(recording)
+    lines = []
+    for e in events:
+        values = e['values']
+        fields = [k + '=' + ('-' if values[k] is None else str(values[k]).lower()
+                if isinstance(values[k], bool) else str(values[k]))
+                for k in values if k not in ('startTime', 'duration', 'eventThread', 'stackTrace')]
+        lines.append(e['type'] + ' ' + ' '.join(fields) + '\n')
+    return out + ''.join(sorted(lines))
+
+class Watch(object):
+    """后台运行的 decaf -watch，由另一个线程收集它的输出"""
+
+    def __init__(self, decaf_jar, line, args):
+        self.line = line
+        self.lines = []
+        self.builds = 0
+        self.waited = 0
+        self.closed = False
+        self.cond = threading.Condition()
+        self.proc = subprocess.Popen(['java', '-jar', decaf_jar, '-watch'] + args,
+                stdin=open(os.devnull), stdout=subprocess.PIPE, stderr=subprocess.STDOUT)
+        self.thread = threading.Thread(target=self.read)
+        self.thread.daemon = True
+        self.thread.start()
+        self.wait()
+
+    def read(self):
+        for line in iter(self.proc.stdout.readline, b''):
+            line = line.decode('utf-8').rstrip('\r\n')
+            with self.cond:
+                if line.startswith('[watch]'):
+                    line = re.sub(r', \d+ ms$', ', N ms', line)
+                    self.builds += 1
+                self.lines.append(line)
+                self.cond.notify_all()
+        with self.cond:
+            self.closed = True
+            self.cond.notify_all()
+
+    def wait(self):
+        deadline = time.time() + WATCH_TIMEOUT
+        with self.cond:
+            while self.builds <= self.waited and not self.closed:
+                left = deadline - time.time()
+                if left <= 0:
+                    break
+                self.cond.wait(left)
+            if self.builds <= self.waited:
+                self.lines.append('[no build]')
+            else:
+                self.waited += 1
+
+    def stop(self):
+        self.proc.terminate()
+        self.proc.wait()
+        self.thread.join()
+        return '$ ' + self.line + '\n' + ''.join(l + '\n' for l in self.lines)
+
+def run(decaf_jar, name):
+    shutil.rmtree('tmp', ignore_errors=True)
+    os.makedirs('tmp')
+    out = ''
+    watch = None
+    with open(name, 'r') as f:
+        for line in f:
+            line = line.strip()
+            if not line or line.startswith('#'):
+                continue
+            args = shlex.split(line)
+            if args[0] == 'decaf':
+                out += '$ ' + line + '\n' + execute(decaf_jar, args[1:])
+            elif args[0] == 'copy':
+                if not os.path.isdir(os.path.dirname(args[2]) or '.'):
+                    os.makedirs(os.path.dirname(args[2]))
+                shutil.copyfile(args[1], args[2] + '.tmp')
+                getattr(os, 'replace', os.rename)(args[2] + '.tmp', args[2])
+            elif args[0] == 'list':
+                out += '$ ' + line + '\n'
+                for root, dirs, files in sorted(os.walk(args[1])):
+                    for f in sorted(files):
+                        out += os.path.relpath(os.path.join(root, f), args[1]) + '\n'
+            elif args[0] == 'cat':
+                out += '$ ' + line + '\n'
+                if os.path.exists(args[1]):
+                    with open(args[1], 'r') as g:
+                        text = g.read()
+                    out += text if not text or text.endswith('\n') else text + '\n'
+                else:
+                    out += '[no file]\n'
+            elif args[0] == 'remove':
+                if os.path.isdir(args[1]):
+                    shutil.rmtree(args[1])
+                elif os.path.exists(args[1]):
+                    os.remove(args[1])
+            elif args[0] == 'cds':
+                out += '$ ' + line + '\n' + train(decaf_jar, args[1:])
+            elif args[0] == 'decafc':
+                out += '$ ' + line + '\n' + decafc(args[1:])
+            elif args[0] == 'jfr':
+                out += '$ ' + line + '\n' + record(decaf_jar, args[1:])
+            elif args[0] == 'watch':
+                watch = Watch(decaf_jar, line, args[1:])
+            elif args[0] == 'wait':
+                watch.wait()
+            elif args[0] == 'stop':
+                out += watch.stop()
+                watch = None
+            else:
+                raise ValueError('{0}: unknown command {1}'.format(name, args[0]))
+    if watch is not None:
+        out += watch.stop()
+    shutil.rmtree('tmp', ignore_errors=True)
+    return out
+
+def main():
+    decaf_jar = os.path.abspath(os.environ.get('DECAF_JAR',
+            os.path.join('..', '..', 'result', 'decaf.jar')))
+    update = 'update' in sys.argv[1:]
+    names = [x for x in sys.argv[1:] if x != 'update']
+    failed = 0
+    for name in sorted(os.listdir('.')):
+        bname,ext = os.path.splitext(name)
+        if ext != '.test' or names and not any(n in name for n in names):
+            continue
+        expected_file = os.path.join('output', bname + '.result')
+        actual = run(decaf_jar, name)
+        if update:
+            with open(expected_file, 'w') as f:
+                f.write(actual)
+            continue
+        with open(expected_file, 'r') as f:
+            expected = f.read().replace('\r', '')
+        if actual == expected:
+            info = 'OK :)'
+        else:
+            info = 'ERROR!'
+            failed += 1
+        print('{0:<30}{1}'.format(name, info))
+    sys.exit(1 if failed else 0)
+
+if __name__ == '__main__':
+    main()
@@ -0,0 +1,61 @@
+#!/usr/bin/env python
+# -*- coding: utf-8 -*-
+# vim: ts=4 sw=4 expandtab:
+
+"""
+此脚本用各种方式执行当前目录下所有 *.decaf 程序（-run、-vm、-jvm 及它们加 -O 的版本），
+把每种方式的输出与 output 目录下的标准答案比较，因此也检查了各种方式的输出互相一致。
+程序的输入取自同名的 *.in 文件，没有时为空。
+加参数 update 时改为用 -run 的输出重新生成标准答案。
+"""
+
+import os
+import subprocess
+import sys
+
+MODES = [
+    ['-run'],
+    ['-vm'],
+    ['-jvm'],
+    ['-run', '-O', '-verify'],
+    ['-vm', '-O', '-verify'],
+    ['-jvm', '-O', '-verify'],
+]
+
+def execute(decaf_jar, mode, name):
+    bname = os.path.splitext(name)[0]
+    stdin = open(bname + '.in') if os.path.exists(bname + '.in') else open(os.devnull)
+    proc = subprocess.Popen(['java', '-jar', decaf_jar] + mode + [name],
+            stdin=stdin, stdout=subprocess.PIPE, stderr=subprocess.STDOUT)
+    out = proc.communicate()[0]
+    stdin.close()
+    return out.decode('utf-8').replace('\r', '')
+
+def main():
+    decaf_jar = os.environ.get('DECAF_JAR',
+            os.path.join('..', '..', 'result', 'decaf.jar'))
+    update = 'update' in sys.argv[1:]
+    names = [x for x in sys.argv[1:] if x != 'update']
+    failed = 0
+    for name in sorted(os.listdir('.')):
+        bname,ext = os.path.splitext(name)
+        if ext != '.decaf' or names and not any(n in name for n in names):
+            continue
+        expected_file = os.path.join('output', bname + '.result')
+        if update:
+            with open(expected_file, 'w') as f:
+                f.write(execute(decaf_jar, MODES[0], name))
+            continue
+        with open(expected_file, 'r') as f:
+            expected = f.read().replace('\r', '')
+        for mode in MODES:
+            if execute(decaf_jar, mode, name) == expected:
+                info = 'OK :)'
+            else:
+                info = 'ERROR!'
+                failed += 1
+            print('{0:<30}{1:<24}{2}'.format(name, ' '.join(mode), info))
+    sys.exit(1 if failed else 0)
+
+if __name__ == '__main__':
+    main()
@@ -0,0 +1,202 @@
+package decaf;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import decaf.error.DecafError;
+import decaf.error.ErrorSink;
+import decaf.error.ReplayedError;
+import decaf.lsp.Json;
+import decaf.tac.Program;
+import decaf.tree.Tree;
+import decaf.utils.IndentPrintWriter;
+
+/**
+ * -emit 要求的各个输出<br>
+ * 词法、语法分析和类型检查只做一次，结束（或因错误停止）时把已经得到的结果分别写到各自的文件中，
+ * 各文件的写出并行进行。某个阶段出错时，依赖它的结果不写出（删除已有的文件），错误列表总是写出。
+ */
+final class Artifacts {
+
+	private Map<Option.Artifact, File> requested;
+
+	private Tree.TopLevel tree;
+
+	/**
+	 * 语法分析后的语法树文本：类型检查会在语法树中补上隐含的 this，必须在那之前输出
+	 */
+	private String ast;
+
+	/**
+	 * 类型检查是否已经无错完成，此时作用域可以输出
+	 */
+	private boolean checked;
+
+	/**
+	 * 三地址码，没有生成时为 null
+	 */
+	private Program program;
+
+	Artifacts(Map<Option.Artifact, File> requested) {
+		this.requested = requested;
+	}
+
+	/**
+	 * @return 是否要求输出 kind
+	 */
+	boolean wants(Option.Artifact kind) {
+		return requested.containsKey(kind);
+	}
+
+	/**
+	 * 语法分析无错完成
+	 */
+	void parsed(Tree.TopLevel tree) {
+		this.tree = tree;
+		if (wants(Option.Artifact.AST)) {
+			StringWriter sw = new StringWriter();
+			IndentPrintWriter pw = new IndentPrintWriter(sw, 4);
+			tree.printTo(pw);
+			pw.flush();
+			ast = sw.toString();
+		}
+	}
+
+	/**
+	 * 类型检查无错完成
+	 */
+	void checked() {
+		checked = true;
+	}
+
+	/**
+	 * 生成了三地址码
+	 */
+	void translated(Program program) {
+		this.program = program;
+	}
+
+	/**
+	 * 把尚未输出的错误输出到 err，然后写出所有已经得到的结果；写文件失败时退出
+	 */
+	void finish(ErrorSink errors, PrintStream err) {
+		List<String> units = new ArrayList<String>();
+		final List<DecafError> diagnostics = errors.flushTo(err, units);
+		final List<String> names = units;
+		List<Callable<Void>> writers = new ArrayList<Callable<Void>>();
+		for (final Map.Entry<Option.Artifact, File> e : requested.entrySet()) {
+			if (!isAvailable(e.getKey())) {
+				// 不留下上次编译的结果
+				e.getValue().delete();
+				continue;
+			}
+			writers.add(new Callable<Void>() {
+
+				@Override
+				public Void call() throws IOException {
+					write(e.getKey(), e.getValue(), diagnostics, names);
+					return null;
+				}
+
+			});
+		}
+		if (writers.isEmpty()) {
+			return;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(writers.size());
+		try {
+			List<Future<Void>> results = executor.invokeAll(writers);
+			int i = 0;
+			for (Map.Entry<Option.Artifact, File> e : requested.entrySet()) {
+				if (!isAvailable(e.getKey())) {
+					continue;
+				}
+				try {
+					results.get(i++).get();
+				} catch (ExecutionException ex) {
+					err.println("Can not write " + e.getKey().name().toLowerCase()
+							+ " to " + e.getValue());
+					System.exit(1);
+				}
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private boolean isAvailable(Option.Artifact kind) {
+		switch (kind) {
+		case AST:
+			return ast != null;
+		case SCOPES:
+			return checked;
+		case TAC:
+			return program != null;
+		default:
+			return true;
+		}
+	}
+
+	private void write(Option.Artifact kind, File file,
+			List<DecafError> diagnostics, List<String> units)
+			throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			switch (kind) {
+			case AST: {
+				Writer w = new OutputStreamWriter(out);
+				w.write(ast);
+				w.flush();
+				break;
+			}
+			case SCOPES: {
+				IndentPrintWriter pw = new IndentPrintWriter(out, 4);
+				tree.globalScope.printTo(pw);
+				pw.flush();
+				break;
+			}
+			case TAC: {
+				IndentPrintWriter pw = new IndentPrintWriter(out, 4);
+				program.printTo(pw);
+				pw.flush();
+				break;
+			}
+			case DIAGNOSTICS: {
+				List<Object> list = new ArrayList<Object>();
+				for (int i = 0; i < diagnostics.size(); i++) {
+					DecafError e = diagnostics.get(i);
+					Location loc = e.getLocation();
+					boolean known = loc != null && loc != Location.NO_LOCATION;
+					list.add(Json.object("file", units.get(i) != null ? units
+							.get(i) : Driver.getDriver().getOption()
+							.getSrcFileName(), "line", known ? loc.getLine() : 0,
+							"column", known ? loc.getColumn() : 0, "message",
+							ReplayedError.messageOf(e)));
+				}
+				Writer w = new OutputStreamWriter(out, "UTF-8");
+				w.write(Json.write(list));
+				w.write('\n');
+				w.flush();
+				break;
+			}
+			}
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -1,19 +1,40 @@
 package decaf;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 
 import decaf.tree.Tree;
+import decaf.dataflow.DataflowPrinter;
 import decaf.error.DecafError;
+import decaf.error.ErrorSink;
+import decaf.error.NoBodyToRunError;
 import decaf.frontend.Lexer;
 import decaf.frontend.Parser;
+import decaf.iface.InterfaceFile;
+import decaf.iface.InterfaceLoader;
+import decaf.interp.Interpreter;
+import decaf.jfr.Events;
+import decaf.jfr.PhaseEvent;
+import decaf.jvm.ClassLimitException;
+import decaf.jvm.Jvm;
+import decaf.lsp.LanguageServer;
+import decaf.opt.Optimizer;
+import decaf.opt.Stats;
+import decaf.project.ProjectBuilder;
 import decaf.scope.ScopeStack;
+import decaf.symbol.Class;
+import decaf.tac.Program;
+import decaf.translate.Translater;
 import decaf.typecheck.BuildSym;
+import decaf.typecheck.MethodCache;
+import decaf.typecheck.Pipeline;
 import decaf.typecheck.TypeCheck;
+import decaf.typecheck.XrefIndex;
+import decaf.utils.HeapStats;
 import decaf.utils.IndentPrintWriter;
+import decaf.vm.Machine;
 
 public final class Driver {
 
@@ -21,7 +42,7 @@ public final class Driver {
 
 	private Option option;
 
-	private List<DecafError> errors;
+	private ErrorSink errors;
 
 	private ScopeStack table;
 
@@ -29,6 +50,18 @@ public final class Driver {
 
 	private Parser parser;
 
+	private InterfaceLoader interfaceLoader;
+
+	/**
+	 * 整个编译的 Flight Recorder 事件，出错退出前也要提交
+	 */
+	private PhaseEvent compileEvent;
+
+	/**
+	 * -emit 要求的输出，没有时为 null
+	 */
+	private Artifacts artifacts;
+
 	public ScopeStack getTable() {
 		return table;
 	}
@@ -41,8 +74,19 @@ public final class Driver {
 		return option;
 	}
 
+	/**
+	 * @return 接口文件载入器，未指定 -ifacepath 时为 null
+	 */
+	public InterfaceLoader getInterfaceLoader() {
+		return interfaceLoader;
+	}
+
 	public void issueError(DecafError error) {
-		errors.add(error);
+		errors.issue(error);
+	}
+
+	public ErrorSink getErrorSink() {
+		return errors;
 	}
 
 	// Only allow construction by Driver.main
@@ -53,57 +97,573 @@ public final class Driver {
 	 * 如果有错误，输出错误并退出
 	 */
 	private void checkPoint() {
-		if (errors.size() > 0) {
-			Collections.sort(errors, new Comparator<DecafError>() {
-
-				@Override
-				public int compare(DecafError o1, DecafError o2) {
-					return o1.getLocation().compareTo(o2.getLocation());
-				}
-
-			});
-			for (DecafError error : errors) {
-				option.getErr().println(error);
+		if (errors.hasErrors()) {
+			commitCompileEvent(null);
+			if (artifacts != null) {
+				artifacts.finish(errors, option.getErr());
+			} else {
+				errors.flushTo(option.getErr());
 			}
 			System.exit(1);
 		}
 	}
 
+	/**
+	 * 开始新的一次编译（-watch 时每次重新编译之前）：换上新的错误收集器和作用域栈
+	 */
+	ErrorSink reset() {
+		errors = new ErrorSink(option.getErrorLimit());
+		table = new ScopeStack();
+		return errors;
+	}
+
 	private void init() {
+		reset();
+		List<File> path = new ArrayList<File>();
+		if (option.isProject() && option.getInterfaceDir() != null) {
+			// 工程中未变的文件从上次构建写出的接口文件载入
+			path.add(option.getInterfaceDir());
+		}
+		path.addAll(option.getInterfacePath());
+		if (!path.isEmpty()) {
+			interfaceLoader = new InterfaceLoader(path);
+		}
+		if (option.isProject() || option.isWatch() || option.isLsp()) {
+			return;
+		}
 		lexer = new Lexer(option.getInput());
 		parser = new Parser();
 		lexer.setParser(parser);
 		parser.setLexer(lexer);
-		errors = new ArrayList<DecafError>();
-		table = new ScopeStack();
 	}
 
 	private void compile() {
+		compileEvent = new PhaseEvent("compile");
+		compileEvent.begin();
+		if (!option.getArtifacts().isEmpty()) {
+			artifacts = new Artifacts(option.getArtifacts());
+		}
+		if (option.isProject()) {
+			compileProject();
+			return;
+		}
 
+		parser.setSourceName(option.getSrcFileName());
+		if (isPipelined()) {
+			compilePipelined();
+			return;
+		}
+		// 语法错误按位置单调产生，可以边分析边输出；要写出错误列表时留到最后
+		boolean streaming = artifacts == null
+				|| !artifacts.wants(Option.Artifact.DIAGNOSTICS);
+		if (streaming) {
+			errors.startStreaming(option.getErr());
+		}
 		Tree.TopLevel tree = parser.parseFile();
+		if (streaming) {
+			errors.stopStreaming();
+		}
+		if (artifacts != null && !errors.hasErrors()) {
+			artifacts.parsed(tree);
+		}
 		checkPoint();
+		memstats("parse", tree);
 		if (option.getLevel() == Option.Level.LEVEL0) {
-			IndentPrintWriter pw = new IndentPrintWriter(option.getOutput(), 4);
-			tree.printTo(pw);
-			pw.close();
-			return;
+			printTree(tree);
+			if (!needsScopes()) {
+				finish(tree, null);
+				return;
+			}
 		}
 		BuildSym.buildSymbol(tree);
 		checkPoint();
-		TypeCheck.checkType(tree);
+		memstats("build-symbols", tree);
+		XrefIndex xref = option.isXref() ? new XrefIndex() : null;
+		if (option.getCacheFile() != null
+				&& option.getLevel() == Option.Level.LEVEL1) {
+			checkTypeCached(tree, xref);
+		} else if (xref != null) {
+			TypeCheck.checkType(tree, xref);
+		} else {
+			TypeCheck.checkType(tree);
+		}
 		checkPoint();
+		checked();
+		memstats("type-check", tree);
+		if (option.getInterfaceDir() != null) {
+			writeInterfaces(tree);
+		}
+		if (xref != null) {
+			printXref(xref);
+		}
+		if (option.getLevel() == Option.Level.LEVEL1) {
+			printScopes(tree);
+		}
+		finish(tree, translate(tree));
+	}
+
+	/**
+	 * 是否以流水线方式编译：-xref、-cache 要求类型检查按顺序进行，
+	 * 接口文件要在声明所有类之后载入，错误数的上限会让各阶段互相影响，
+	 * -emit ast 要在类型检查改动语法树之前输出，这些情况下仍分阶段编译
+	 */
+	private boolean isPipelined() {
+		return option.isPipeline() && option.getLevel() != Option.Level.LEVEL0
+				&& !option.isXref() && option.getCacheFile() == null
+				&& interfaceLoader == null && option.getErrorLimit() == 0
+				&& (artifacts == null || !artifacts.wants(Option.Artifact.AST));
+	}
+
+	private void compilePipelined() {
+		Tree.TopLevel tree = Pipeline.compile(parser);
+		if (artifacts != null && tree != null) {
+			artifacts.parsed(tree);
+		}
+		checkPoint();
+		checked();
+		memstats("type-check", tree);
+		if (option.getInterfaceDir() != null) {
+			writeInterfaces(tree);
+		}
 		if (option.getLevel() == Option.Level.LEVEL1) {
+			printScopes(tree);
+		}
+		finish(tree, translate(tree));
+	}
+
+	/**
+	 * -l 0 时是否仍要做类型检查：-emit 要求输出作用域或三地址码
+	 */
+	private boolean needsScopes() {
+		return option.isRun() || option.isVm() || option.isJvm()
+				|| artifacts != null
+				&& (artifacts.wants(Option.Artifact.SCOPES) || artifacts
+						.wants(Option.Artifact.TAC));
+	}
+
+	private void checked() {
+		if (artifacts != null) {
+			artifacts.checked();
+		}
+		checkRunnable();
+	}
+
+	/**
+	 * 运行程序时所有类都要有方法体：从接口文件载入的类只有签名，在生成代码之前报错退出
+	 */
+	private void checkRunnable() {
+		if (interfaceLoader == null
+				|| !(option.isRun() || option.isVm() || option.isJvm())) {
+			return;
+		}
+		for (Class c : interfaceLoader.getLoaded()) {
+			issueError(new NoBodyToRunError(c.getName()));
+		}
+		checkPoint();
+	}
+
+	/**
+	 * 编译无错结束：写出 -emit 要求的输出，提交事件
+	 */
+	private void finish(Tree.TopLevel tree, Program program) {
+		int status = 0;
+		if (option.isRun()) {
+			status = execute(tree);
+		}
+		if (option.isVm() && status == 0) {
+			status = execute(program);
+		}
+		if (option.isJvm() && status == 0) {
+			status = executeOnJvm(tree);
+		}
+		if (artifacts != null) {
+			artifacts.finish(errors, option.getErr());
+		}
+		commitCompileEvent(tree);
+		if (status != 0) {
+			System.exit(status);
+		}
+	}
+
+	/**
+	 * -run 时执行 Main.main
+	 *
+	 * @return 发生运行期错误时为 1
+	 */
+	private int execute(final Tree.TopLevel tree) {
+		if (tree.main == null) {
+			option.getErr().println("No " + option.getMainClassName()
+					+ " class to run");
+			return 1;
+		}
+		return runPhase("run", new NodesOf<Integer>(tree) {
+
+			@Override
+			Integer run() {
+				return Interpreter.run(tree, System.in, option.getOutput());
+			}
+
+		});
+	}
+
+	/**
+	 * -vm 时在虚拟机上执行三地址码
+	 *
+	 * @return 发生运行期错误时为 1
+	 */
+	private int execute(final Program program) {
+		if (program.getMain() == null) {
+			option.getErr().println("No " + option.getMainClassName()
+					+ " class to run");
+			return 1;
+		}
+		return runPhase("vm", new Phase<Integer>() {
+
+			@Override
+			Integer run() {
+				return Machine.run(program, System.in, option.getOutput());
+			}
+
+			@Override
+			int nodes() {
+				return program.getFunctions().size();
+			}
+
+		});
+	}
+
+	/**
+	 * -jvm 时把各类编译为 JVM 类并执行，超出 class 文件的限制时改为解释执行
+	 *
+	 * @return 发生运行期错误时为 1
+	 */
+	private int executeOnJvm(final Tree.TopLevel tree) {
+		if (tree.main == null) {
+			option.getErr().println("No " + option.getMainClassName()
+					+ " class to run");
+			return 1;
+		}
+		return runPhase("jvm", new Phase<Integer>() {
+
+			@Override
+			Integer run() {
+				try {
+					return Jvm.run(tree, System.in, option.getOutput());
+				} catch (ClassLimitException e) {
+					option.getErr().println("Cannot compile for the JVM: "
+							+ e.getMessage() + "; running with -run instead");
+					return execute(tree);
+				}
+			}
+
+			@Override
+			int nodes() {
+				return tree.classes.size();
+			}
+
+		});
+	}
+
+	/**
+	 * 输出语法树（LEVEL0）
+	 */
+	private void printTree(final Tree.TopLevel tree) {
+		runPhase("print-ast", new NodesOf<Void>(tree) {
+
+			@Override
+			Void run() {
+				IndentPrintWriter pw = new IndentPrintWriter(option.getOutput(), 4);
+				tree.printTo(pw);
+				pw.close();
+				return null;
+			}
+
+		});
+	}
+
+	/**
+	 * 输出作用域（LEVEL1）
+	 */
+	private void printScopes(final Tree.TopLevel tree) {
+		runPhase("print-scopes", new NodesOf<Void>(tree) {
+
+			@Override
+			Void run() {
+				IndentPrintWriter pw = new IndentPrintWriter(option.getOutput(), 4);
+				tree.globalScope.printTo(pw);
+				pw.close();
+				return null;
+			}
+
+		});
+	}
+
+	/**
+	 * 输出交叉引用索引（-xref）
+	 */
+	private void printXref(final XrefIndex xref) {
+		runPhase("print-xref", new Phase<Void>() {
+
+			@Override
+			Void run() {
+				IndentPrintWriter pw = new IndentPrintWriter(option.getOutput(), 4);
+				xref.printTo(pw);
+				pw.flush();
+				return null;
+			}
+
+			@Override
+			int nodes() {
+				return xref.size();
+			}
+
+		});
+	}
+
+	/**
+	 * 生成三地址码，LEVEL2 时输出，LEVEL3 时输出数据流分析的结果；-emit tac 时交给 artifacts
+	 *
+	 * @return 三地址码，不需要时为 null
+	 */
+	private Program translate(final Tree.TopLevel tree) {
+		boolean print = option.getLevel() == Option.Level.LEVEL2;
+		boolean dataflow = option.getLevel() == Option.Level.LEVEL3;
+		if (!print && !dataflow && !option.isVm()
+				&& (artifacts == null || !artifacts.wants(Option.Artifact.TAC))) {
+			return null;
+		}
+		Program program = runPhase("tac", new NodesOf<Program>(tree) {
+
+			@Override
+			Program run() {
+				return Translater.translate(tree);
+			}
+
+		});
+		if (option.isOptimize()) {
+			optimize(program);
+		}
+		if (artifacts != null) {
+			artifacts.translated(program);
+		}
+		if (print) {
 			IndentPrintWriter pw = new IndentPrintWriter(option.getOutput(), 4);
-			tree.globalScope.printTo(pw);
+			program.printTo(pw);
 			pw.close();
+		}
+		if (dataflow) {
+			printDataflow(program);
+		}
+		return program;
+	}
+
+	/**
+	 * -O 时优化三地址码
+	 */
+	private void optimize(final Program program) {
+		final Stats stats = option.isStats() ? new Stats() : null;
+		runPhase("optimize", new Phase<Void>() {
+
+			@Override
+			Void run() {
+				Optimizer.optimize(program, stats, option.isVerify());
+				return null;
+			}
+
+			@Override
+			int nodes() {
+				return program.getFunctions().size();
+			}
+
+		});
+		if (stats != null) {
+			stats.printTo(option.getErr());
+		}
+	}
+
+	/**
+	 * 输出各函数的基本块和数据流分析结果（LEVEL3）
+	 */
+	private void printDataflow(final Program program) {
+		runPhase("dataflow", new Phase<Void>() {
+
+			@Override
+			Void run() {
+				IndentPrintWriter pw = new IndentPrintWriter(option.getOutput(), 4);
+				DataflowPrinter.print(program, pw);
+				pw.close();
+				return null;
+			}
+
+		});
+	}
+
+	/**
+	 * 编译的一个阶段，由 {@link Driver#runPhase} 在一个 decaf.Phase 事件中执行
+	 */
+	private abstract static class Phase<T> {
+
+		abstract T run();
+
+		/**
+		 * @return 事件中记下的结点数，只在事件要提交时调用（不计入事件的时长）
+		 */
+		int nodes() {
+			return 0;
+		}
+	}
+
+	/**
+	 * 结点数为一棵语法树的结点数的阶段
+	 */
+	private abstract static class NodesOf<T> extends Phase<T> {
+
+		private Tree tree;
+
+		NodesOf(Tree tree) {
+			this.tree = tree;
+		}
+
+		@Override
+		int nodes() {
+			return Events.countNodes(tree);
+		}
+	}
+
+	/**
+	 * 在名为 name 的 decaf.Phase 事件中执行 phase
+	 *
+	 * @return phase 的结果
+	 */
+	private <T> T runPhase(String name, Phase<T> phase) {
+		PhaseEvent event = new PhaseEvent(name);
+		event.begin();
+		T result = phase.run();
+		event.end();
+		if (event.shouldCommit()) {
+			event.source = option.getSrcFileName();
+			event.nodes = phase.nodes();
+			event.commit();
+		}
+		return result;
+	}
+
+	/**
+	 * -memstats 时输出语法树及其作用域、符号占用的堆空间
+	 */
+	private void memstats(String phase, Tree.TopLevel tree) {
+		if (option.isMemstats()) {
+			HeapStats.report(phase, option.getErr(), tree);
+		}
+	}
+
+	/**
+	 * 提交整个编译的事件，tree 为 null 时不统计结点数
+	 */
+	private void commitCompileEvent(Tree.TopLevel tree) {
+		if (compileEvent == null) {
 			return;
 		}
+		compileEvent.end();
+		if (compileEvent.shouldCommit()) {
+			compileEvent.source = option.getSrcFileName();
+			compileEvent.nodes = tree == null ? 0 : Events.countNodes(tree);
+			compileEvent.errors = errors.count();
+			compileEvent.commit();
+		}
+		compileEvent = null;
+	}
+
+	/**
+	 * 类型检查，输入没有变化的方法体直接使用缓存文件中的结果
+	 *
+	 * @param xref
+	 *            不为 null 时同时建立交叉引用索引
+	 */
+	private void checkTypeCached(Tree.TopLevel tree, XrefIndex xref) {
+		File file = option.getCacheFile();
+		String source = option.getSrcFileName() == null ? "-" : new File(
+				option.getSrcFileName()).getAbsolutePath();
+		MethodCache cache = MethodCache.load(file, source);
+		if (xref == null) {
+			TypeCheck.checkType(tree, cache);
+		} else {
+			TypeCheck.checkType(tree, cache, xref);
+		}
+		try {
+			cache.save(file);
+		} catch (IOException e) {
+			option.getErr().println("Can not write cache file " + file);
+		}
+	}
+
+	private void compileProject() {
+		// 各级输出和运行都需要所有类的方法体
+		ProjectBuilder builder = new ProjectBuilder(option, errors, false);
+		try {
+			Tree.TopLevel tree = builder.parse();
+			if (artifacts != null && !errors.hasErrors()) {
+				artifacts.parsed(tree);
+			}
+			checkPoint();
+			memstats("parse", tree);
+			if (option.getLevel() == Option.Level.LEVEL0) {
+				printTree(tree);
+				if (!needsScopes()) {
+					finish(tree, null);
+					return;
+				}
+			}
+			builder.check(tree, new Runnable() {
+
+				@Override
+				public void run() {
+					checkPoint();
+				}
+
+			});
+			checked();
+			memstats("type-check", tree);
+			if (option.getInterfaceDir() != null) {
+				try {
+					builder.save();
+				} catch (IOException e) {
+					option.getErr().println("Can not write interfaces to "
+							+ option.getInterfaceDir());
+					System.exit(1);
+				}
+			}
+			if (option.getLevel() == Option.Level.LEVEL1) {
+				printScopes(tree);
+			}
+			finish(tree, translate(tree));
+		} finally {
+			builder.shutdown();
+		}
+	}
+
+	private void writeInterfaces(Tree.TopLevel tree) {
+		for (Tree.ClassDef cd : tree.classes) {
+			try {
+				InterfaceFile.write(cd.symbol, option.getInterfaceDir());
+			} catch (IOException e) {
+				option.getErr().println("Can not write interface of class "
+						+ cd.name + " to " + option.getInterfaceDir());
+				System.exit(1);
+			}
+		}
 	}
 
 	public static void main(String[] args) throws IOException {
 		driver = new Driver();
 		driver.option = new Option(args);
 		driver.init();
-		driver.compile();
+		if (driver.option.isLsp()) {
+			System.exit(new LanguageServer(System.in, System.out).run());
+		} else if (driver.option.isWatch()) {
+			new Watcher(driver).run();
+		} else {
+			driver.compile();
+		}
 	}
 }
@@ -0,0 +1,257 @@
+package decaf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import decaf.error.DecafError;
+import decaf.error.ErrorSink;
+import decaf.frontend.IncrementalParser;
+import decaf.frontend.TextEdit;
+import decaf.tree.Tree;
+import decaf.tree.TreeScanner;
+import decaf.typecheck.BuildSym;
+import decaf.typecheck.MethodCache;
+import decaf.typecheck.TypeCheck;
+import decaf.typecheck.XrefIndex;
+
+/**
+ * 单个源文件的常驻编译状态，供 -watch 和语言服务器在同一个进程中反复编译<br>
+ * 保留语法树、符号表和各方法体的检查结果：修改只落在一个方法体内时
+ * 只重新分析这个方法体并为它重新建立作用域，类作用域及其中的符号原样保留；
+ * 否则重新建立符号表，但输入没有变化的方法体仍然重放上次的检查结果。<br>
+ * 每次编译前换上新的错误收集器，编译报告的错误留在 Driver 的错误收集器中。
+ */
+public final class IncrementalCompiler {
+
+	private IncrementalParser parser;
+
+	/**
+	 * 上次分析是否没有语法错误；有错误时下次要分析整个文件
+	 */
+	private boolean parsed;
+
+	/**
+	 * 上次建立符号表时报告的错误，为 null 表示符号表需要重新建立
+	 */
+	private List<DecafError> symbolErrors;
+
+	private boolean checked;
+
+	private MethodCache cache;
+
+	private boolean indexing;
+
+	private XrefIndex xref;
+
+	public IncrementalCompiler(MethodCache cache) {
+		this.cache = cache;
+		cache.setBodySource(new MethodCache.BodySource() {
+
+			@Override
+			public void reparse(Tree.MethodDef func) {
+				Tree.TopLevel tree = parser.getTree();
+				if (parser.refreshBody(func)) {
+					BuildSym.rebuildBody(tree, classOf(tree, func), func);
+				}
+			}
+
+		});
+	}
+
+	public MethodCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * 为 true 时类型检查的同时建立交叉引用索引
+	 */
+	public void setIndexing(boolean indexing) {
+		this.indexing = indexing;
+	}
+
+	/**
+	 * @return 上次类型检查建立的交叉引用索引，没有要求建立索引或没有完成类型检查时为 null
+	 */
+	public XrefIndex getXref() {
+		return xref;
+	}
+
+	/**
+	 * @return 当前文本，还没有编译过时为 null
+	 */
+	public String getText() {
+		return parser == null ? null : parser.getText();
+	}
+
+	public Tree.TopLevel getTree() {
+		return parser == null ? null : parser.getTree();
+	}
+
+	/**
+	 * @return 上次编译是否完成了类型检查（没有语法和符号表错误）
+	 */
+	public boolean isChecked() {
+		return checked;
+	}
+
+	/**
+	 * 按文件的新内容重新编译
+	 *
+	 * @return 重新分析的范围，内容没有变化时为 null
+	 */
+	public String update(String text) {
+		if (parser == null || !parsed) {
+			Driver.getDriver().reset();
+			parser = new IncrementalParser(text);
+			return analyze(null);
+		}
+		TextEdit edit = TextEdit.between(parser.getText(), text);
+		if (edit == null) {
+			return null;
+		}
+		List<TextEdit> edits = new ArrayList<TextEdit>();
+		edits.add(edit);
+		return apply(edits);
+	}
+
+	/**
+	 * 依次做一组修改后重新编译，只有一个修改时可以只处理它所在的方法体
+	 *
+	 * @return 重新分析的范围
+	 */
+	public String apply(List<TextEdit> edits) {
+		Driver.getDriver().reset();
+		if (!parsed) {
+			String text = parser.getText();
+			for (TextEdit edit : edits) {
+				text = edit.applyTo(text);
+			}
+			parser = new IncrementalParser(text);
+			return analyze(null);
+		}
+		IncrementalParser.Change change = null;
+		for (TextEdit edit : edits) {
+			change = parser.apply(edit);
+		}
+		return analyze(edits.size() == 1 ? change : null);
+	}
+
+	/**
+	 * @param change 语法树的唯一一处变化，为 null 时重新建立整个符号表
+	 */
+	private String analyze(IncrementalParser.Change change) {
+		ErrorSink errors = Driver.getDriver().getErrorSink();
+		String what = describe(change);
+		Tree.TopLevel tree = parser.getTree();
+		parsed = tree != null && !errors.hasErrors();
+		checked = false;
+		xref = null;
+		if (!parsed) {
+			symbolErrors = null;
+			return what;
+		}
+
+		List<DecafError> symbols;
+		if (change != null && change.getScope() == IncrementalParser.Scope.METHOD
+				&& symbolErrors != null) {
+			// 类作用域不变，只为新的方法体建立作用域，并换掉旧方法体中报告的错误
+			symbols = withoutErrorsIn(symbolErrors, change.getReplacedBody());
+			// 父类经由 Driver 的作用域栈查找
+			Driver.getDriver().getTable().open(tree.globalScope);
+			BuildSym.rebuildBody(tree, change.getClassDef(), change
+					.getMethodDef());
+			Driver.getDriver().getTable().close();
+		} else {
+			symbols = new ArrayList<DecafError>();
+			BuildSym.buildSymbol(tree);
+		}
+		symbols.addAll(errors.drain());
+		sort(symbols);
+		symbolErrors = symbols;
+		for (DecafError e : symbols) {
+			errors.issue(e);
+		}
+		if (errors.hasErrors()) {
+			return what;
+		}
+		if (indexing) {
+			xref = new XrefIndex();
+			TypeCheck.checkType(tree, cache, xref);
+		} else {
+			TypeCheck.checkType(tree, cache);
+		}
+		checked = true;
+		return what + ", " + cache.getMisses() + " of "
+				+ (cache.getHits() + cache.getMisses()) + " methods checked";
+	}
+
+	private static String describe(IncrementalParser.Change change) {
+		if (change == null) {
+			return "file";
+		}
+		switch (change.getScope()) {
+		case METHOD:
+			return "method " + change.getClassDef().name + "."
+					+ change.getMethodDef().name;
+		case CLASS:
+			return "class " + change.getClassDef().name;
+		default:
+			return "file";
+		}
+	}
+
+	/**
+	 * @return errors 中位置不属于 body 中结点的错误
+	 */
+	private static List<DecafError> withoutErrorsIn(List<DecafError> errors,
+			Tree body) {
+		final Set<Location> locations = Collections
+				.newSetFromMap(new IdentityHashMap<Location, Boolean>());
+		new TreeScanner() {
+
+			@Override
+			protected boolean enter(Tree tree) {
+				locations.add(tree.getLocation());
+				return true;
+			}
+
+		}.scan(body);
+		List<DecafError> result = new ArrayList<DecafError>();
+		for (DecafError e : errors) {
+			if (!locations.contains(e.getLocation())) {
+				result.add(e);
+			}
+		}
+		return result;
+	}
+
+	private static void sort(List<DecafError> errors) {
+		Collections.sort(errors, new Comparator<DecafError>() {
+
+			@Override
+			public int compare(DecafError o1, DecafError o2) {
+				Location l1 = o1.getLocation() == null ? Location.NO_LOCATION
+						: o1.getLocation();
+				Location l2 = o2.getLocation() == null ? Location.NO_LOCATION
+						: o2.getLocation();
+				return l1.compareTo(l2);
+			}
+
+		});
+	}
+
+	private static Tree.ClassDef classOf(Tree.TopLevel tree, Tree.MethodDef func) {
+		for (Tree.ClassDef cd : tree.classes) {
+			for (Tree f : cd.fields) {
+				if (f == func) {
+					return cd;
+				}
+			}
+		}
+		throw new IllegalArgumentException(func.name);
+	}
+}
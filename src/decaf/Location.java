@@ -29,6 +29,23 @@ public class Location implements Comparable<Location> {
 		column = col;
 	}
 
+	public int getLine() {
+		return line;
+	}
+
+	public int getColumn() {
+		return column;
+	}
+
+	/**
+	 * 移动到新的位置<br>
+	 * 只用于增量分析：语法树结点和符号共享同一个位置对象，移动一次即同时更新二者
+	 */
+	public void moveTo(int lin, int col) {
+		line = lin;
+		column = col;
+	}
+
 	/**
 	 * 转换成(x,y)形式的字符串
 	 */
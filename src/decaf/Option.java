@@ -1,11 +1,17 @@
 package decaf;
 
 import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 public final class Option {
 
@@ -13,6 +19,13 @@ public final class Option {
 		LEVEL0, LEVEL1, LEVEL2, LEVEL3, LEVEL4
 	}
 
+	/**
+	 * -emit 可以输出的结果：语法树、作用域、JSON 格式的错误列表、三地址码
+	 */
+	public enum Artifact {
+		AST, SCOPES, DIAGNOSTICS, TAC
+	}
+
 	private String srcFileName;
 
 	private String dstFileName;
@@ -25,6 +38,48 @@ public final class Option {
 
 	private Level level = Level.LEVEL4;
 
+	private int errorLimit = 0;
+
+	private File interfaceDir;
+
+	private List<File> interfacePath = new ArrayList<File>();
+
+	private boolean library = false;
+
+	private List<File> sources = new ArrayList<File>();
+
+	private boolean project = false;
+
+	private File cacheFile;
+
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	private boolean watch = false;
+
+	private boolean lsp = false;
+
+	private boolean xref = false;
+
+	private boolean memstats = false;
+
+	private boolean pipeline = false;
+
+	private boolean run = false;
+
+	private boolean vm = false;
+
+	private boolean jvm = false;
+
+	private boolean optimize = false;
+
+	private boolean stats = false;
+
+	private boolean verify = false;
+
+	private Map<Artifact, File> artifacts = new LinkedHashMap<Artifact, File>();
+
+	private List<File> projectDirs = new ArrayList<File>();
+
 	private static final String mainClassName = "Main";
 
 	private static final String mainFuncName = "main";
@@ -54,22 +109,154 @@ public final class Option {
 				}
 			} else if (args[i].equals("-l")) {
 				level = Level.valueOf("LEVEL" + args[++i]);
+			} else if (args[i].equals("-maxerr")) {
+				errorLimit = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-iface")) {
+				interfaceDir = new File(args[++i]);
+			} else if (args[i].equals("-ifacepath")) {
+				for (String dir : args[++i].split(File.pathSeparator)) {
+					if (dir.length() > 0) {
+						interfacePath.add(new File(dir));
+					}
+				}
+			} else if (args[i].equals("-lib")) {
+				library = true;
+			} else if (args[i].equals("-cache")) {
+				cacheFile = new File(args[++i]);
+			} else if (args[i].equals("-j")) {
+				threads = Math.max(1, Integer.parseInt(args[++i]));
+			} else if (args[i].equals("-watch")) {
+				watch = true;
+			} else if (args[i].equals("-lsp")) {
+				lsp = true;
+			} else if (args[i].equals("-xref")) {
+				xref = true;
+			} else if (args[i].equals("-memstats")) {
+				memstats = true;
+			} else if (args[i].equals("-pipeline")) {
+				pipeline = true;
+			} else if (args[i].equals("-run")) {
+				run = true;
+			} else if (args[i].equals("-vm")) {
+				vm = true;
+			} else if (args[i].equals("-jvm")) {
+				jvm = true;
+			} else if (args[i].equals("-O")) {
+				optimize = true;
+			} else if (args[i].equals("-stats")) {
+				stats = true;
+			} else if (args[i].equals("-verify")) {
+				verify = true;
+			} else if (args[i].equals("-emit")) {
+				addArtifact(args[++i]);
+			} else if (new File(args[i]).isDirectory()) {
+				project = true;
+				projectDirs.add(new File(args[i]));
+				collectSources(new File(args[i]));
 			} else {
 				srcFileName = args[i];
-				try {
-					input = new BufferedInputStream(new FileInputStream(
-							srcFileName));
-				} catch (FileNotFoundException e) {
-					err.println("File " + srcFileName + " not found");
+				sources.add(new File(srcFileName));
+			}
+		}
+		if (sources.size() > 1) {
+			project = true;
+		}
+		if (project) {
+			srcFileName = null;
+			for (File f : sources) {
+				if (!f.isFile()) {
+					err.println("File " + f + " not found");
 					System.exit(1);
 				}
 			}
+		} else if (srcFileName != null) {
+			try {
+				input = new BufferedInputStream(new FileInputStream(
+						srcFileName));
+			} catch (FileNotFoundException e) {
+				err.println("File " + srcFileName + " not found");
+				System.exit(1);
+			}
+		}
+	}
+
+	/**
+	 * 解析 -emit 的参数 KIND=FILE
+	 */
+	private void addArtifact(String spec) {
+		int eq = spec.indexOf('=');
+		Artifact kind = null;
+		if (eq > 0) {
+			for (Artifact a : Artifact.values()) {
+				if (a.name().equalsIgnoreCase(spec.substring(0, eq))) {
+					kind = a;
+				}
+			}
+		}
+		if (kind == null || eq == spec.length() - 1) {
+			err.println("Bad -emit argument " + spec
+					+ ", expected ast|scopes|diagnostics|tac=FILE");
+			System.exit(1);
+		}
+		artifacts.put(kind, new File(spec.substring(eq + 1)));
+	}
+
+	/**
+	 * 重新收集工程目录下的源文件（-watch 时目录中可能增删了文件）
+	 */
+	public void rescanSources() {
+		if (projectDirs.isEmpty()) {
+			return;
+		}
+		List<File> files = new ArrayList<File>();
+		for (File f : sources) {
+			if (f.isFile() && !isInProjectDir(f)) {
+				files.add(f);
+			}
+		}
+		sources = files;
+		for (File dir : projectDirs) {
+			collectSources(dir);
+		}
+	}
+
+	private boolean isInProjectDir(File f) {
+		String path = f.getAbsolutePath();
+		for (File dir : projectDirs) {
+			if (path.startsWith(dir.getAbsolutePath() + File.separator)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * 按路径顺序收集目录下（含子目录）的所有 .decaf 文件
+	 */
+	private void collectSources(File dir) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		Arrays.sort(files);
+		for (File f : files) {
+			if (f.isDirectory()) {
+				collectSources(f);
+			} else if (f.getName().endsWith(".decaf")) {
+				sources.add(f);
+			}
 		}
 	}
 
 	private String usage() {
 		return ("\n"
-				+ "Usage:  java -jar decaf.jar [-l LEVEL] [-o OUTPUT] SOURCE\n"
+				+ "Usage:  java -jar decaf.jar [-l LEVEL] [-o OUTPUT] [-maxerr N]\n"
+				+ "                         [-iface DIR] [-ifacepath PATH] [-lib] [-j N]\n"
+				+ "                         [-cache FILE] [-watch] [-xref] [-memstats]\n"
+				+ "                         [-pipeline] [-run] [-vm] [-jvm] [-O] [-stats]\n"
+				+ "                         [-verify] [-emit KIND=FILE]...\n"
+				+ "                         SOURCE... | PROJECT_DIR\n"
+				+ "   or:  java -jar decaf.jar -lsp\n"
 				+ "Options:\n"
 				+ "    -l  Developing level of the compiler, values of LEVEL are:  \n"
 				+ "        0  AST Construction                                     \n"
@@ -80,6 +267,75 @@ public final class Option {
 				+ "                                                                \n"
 				+ "    -o  Specifying the output file name. stdout if omitted.     \n"
 				+ "                                                                \n"
+				+ "    -maxerr  Stop after N errors are reported, 0 for no limit.  \n"
+				+ "                                                                \n"
+				+ "    -iface  Write a compiled interface (.dci) for every class   \n"
+				+ "            to DIR after a successful type check.               \n"
+				+ "                                                                \n"
+				+ "    -ifacepath  Directories searched for compiled interfaces of \n"
+				+ "            classes that are referenced but not defined in SOURCE.\n"
+				+ "                                                                \n"
+				+ "    -lib  SOURCE is a library unit, no Main class is required.  \n"
+				+ "                                                                \n"
+				+ "    -j  Number of worker threads for multi-file projects.       \n"
+				+ "                                                                \n"
+				+ "    -cache  Keep type check results of method bodies in FILE;   \n"
+				+ "            with -l 1, bodies whose inputs did not change since \n"
+				+ "            the last run are not checked again.                 \n"
+				+ "                                                                \n"
+				+ "    -watch  Keep running, recompile whenever SOURCE or a file in\n"
+				+ "            PROJECT_DIR changes and print only the diagnostics \n"
+				+ "            that appeared (+) or disappeared (-).               \n"
+				+ "                                                                \n"
+				+ "    -xref  After the type check, print every symbol with the   \n"
+				+ "            locations of all its uses (single SOURCE only).     \n"
+				+ "                                                                \n"
+				+ "    -memstats  After each phase, print to stderr an estimate of \n"
+				+ "            the heap used by the AST, scopes, symbols and types,\n"
+				+ "            per class, and the containers that are mostly empty.\n"
+				+ "                                                                \n"
+				+ "    -pipeline  Build symbols and type check classes on separate\n"
+				+ "            threads while later classes are still being parsed \n"
+				+ "            (single SOURCE only; ignored with -xref, -cache,   \n"
+				+ "            -ifacepath, -maxerr and -emit ast).                \n"
+				+ "                                                                \n"
+				+ "    -run  After a successful type check, execute Main.main     \n"
+				+ "            directly from the syntax tree; input is read from \n"
+				+ "            stdin and program output goes to OUTPUT.           \n"
+				+ "                                                                \n"
+				+ "    -vm  Like -run, but translate to TAC first and execute it  \n"
+				+ "            as register bytecode on a virtual machine.         \n"
+				+ "                                                                \n"
+				+ "    -jvm  Like -run, but compile every class to a JVM class   \n"
+				+ "            and execute them in this process.                 \n"
+				+ "                                                                \n"
+				+ "    -O  Optimize the TAC (in SSA form) before it is printed,  \n"
+				+ "            analyzed, emitted or executed.                    \n"
+				+ "                                                                \n"
+				+ "    -stats  With -O, print to stderr for every function the    \n"
+				+ "            instructions, blocks and bounds checks each pass  \n"
+				+ "            removed, moved out of loops or turned into pointer \n"
+				+ "            increments.                                       \n"
+				+ "                                                                \n"
+				+ "    -verify  With -O, check the SSA form after every pass and \n"
+				+ "            stop with an internal error naming the pass that \n"
+				+ "            broke it.                                        \n"
+				+ "                                                                \n"
+				+ "    -emit  Also write an artifact to FILE; may be repeated. KIND\n"
+				+ "            is ast, scopes, diagnostics (errors as JSON) or tac.\n"
+				+ "            The compiler runs as far as the furthest artifact   \n"
+				+ "            needs; artifacts of stages that failed are not    \n"
+				+ "            written.                                         \n"
+				+ "                                                                \n"
+				+ "    -lsp  Run as a language server speaking LSP over stdin and \n"
+				+ "            stdout (diagnostics, definition, hover, references).\n"
+				+ "                                                                \n"
+				+ "    Several SOURCE files or a PROJECT_DIR (all .decaf files in it)\n"
+				+ "    are compiled as one project sharing a global class namespace.\n"
+				+ "    With -iface DIR and -watch, files whose dependencies did not\n"
+				+ "    change are loaded from DIR instead of being rebuilt; other \n"
+				+ "    modes need every method body and parse all files.          \n"
+				+ "                                                                \n"
 				+ "\n");
 	}
 
@@ -106,4 +362,100 @@ public final class Option {
 	public PrintStream getErr() {
 		return err;
 	}
+
+	public int getErrorLimit() {
+		return errorLimit;
+	}
+
+	public File getInterfaceDir() {
+		return interfaceDir;
+	}
+
+	public List<File> getInterfacePath() {
+		return interfacePath;
+	}
+
+	public boolean isLibrary() {
+		return library;
+	}
+
+	public List<File> getSources() {
+		return sources;
+	}
+
+	/**
+	 * @return 是否以多文件工程的方式编译
+	 */
+	public boolean isProject() {
+		return project;
+	}
+
+	/**
+	 * @return 方法体类型检查结果的缓存文件，未指定时为 null
+	 */
+	public File getCacheFile() {
+		return cacheFile;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public boolean isWatch() {
+		return watch;
+	}
+
+	public boolean isLsp() {
+		return lsp;
+	}
+
+	public boolean isXref() {
+		return xref;
+	}
+
+	public boolean isMemstats() {
+		return memstats;
+	}
+
+	public boolean isPipeline() {
+		return pipeline;
+	}
+
+	public boolean isRun() {
+		return run;
+	}
+
+	public boolean isVm() {
+		return vm;
+	}
+
+	public boolean isJvm() {
+		return jvm;
+	}
+
+	public boolean isOptimize() {
+		return optimize;
+	}
+
+	public boolean isStats() {
+		return stats;
+	}
+
+	public boolean isVerify() {
+		return verify;
+	}
+
+	/**
+	 * @return -emit 要求输出的结果及其文件，按命令行上的顺序
+	 */
+	public Map<Artifact, File> getArtifacts() {
+		return artifacts;
+	}
+
+	/**
+	 * @return 命令行上给出的工程目录
+	 */
+	public List<File> getProjectDirs() {
+		return projectDirs;
+	}
 }
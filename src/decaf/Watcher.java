@@ -0,0 +1,258 @@
+package decaf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import decaf.error.DecafError;
+import decaf.error.ErrorSink;
+import decaf.project.ProjectBuilder;
+import decaf.tree.Tree;
+import decaf.typecheck.MethodCache;
+
+/**
+ * -watch 模式<br>
+ * 监视源文件（或工程目录），文件变化后在同一个进程中重新编译到类型检查为止，
+ * 只输出与上次相比新出现（+）和消失（-）的错误。<br>
+ * 单个文件由 {@link IncrementalCompiler} 保留上次编译的结果；工程目录时每次重新构建工程，指定了 -iface 时只重新构建受影响的文件。
+ */
+final class Watcher {
+
+	/**
+	 * 一次文件保存往往产生多个事件，收到事件后再等这么久把它们合并为一次编译
+	 */
+	private static final long SETTLE_MILLIS = 50;
+
+	/**
+	 * 某个阶段有错误，本次编译到此为止
+	 */
+	private static final class Stop extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+	}
+
+	private Driver driver;
+
+	private Option option;
+
+	private IncrementalCompiler compiler;
+
+	/**
+	 * 上次输出后仍然存在的错误
+	 */
+	private List<String> shown = new ArrayList<String>();
+
+	Watcher(Driver driver) {
+		this.driver = driver;
+		this.option = driver.getOption();
+	}
+
+	void run() throws IOException {
+		if (!option.isProject() && option.getSrcFileName() == null) {
+			option.getErr().println("-watch needs a SOURCE file or a PROJECT_DIR");
+			System.exit(1);
+		}
+		WatchService service = FileSystems.getDefault().newWatchService();
+		Map<WatchKey, Path> keys = new HashMap<WatchKey, Path>();
+		Path target = null;
+		if (option.isProject()) {
+			for (File dir : option.getProjectDirs()) {
+				register(service, keys, dir.toPath().toAbsolutePath(), true);
+			}
+			for (File f : option.getSources()) {
+				register(service, keys, f.toPath().toAbsolutePath().getParent(),
+						false);
+			}
+		} else {
+			target = new File(option.getSrcFileName()).toPath().toAbsolutePath();
+			register(service, keys, target.getParent(), false);
+			compiler = new IncrementalCompiler(option.getCacheFile() == null ? new MethodCache(
+					target.toString())
+					: MethodCache.load(option.getCacheFile(), target.toString()));
+		}
+
+		build(target);
+		try {
+			while (true) {
+				WatchKey key = service.take();
+				boolean changed = false;
+				while (key != null) {
+					Path dir = keys.get(key);
+					for (WatchEvent<?> event : key.pollEvents()) {
+						if (event.kind() == StandardWatchEventKinds.OVERFLOW
+								|| dir == null) {
+							changed = true;
+							continue;
+						}
+						Path path = dir.resolve((Path) event.context());
+						if (target != null) {
+							changed |= path.equals(target);
+						} else if (Files.isDirectory(path)) {
+							register(service, keys, path, true);
+							changed = true;
+						} else {
+							changed |= path.toString().endsWith(".decaf");
+						}
+					}
+					if (!key.reset()) {
+						keys.remove(key);
+					}
+					key = service.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+				}
+				if (changed) {
+					build(target);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			service.close();
+		}
+	}
+
+	private void build(Path target) {
+		long start = System.nanoTime();
+		String what;
+		List<String> lines;
+		if (target == null) {
+			what = "project";
+			lines = buildProject();
+		} else {
+			String text;
+			try {
+				text = new String(Files.readAllBytes(target));
+			} catch (IOException e) {
+				option.getOutput().println("[watch] can not read " + target);
+				option.getOutput().flush();
+				return;
+			}
+			what = compiler.update(text);
+			if (what == null) {
+				return;
+			}
+			if (compiler.isChecked() && option.getCacheFile() != null) {
+				try {
+					compiler.getCache().save(option.getCacheFile());
+				} catch (IOException e) {
+					option.getErr().println("Can not write cache file "
+							+ option.getCacheFile());
+				}
+			}
+			lines = new ArrayList<String>();
+			List<DecafError> errors = driver.getErrorSink().drain();
+			for (DecafError e : errors) {
+				lines.add(e.toString());
+			}
+		}
+		report(what, lines, (System.nanoTime() - start) / 1000000);
+	}
+
+	private List<String> buildProject() {
+		final ErrorSink errors = driver.reset();
+		option.rescanSources();
+		// 只报告错误，未变的文件从接口文件载入即可
+		ProjectBuilder builder = new ProjectBuilder(option, errors, true);
+		Runnable checkPoint = new Runnable() {
+
+			@Override
+			public void run() {
+				if (errors.hasErrors()) {
+					throw new Stop();
+				}
+			}
+
+		};
+		try {
+			Tree.TopLevel tree = builder.parse();
+			checkPoint.run();
+			builder.check(tree, checkPoint);
+			if (option.getInterfaceDir() != null) {
+				builder.save();
+			}
+		} catch (Stop e) {
+		} catch (IOException e) {
+			option.getErr().println("Can not write interfaces to "
+					+ option.getInterfaceDir());
+		} finally {
+			builder.shutdown();
+		}
+		return errors.drainLines();
+	}
+
+	/**
+	 * 输出与上次相比消失和新出现的错误<br>
+	 * 一次编译的报告一次写出，读到 [watch] 行的一方随后就能读到这次的全部错误
+	 */
+	private void report(String what, List<String> lines, long millis) {
+		String newline = System.getProperty("line.separator");
+		StringBuilder sb = new StringBuilder();
+		sb.append("[watch] ").append(what).append(": ").append(lines.size())
+				.append(" error(s), ").append(millis).append(" ms")
+				.append(newline);
+		for (String line : minus(shown, lines)) {
+			sb.append("- ").append(line).append(newline);
+		}
+		for (String line : minus(lines, shown)) {
+			sb.append("+ ").append(line).append(newline);
+		}
+		PrintStream out = option.getOutput();
+		out.print(sb);
+		out.flush();
+		shown = lines;
+	}
+
+	/**
+	 * @return a 中去掉 b 中各行后剩下的行（按出现次数计）
+	 */
+	private static List<String> minus(List<String> a, List<String> b) {
+		Map<String, Integer> count = new HashMap<String, Integer>();
+		for (String s : b) {
+			Integer n = count.get(s);
+			count.put(s, n == null ? 1 : n + 1);
+		}
+		List<String> result = new ArrayList<String>();
+		for (String s : a) {
+			Integer n = count.get(s);
+			if (n == null || n == 0) {
+				result.add(s);
+			} else {
+				count.put(s, n - 1);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 监视目录 dir，recursive 时连同它的所有子目录
+	 */
+	private static void register(WatchService service,
+			Map<WatchKey, Path> keys, Path dir, boolean recursive)
+			throws IOException {
+		if (keys.containsValue(dir)) {
+			return;
+		}
+		keys.put(dir.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY,
+				StandardWatchEventKinds.ENTRY_DELETE), dir);
+		File[] children = recursive ? dir.toFile().listFiles() : null;
+		if (children != null) {
+			for (File f : children) {
+				if (f.isDirectory()) {
+					register(service, keys, f.toPath(), true);
+				}
+			}
+		}
+	}
+}
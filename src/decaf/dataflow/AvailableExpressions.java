@@ -0,0 +1,253 @@
+package decaf.dataflow;
+
+import java.util.Arrays;
+
+import decaf.tac.Functy;
+import decaf.tac.Tac;
+
+/**
+ * 可用表达式分析（前向，交）<br>
+ * 表达式为操作数都是全局临时变量的运算（二元运算、NEG、LNOT）和 LOAD，按操作码（含内存区域）和操作数去重后编号；
+ * 用到只在一块中活跃的临时变量的表达式在别的块里不会再算一遍，不参与分析。
+ * 对操作数的定值杀死表达式；STORE 杀死同一内存区域的 LOAD，调用用户函数杀死所有 LOAD，
+ * 运行库函数只分配新内存或输入输出，不影响已有的 LOAD。
+ */
+public final class AvailableExpressions extends Dataflow {
+
+	/**
+	 * 表达式 e 的代码（含内存区域的操作码）和两个操作数
+	 */
+	private int[] exprCode;
+
+	private int[] exprY;
+
+	private int[] exprZ;
+
+	/**
+	 * 指令 i 计算的表达式，没有时为 -1
+	 */
+	private final int[] exprOf;
+
+	/**
+	 * 用到临时变量 t 的表达式为 users[usersStart[t] .. usersStart[t + 1])
+	 */
+	private int[] usersStart;
+
+	private int[] users;
+
+	/**
+	 * 各内存区域的 LOAD 和所有 LOAD 的位集，区域中没有 LOAD 时为 null
+	 */
+	private long[][] regionLoads;
+
+	private long[] allLoads;
+
+	public AvailableExpressions(FlowGraph graph) {
+		this(graph, new int[graph.getFuncty().size()]);
+	}
+
+	private AvailableExpressions(FlowGraph graph, int[] exprOf) {
+		super(graph, number(graph, exprOf), true, true);
+		this.exprOf = exprOf;
+		index();
+	}
+
+	/**
+	 * @return 第 i 条指令是否计算参与分析的表达式
+	 */
+	private static boolean isExpression(FlowGraph graph, int i) {
+		Functy f = graph.getFuncty();
+		int op = f.op(i);
+		if (Tac.isBinary(op)) {
+			return graph.globalIndex(f.y(i)) >= 0
+					&& graph.globalIndex(f.z(i)) >= 0;
+		}
+		return (Tac.isUnary(op) || op == Tac.LOAD)
+				&& graph.globalIndex(f.y(i)) >= 0;
+	}
+
+	/**
+	 * 为各条指令的表达式编号，写入 exprOf
+	 *
+	 * @return 表达式的个数
+	 */
+	private static int number(FlowGraph graph, int[] exprOf) {
+		Functy f = graph.getFuncty();
+		int[] code = f.code();
+		int capacity = 16;
+		while (capacity < 2 * f.size()) {
+			capacity <<= 1;
+		}
+		// 开放定址的散列表，存放表达式的第一条指令
+		int[] table = new int[capacity];
+		Arrays.fill(table, -1);
+		int n = 0;
+		for (int i = 0; i < f.size(); i++) {
+			exprOf[i] = -1;
+			if (!isExpression(graph, i)) {
+				continue;
+			}
+			int at = i * Tac.WIDTH;
+			int h = (code[at] * 31 + code[at + 2]) * 31 + code[at + 3];
+			h = (h ^ h >>> 16) & capacity - 1;
+			while (table[h] >= 0) {
+				int j = table[h] * Tac.WIDTH;
+				if (code[j] == code[at] && code[j + 2] == code[at + 2]
+						&& code[j + 3] == code[at + 3]) {
+					break;
+				}
+				h = h + 1 & capacity - 1;
+			}
+			if (table[h] < 0) {
+				table[h] = i;
+				exprOf[i] = n++;
+			} else {
+				exprOf[i] = exprOf[table[h]];
+			}
+		}
+		return n;
+	}
+
+	private void index() {
+		Functy f = graph.getFuncty();
+		exprCode = new int[width];
+		exprY = new int[width];
+		exprZ = new int[width];
+		for (int i = 0; i < f.size(); i++) {
+			int e = exprOf[i];
+			if (e >= 0) {
+				exprCode[e] = f.code()[i * Tac.WIDTH];
+				exprY[e] = f.y(i);
+				exprZ[e] = f.z(i);
+			}
+		}
+		usersStart = new int[f.getNumTemps() + 1];
+		for (int e = 0; e < width; e++) {
+			usersStart[exprY[e] + 1]++;
+			if (usesZ(e)) {
+				usersStart[exprZ[e] + 1]++;
+			}
+		}
+		for (int t = 0; t < f.getNumTemps(); t++) {
+			usersStart[t + 1] += usersStart[t];
+		}
+		users = new int[usersStart[f.getNumTemps()]];
+		int[] fill = Arrays.copyOf(usersStart, f.getNumTemps());
+		regionLoads = new long[maxRegion() + 1][];
+		allLoads = new long[words];
+		for (int e = 0; e < width; e++) {
+			users[fill[exprY[e]]++] = e;
+			if (usesZ(e)) {
+				users[fill[exprZ[e]]++] = e;
+			}
+			if ((exprCode[e] & 0xff) == Tac.LOAD) {
+				int r = exprCode[e] >>> 8;
+				if (regionLoads[r] == null) {
+					regionLoads[r] = new long[words];
+				}
+				set(regionLoads[r], 0, e);
+				set(allLoads, 0, e);
+			}
+		}
+	}
+
+	private int maxRegion() {
+		int max = 0;
+		Functy f = graph.getFuncty();
+		for (int i = 0; i < f.size(); i++) {
+			max = Math.max(max, f.region(i));
+		}
+		return max;
+	}
+
+	/**
+	 * @return 表达式 e 是否另用到第二个临时变量；LOAD 的第二个操作数是偏移
+	 */
+	private boolean usesZ(int e) {
+		return Tac.isBinary(exprCode[e] & 0xff) && exprZ[e] != exprY[e];
+	}
+
+	@Override
+	protected void computeLocal() {
+		Functy f = graph.getFuncty();
+		for (int b = 0; b < graph.getNumBlocks(); b++) {
+			int at = b * words;
+			for (int i = graph.start(b); i < graph.end(b); i++) {
+				step(f, i, gen, kill, at);
+			}
+		}
+	}
+
+	/**
+	 * 第 i 条指令对 gen（kill 不为 null 时同时对 kill）的影响
+	 */
+	private void step(Functy f, int i, long[] gen, long[] kill, int at) {
+		int e = exprOf[i];
+		if (e >= 0) {
+			set(gen, at, e);
+			if (kill != null) {
+				clear(kill, at, e);
+			}
+		}
+		int t = f.defOf(i);
+		if (t >= 0) {
+			for (int k = usersStart[t]; k < usersStart[t + 1]; k++) {
+				clear(gen, at, users[k]);
+				if (kill != null) {
+					set(kill, at, users[k]);
+				}
+			}
+		}
+		long[] mask = null;
+		int op = f.op(i);
+		if (op == Tac.STORE) {
+			int r = f.region(i);
+			mask = r < regionLoads.length ? regionLoads[r] : null;
+		} else if (op == Tac.INDIRECT_CALL || op == Tac.DIRECT_CALL
+				&& f.y(i) >= 0) {
+			// 运行库函数的编号为负
+			mask = allLoads;
+		}
+		if (mask != null) {
+			for (int w = 0; w < words; w++) {
+				gen[at + w] &= ~mask[w];
+				if (kill != null) {
+					kill[at + w] |= mask[w];
+				}
+			}
+		}
+	}
+
+	/**
+	 * 把第 i 条指令之前可用的集合 avail 改为其之后可用的集合
+	 */
+	public void step(int i, long[] avail) {
+		step(graph.getFuncty(), i, avail, null, 0);
+	}
+
+	/**
+	 * @return 第 i 条指令计算的表达式，没有时为 -1
+	 */
+	public int exprOf(int i) {
+		return exprOf[i];
+	}
+
+	/**
+	 * @return 表达式 e 的操作码（不含内存区域）
+	 */
+	public int opOf(int e) {
+		return exprCode[e] & 0xff;
+	}
+
+	public int regionOf(int e) {
+		return exprCode[e] >>> 8;
+	}
+
+	public int yOf(int e) {
+		return exprY[e];
+	}
+
+	public int zOf(int e) {
+		return exprZ[e];
+	}
+}
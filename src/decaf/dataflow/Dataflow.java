@@ -0,0 +1,251 @@
+package decaf.dataflow;
+
+import java.util.Arrays;
+
+/**
+ * 位向量数据流分析的框架<br>
+ * 格上的值是 width 位的集合，每块的 in、out、gen、kill 各占一个扁平 long 数组中
+ * 从 b * words 开始的 words 个字。传递函数为 out = gen ∪ (in − kill)（后向分析中 in、out 互换），
+ * 交汇为并或交。子类在 {@link #computeLocal} 中填好 gen 和 kill，{@link #solve} 用工作表求不动点：
+ * 工作表按逆后序（后向分析为后序）放入所有可达的块，某块的结果变化时才放入受影响的块，
+ * 每次处理一块只做 O(words) 的位运算，无环的部分一遍即收敛。
+ */
+public abstract class Dataflow {
+
+	/**
+	 * 每个位集数组最多的字数，超过时不做分析
+	 */
+	private static final long MAX_WORDS = 1L << 22;
+
+	protected final FlowGraph graph;
+
+	protected final int width;
+
+	protected final int words;
+
+	private final boolean forward;
+
+	/**
+	 * 交汇是否为交（否则为并）
+	 */
+	private final boolean intersect;
+
+	protected final long[] gen;
+
+	protected final long[] kill;
+
+	protected final long[] in;
+
+	protected final long[] out;
+
+	/**
+	 * @throws IllegalStateException
+	 *             块数与位数之积过大
+	 */
+	protected Dataflow(FlowGraph graph, int width, boolean forward,
+			boolean intersect) {
+		this.graph = graph;
+		this.width = width;
+		this.words = (width + 63) >>> 6;
+		this.forward = forward;
+		this.intersect = intersect;
+		if ((long) graph.getNumBlocks() * words > MAX_WORDS) {
+			throw new IllegalStateException(graph.getNumBlocks() + " blocks * "
+					+ width + " bits");
+		}
+		int n = graph.getNumBlocks() * words;
+		gen = new long[n];
+		kill = new long[n];
+		in = new long[n];
+		out = new long[n];
+	}
+
+	/**
+	 * 填写每块的 gen 和 kill
+	 */
+	protected abstract void computeLocal();
+
+	/**
+	 * 在 set 中加入入口（后向分析为出口）处的边界值，默认为空集
+	 */
+	protected void boundary(long[] set) {
+	}
+
+	/**
+	 * 计算各块的局部信息并求解
+	 */
+	public final void solve() {
+		computeLocal();
+		int numBlocks = graph.getNumBlocks();
+		if (intersect) {
+			// 除边界外从全集开始，到不了的块不参与交汇
+			long[] all = new long[words];
+			fill(all, 0);
+			for (int b = 0; b < numBlocks; b++) {
+				System.arraycopy(all, 0, forward ? out : in, b * words, words);
+			}
+		}
+		int[] rpo = graph.rpo();
+		int n = rpo.length;
+		int[] queue = new int[n + 1];
+		boolean[] queued = new boolean[numBlocks];
+		int head = 0;
+		int tail = 0;
+		for (int k = 0; k < n; k++) {
+			int b = forward ? rpo[k] : rpo[n - 1 - k];
+			queue[tail++] = b;
+			queued[b] = true;
+		}
+		int size = n;
+		long[] meet = new long[words];
+		while (size > 0) {
+			int b = queue[head];
+			head = head == n ? 0 : head + 1;
+			size--;
+			queued[b] = false;
+			if (forward) {
+				if (!transfer(b, meet, in, out, true)) {
+					continue;
+				}
+				for (int k = 0; k < graph.numSuccs(b); k++) {
+					int s = graph.succ(b, k);
+					if (!queued[s]) {
+						queued[s] = true;
+						queue[tail] = s;
+						tail = tail == n ? 0 : tail + 1;
+						size++;
+					}
+				}
+			} else {
+				if (!transfer(b, meet, out, in, false)) {
+					continue;
+				}
+				for (int k = 0; k < graph.numPreds(b); k++) {
+					int p = graph.pred(b, k);
+					if (graph.isReachable(p) && !queued[p]) {
+						queued[p] = true;
+						queue[tail] = p;
+						tail = tail == n ? 0 : tail + 1;
+						size++;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * 交汇块 b 的前驱（后向为后继）的结果存入 before，再求 after
+	 *
+	 * @return after 是否变化
+	 */
+	private boolean transfer(int b, long[] meet, long[] before, long[] after,
+			boolean fromPreds) {
+		int count = fromPreds ? graph.numPreds(b) : graph.numSuccs(b);
+		boolean first = true;
+		for (int k = 0; k < count; k++) {
+			int p = fromPreds ? graph.pred(b, k) : graph.succ(b, k);
+			if (!graph.isReachable(p)) {
+				continue;
+			}
+			int at = p * words;
+			if (first) {
+				System.arraycopy(after, at, meet, 0, words);
+				first = false;
+			} else if (intersect) {
+				for (int w = 0; w < words; w++) {
+					meet[w] &= after[at + w];
+				}
+			} else {
+				for (int w = 0; w < words; w++) {
+					meet[w] |= after[at + w];
+				}
+			}
+		}
+		if (first || intersect && fromPreds && b == 0) {
+			Arrays.fill(meet, 0);
+		}
+		if (first || fromPreds && b == 0) {
+			// 0 号块即使有前驱也是入口
+			boundary(meet);
+		}
+		int base = b * words;
+		System.arraycopy(meet, 0, before, base, words);
+		boolean changed = false;
+		for (int w = 0; w < words; w++) {
+			long v = gen[base + w] | meet[w] & ~kill[base + w];
+			if (v != after[base + w]) {
+				after[base + w] = v;
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * 把 set 中从 at 开始的 words 个字置为全集
+	 */
+	protected final void fill(long[] set, int at) {
+		Arrays.fill(set, at, at + words, -1L);
+		if ((width & 63) != 0) {
+			set[at + words - 1] = (1L << width) - 1;
+		}
+	}
+
+	// 结果
+
+	public FlowGraph getGraph() {
+		return graph;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getWords() {
+		return words;
+	}
+
+	/**
+	 * @return 块 b 入口处的集合是否含第 bit 位
+	 */
+	public boolean isIn(int b, int bit) {
+		return get(in, b * words, bit);
+	}
+
+	public boolean isOut(int b, int bit) {
+		return get(out, b * words, bit);
+	}
+
+	/**
+	 * 把块 b 入口处的集合复制到 dst
+	 */
+	public void copyIn(int b, long[] dst) {
+		System.arraycopy(in, b * words, dst, 0, words);
+	}
+
+	public void copyOut(int b, long[] dst) {
+		System.arraycopy(out, b * words, dst, 0, words);
+	}
+
+	public boolean isGen(int b, int bit) {
+		return get(gen, b * words, bit);
+	}
+
+	public boolean isKill(int b, int bit) {
+		return get(kill, b * words, bit);
+	}
+
+	// 位操作
+
+	protected static boolean get(long[] set, int at, int bit) {
+		return (set[at + (bit >>> 6)] & 1L << bit) != 0;
+	}
+
+	protected static void set(long[] set, int at, int bit) {
+		set[at + (bit >>> 6)] |= 1L << bit;
+	}
+
+	protected static void clear(long[] set, int at, int bit) {
+		set[at + (bit >>> 6)] &= ~(1L << bit);
+	}
+}
@@ -0,0 +1,229 @@
+package decaf.dataflow;
+
+import decaf.tac.Functy;
+import decaf.tac.Program;
+import decaf.tac.Tac;
+import decaf.utils.IndentPrintWriter;
+
+/**
+ * 按 PA4 的格式输出各函数的基本块及数据流分析结果（LEVEL3）<br>
+ * 每块依次列出前驱、后继，块中的定值（Def）、先用后定值的变量（liveUse）、入口和出口的活跃变量，
+ * 到达入口的定值（_T3@12 为第 12 条指令对 _T3 的定值，@- 为参数）和入口处可用的表达式，然后是块中的指令。
+ * 变量的集合只列出跨块活跃的临时变量；块数与位数之积过大的分析不做，只输出 too large。
+ * 每个集合最多列出 {@link #LIMIT} 个元素，其余的只给出个数，输出的大小因此与块数成正比。
+ * 临时变量和标号与 LEVEL2 一样全局编号。
+ */
+public final class DataflowPrinter {
+
+	private static final int LIMIT = 64;
+
+	private final Program program;
+
+	private final IndentPrintWriter pw;
+
+	private final StringBuilder sb = new StringBuilder();
+
+	private int tempBase;
+
+	private int labelBase;
+
+	private DataflowPrinter(Program program, IndentPrintWriter pw) {
+		this.program = program;
+		this.pw = pw;
+	}
+
+	public static void print(Program program, IndentPrintWriter pw) {
+		DataflowPrinter printer = new DataflowPrinter(program, pw);
+		for (Functy f : program.getFunctions()) {
+			if (!f.hasBody()) {
+				continue;
+			}
+			printer.print(f);
+			printer.tempBase += f.getNumTemps();
+			printer.labelBase += f.getNumLabels();
+		}
+	}
+
+	private void print(Functy f) {
+		FlowGraph graph = new FlowGraph(f);
+		Liveness live = null;
+		ReachingDefinitions reach = null;
+		AvailableExpressions avail = null;
+		String tooLarge = "";
+		// 每种分析单独判断是否过大
+		try {
+			live = new Liveness(graph);
+			live.solve();
+		} catch (IllegalStateException e) {
+			tooLarge = "(too large: " + e.getMessage() + ")";
+		}
+		try {
+			reach = new ReachingDefinitions(graph);
+			reach.solve();
+		} catch (IllegalStateException e) {
+			tooLarge = "(too large: " + e.getMessage() + ")";
+		}
+		try {
+			avail = new AvailableExpressions(graph);
+			avail.solve();
+		} catch (IllegalStateException e) {
+			tooLarge = "(too large: " + e.getMessage() + ")";
+		}
+		pw.println("FUNCTION(" + f.getName() + ") {");
+		pw.incIndent();
+		for (int b = 0; b < graph.getNumBlocks(); b++) {
+			if (b > 0) {
+				pw.println();
+			}
+			pw.println("BASIC BLOCK " + b + " :");
+			pw.incIndent();
+			sb.setLength(0);
+			sb.append("preds   = [");
+			for (int k = 0; k < graph.numPreds(b); k++) {
+				sb.append(' ').append(graph.pred(b, k));
+			}
+			sb.append(" ], succs = [");
+			for (int k = 0; k < graph.numSuccs(b); k++) {
+				sb.append(' ').append(graph.succ(b, k));
+			}
+			sb.append(" ]");
+			pw.println(sb);
+			if (!graph.isReachable(b)) {
+				pw.println("unreachable");
+			} else {
+				if (live == null) {
+					pw.println("Def     = " + tooLarge);
+					pw.println("liveUse = " + tooLarge);
+					pw.println("liveIn  = " + tooLarge);
+					pw.println("liveOut = " + tooLarge);
+				} else {
+					int at = b * live.getWords();
+					printTemps("Def     = ", graph, live.kill, at);
+					printTemps("liveUse = ", graph, live.gen, at);
+					printTemps("liveIn  = ", graph, live.in, at);
+					printTemps("liveOut = ", graph, live.out, at);
+				}
+				sb.setLength(0);
+				sb.append("reachIn = ");
+				if (reach == null) {
+					sb.append(tooLarge);
+				} else {
+					sb.append('[');
+					int at = b * reach.getWords();
+					int n = 0;
+					for (int d = next(reach.in, at, 0, reach.getWidth()); d >= 0; d = next(
+							reach.in, at, d + 1, reach.getWidth())) {
+						if (n++ >= LIMIT) {
+							continue;
+						}
+						sb.append(" _T").append(tempBase + reach.tempOf(d))
+								.append('@');
+						int i = reach.instructionOf(d);
+						if (i < 0) {
+							sb.append('-');
+						} else {
+							sb.append(i);
+						}
+					}
+					more(n);
+					sb.append(" ]");
+				}
+				pw.println(sb);
+				sb.setLength(0);
+				sb.append("availIn = ");
+				if (avail == null) {
+					sb.append(tooLarge);
+				} else {
+					sb.append('[');
+					int at = b * avail.getWords();
+					int n = 0;
+					for (int e = next(avail.in, at, 0, avail.getWidth()); e >= 0; e = next(
+							avail.in, at, e + 1, avail.getWidth())) {
+						if (n++ >= LIMIT) {
+							continue;
+						}
+						sb.append(' ');
+						expression(avail, e);
+					}
+					more(n);
+					sb.append(" ]");
+				}
+				pw.println(sb);
+			}
+			for (int i = graph.start(b); i < graph.end(b); i++) {
+				sb.setLength(0);
+				sb.append(i).append(": ");
+				if (f.op(i) == Tac.MARK) {
+					sb.append("_L").append(labelBase + f.y(i)).append(':');
+				} else {
+					program.format(sb, f, i, tempBase, labelBase);
+				}
+				pw.println(sb);
+			}
+			pw.decIndent();
+		}
+		pw.decIndent();
+		pw.println("}");
+		pw.println();
+	}
+
+	/**
+	 * 输出 set 中从 at 开始的全局临时变量的集合
+	 */
+	private void printTemps(String title, FlowGraph graph, long[] set, int at) {
+		sb.setLength(0);
+		sb.append(title).append('[');
+		int width = graph.getNumGlobals();
+		int n = 0;
+		for (int k = next(set, at, 0, width); k >= 0; k = next(set, at, k + 1,
+				width)) {
+			if (n++ < LIMIT) {
+				sb.append(" _T").append(tempBase + graph.global(k));
+			}
+		}
+		more(n);
+		pw.println(sb.append(" ]"));
+	}
+
+	/**
+	 * 集合有 n 个元素，超过 LIMIT 时注明没有列出的个数
+	 */
+	private void more(int n) {
+		if (n > LIMIT) {
+			sb.append(" ... (").append(n - LIMIT).append(" more)");
+		}
+	}
+
+	/**
+	 * @return 从 at 开始的 width 位的集合中不小于 from 的第一位，没有时为 -1
+	 */
+	private static int next(long[] set, int at, int from, int width) {
+		if (from >= width) {
+			return -1;
+		}
+		int w = from >>> 6;
+		long bits = set[at + w] & -1L << from;
+		while (bits == 0) {
+			if (++w << 6 >= width) {
+				return -1;
+			}
+			bits = set[at + w];
+		}
+		return (w << 6) + Long.numberOfTrailingZeros(bits);
+	}
+
+	private void expression(AvailableExpressions avail, int e) {
+		int op = avail.opOf(e);
+		int y = tempBase + avail.yOf(e);
+		if (Tac.isBinary(op)) {
+			sb.append("(_T").append(y).append(' ').append(Tac.symbolOf(op))
+					.append(" _T").append(tempBase + avail.zOf(e)).append(')');
+		} else if (op == Tac.LOAD) {
+			int z = avail.zOf(e);
+			sb.append("*(_T").append(y).append(z < 0 ? " - " : " + ").append(
+					Math.abs(z)).append(')');
+		} else {
+			sb.append(op == Tac.NEG ? "-" : "!").append("_T").append(y);
+		}
+	}
+}
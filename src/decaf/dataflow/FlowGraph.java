@@ -0,0 +1,294 @@
+package decaf.dataflow;
+
+import java.util.Arrays;
+
+import decaf.tac.Functy;
+import decaf.tac.Tac;
+
+/**
+ * 一个函数的控制流图<br>
+ * 基本块是指令的连续区间 [start, end)：从函数开头、标号（连续的标号合为一块）
+ * 或跳转、返回、_Halt 之后的指令开始。前驱和后继按块编号压缩存放在 int 数组中，
+ * 块的遍历顺序为从 0 号块出发的逆后序，到不了的块不在其中。
+ * 只在定值的块中使用的临时变量（表达式的中间结果大多如此）不会跨块活跃，
+ * 数据流分析只为其余的“全局”临时变量分配位，位集的长度与函数中局部变量的个数而不是临时变量的个数成正比。
+ */
+public final class FlowGraph {
+
+	private final Functy functy;
+
+	private int numBlocks;
+
+	private int[] start;
+
+	private int[] end;
+
+	private int[] blockOf;
+
+	/**
+	 * 块 b 的后继为 succs[succStart[b] .. succStart[b + 1])，前驱同理
+	 */
+	private int[] succStart;
+
+	private int[] succs;
+
+	private int[] predStart;
+
+	private int[] preds;
+
+	private int[] rpo;
+
+	private int[] rpoIndex;
+
+	/**
+	 * 全局临时变量按编号排列，及每个临时变量在其中的位置（不是全局的为 -1）
+	 */
+	private int[] globals;
+
+	private int[] globalIndex;
+
+	public FlowGraph(Functy functy) {
+		this.functy = functy;
+		split();
+		link();
+		order();
+		findGlobals();
+	}
+
+	private void split() {
+		int n = functy.size();
+		blockOf = new int[n];
+		start = new int[n + 1];
+		int b = -1;
+		for (int i = 0; i < n; i++) {
+			if (i == 0 || endsBlock(i - 1) || functy.op(i) == Tac.MARK
+					&& functy.op(i - 1) != Tac.MARK) {
+				start[++b] = i;
+			}
+			blockOf[i] = b;
+		}
+		numBlocks = b + 1;
+		start = Arrays.copyOf(start, numBlocks);
+		end = new int[numBlocks];
+		for (b = 0; b < numBlocks; b++) {
+			end[b] = b + 1 < numBlocks ? start[b + 1] : n;
+		}
+	}
+
+	private boolean endsBlock(int i) {
+		return Tac.isJump(functy.op(i)) || functy.isHalt(i);
+	}
+
+	private void link() {
+		int[] labels = functy.labelPositions();
+		// 每块至多两个后继，先按块编号存放，再统计前驱
+		int[] first = new int[numBlocks];
+		int[] second = new int[numBlocks];
+		int numSuccs = 0;
+		for (int b = 0; b < numBlocks; b++) {
+			int last = end[b] - 1;
+			int op = functy.op(last);
+			int next = b + 1 < numBlocks ? b + 1 : -1;
+			first[b] = second[b] = -1;
+			if (op == Tac.BRANCH) {
+				first[b] = blockOf[labels[functy.targetOf(last)]];
+			} else if (op == Tac.BEQZ || op == Tac.BNEZ) {
+				first[b] = next;
+				int target = blockOf[labels[functy.targetOf(last)]];
+				if (target != next) {
+					second[b] = target;
+				}
+			} else if (op != Tac.RETURN && !functy.isHalt(last)) {
+				first[b] = next;
+			}
+			numSuccs += (first[b] >= 0 ? 1 : 0) + (second[b] >= 0 ? 1 : 0);
+		}
+		succStart = new int[numBlocks + 1];
+		succs = new int[numSuccs];
+		predStart = new int[numBlocks + 1];
+		preds = new int[numSuccs];
+		int k = 0;
+		for (int b = 0; b < numBlocks; b++) {
+			succStart[b] = k;
+			if (first[b] >= 0) {
+				succs[k++] = first[b];
+				predStart[first[b] + 1]++;
+			}
+			if (second[b] >= 0) {
+				succs[k++] = second[b];
+				predStart[second[b] + 1]++;
+			}
+		}
+		succStart[numBlocks] = k;
+		for (int b = 0; b < numBlocks; b++) {
+			predStart[b + 1] += predStart[b];
+		}
+		int[] fill = Arrays.copyOf(predStart, numBlocks);
+		for (int b = 0; b < numBlocks; b++) {
+			for (int j = succStart[b]; j < succStart[b + 1]; j++) {
+				preds[fill[succs[j]]++] = b;
+			}
+		}
+	}
+
+	/**
+	 * 不用递归的深度优先遍历求逆后序
+	 */
+	private void order() {
+		rpoIndex = new int[numBlocks];
+		Arrays.fill(rpoIndex, -1);
+		int[] post = new int[numBlocks];
+		int numPost = 0;
+		if (numBlocks > 0) {
+			int[] stack = new int[numBlocks];
+			int[] next = new int[numBlocks];
+			boolean[] visited = new boolean[numBlocks];
+			int sp = 0;
+			stack[sp++] = 0;
+			visited[0] = true;
+			next[0] = succStart[0];
+			while (sp > 0) {
+				int b = stack[sp - 1];
+				if (next[b] < succStart[b + 1]) {
+					int s = succs[next[b]++];
+					if (!visited[s]) {
+						visited[s] = true;
+						next[s] = succStart[s];
+						stack[sp++] = s;
+					}
+				} else {
+					post[numPost++] = b;
+					sp--;
+				}
+			}
+		}
+		rpo = new int[numPost];
+		for (int i = 0; i < numPost; i++) {
+			rpo[i] = post[numPost - 1 - i];
+			rpoIndex[rpo[i]] = i;
+		}
+	}
+
+	/**
+	 * 在某块中先使用后定值（包括没有定值）的临时变量为全局的，参数也是
+	 */
+	private void findGlobals() {
+		int numTemps = functy.getNumTemps();
+		globalIndex = new int[numTemps];
+		// 块中已定值的变量记下块号
+		int[] defined = new int[numTemps];
+		Arrays.fill(defined, -1);
+		int[] uses = new int[2];
+		for (int t = 0; t < functy.getNumParams(); t++) {
+			globalIndex[t] = 1;
+		}
+		for (int b = 0; b < numBlocks; b++) {
+			for (int i = start[b]; i < end[b]; i++) {
+				int n = functy.usesOf(i, uses);
+				for (int k = 0; k < n; k++) {
+					if (defined[uses[k]] != b) {
+						globalIndex[uses[k]] = 1;
+					}
+				}
+				int t = functy.defOf(i);
+				if (t >= 0) {
+					defined[t] = b;
+				}
+			}
+		}
+		int numGlobals = 0;
+		for (int t = 0; t < numTemps; t++) {
+			globalIndex[t] = globalIndex[t] != 0 ? numGlobals++ : -1;
+		}
+		globals = new int[numGlobals];
+		for (int t = 0; t < numTemps; t++) {
+			if (globalIndex[t] >= 0) {
+				globals[globalIndex[t]] = t;
+			}
+		}
+	}
+
+	public int getNumGlobals() {
+		return globals.length;
+	}
+
+	/**
+	 * @return 第 k 个全局临时变量
+	 */
+	public int global(int k) {
+		return globals[k];
+	}
+
+	/**
+	 * @return 临时变量 t 在全局临时变量中的位置，不是全局的时为 -1
+	 */
+	public int globalIndex(int t) {
+		return globalIndex[t];
+	}
+
+	public Functy getFuncty() {
+		return functy;
+	}
+
+	public int getNumBlocks() {
+		return numBlocks;
+	}
+
+	/**
+	 * @return 块 b 的第一条指令
+	 */
+	public int start(int b) {
+		return start[b];
+	}
+
+	/**
+	 * @return 块 b 最后一条指令之后的下标
+	 */
+	public int end(int b) {
+		return end[b];
+	}
+
+	/**
+	 * @return 第 i 条指令所在的块
+	 */
+	public int blockOf(int i) {
+		return blockOf[i];
+	}
+
+	public int numSuccs(int b) {
+		return succStart[b + 1] - succStart[b];
+	}
+
+	/**
+	 * @return 块 b 的第 k 个后继；条件跳转的第 0 个后继为顺序执行的下一块
+	 */
+	public int succ(int b, int k) {
+		return succs[succStart[b] + k];
+	}
+
+	public int numPreds(int b) {
+		return predStart[b + 1] - predStart[b];
+	}
+
+	public int pred(int b, int k) {
+		return preds[predStart[b] + k];
+	}
+
+	/**
+	 * @return 能从 0 号块到达的块，按逆后序排列；不要修改
+	 */
+	public int[] rpo() {
+		return rpo;
+	}
+
+	/**
+	 * @return 块 b 在逆后序中的位置，到不了时为 -1
+	 */
+	public int rpoIndex(int b) {
+		return rpoIndex[b];
+	}
+
+	public boolean isReachable(int b) {
+		return rpoIndex[b] >= 0;
+	}
+}
@@ -0,0 +1,69 @@
+package decaf.dataflow;
+
+import decaf.tac.Functy;
+
+/**
+ * 活跃变量分析（后向，并）<br>
+ * 第 k 位为第 k 个全局临时变量（见 {@link FlowGraph#global}），其余的临时变量不会在块的入口或出口活跃；
+ * gen 为块中先用后定值的变量（liveUse），kill 为块中定值的变量（Def）。
+ */
+public final class Liveness extends Dataflow {
+
+	private final int[] uses = new int[2];
+
+	public Liveness(FlowGraph graph) {
+		super(graph, graph.getNumGlobals(), false, false);
+	}
+
+	@Override
+	protected void computeLocal() {
+		Functy f = graph.getFuncty();
+		for (int b = 0; b < graph.getNumBlocks(); b++) {
+			int at = b * words;
+			for (int i = graph.start(b); i < graph.end(b); i++) {
+				int n = f.usesOf(i, uses);
+				for (int k = 0; k < n; k++) {
+					int g = graph.globalIndex(uses[k]);
+					if (g >= 0 && !get(kill, at, g)) {
+						set(gen, at, g);
+					}
+				}
+				int g = f.defOf(i) < 0 ? -1 : graph.globalIndex(f.defOf(i));
+				if (g >= 0) {
+					set(kill, at, g);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 把第 i 条指令之后活跃的全局临时变量的集合 live 改为其之前活跃的集合
+	 */
+	public void stepBack(int i, long[] live) {
+		Functy f = graph.getFuncty();
+		int g = f.defOf(i) < 0 ? -1 : graph.globalIndex(f.defOf(i));
+		if (g >= 0) {
+			clear(live, 0, g);
+		}
+		int n = f.usesOf(i, uses);
+		for (int k = 0; k < n; k++) {
+			g = graph.globalIndex(uses[k]);
+			if (g >= 0) {
+				set(live, 0, g);
+			}
+		}
+	}
+
+	/**
+	 * @return 临时变量 t 在块 b 入口处是否活跃
+	 */
+	public boolean isLiveIn(int b, int t) {
+		int g = graph.globalIndex(t);
+		return g >= 0 && isIn(b, g);
+	}
+
+	public boolean isLiveOut(int b, int t) {
+		int g = graph.globalIndex(t);
+		return g >= 0 && isOut(b, g);
+	}
+}
@@ -0,0 +1,135 @@
+package decaf.dataflow;
+
+import java.util.Arrays;
+
+import decaf.tac.Functy;
+
+/**
+ * 到达定值分析（前向，并）<br>
+ * 每个定值一位：前 numParams 位为入口处对参数的定值，其后按指令顺序为对全局临时变量定值的指令，
+ * 其余临时变量的定值到不了别的块里的使用，不参与分析。
+ * 同一临时变量的定值按编号压缩存放，一处定值杀死该变量的其他定值。
+ */
+public final class ReachingDefinitions extends Dataflow {
+
+	/**
+	 * 定值 d 的指令，参数为 -1
+	 */
+	private final int[] defInstr;
+
+	private final int[] defTemp;
+
+	/**
+	 * 指令 i 的定值编号，不定值时为 -1
+	 */
+	private final int[] defIdOf;
+
+	/**
+	 * 临时变量 t 的定值为 defsOf[defsStart[t] .. defsStart[t + 1])
+	 */
+	private final int[] defsStart;
+
+	private final int[] defsOf;
+
+	public ReachingDefinitions(FlowGraph graph) {
+		super(graph, countDefs(graph), true, false);
+		Functy f = graph.getFuncty();
+		defInstr = new int[width];
+		defTemp = new int[width];
+		defIdOf = new int[f.size()];
+		defsStart = new int[f.getNumTemps() + 1];
+		int d = 0;
+		for (; d < f.getNumParams(); d++) {
+			defInstr[d] = -1;
+			defTemp[d] = d;
+		}
+		for (int i = 0; i < f.size(); i++) {
+			int t = f.defOf(i);
+			defIdOf[i] = -1;
+			if (t >= 0 && graph.globalIndex(t) >= 0) {
+				defIdOf[i] = d;
+				defInstr[d] = i;
+				defTemp[d++] = t;
+			}
+		}
+		for (d = 0; d < width; d++) {
+			defsStart[defTemp[d] + 1]++;
+		}
+		for (int t = 0; t < f.getNumTemps(); t++) {
+			defsStart[t + 1] += defsStart[t];
+		}
+		defsOf = new int[width];
+		int[] fill = Arrays.copyOf(defsStart, f.getNumTemps());
+		for (d = 0; d < width; d++) {
+			defsOf[fill[defTemp[d]]++] = d;
+		}
+	}
+
+	private static int countDefs(FlowGraph graph) {
+		Functy f = graph.getFuncty();
+		int n = f.getNumParams();
+		for (int i = 0; i < f.size(); i++) {
+			if (f.defOf(i) >= 0 && graph.globalIndex(f.defOf(i)) >= 0) {
+				n++;
+			}
+		}
+		return n;
+	}
+
+	@Override
+	protected void computeLocal() {
+		int numTemps = graph.getFuncty().getNumTemps();
+		// 块中已定值的变量记下块号和最后一次定值，每个变量每块只杀死一遍
+		int[] seen = new int[numTemps];
+		int[] last = new int[numTemps];
+		Arrays.fill(seen, -1);
+		for (int b = 0; b < graph.getNumBlocks(); b++) {
+			int at = b * words;
+			for (int i = graph.start(b); i < graph.end(b); i++) {
+				int d = defIdOf[i];
+				if (d < 0) {
+					continue;
+				}
+				int t = defTemp[d];
+				if (seen[t] != b) {
+					seen[t] = b;
+					for (int k = defsStart[t]; k < defsStart[t + 1]; k++) {
+						set(kill, at, defsOf[k]);
+					}
+				} else {
+					clear(gen, at, last[t]);
+				}
+				last[t] = d;
+				set(gen, at, d);
+			}
+		}
+	}
+
+	/**
+	 * 参数的定值到达入口
+	 */
+	@Override
+	protected void boundary(long[] set) {
+		for (int d = 0; d < graph.getFuncty().getNumParams(); d++) {
+			set(set, 0, d);
+		}
+	}
+
+	/**
+	 * @return 定值 d 的指令，对参数的定值为 -1
+	 */
+	public int instructionOf(int d) {
+		return defInstr[d];
+	}
+
+	public int tempOf(int d) {
+		return defTemp[d];
+	}
+
+	/**
+	 * @return 第 i 条指令的定值编号，不定值或定值的不是全局临时变量时为 -1
+	 */
+	public int defIdOf(int i) {
+		return defIdOf[i];
+	}
+}
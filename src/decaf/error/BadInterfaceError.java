@@ -0,0 +1,26 @@
+package decaf.error;
+
+import decaf.Location;
+
+/**
+ * example：bad interface file 'lib/Zig.dci': bad magic number<br>
+ * 接口文件损坏或版本不符
+ */
+public class BadInterfaceError extends DecafError {
+
+	private String file;
+
+	private String reason;
+
+	public BadInterfaceError(String file, String reason) {
+		super(Location.NO_LOCATION);
+		this.file = file;
+		this.reason = reason;
+	}
+
+	@Override
+	protected String getErrMsg() {
+		return "bad interface file '" + file + "': " + reason;
+	}
+
+}
@@ -0,0 +1,416 @@
+package decaf.error;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import decaf.Location;
+
+/**
+ * 编译错误的收集器<br>
+ * 每个线程写入自己的缓冲区（每个缓冲区一把锁，互不竞争），输出时按
+ * (编译单元, 位置, 报告顺序) 对所有缓冲区做多路归并，
+ * 因此单线程时的输出顺序与原先按位置稳定排序的结果完全一致。<br>
+ * 有错误数上限时所有错误照常收下，输出时只给出按上述顺序的前若干个；
+ * 是否提前结束只看当前线程在当前编译单元中报告的错误，
+ * 因此输出哪些错误与线程数和调度无关。
+ */
+public class ErrorSink {
+
+	/**
+	 * 一条已报告的错误及其排序键
+	 */
+	private static final class Entry {
+
+		final DecafError error;
+
+		final int unit;
+
+		final long seq;
+
+		Entry(DecafError error, int unit, long seq) {
+			this.error = error;
+			this.unit = unit;
+			this.seq = seq;
+		}
+	}
+
+	/**
+	 * 单个线程的错误缓冲区，只有输出时才会被其他线程访问
+	 */
+	private final class Buffer {
+
+		private List<Entry> entries = new ArrayList<Entry>();
+
+		private int unit;
+
+		/**
+		 * 进度只由所属线程写，输出时由持有锁的线程读
+		 */
+		private volatile int watermarkUnit;
+
+		private volatile Location watermark = Location.NO_LOCATION;
+
+		/**
+		 * 报告过的错误数（含已经取走的），只由所属线程读写
+		 */
+		private int issued;
+
+		/**
+		 * 在当前编译单元中报告的错误数，只由所属线程读写
+		 */
+		private int issuedInUnit;
+
+		synchronized void add(DecafError error) {
+			entries.add(new Entry(error, unit, sequence.getAndIncrement()));
+			issued++;
+			issuedInUnit++;
+			pending.incrementAndGet();
+		}
+
+		/**
+		 * 取出所有排序键严格小于 (unit, bound) 的错误，bound 为 null 时全部取出
+		 */
+		synchronized List<Entry> take(int unit, Location bound) {
+			Collections.sort(entries, ENTRY_COMPARATOR);
+			int n = 0;
+			while (n < entries.size() && (bound == null
+					|| compare(entries.get(n), unit, bound) < 0)) {
+				n++;
+			}
+			List<Entry> head = new ArrayList<Entry>(entries.subList(0, n));
+			entries.subList(0, n).clear();
+			pending.addAndGet(-n);
+			return head;
+		}
+
+		synchronized int size() {
+			return entries.size();
+		}
+
+		synchronized int truncate(int size) {
+			int n = entries.size() - size;
+			if (n > 0) {
+				entries.subList(size, entries.size()).clear();
+				issued -= n;
+				issuedInUnit = Math.max(issuedInUnit - n, 0);
+				pending.addAndGet(-n);
+			}
+			return Math.max(n, 0);
+		}
+	}
+
+	private static final Comparator<Entry> ENTRY_COMPARATOR = new Comparator<Entry>() {
+
+		@Override
+		public int compare(Entry o1, Entry o2) {
+			if (o1.unit != o2.unit) {
+				return o1.unit < o2.unit ? -1 : 1;
+			}
+			int c = o1.error.getLocation().compareTo(o2.error.getLocation());
+			if (c != 0) {
+				return c;
+			}
+			return o1.seq < o2.seq ? -1 : o1.seq == o2.seq ? 0 : 1;
+		}
+
+	};
+
+	/**
+	 * 错误数量上限，0 表示不限
+	 */
+	private final int limit;
+
+	private final AtomicInteger count = new AtomicInteger();
+
+	/**
+	 * 已经输出或取走的错误数，有上限时用来截断输出
+	 */
+	private int emitted;
+
+	private final AtomicLong sequence = new AtomicLong();
+
+	/**
+	 * 各缓冲区中尚未取走的错误数，为 0 时推进进度不必加锁
+	 */
+	private final AtomicInteger pending = new AtomicInteger();
+
+	private final Queue<Buffer> buffers = new ConcurrentLinkedQueue<Buffer>();
+
+	private final ThreadLocal<Buffer> local = new ThreadLocal<Buffer>() {
+
+		@Override
+		protected Buffer initialValue() {
+			Buffer buffer = new Buffer();
+			buffers.add(buffer);
+			return buffer;
+		}
+
+	};
+
+	/**
+	 * 流式输出的目标，为 null 时只在 {@link #flushTo} 时输出
+	 */
+	private volatile PrintStream stream;
+
+	/**
+	 * 各编译单元的名字（多文件时为文件名），输出时作为前缀
+	 */
+	private String[] unitNames;
+
+	public ErrorSink(int limit) {
+		this.limit = limit;
+	}
+
+	/**
+	 * 报告一个错误
+	 */
+	public void issue(DecafError error) {
+		count.incrementAndGet();
+		local.get().add(error);
+	}
+
+	/**
+	 * @return 到目前为止报告的错误数（含已经流式输出的）
+	 */
+	public int count() {
+		return count.get();
+	}
+
+	/**
+	 * @return 当前线程报告过的错误数，两次调用之差即其间当前线程报告的错误数
+	 */
+	public int issuedHere() {
+		return local.get().issued;
+	}
+
+	public boolean hasErrors() {
+		return count.get() > 0;
+	}
+
+	/**
+	 * 当前线程在当前编译单元中报告的错误数是否已达上限，调用者据此提前结束这个单元的当前阶段
+	 */
+	public boolean isFull() {
+		return limit > 0 && local.get().issuedInUnit >= limit;
+	}
+
+	/**
+	 * 所有线程报告的错误总数是否已达上限，用于在各线程都停下时决定是否进入下一阶段
+	 */
+	public boolean isFullOverall() {
+		return limit > 0 && count.get() >= limit;
+	}
+
+	/**
+	 * 设置当前线程之后所报告错误所属的编译单元（多文件时为文件序号）
+	 */
+	public void setUnit(int unit) {
+		Buffer buffer = local.get();
+		buffer.unit = unit;
+		buffer.issuedInUnit = 0;
+	}
+
+	public int getUnit() {
+		return local.get().unit;
+	}
+
+	/**
+	 * @return 当前线程已报告的、尚未输出的错误数，供 {@link #reset} 使用
+	 */
+	public int mark() {
+		return local.get().size();
+	}
+
+	/**
+	 * 撤销当前线程在 mark 之后报告的错误（用于放弃一次试探性的分析）
+	 */
+	public void reset(int mark) {
+		count.addAndGet(-local.get().truncate(mark));
+	}
+
+	public void setUnitNames(String[] unitNames) {
+		this.unitNames = unitNames;
+	}
+
+	/**
+	 * 开始流式输出：此后每当所有生产者的进度越过某些错误的位置，这些错误就立即输出
+	 */
+	public void startStreaming(PrintStream out) {
+		stream = out;
+	}
+
+	public void stopStreaming() {
+		stream = null;
+	}
+
+	/**
+	 * 当前线程声明它今后不会再报告位置在 watermark 之前的错误<br>
+	 * 每读一个记号调用一次：只更新本线程的进度，没有流式输出或没有待输出的错误时不加锁。
+	 * 先写进度再读待输出数，因此之后报告错误的线程输出时一定能看到这次的进度
+	 */
+	public void advance(Location watermark) {
+		Buffer buffer = local.get();
+		buffer.watermarkUnit = buffer.unit;
+		buffer.watermark = watermark;
+		if (stream != null && pending.get() > 0) {
+			stream();
+		}
+	}
+
+	/**
+	 * 当前线程声明它不会再报告任何错误
+	 */
+	public void finish() {
+		local.get().watermarkUnit = Integer.MAX_VALUE;
+		if (stream != null && pending.get() > 0) {
+			stream();
+		}
+	}
+
+	private synchronized void stream() {
+		PrintStream out = stream;
+		if (out == null) {
+			return;
+		}
+		int unit = Integer.MAX_VALUE;
+		Location bound = null;
+		for (Buffer b : buffers) {
+			if (b.watermarkUnit < unit || b.watermarkUnit == unit
+					&& bound != null && b.watermark.compareTo(bound) < 0) {
+				unit = b.watermarkUnit;
+				bound = b.watermark;
+			}
+		}
+		// 所有生产者都已结束时 bound 为 null，全部输出
+		print(out, merge(unit, bound));
+	}
+
+	/**
+	 * 按顺序输出所有尚未输出的错误
+	 */
+	public synchronized void flushTo(PrintStream out) {
+		print(out, merge(0, null));
+	}
+
+	/**
+	 * 按顺序取出所有尚未输出的错误
+	 */
+	public synchronized List<DecafError> drain() {
+		List<DecafError> result = new ArrayList<DecafError>();
+		for (Entry e : merge(0, null)) {
+			result.add(e.error);
+		}
+		return result;
+	}
+
+	/**
+	 * 按顺序输出所有尚未输出的错误，同时返回它们
+	 *
+	 * @param units
+	 *            依次填入各错误所属编译单元的名字，单个文件时为 null
+	 */
+	public synchronized List<DecafError> flushTo(PrintStream out,
+			List<String> units) {
+		List<DecafError> result = new ArrayList<DecafError>();
+		for (Entry e : merge(0, null)) {
+			out.println(lineOf(e));
+			result.add(e.error);
+			units.add(unitNames != null && e.unit >= 0
+					&& e.unit < unitNames.length ? unitNames[e.unit] : null);
+		}
+		return result;
+	}
+
+	/**
+	 * 按顺序取出所有尚未输出的错误，格式与输出时相同
+	 */
+	public synchronized List<String> drainLines() {
+		List<String> result = new ArrayList<String>();
+		for (Entry e : merge(0, null)) {
+			result.add(lineOf(e));
+		}
+		return result;
+	}
+
+	private void print(PrintStream out, List<Entry> entries) {
+		for (Entry e : entries) {
+			out.println(lineOf(e));
+		}
+	}
+
+	private String lineOf(Entry e) {
+		if (unitNames != null && e.unit >= 0 && e.unit < unitNames.length) {
+			return unitNames[e.unit] + ": " + e.error;
+		}
+		return e.error.toString();
+	}
+
+	/**
+	 * 对各缓冲区中已排好序的前缀做多路归并
+	 */
+	private List<Entry> merge(int unit, Location bound) {
+		final List<List<Entry>> runs = new ArrayList<List<Entry>>();
+		int total = 0;
+		for (Buffer b : buffers) {
+			if (b.size() > 0) {
+				List<Entry> run = b.take(unit, bound);
+				if (!run.isEmpty()) {
+					runs.add(run);
+					total += run.size();
+				}
+			}
+		}
+		if (runs.size() == 1) {
+			return limited(runs.get(0));
+		}
+		final int[] cursor = new int[runs.size()];
+		PriorityQueue<Integer> heap = new PriorityQueue<Integer>(
+				Math.max(1, runs.size()), new Comparator<Integer>() {
+
+					@Override
+					public int compare(Integer o1, Integer o2) {
+						return ENTRY_COMPARATOR.compare(runs.get(o1).get(
+								cursor[o1]), runs.get(o2).get(cursor[o2]));
+					}
+
+				});
+		for (int i = 0; i < runs.size(); i++) {
+			heap.add(i);
+		}
+		List<Entry> merged = new ArrayList<Entry>(total);
+		while (!heap.isEmpty()) {
+			int i = heap.poll();
+			merged.add(runs.get(i).get(cursor[i]));
+			if (++cursor[i] < runs.get(i).size()) {
+				heap.add(i);
+			}
+		}
+		return limited(merged);
+	}
+
+	/**
+	 * 有上限时去掉超出上限的错误：各次输出的错误依次接在一起时是有序的，截掉的正是排在最后的那些
+	 */
+	private List<Entry> limited(List<Entry> entries) {
+		if (limit > 0 && emitted + entries.size() > limit) {
+			entries = entries.subList(0, Math.max(limit - emitted, 0));
+		}
+		emitted += entries.size();
+		return entries;
+	}
+
+	private static int compare(Entry e, int unit, Location bound) {
+		if (e.unit != unit) {
+			return e.unit < unit ? -1 : 1;
+		}
+		return e.error.getLocation().compareTo(bound);
+	}
+}
@@ -0,0 +1,24 @@
+package decaf.error;
+
+import decaf.Location;
+
+/**
+ * example：class 'Shape' was loaded from a compiled interface and has no method bodies to run<br>
+ * -run、-vm、-jvm 时用到了只有接口文件的类
+ */
+public class NoBodyToRunError extends DecafError {
+
+	private String name;
+
+	public NoBodyToRunError(String name) {
+		super(Location.NO_LOCATION);
+		this.name = name;
+	}
+
+	@Override
+	protected String getErrMsg() {
+		return "class '" + name
+				+ "' was loaded from a compiled interface and has no method bodies to run";
+	}
+
+}
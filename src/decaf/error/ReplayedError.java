@@ -0,0 +1,29 @@
+package decaf.error;
+
+import decaf.Location;
+
+/**
+ * 从缓存中重新报告的错误：只保留位置和错误描述
+ */
+public class ReplayedError extends DecafError {
+
+	private String message;
+
+	public ReplayedError(Location location, String message) {
+		super(location);
+		this.message = message;
+	}
+
+	@Override
+	protected String getErrMsg() {
+		return message;
+	}
+
+	/**
+	 * @return 错误 error 的具体描述（不含位置）
+	 */
+	public static String messageOf(DecafError error) {
+		return error.getErrMsg();
+	}
+
+}
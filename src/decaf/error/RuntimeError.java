@@ -17,4 +17,10 @@ public final class RuntimeError {
 	public static final String CLASS_CAST_ERROR2 = " cannot be cast to ";
 	
 	public static final String CLASS_CAST_ERROR3 = "\n";
+
+	public static final String NULL_POINTER = "Decaf runtime error: Null pointer dereference\n";
+
+	public static final String DIVISION_BY_ZERO = "Decaf runtime error: Division by zero\n";
+
+	public static final String STACK_OVERFLOW = "Decaf runtime error: Stack overflow\n";
 }
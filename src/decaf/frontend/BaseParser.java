@@ -3,17 +3,52 @@ package decaf.frontend;
 import decaf.Driver;
 import decaf.tree.Tree;
 import decaf.error.DecafError;
+import decaf.error.ErrorSink;
 import decaf.error.MsgError;
+import decaf.jfr.Events;
+import decaf.jfr.PhaseEvent;
 
 public abstract class BaseParser {
+	/**
+	 * 每分析完一个类就得到通知的观察者（流水线方式编译时用）
+	 */
+	public interface ClassListener {
+
+		/**
+		 * 类 classDef 分析完毕，按源文件中的顺序调用
+		 */
+		void classParsed(Tree.ClassDef classDef);
+	}
+
 	private Lexer lexer;
 
 	protected Tree.TopLevel tree;
 
+	private String sourceName;
+
+	private ClassListener classListener;
+
 	public void setLexer(Lexer lexer) {
 		this.lexer = lexer;
 	}
 
+	/**
+	 * 设置源文件名，只用于 Flight Recorder 事件
+	 */
+	public void setSourceName(String sourceName) {
+		this.sourceName = sourceName;
+	}
+
+	public void setClassListener(ClassListener classListener) {
+		this.classListener = classListener;
+	}
+
+	protected void classParsed(Tree.ClassDef classDef) {
+		if (classListener != null) {
+			classListener.classParsed(classDef);
+		}
+	}
+
 	public Tree.TopLevel getTree() {
 		return tree;
 	}
@@ -28,20 +63,34 @@ public abstract class BaseParser {
 	}
 
 	int yylex() {
+		ErrorSink errors = Driver.getDriver().getErrorSink();
+		if (errors.isFull()) {
+			return 0;
+		}
 		int token = -1;
 		try {
 			token = lexer.yylex();
 		} catch (Exception e) {
 			yyerror("lexer error: " + e.getMessage());
 		}
-
+		errors.advance(lexer.getLocation());
 		return token;
 	}
 
 	abstract int yyparse();
 
 	public Tree.TopLevel parseFile() {
+		PhaseEvent event = new PhaseEvent("parse");
+		event.begin();
+		int errors = event.isEnabled() ? Events.errors() : 0;
 		yyparse();
+		event.end();
+		if (event.shouldCommit()) {
+			event.source = sourceName;
+			event.nodes = tree == null ? 0 : Events.countNodes(tree);
+			event.errors = Events.errors() - errors;
+			event.commit();
+		}
 		return tree;
 	}
 
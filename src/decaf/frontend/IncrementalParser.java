@@ -0,0 +1,394 @@
+package decaf.frontend;
+
+import java.io.StringReader;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import decaf.Driver;
+import decaf.Location;
+import decaf.error.ErrorSink;
+import decaf.tree.Tree;
+import decaf.tree.TreeScanner;
+
+/**
+ * 增量语法分析<br>
+ * 保存一个源文件的文本和语法树。每次修改后只重新分析包含修改的最小单位：
+ * 修改完全落在某个方法体的花括号之内时只分析这个方法体，方法结点及其符号保持不变；
+ * 落在某个类之内时只分析这个类；否则分析整个文件。
+ * 其余子树原样保留，位于修改之后的位置被就地移动（结点与符号共享位置对象，符号随之更新）。
+ * 试探性的局部分析出错时撤销它报告的错误，改为分析整个文件。
+ */
+public class IncrementalParser {
+
+	/**
+	 * 一次修改所重新分析的范围
+	 */
+	public enum Scope {
+		METHOD, CLASS, FILE
+	}
+
+	/**
+	 * 一次修改的结果
+	 */
+	public static class Change {
+
+		private Scope scope;
+
+		private Tree.ClassDef classDef;
+
+		private Tree.MethodDef methodDef;
+
+		private Tree.Block replacedBody;
+
+		Change(Scope scope, Tree.ClassDef classDef, Tree.MethodDef methodDef,
+				Tree.Block replacedBody) {
+			this.scope = scope;
+			this.classDef = classDef;
+			this.methodDef = methodDef;
+			this.replacedBody = replacedBody;
+		}
+
+		public Scope getScope() {
+			return scope;
+		}
+
+		/**
+		 * @return 被替换了方法体或被重新分析的类（FILE 时为 null）
+		 */
+		public Tree.ClassDef getClassDef() {
+			return classDef;
+		}
+
+		/**
+		 * @return 方法体被替换的方法（只在 METHOD 时有效），它的符号仍然有效，
+		 *         但新方法体需要重新建立作用域并做类型检查
+		 */
+		public Tree.MethodDef getMethodDef() {
+			return methodDef;
+		}
+
+		/**
+		 * @return 被换下的旧方法体（只在 METHOD 时有效），其中的位置没有被移动
+		 */
+		public Tree.Block getReplacedBody() {
+			return replacedBody;
+		}
+	}
+
+	/**
+	 * 单独分析一个方法体时套在它外面的文本，不能含有换行
+	 */
+	private static final String METHOD_PREFIX = "class Incremental { void body() ";
+
+	private static final String METHOD_SUFFIX = " }";
+
+	private static final Map<java.lang.Class<?>, Field[]> locationFields = new ConcurrentHashMap<java.lang.Class<?>, Field[]>();
+
+	private String text;
+
+	private int[] lineStarts;
+
+	private Tree.TopLevel tree;
+
+	public IncrementalParser(String text) {
+		setText(text);
+		tree = parse(text, 1, 1);
+	}
+
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * @return 当前的语法树，文件有语法错误时可能为 null
+	 */
+	public Tree.TopLevel getTree() {
+		return tree;
+	}
+
+	/**
+	 * 对文本做一次修改并更新语法树
+	 */
+	public Change apply(TextEdit edit) {
+		int start = offsetOf(edit.getStart());
+		int end = offsetOf(edit.getEnd());
+		String old = text;
+		String now = old.substring(0, start) + edit.getText()
+				+ old.substring(end);
+		int delta = now.length() - old.length();
+
+		if (tree != null) {
+			for (int i = 0; i < tree.classes.size(); i++) {
+				Tree.ClassDef cd = tree.classes.get(i);
+				int classStart = offsetOf(cd.getLocation());
+				int open = findOpenBrace(old, classStart);
+				int close = open < 0 ? -1 : matchBrace(old, open);
+				if (close < 0 || start <= classStart || end > close) {
+					continue;
+				}
+				Change change = reparseMethod(cd, edit, old, now, start, end,
+						delta);
+				if (change == null) {
+					change = reparseClass(i, edit, now, classStart, close,
+							delta);
+				}
+				if (change != null) {
+					setText(now);
+					return change;
+				}
+				break;
+			}
+		}
+
+		setText(now);
+		tree = parse(now, 1, 1);
+		return new Change(Scope.FILE, null, null, null);
+	}
+
+	/**
+	 * 按当前文本重新分析 m 的方法体并替换旧的方法体（新方法体还没有作用域）
+	 *
+	 * @return 是否成功，文本中的方法体与语法树不一致时为 false
+	 */
+	public boolean refreshBody(Tree.MethodDef m) {
+		int open = offsetOf(m.body.getLocation());
+		int close = matchBrace(text, open);
+		if (close < 0) {
+			return false;
+		}
+		Location origin = m.body.getLocation();
+		Tree.TopLevel t = tryParse(METHOD_PREFIX
+				+ text.substring(open, close + 1) + METHOD_SUFFIX, origin
+				.getLine(), origin.getColumn() - METHOD_PREFIX.length());
+		if (t == null || t.classes.size() != 1
+				|| t.classes.get(0).fields.size() != 1) {
+			return false;
+		}
+		m.body = ((Tree.MethodDef) t.classes.get(0).fields.get(0)).body;
+		return true;
+	}
+
+	private Change reparseMethod(Tree.ClassDef cd, TextEdit edit, String old,
+			String now, int start, int end, int delta) {
+		for (Tree f : cd.fields) {
+			if (!(f instanceof Tree.MethodDef)) {
+				continue;
+			}
+			Tree.MethodDef m = (Tree.MethodDef) f;
+			int open = offsetOf(m.body.getLocation());
+			int close = matchBrace(old, open);
+			if (close < 0 || start <= open || end > close) {
+				continue;
+			}
+			// 修改后方法体的右花括号必须仍是同一个
+			if (matchBrace(now, open) != close + delta) {
+				return null;
+			}
+			Location origin = m.body.getLocation();
+			Tree.TopLevel t = tryParse(METHOD_PREFIX
+					+ now.substring(open, close + delta + 1) + METHOD_SUFFIX,
+					origin.getLine(), origin.getColumn()
+							- METHOD_PREFIX.length());
+			if (t == null || t.classes.size() != 1
+					|| t.classes.get(0).fields.size() != 1) {
+				return null;
+			}
+			Tree.MethodDef parsed = (Tree.MethodDef) t.classes.get(0).fields
+					.get(0);
+			Tree.Block replaced = m.body;
+			shiftLocations(edit, replaced);
+			m.body = parsed.body;
+			return new Change(Scope.METHOD, cd, m, replaced);
+		}
+		return null;
+	}
+
+	private Change reparseClass(int index, TextEdit edit, String now,
+			int classStart, int close, int delta) {
+		Tree.ClassDef cd = tree.classes.get(index);
+		int open = findOpenBrace(now, classStart);
+		if (open < 0 || matchBrace(now, open) != close + delta) {
+			return null;
+		}
+		// 类的位置是 class 关键字的位置，sealed 在它之前
+		String prefix = cd.sealed ? "sealed " : "";
+		Location origin = cd.getLocation();
+		Tree.TopLevel t = tryParse(prefix
+				+ now.substring(classStart, close + delta + 1), origin
+				.getLine(), origin.getColumn() - prefix.length());
+		if (t == null || t.classes.size() != 1) {
+			return null;
+		}
+		shiftLocations(edit, cd);
+		tree.classes.set(index, t.classes.get(0));
+		return new Change(Scope.CLASS, t.classes.get(0), null, null);
+	}
+
+	/**
+	 * 分析一段局部文本，出错时撤销报告的错误并返回 null
+	 */
+	private Tree.TopLevel tryParse(String source, int line, int column) {
+		ErrorSink errors = Driver.getDriver().getErrorSink();
+		int mark = errors.mark();
+		Tree.TopLevel t = parse(source, line, column);
+		if (errors.mark() != mark) {
+			errors.reset(mark);
+			return null;
+		}
+		return t;
+	}
+
+	private static Tree.TopLevel parse(String source, int line, int column) {
+		Lexer lexer = new Lexer(new StringReader(source));
+		Parser parser = new Parser();
+		lexer.setParser(parser);
+		parser.setLexer(lexer);
+		lexer.setOrigin(line, column);
+		return parser.parseFile();
+	}
+
+	/**
+	 * 把 skip 之外的语法树中位于修改之后的位置移到修改后的位置
+	 */
+	private void shiftLocations(final TextEdit edit, final Tree skip) {
+		final Set<Location> moved = Collections
+				.newSetFromMap(new IdentityHashMap<Location, Boolean>());
+		new TreeScanner() {
+
+			@Override
+			protected boolean enter(Tree t) {
+				if (t == skip) {
+					return false;
+				}
+				try {
+					for (Field f : locationFieldsOf(t.getClass())) {
+						Location loc = (Location) f.get(t);
+						if (loc != null && loc != Location.NO_LOCATION
+								&& loc.compareTo(edit.getEnd()) >= 0
+								&& moved.add(loc)) {
+							Location to = edit.shift(loc);
+							loc.moveTo(to.getLine(), to.getColumn());
+						}
+					}
+				} catch (IllegalAccessException e) {
+					throw new IllegalStateException(e);
+				}
+				return true;
+			}
+
+		}.scan(tree);
+	}
+
+	private static Field[] locationFieldsOf(java.lang.Class<?> c) {
+		Field[] fields = locationFields.get(c);
+		if (fields == null) {
+			List<Field> list = new ArrayList<Field>();
+			for (java.lang.Class<?> k = c; k != Object.class; k = k
+					.getSuperclass()) {
+				for (Field f : k.getDeclaredFields()) {
+					if (f.getType() == Location.class
+							&& Modifier.isPublic(f.getModifiers())
+							&& !Modifier.isStatic(f.getModifiers())) {
+						list.add(f);
+					}
+				}
+			}
+			fields = list.toArray(new Field[list.size()]);
+			locationFields.put(c, fields);
+		}
+		return fields;
+	}
+
+	/**
+	 * 按词法分析器的规则（\r、\n、\r\n 都是换行）记下每行的起始偏移
+	 */
+	private void setText(String text) {
+		this.text = text;
+		List<Integer> starts = new ArrayList<Integer>();
+		starts.add(0);
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '\r' && i + 1 < text.length()
+					&& text.charAt(i + 1) == '\n') {
+				i++;
+			}
+			if (c == '\r' || c == '\n') {
+				starts.add(i + 1);
+			}
+		}
+		lineStarts = new int[starts.size()];
+		for (int i = 0; i < lineStarts.length; i++) {
+			lineStarts[i] = starts.get(i);
+		}
+	}
+
+	private int offsetOf(Location loc) {
+		int line = Math.max(1, Math.min(loc.getLine(), lineStarts.length));
+		return Math.min(text.length(), lineStarts[line - 1] + loc.getColumn()
+				- 1);
+	}
+
+	/**
+	 * @return from 处或其后第一个不在注释、字符串中的左花括号，没有时为 -1
+	 */
+	private static int findOpenBrace(String s, int from) {
+		for (int i = from; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '{') {
+				return i;
+			}
+			i = skip(s, i);
+		}
+		return -1;
+	}
+
+	/**
+	 * @return 与 open 处的左花括号匹配的右花括号，没有时为 -1
+	 */
+	private static int matchBrace(String s, int open) {
+		int depth = 0;
+		for (int i = open; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '{') {
+				depth++;
+			} else if (c == '}') {
+				if (--depth == 0) {
+					return i;
+				}
+			} else {
+				i = skip(s, i);
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * 若 i 处开始一个注释或字符串，返回它的最后一个字符，否则返回 i
+	 */
+	private static int skip(String s, int i) {
+		char c = s.charAt(i);
+		if (c == '/' && i + 1 < s.length() && s.charAt(i + 1) == '/') {
+			while (i + 1 < s.length() && s.charAt(i + 1) != '\n'
+					&& s.charAt(i + 1) != '\r') {
+				i++;
+			}
+		} else if (c == '"') {
+			for (i++; i < s.length(); i++) {
+				c = s.charAt(i);
+				if (c == '\\') {
+					i++;
+				} else if (c == '"' || c == '\n' || c == '\r') {
+					break;
+				}
+			}
+		}
+		return Math.min(i, s.length() - 1);
+	}
+}
@@ -45,15 +45,18 @@ public class Lexer extends BaseLexer {
     "\1\30\1\25\1\54\1\7\1\35\1\34\1\31\1\41\1\24\1\40"+
     "\1\44\1\55\1\7\1\12\1\57\1\12\uff82\0";
 
+  /** tables precomputed at build time, see Tables */
+  private static final Tables TABLES = Tables.load(TableData.LEXER_0);
+
   /** 
    * Translates characters to character classes
    */
-  private static final char [] ZZ_CMAP = zzUnpackCMap(ZZ_CMAP_PACKED);
+  private static final char [] ZZ_CMAP = TABLES.chars("ZZ_CMAP");
 
   /** 
    * Translates DFA states to action switch labels.
    */
-  private static final int [] ZZ_ACTION = zzUnpackAction();
+  private static final int [] ZZ_ACTION = TABLES.ints("ZZ_ACTION");
 
   private static final String ZZ_ACTION_PACKED_0 =
     "\2\0\1\1\2\2\1\3\1\4\1\3\11\5\1\2"+
@@ -155,8 +158,20 @@ public class Lexer extends BaseLexer {
 	private Location sloc = null;
 	private StringBuilder buffer = new StringBuilder();
 
+	/**
+	 * 输入的第一个字符在源文件中的位置，只分析源文件的一部分时使用
+	 */
+	private int originLine = 1;
+	private int originColumn = 1;
+
+	public void setOrigin(int line, int column) {
+		originLine = line;
+		originColumn = column;
+	}
+
 	public Location getLocation() {
-		return new decaf.Location(yyline + 1, yycolumn + 1);
+		return new decaf.Location(yyline + originLine, yyline == 0 ? yycolumn
+				+ originColumn : yycolumn + 1);
 	}
 
 
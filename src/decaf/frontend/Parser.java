@@ -863,7 +863,7 @@ final static String yyrule[] = {
 "BoundVariable : Type IDENTIFIER",
 };
 
-//#line 555 "Parser.y"
+//#line 562 "Parser.y"
     
 	/**
 	 * 打印当前归约所用的语法规则<br>
@@ -1089,7 +1089,7 @@ break;
 case 10:
 //#line 102 "Parser.y"
 {
-                		yyval.type = new Tree.TypeClass(val_peek(0).ident, val_peek(1).loc);
+                		yyval.type = new Tree.TypeClass(val_peek(0).ident, val_peek(1).loc, val_peek(0).loc);
                 	}
 break;
 case 11:
@@ -1102,104 +1102,111 @@ case 12:
 //#line 112 "Parser.y"
 {
 						yyval.cdef = new Tree.ClassDef(val_peek(4).ident, val_peek(3).ident, val_peek(1).flist, val_peek(5).loc);
+						yyval.cdef.nameLoc = val_peek(4).loc;
+						yyval.cdef.parentLoc = val_peek(3).loc;
+						classParsed(yyval.cdef);
 					}
 break;
 case 13:
-//#line 116 "Parser.y"
+//#line 119 "Parser.y"
 {
 				        yyval.cdef = new Tree.ClassDef(val_peek(4).ident, val_peek(3).ident, val_peek(1).flist, val_peek(5).loc, true);
+				        yyval.cdef.nameLoc = val_peek(4).loc;
+				        yyval.cdef.parentLoc = val_peek(3).loc;
+				        classParsed(yyval.cdef);
 				    }
 break;
 case 14:
-//#line 122 "Parser.y"
+//#line 128 "Parser.y"
 {
 						yyval.ident = val_peek(0).ident;
+						yyval.loc = val_peek(0).loc;
 					}
 break;
 case 15:
-//#line 126 "Parser.y"
+//#line 133 "Parser.y"
 {
                 		yyval = new SemValue();
                 	}
 break;
 case 16:
-//#line 132 "Parser.y"
+//#line 139 "Parser.y"
 {
 						yyval.flist.add(val_peek(0).vdef);
 					}
 break;
 case 17:
-//#line 136 "Parser.y"
+//#line 143 "Parser.y"
 {
 						yyval.flist.add(val_peek(0).fdef);
 					}
 break;
 case 18:
-//#line 140 "Parser.y"
+//#line 147 "Parser.y"
 {
                 		yyval = new SemValue();
                 		yyval.flist = new ArrayList<Tree>();
                 	}
 break;
 case 20:
-//#line 148 "Parser.y"
+//#line 155 "Parser.y"
 {
                 		yyval = new SemValue();
                 		yyval.vlist = new ArrayList<Tree.VarDef>(); 
                 	}
 break;
 case 21:
-//#line 155 "Parser.y"
+//#line 162 "Parser.y"
 {
 						yyval.vlist.add(val_peek(0).vdef);
 					}
 break;
 case 22:
-//#line 159 "Parser.y"
+//#line 166 "Parser.y"
 {
                 		yyval.vlist = new ArrayList<Tree.VarDef>();
 						yyval.vlist.add(val_peek(0).vdef);
                 	}
 break;
 case 23:
-//#line 166 "Parser.y"
+//#line 173 "Parser.y"
 {
 						yyval.fdef = new MethodDef(true, val_peek(4).ident, val_peek(5).type, val_peek(2).vlist, (Block) val_peek(0).stmt, val_peek(4).loc);
 					}
 break;
 case 24:
-//#line 170 "Parser.y"
+//#line 177 "Parser.y"
 {
 						yyval.fdef = new MethodDef(false, val_peek(4).ident, val_peek(5).type, val_peek(2).vlist, (Block) val_peek(0).stmt, val_peek(4).loc);
 					}
 break;
 case 25:
-//#line 176 "Parser.y"
+//#line 183 "Parser.y"
 {
 						yyval.stmt = new Block(val_peek(1).slist, val_peek(2).loc);
 					}
 break;
 case 26:
-//#line 182 "Parser.y"
+//#line 189 "Parser.y"
 {
 						yyval.slist.add(val_peek(0).stmt);
 					}
 break;
 case 27:
-//#line 186 "Parser.y"
+//#line 193 "Parser.y"
 {
                 		yyval = new SemValue();
                 		yyval.slist = new ArrayList<Tree>();
                 	}
 break;
 case 28:
-//#line 193 "Parser.y"
+//#line 200 "Parser.y"
 {
 						yyval.stmt = val_peek(0).vdef;
 					}
 break;
 case 29:
-//#line 198 "Parser.y"
+//#line 205 "Parser.y"
 {
                 		if (yyval.stmt == null) {
                 			yyval.stmt = new Tree.Skip(val_peek(0).loc);
@@ -1207,31 +1214,31 @@ case 29:
                 	}
 break;
 case 40:
-//#line 216 "Parser.y"
+//#line 223 "Parser.y"
 {
 						yyval.stmt = new Tree.Assign(val_peek(2).lvalue, val_peek(0).expr, val_peek(1).loc);
 					}
 break;
 case 41:
-//#line 220 "Parser.y"
+//#line 227 "Parser.y"
 {
                 		yyval.stmt = new Tree.Exec(val_peek(0).expr, val_peek(0).loc);
                 	}
 break;
 case 42:
-//#line 224 "Parser.y"
+//#line 231 "Parser.y"
 {
                 		yyval = new SemValue();
                 	}
 break;
 case 44:
-//#line 231 "Parser.y"
+//#line 238 "Parser.y"
 {
                 		yyval = new SemValue();
                 	}
 break;
 case 45:
-//#line 237 "Parser.y"
+//#line 244 "Parser.y"
 {
 						yyval.lvalue = new Tree.Ident(val_peek(1).expr, val_peek(0).ident, val_peek(0).loc, val_peek(1).loc);
 						if (val_peek(1).loc == null) {
@@ -1240,19 +1247,19 @@ case 45:
 					}
 break;
 case 46:
-//#line 244 "Parser.y"
+//#line 251 "Parser.y"
 {
                 		yyval.lvalue = new Tree.Indexed(val_peek(3).expr, val_peek(1).expr, val_peek(3).loc);
                 	}
 break;
 case 47:
-//#line 248 "Parser.y"
+//#line 255 "Parser.y"
 {
                         yyval.lvalue = new Tree.Ident(val_peek(0).ident, val_peek(0).loc, true, val_peek(1).loc);
                     }
 break;
 case 48:
-//#line 254 "Parser.y"
+//#line 261 "Parser.y"
 {
 						yyval.expr = new Tree.CallExpr(val_peek(4).expr, val_peek(3).ident, val_peek(1).elist, val_peek(3).loc);
 						if (val_peek(4).loc == null) {
@@ -1261,340 +1268,340 @@ case 48:
 					}
 break;
 case 49:
-//#line 263 "Parser.y"
+//#line 270 "Parser.y"
 {
 						yyval.expr = val_peek(0).lvalue;
 					}
 break;
 case 52:
-//#line 269 "Parser.y"
+//#line 276 "Parser.y"
 {
                 		yyval.expr = new Tree.Binary(Tree.PLUS, val_peek(2).expr, val_peek(0).expr, val_peek(1).loc);
                 	}
 break;
 case 53:
-//#line 273 "Parser.y"
+//#line 280 "Parser.y"
 {
                 		yyval.expr = new Tree.Binary(Tree.MINUS, val_peek(2).expr, val_peek(0).expr, val_peek(1).loc);
                 	}
 break;
 case 54:
-//#line 277 "Parser.y"
+//#line 284 "Parser.y"
 {
                 		yyval.expr = new Tree.Binary(Tree.MUL, val_peek(2).expr, val_peek(0).expr, val_peek(1).loc);
                 	}
 break;
 case 55:
-//#line 281 "Parser.y"
+//#line 288 "Parser.y"
 {
                 		yyval.expr = new Tree.Binary(Tree.DIV, val_peek(2).expr, val_peek(0).expr, val_peek(1).loc);
                 	}
 break;
 case 56:
-//#line 285 "Parser.y"
+//#line 292 "Parser.y"
 {
                 		yyval.expr = new Tree.Binary(Tree.MOD, val_peek(2).expr, val_peek(0).expr, val_peek(1).loc);
                 	}
 break;
 case 57:
-//#line 289 "Parser.y"
+//#line 296 "Parser.y"
 {
                 		yyval.expr = new Tree.Binary(Tree.EQ, val_peek(2).expr, val_peek(0).expr, val_peek(1).loc);
                 	}
 break;
 case 58:
-//#line 293 "Parser.y"
+//#line 300 "Parser.y"
 {
                 		yyval.expr = new Tree.Binary(Tree.NE, val_peek(2).expr, val_peek(0).expr, val_peek(1).loc);
                 	}
 break;
 case 59:
-//#line 297 "Parser.y"
+//#line 304 "Parser.y"
 {
                 		yyval.expr = new Tree.Binary(Tree.LT, val_peek(2).expr, val_peek(0).expr, val_peek(1).loc);
                 	}
 break;
 case 60:
-//#line 301 "Parser.y"
+//#line 308 "Parser.y"
 {
                 		yyval.expr = new Tree.Binary(Tree.GT, val_peek(2).expr, val_peek(0).expr, val_peek(1).loc);
                 	}
 break;
 case 61:
-//#line 305 "Parser.y"
+//#line 312 "Parser.y"
 {
                 		yyval.expr = new Tree.Binary(Tree.LE, val_peek(2).expr, val_peek(0).expr, val_peek(1).loc);
                 	}
 break;
 case 62:
-//#line 309 "Parser.y"
+//#line 316 "Parser.y"
 {
                 		yyval.expr = new Tree.Binary(Tree.GE, val_peek(2).expr, val_peek(0).expr, val_peek(1).loc);
                 	}
 break;
 case 63:
-//#line 313 "Parser.y"
+//#line 320 "Parser.y"
 {
                 		yyval.expr = new Tree.Binary(Tree.AND, val_peek(2).expr, val_peek(0).expr, val_peek(1).loc);
                 	}
 break;
 case 64:
-//#line 317 "Parser.y"
+//#line 324 "Parser.y"
 {
                 		yyval.expr = new Tree.Binary(Tree.OR, val_peek(2).expr, val_peek(0).expr, val_peek(1).loc);
                 	}
 break;
 case 65:
-//#line 321 "Parser.y"
+//#line 328 "Parser.y"
 {
                 		yyval = val_peek(1);
                 	}
 break;
 case 66:
-//#line 325 "Parser.y"
+//#line 332 "Parser.y"
 {
                 		yyval.expr = new Tree.Unary(Tree.NEG, val_peek(0).expr, val_peek(1).loc);
                 	}
 break;
 case 67:
-//#line 329 "Parser.y"
+//#line 336 "Parser.y"
 {
                 		yyval.expr = new Tree.Unary(Tree.NOT, val_peek(0).expr, val_peek(1).loc);
                 	}
 break;
 case 68:
-//#line 333 "Parser.y"
+//#line 340 "Parser.y"
 {
                 		yyval.expr = new Tree.ReadIntExpr(val_peek(2).loc);
                 	}
 break;
 case 69:
-//#line 337 "Parser.y"
+//#line 344 "Parser.y"
 {
                 		yyval.expr = new Tree.ReadLineExpr(val_peek(2).loc);
                 	}
 break;
 case 70:
-//#line 341 "Parser.y"
+//#line 348 "Parser.y"
 {
                 		yyval.expr = new Tree.ThisExpr(val_peek(0).loc);
                 	}
 break;
 case 71:
-//#line 345 "Parser.y"
+//#line 352 "Parser.y"
 {
-                		yyval.expr = new Tree.NewClass(val_peek(2).ident, val_peek(3).loc);
+                		yyval.expr = new Tree.NewClass(val_peek(2).ident, val_peek(3).loc, val_peek(2).loc);
                 	}
 break;
 case 72:
-//#line 349 "Parser.y"
+//#line 356 "Parser.y"
 {
                 		yyval.expr = new Tree.NewArray(val_peek(3).type, val_peek(1).expr, val_peek(4).loc);
                 	}
 break;
 case 73:
-//#line 353 "Parser.y"
+//#line 360 "Parser.y"
 {
-                		yyval.expr = new Tree.TypeTest(val_peek(3).expr, val_peek(1).ident, val_peek(5).loc);
+                		yyval.expr = new Tree.TypeTest(val_peek(3).expr, val_peek(1).ident, val_peek(5).loc, val_peek(1).loc);
                 	}
 break;
 case 74:
-//#line 357 "Parser.y"
+//#line 364 "Parser.y"
 {
-                		yyval.expr = new Tree.TypeCast(val_peek(2).ident, val_peek(0).expr, val_peek(0).loc);
+                		yyval.expr = new Tree.TypeCast(val_peek(2).ident, val_peek(0).expr, val_peek(0).loc, val_peek(2).loc);
                 	}
 break;
 case 75:
-//#line 361 "Parser.y"
+//#line 368 "Parser.y"
 {
                         yyval.expr = new Tree.ArrayRepeat(val_peek(1).loc, val_peek(2).expr, val_peek(0).expr, val_peek(2).loc, val_peek(0).loc);
                     }
 break;
 case 76:
-//#line 365 "Parser.y"
+//#line 372 "Parser.y"
 {
                         yyval.expr = new Tree.ArrayConcat(val_peek(1).loc, val_peek(2).expr, val_peek(0).expr);
                     }
 break;
 case 77:
-//#line 369 "Parser.y"
+//#line 376 "Parser.y"
 {
                         yyval.expr = new Tree.SubArray(val_peek(4).loc, val_peek(5).expr, val_peek(3).expr, val_peek(1).expr);
                     }
 break;
 case 78:
-//#line 373 "Parser.y"
+//#line 380 "Parser.y"
 {
                         yyval.expr = new Tree.DynamicAccess(val_peek(1).loc, val_peek(5).expr, val_peek(3).expr, val_peek(0).expr, val_peek(5).loc, val_peek(3).loc, val_peek(0).loc);
                     }
 break;
 case 79:
-//#line 377 "Parser.y"
+//#line 384 "Parser.y"
 {
-                        yyval.expr = new Tree.PythonArr(val_peek(2).loc, val_peek(5).expr, val_peek(3).ident, val_peek(1).expr);
+                        yyval.expr = new Tree.PythonArr(val_peek(6).loc, val_peek(5).expr, val_peek(3).ident, val_peek(1).expr, val_peek(3).loc);
                     }
 break;
 case 80:
-//#line 381 "Parser.y"
+//#line 388 "Parser.y"
 {
-                        yyval.expr = new Tree.PythonArr(val_peek(4).loc, val_peek(7).expr, val_peek(5).ident, val_peek(3).expr, val_peek(1).expr);
+                        yyval.expr = new Tree.PythonArr(val_peek(8).loc, val_peek(7).expr, val_peek(5).ident, val_peek(3).expr, val_peek(1).expr, val_peek(5).loc);
                     }
 break;
 case 81:
-//#line 387 "Parser.y"
+//#line 394 "Parser.y"
 {
 						yyval.expr = new Tree.Literal(val_peek(0).typeTag, val_peek(0).literal, val_peek(0).loc);
 					}
 break;
 case 82:
-//#line 391 "Parser.y"
+//#line 398 "Parser.y"
 {
 						yyval.expr = new Null(val_peek(0).loc);
 					}
 break;
 case 83:
-//#line 395 "Parser.y"
+//#line 402 "Parser.y"
 {
 				        yyval.expr = val_peek(0).expr;
 				    }
 break;
 case 85:
-//#line 402 "Parser.y"
+//#line 409 "Parser.y"
 {
                 		yyval = new SemValue();
                 		yyval.elist = new ArrayList<Tree.Expr>();
                 	}
 break;
 case 86:
-//#line 409 "Parser.y"
+//#line 416 "Parser.y"
 {
 						yyval.elist.add(val_peek(0).expr);
 					}
 break;
 case 87:
-//#line 413 "Parser.y"
+//#line 420 "Parser.y"
 {
                 		yyval.elist = new ArrayList<Tree.Expr>();
 						yyval.elist.add(val_peek(0).expr);
                 	}
 break;
 case 88:
-//#line 420 "Parser.y"
+//#line 427 "Parser.y"
 {
 						yyval.stmt = new Tree.WhileLoop(val_peek(2).expr, val_peek(0).stmt, val_peek(4).loc);
 					}
 break;
 case 89:
-//#line 426 "Parser.y"
+//#line 433 "Parser.y"
 {
 						yyval.stmt = new Tree.ForLoop(val_peek(6).stmt, val_peek(4).expr, val_peek(2).stmt, val_peek(0).stmt, val_peek(8).loc);
 					}
 break;
 case 90:
-//#line 432 "Parser.y"
+//#line 439 "Parser.y"
 {
 						yyval.stmt = new Tree.Break(val_peek(0).loc);
 					}
 break;
 case 91:
-//#line 438 "Parser.y"
+//#line 445 "Parser.y"
 {
 						yyval.stmt = new Tree.If(val_peek(3).expr, val_peek(1).stmt, val_peek(0).stmt, val_peek(5).loc);
 					}
 break;
 case 92:
-//#line 444 "Parser.y"
+//#line 451 "Parser.y"
 {
 						yyval.stmt = val_peek(0).stmt;
 					}
 break;
 case 93:
-//#line 448 "Parser.y"
+//#line 455 "Parser.y"
 {
 						yyval = new SemValue();
 					}
 break;
 case 94:
-//#line 454 "Parser.y"
+//#line 461 "Parser.y"
 {
 						yyval.stmt = new Tree.Return(val_peek(0).expr, val_peek(1).loc);
 					}
 break;
 case 95:
-//#line 458 "Parser.y"
+//#line 465 "Parser.y"
 {
                 		yyval.stmt = new Tree.Return(null, val_peek(0).loc);
                 	}
 break;
 case 96:
-//#line 464 "Parser.y"
+//#line 471 "Parser.y"
 {
 						yyval.stmt = new Print(val_peek(1).elist, val_peek(3).loc);
 					}
 break;
 case 97:
-//#line 470 "Parser.y"
+//#line 477 "Parser.y"
 {
                         yyval.stmt = new Tree.Scopy(val_peek(3).ident, val_peek(1).expr, val_peek(5).loc, val_peek(3).loc, val_peek(1).loc);
                     }
 break;
 case 98:
-//#line 476 "Parser.y"
+//#line 483 "Parser.y"
 {
                         yyval.stmt = new Tree.Guard(val_peek(1).loc, true);
                     }
 break;
 case 99:
-//#line 480 "Parser.y"
+//#line 487 "Parser.y"
 {
                         yyval.stmt = new Tree.Guard(val_peek(3).loc, val_peek(2).ilist, val_peek(1).stmt, true);
                     }
 break;
 case 100:
-//#line 486 "Parser.y"
+//#line 493 "Parser.y"
 {
                         yyval.ilist.add(val_peek(0).stmt);
                     }
 break;
 case 101:
-//#line 490 "Parser.y"
+//#line 497 "Parser.y"
 {
                         yyval = new SemValue();
                         yyval.ilist = new ArrayList<Tree>();
                     }
 break;
 case 102:
-//#line 497 "Parser.y"
+//#line 504 "Parser.y"
 {
                         yyval.stmt = new Tree.Guard(val_peek(0).loc, val_peek(1).stmt, true);
                     }
 break;
 case 103:
-//#line 503 "Parser.y"
+//#line 510 "Parser.y"
 {
                         yyval.stmt = new Tree.Guard(val_peek(1).loc, val_peek(2).expr, val_peek(0).stmt, true);
                     }
 break;
 case 104:
-//#line 509 "Parser.y"
+//#line 516 "Parser.y"
 {
                         yyval.expr = new Tree.ArrayConstant(val_peek(1).loc);
                     }
 break;
 case 105:
-//#line 513 "Parser.y"
+//#line 520 "Parser.y"
 {
                         yyval.expr = new Tree.ArrayConstant(val_peek(2).loc, val_peek(1).elist);
                     }
 break;
 case 106:
-//#line 519 "Parser.y"
+//#line 526 "Parser.y"
 {
                         yyval.elist.add(val_peek(0).expr);
                     }
 break;
 case 107:
-//#line 523 "Parser.y"
+//#line 530 "Parser.y"
 {
                         yyval = new SemValue();
                         yyval.elist = new ArrayList<Expr>();
@@ -1602,19 +1609,19 @@ case 107:
                     }
 break;
 case 108:
-//#line 531 "Parser.y"
+//#line 538 "Parser.y"
 {
-                        yyval.stmt = new Tree.Foreach(val_peek(6).loc, val_peek(4).type, val_peek(4).ident, val_peek(2).expr, val_peek(0).stmt);
+                        yyval.stmt = new Tree.Foreach(val_peek(6).loc, val_peek(4).type, val_peek(4).ident, val_peek(2).expr, val_peek(0).stmt, val_peek(4).loc, val_peek(2).loc, val_peek(0).loc);
                     }
 break;
 case 109:
-//#line 535 "Parser.y"
+//#line 542 "Parser.y"
 {
                         yyval.stmt = new Tree.Foreach(val_peek(8).loc, val_peek(6).type, val_peek(6).ident, val_peek(4).expr, val_peek(2).expr, val_peek(0).stmt, val_peek(6).loc, val_peek(4).loc, val_peek(2).loc, val_peek(0).loc);
                     }
 break;
 case 110:
-//#line 541 "Parser.y"
+//#line 548 "Parser.y"
 {
                         yyval.ident = val_peek(0).ident;
                         yyval.type = null;
@@ -1622,14 +1629,14 @@ case 110:
                     }
 break;
 case 111:
-//#line 547 "Parser.y"
+//#line 554 "Parser.y"
 {
                         yyval.ident = val_peek(0).ident;
                         yyval.type = val_peek(1).type;
                         yyval.loc = val_peek(1).loc;
                     }
 break;
-//#line 1567 "Parser.java"
+//#line 1574 "Parser.java"
 //########## END OF USER-SUPPLIED ACTIONS ##########
     }//switch
     //#### Now let's reduce... ####
@@ -100,7 +100,7 @@ Type            :	INT
                 	}
                 |	CLASS IDENTIFIER
                 	{
-                		$$.type = new Tree.TypeClass($2.ident, $1.loc);
+                		$$.type = new Tree.TypeClass($2.ident, $1.loc, $2.loc);
                 	}
                 |	Type '[' ']'
                 	{
@@ -111,16 +111,23 @@ Type            :	INT
 ClassDef        :	CLASS IDENTIFIER ExtendsClause '{' FieldList '}'
 					{
 						$$.cdef = new Tree.ClassDef($2.ident, $3.ident, $5.flist, $1.loc);
+						$$.cdef.nameLoc = $2.loc;
+						$$.cdef.parentLoc = $3.loc;
+						classParsed($$.cdef);
 					}
 				|   SEALED CLASS IDENTIFIER ExtendsClause '{' FieldList '}'
 				    {
 				        $$.cdef = new Tree.ClassDef($3.ident, $4.ident, $6.flist, $2.loc, true);
+				        $$.cdef.nameLoc = $3.loc;
+				        $$.cdef.parentLoc = $4.loc;
+				        classParsed($$.cdef);
 				    }
                 ;
 
 ExtendsClause	:	EXTENDS IDENTIFIER
 					{
 						$$.ident = $2.ident;
+						$$.loc = $2.loc;
 					}
                 |	/* empty */
                 	{
@@ -343,7 +350,7 @@ Expr            :	LValue
                 	}
                 |	NEW IDENTIFIER '(' ')'
                 	{
-                		$$.expr = new Tree.NewClass($2.ident, $1.loc);
+                		$$.expr = new Tree.NewClass($2.ident, $1.loc, $2.loc);
                 	}
                 |	NEW Type '[' Expr ']'
                 	{
@@ -351,11 +358,11 @@ Expr            :	LValue
                 	}
                 |	INSTANCEOF '(' Expr ',' IDENTIFIER ')'
                 	{
-                		$$.expr = new Tree.TypeTest($3.expr, $5.ident, $1.loc);
+                		$$.expr = new Tree.TypeTest($3.expr, $5.ident, $1.loc, $5.loc);
                 	}
                 |	'(' CLASS IDENTIFIER ')' Expr
                 	{
-                		$$.expr = new Tree.TypeCast($3.ident, $5.expr, $5.loc);
+                		$$.expr = new Tree.TypeCast($3.ident, $5.expr, $5.loc, $3.loc);
                 	}
                 |   Expr INITARRAY Expr
                     {
@@ -375,11 +382,11 @@ Expr            :	LValue
                     }
                 |   '[' Expr FOR IDENTIFIER IN Expr ']'
                     {
-                        $$.expr = new Tree.PythonArr($5.loc, $2.expr, $4.ident, $6.expr);
+                        $$.expr = new Tree.PythonArr($1.loc, $2.expr, $4.ident, $6.expr, $4.loc);
                     }
                 |   '[' Expr FOR IDENTIFIER IN Expr IF Expr ']'
                     {
-                        $$.expr = new Tree.PythonArr($5.loc, $2.expr, $4.ident, $6.expr, $8.expr);
+                        $$.expr = new Tree.PythonArr($1.loc, $2.expr, $4.ident, $6.expr, $8.expr, $4.loc);
                     }
                 ;
 	
@@ -529,7 +536,7 @@ ConstantList    :   ConstantList ',' Constant
 
 ForeachStmt     :   FOREACH '(' BoundVariable IN Expr ')' Stmt
                     {
-                        $$.stmt = new Tree.Foreach($1.loc, $3.type, $3.ident, $5.expr, $7.stmt);
+                        $$.stmt = new Tree.Foreach($1.loc, $3.type, $3.ident, $5.expr, $7.stmt, $3.loc, $5.loc, $7.loc);
                     }
                 |   FOREACH '(' BoundVariable IN Expr WHILE Expr ')' Stmt
                     {
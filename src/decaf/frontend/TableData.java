@@ -0,0 +1,14 @@
+package decaf.frontend;
+
+/**
+ * 词法分析器的表，由 tools/tablegen/TableGen 生成，不要手工修改<br>
+ * 编码见 {@link Tables}；常量在编译时内联到 Lexer 中，运行时不会载入本类。
+ */
+final class TableData {
+
+	private TableData() {
+	}
+
+	static final String LEXER_0 =
+			"\002\007ZZ_CMAPC\001\000\000~\000\000\000\000\000\000\000\000\000\023\002\000\000\001\000\000\000\000\000\000\000\000\000\000\000\000\000\000\000\000\000\000\023\0201\000\000\014.\000\012\012\012\011\012\012\012\013\005\003\003\003\003\003\003\003\003\0030\012\016\015\017\000\000\004\004\004\004\004\004\007\007*\007\007+\007\007\007(\007)\007\007\007\007\007\006\007\007\0212\022\000\010\000#\032\"\027\037&\036%\026\007'\033\007\030\025,\007\035\034\031!\024 $-\007\012/\012\011ZZ_ACTIONI\000\u00a7\000\u00a7\000\000\000\000\000\001\000\002\000\002\000\003\000\004\000\003\000\005\000\005\000\005\000\005\000\005\000\005\000\005\000\005\000\005\000\002\000\004\000\004\000\004\000\004\000\004\000\004\000\004\000\004\000\004\000\004\000\004\000\004\000\004\000\004\000\001\000\001\000\006\000\007\000\010\000\011\000\011\000\012\000\010\000\000\000\013\000\000\000\014\000\015\000\016\000\017\000\020\000\021\000\004\000\004\000\022\000\023\000\004\000\004\000\004\000\004\000\004\000\004\000\004\000\004\000\004\000\004\000\004\000\004\000\004\000\004\000\004\000\004\000\004\000\004\000\004\000\024\000\025\000\026\000\027\000\030\000\031\000\032\000\003\000\004\000\033\000\034\000\004\000\004\000\035\000\004\000\004\000\004\000\004\000\004\000\004\000\004\000\004\000\004\000\004\000\004\000\004\000\004\000\004\000\036\000\004\000\004\000\004\000\037\000 \000\004\000\004\000!\000\"\000#\000$\000\004\000\004\000\004\000\004\000\004\000\004\000%\000\004\000\004\000\004\000\004\000\004\000\004\000\004\000\004\000\004\000&\000\004\000\004\000\004\000'\000\004\000\004\000(\000)\000\004\000*\000+\000\004\000\004\000\004\000\004\000,\000-\000.\000/\000\004\000\004\000\004\000\004\000\004\0000\0001\0002\000\004\000\004\000\004\000\004\0003\000\004\000\004\0004\000\004\0005";
+}
@@ -0,0 +1,100 @@
+package decaf.frontend;
+
+/**
+ * 词法分析器的预先算好的表<br>
+ * 构建时 tools/tablegen 把 JFlex 生成的数组初始化代码换成对本类的调用，
+ * 数组内容编码为 {@link TableData} 中的字符串常量。这些常量在编译时内联到用到它们的类的常量池中，
+ * 类初始化时不必读文件，只需一次整块复制出字符，再按表名复制到基本类型数组中。<br>
+ * 编码：表的个数，然后每个表依次为表名的长度和各字符、元素类型（C/I）、
+ * 长度和存放的元素个数（各占两个字符）以及这些元素（int 占两个字符）；
+ * 存放的元素之后的部分全为 0，不写入。
+ */
+final class Tables {
+
+	private char[] data;
+
+	private int pos;
+
+	private Tables(char[] data) {
+		this.data = data;
+		pos = 1;
+	}
+
+	/**
+	 * 由 TableData 中的一段或几段（常量池中的一个字符串不能超过 64K 字节）常量建立
+	 */
+	static Tables load(String... parts) {
+		int length = 0;
+		for (String s : parts) {
+			length += s.length();
+		}
+		char[] data = new char[length];
+		int at = 0;
+		for (String s : parts) {
+			s.getChars(0, s.length(), data, at);
+			at += s.length();
+		}
+		return new Tables(data);
+	}
+
+	char[] chars(String name) {
+		int stored = find(name, 'C');
+		char[] table = new char[length()];
+		System.arraycopy(data, pos, table, 0, stored);
+		pos += stored;
+		return table;
+	}
+
+	int[] ints(String name) {
+		int stored = find(name, 'I');
+		int[] table = new int[length()];
+		for (int i = 0; i < stored; i++) {
+			table[i] = data[pos + 2 * i] << 16 | data[pos + 2 * i + 1];
+		}
+		pos += 2 * stored;
+		return table;
+	}
+
+	/**
+	 * 找到表 name 并把位置移到它的元素处（长度在其前 4 个字符）
+	 *
+	 * @return 存放的元素个数
+	 */
+	private int find(String name, char type) {
+		// 表通常按编码的顺序取用，先从当前位置往后找，再从头找
+		for (int pass = 0; pass < 2; pass++) {
+			if (pass == 1) {
+				pos = 1;
+			}
+			while (pos < data.length) {
+				int n = data[pos++];
+				boolean match = n == name.length();
+				for (int i = 0; i < n; i++) {
+					match &= data[pos + i] == name.charAt(i);
+				}
+				pos += n;
+				char t = data[pos++];
+				int stored = intAt(pos + 2);
+				pos += 4;
+				if (match) {
+					if (t != type) {
+						throw new IllegalStateException("table " + name
+								+ " has type " + t);
+					}
+					return stored;
+				}
+				pos += t == 'I' ? 2 * stored : stored;
+			}
+		}
+		throw new IllegalStateException("missing table " + name + " ("
+				+ (int) data[0] + " tables)");
+	}
+
+	private int length() {
+		return intAt(pos - 4);
+	}
+
+	private int intAt(int i) {
+		return data[i] << 16 | data[i + 1];
+	}
+}
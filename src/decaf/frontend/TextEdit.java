@@ -0,0 +1,144 @@
+package decaf.frontend;
+
+import decaf.Location;
+
+/**
+ * 对源文件的一次文本修改：把 [start, end) 之间的文本替换为 text<br>
+ * 位置的行号、列号都从 1 开始，与 {@link Location} 一致。
+ */
+public class TextEdit {
+
+	private Location start;
+
+	private Location end;
+
+	private String text;
+
+	public TextEdit(Location start, Location end, String text) {
+		this.start = start;
+		this.end = end;
+		this.text = text;
+	}
+
+	public Location getStart() {
+		return start;
+	}
+
+	public Location getEnd() {
+		return end;
+	}
+
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * 由修改前后的两份文本求出一次覆盖所有差异的修改（去掉公共的前缀和后缀）
+	 *
+	 * @return 两份文本相同时为 null
+	 */
+	public static TextEdit between(String before, String after) {
+		if (before.equals(after)) {
+			return null;
+		}
+		int n = Math.min(before.length(), after.length());
+		int prefix = 0;
+		while (prefix < n && before.charAt(prefix) == after.charAt(prefix)) {
+			prefix++;
+		}
+		// 不把 \r\n 拆开，否则两边的行号不一致
+		if (prefix > 0 && before.charAt(prefix - 1) == '\r') {
+			prefix--;
+		}
+		int suffix = 0;
+		while (suffix < n - prefix
+				&& before.charAt(before.length() - 1 - suffix) == after
+						.charAt(after.length() - 1 - suffix)) {
+			suffix++;
+		}
+		if (suffix > 0 && before.charAt(before.length() - suffix) == '\n') {
+			suffix--;
+		}
+		return new TextEdit(locationOf(before, prefix), locationOf(before,
+				before.length() - suffix), after.substring(prefix, after
+				.length()
+				- suffix));
+	}
+
+	/**
+	 * @return 对 s 做这次修改后的文本
+	 */
+	public String applyTo(String s) {
+		return s.substring(0, offsetOf(s, start)) + text
+				+ s.substring(offsetOf(s, end));
+	}
+
+	private static int offsetOf(String s, Location loc) {
+		int line = 1;
+		int i = 0;
+		while (line < loc.getLine() && i < s.length()) {
+			char c = s.charAt(i++);
+			if (c == '\r' && i < s.length() && s.charAt(i) == '\n') {
+				i++;
+			}
+			if (c == '\r' || c == '\n') {
+				line++;
+			}
+		}
+		return Math.min(s.length(), i + loc.getColumn() - 1);
+	}
+
+	/**
+	 * 按词法分析器的规则（\r、\n、\r\n 都是换行）求 offset 处的位置
+	 */
+	private static Location locationOf(String s, int offset) {
+		int line = 1;
+		int lineStart = 0;
+		for (int i = 0; i < offset; i++) {
+			char c = s.charAt(i);
+			if (c == '\r' && i + 1 < s.length() && s.charAt(i + 1) == '\n') {
+				i++;
+			}
+			if (c == '\r' || c == '\n') {
+				line++;
+				lineStart = i + 1;
+			}
+		}
+		return new Location(line, offset - lineStart + 1);
+	}
+
+	/**
+	 * 修改之后，原来位于 end 或其后的位置 loc 所在的新位置
+	 */
+	public Location shift(Location loc) {
+		int lines = 0;
+		int lastLineStart = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '\n' || c == '\r') {
+				if (c == '\r' && i + 1 < text.length()
+						&& text.charAt(i + 1) == '\n') {
+					i++;
+				}
+				lines++;
+				lastLineStart = i + 1;
+			}
+		}
+		if (loc.getLine() > end.getLine()) {
+			return new Location(loc.getLine() - end.getLine()
+					+ start.getLine() + lines, loc.getColumn());
+		}
+		int column = loc.getColumn() - end.getColumn();
+		if (lines == 0) {
+			column += start.getColumn() + text.length();
+		} else {
+			column += 1 + text.length() - lastLineStart;
+		}
+		return new Location(start.getLine() + lines, column);
+	}
+
+	@Override
+	public String toString() {
+		return start + "-" + end + ": \"" + text + "\"";
+	}
+}
@@ -0,0 +1,212 @@
+package decaf.iface;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+
+import decaf.Location;
+import decaf.symbol.Class;
+import decaf.symbol.Function;
+import decaf.symbol.Symbol;
+import decaf.type.ArrayType;
+import decaf.type.BaseType;
+import decaf.type.ClassType;
+import decaf.type.Type;
+
+/**
+ * 编译后的类接口文件（.dci）<br>
+ * 记录一个类的名字、父类、sealed 标记以及 ClassScope 中全部成员的签名，
+ * 其他编译单元引用这个类时直接载入，不必重新分析它的源代码。<br>
+ * 格式（DataOutput 编码）：
+ * 
+ * <pre>
+ * int MAGIC, short VERSION
+ * UTF name, boolean hasParent, [UTF parent], boolean sealed, loc
+ * int n, n * member
+ * member := byte VARIABLE, UTF name, loc, type
+ *         | byte FUNCTION, UTF name, loc, boolean static, type returnType,
+ *           int m, m * (UTF paramName, loc, type)
+ * loc    := int line, int column
+ * type   := byte INT | BOOL | STRING | VOID | CLASS UTF name | ARRAY type
+ *         | byte NULL | UNKNOWN （只出现在推导出的局部变量类型中）
+ * </pre>
+ */
+public final class InterfaceFile {
+
+	public static final int MAGIC = 0xDECAFD0C;
+
+	public static final short VERSION = 1;
+
+	public static final String SUFFIX = ".dci";
+
+	static final byte VARIABLE = 1;
+
+	static final byte FUNCTION = 2;
+
+	static final byte T_INT = 0;
+
+	static final byte T_BOOL = 1;
+
+	static final byte T_STRING = 2;
+
+	static final byte T_VOID = 3;
+
+	static final byte T_CLASS = 4;
+
+	static final byte T_ARRAY = 5;
+
+	static final byte T_ERROR = 6;
+
+	static final byte T_NULL = 7;
+
+	static final byte T_UNKNOWN = 8;
+
+	private InterfaceFile() {
+	}
+
+	public static File fileOf(File dir, String className) {
+		return new File(dir, className + SUFFIX);
+	}
+
+	/**
+	 * 将类 c 的接口写到 dir/c.dci
+	 */
+	public static void write(Class c, File dir) throws IOException {
+		dir.mkdirs();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(fileOf(dir, c.getName()))));
+		try {
+			write(c, out);
+		} finally {
+			out.close();
+		}
+	}
+
+	public static void write(Class c, DataOutput out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeShort(VERSION);
+		out.writeUTF(c.getName());
+		Class parent = c.getParent();
+		out.writeBoolean(parent != null);
+		if (parent != null) {
+			out.writeUTF(parent.getName());
+		}
+		out.writeBoolean(c.getSealed());
+		writeLocation(out, c.getLocation());
+
+		int n = 0;
+		for (Iterator<Symbol> iter = c.getAssociatedScope().iterator(); iter
+				.hasNext(); iter.next()) {
+			n++;
+		}
+		out.writeInt(n);
+		for (Iterator<Symbol> iter = c.getAssociatedScope().iterator(); iter
+				.hasNext();) {
+			Symbol sym = iter.next();
+			if (sym.isVariable()) {
+				out.writeByte(VARIABLE);
+				out.writeUTF(sym.getName());
+				writeLocation(out, sym.getLocation());
+				writeType(out, sym.getType());
+			} else {
+				Function f = (Function) sym;
+				out.writeByte(FUNCTION);
+				out.writeUTF(f.getName());
+				writeLocation(out, f.getLocation());
+				out.writeBoolean(f.isStatik());
+				writeType(out, f.getReturnType());
+				List<Type> args = f.getType().getArgList();
+				Symbol[] params = new Symbol[args.size()];
+				for (Iterator<Symbol> p = f.getAssociatedScope().iterator(); p
+						.hasNext();) {
+					Symbol param = p.next();
+					if (param.getOrder() < params.length) {
+						params[param.getOrder()] = param;
+					}
+				}
+				int first = f.isStatik() ? 0 : 1;
+				out.writeInt(args.size() - first);
+				for (int i = first; i < args.size(); i++) {
+					// 与其他形参重名的形参没有进入作用域
+					out.writeUTF(params[i] != null ? params[i].getName() : "_"
+							+ i);
+					writeLocation(out, params[i] != null ? params[i]
+							.getLocation() : f.getLocation());
+					writeType(out, args.get(i));
+				}
+			}
+		}
+	}
+
+	static void writeLocation(DataOutput out, Location loc) throws IOException {
+		out.writeInt(loc.getLine());
+		out.writeInt(loc.getColumn());
+	}
+
+	static Location readLocation(DataInput in) throws IOException {
+		return new Location(in.readInt(), in.readInt());
+	}
+
+	public static void writeType(DataOutput out, Type type) throws IOException {
+		if (type.isArrayType()) {
+			out.writeByte(T_ARRAY);
+			writeType(out, ((ArrayType) type).getElementType());
+		} else if (type.isClassType()) {
+			out.writeByte(T_CLASS);
+			out.writeUTF(((ClassType) type).getSymbol().getName());
+		} else if (type.equal(BaseType.INT)) {
+			out.writeByte(T_INT);
+		} else if (type.equal(BaseType.BOOL)) {
+			out.writeByte(T_BOOL);
+		} else if (type.equal(BaseType.STRING)) {
+			out.writeByte(T_STRING);
+		} else if (type.equal(BaseType.VOID)) {
+			out.writeByte(T_VOID);
+		} else if (type.equal(BaseType.NULL)) {
+			out.writeByte(T_NULL);
+		} else if (type.equal(BaseType.UNKNOWN)) {
+			out.writeByte(T_UNKNOWN);
+		} else {
+			out.writeByte(T_ERROR);
+		}
+	}
+
+	/**
+	 * 读出一个类型，其中的类名通过 loader 解析（必要时递归载入）
+	 */
+	public static Type readType(DataInput in, InterfaceLoader loader)
+			throws IOException {
+		byte tag = in.readByte();
+		switch (tag) {
+		case T_INT:
+			return BaseType.INT;
+		case T_BOOL:
+			return BaseType.BOOL;
+		case T_STRING:
+			return BaseType.STRING;
+		case T_VOID:
+			return BaseType.VOID;
+		case T_CLASS:
+			Class c = loader.resolve(in.readUTF());
+			return c == null ? BaseType.ERROR : c.getType();
+		case T_ARRAY:
+			Type elementType = readType(in, loader);
+			return elementType.equal(BaseType.ERROR) ? BaseType.ERROR
+					: new ArrayType(elementType);
+		case T_ERROR:
+			return BaseType.ERROR;
+		case T_NULL:
+			return BaseType.NULL;
+		case T_UNKNOWN:
+			return BaseType.UNKNOWN;
+		default:
+			throw new IOException("bad type tag " + tag);
+		}
+	}
+}
@@ -0,0 +1,185 @@
+package decaf.iface;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import decaf.Driver;
+import decaf.Location;
+import decaf.error.BadInterfaceError;
+import decaf.scope.ClassScope;
+import decaf.scope.GlobalScope;
+import decaf.symbol.Class;
+import decaf.symbol.Function;
+import decaf.symbol.Symbol;
+import decaf.symbol.Variable;
+import decaf.tree.ClassReferences;
+import decaf.tree.Tree;
+import decaf.type.Type;
+
+/**
+ * 按需从接口搜索路径载入类<br>
+ * 载入的类直接声明到全局作用域中，并标记为已经检查过覆盖关系，
+ * 之后的 BuildSym/TypeCheck 像对待源代码中的类一样引用它们，但不再分析它们。
+ */
+public class InterfaceLoader {
+
+	private List<File> path;
+
+	private GlobalScope globalScope;
+
+	/**
+	 * 已确认在搜索路径中不存在的类名
+	 */
+	private Set<String> missing = new HashSet<String>();
+
+	/**
+	 * 载入到当前全局作用域中的类，它们没有方法体
+	 */
+	private List<Class> loaded = new ArrayList<Class>();
+
+	public InterfaceLoader(List<File> path) {
+		this.path = path;
+	}
+
+	public void setGlobalScope(GlobalScope globalScope) {
+		this.globalScope = globalScope;
+		missing.clear();
+		loaded.clear();
+	}
+
+	public List<Class> getLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * 载入 program 引用到但源代码中没有定义的所有类
+	 */
+	public void loadReferenced(Tree.TopLevel program) {
+		setGlobalScope(program.globalScope);
+		for (String name : ClassReferences.of(program.classes)) {
+			resolve(name);
+		}
+	}
+
+	/**
+	 * 返回名为 name 的类：已经声明过的直接返回，否则尝试从接口文件载入
+	 * 
+	 * @return 找不到时返回 null
+	 */
+	public Class resolve(String name) {
+		Symbol sym = globalScope.lookup(name);
+		if (sym != null) {
+			return sym.isClass() ? (Class) sym : null;
+		}
+		if (missing.contains(name)) {
+			return null;
+		}
+		for (File dir : path) {
+			File file = InterfaceFile.fileOf(dir, name);
+			if (file.isFile()) {
+				return load(name, file);
+			}
+		}
+		missing.add(name);
+		return null;
+	}
+
+	private Class load(String name, File file) {
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
+			if (in.readInt() != InterfaceFile.MAGIC) {
+				throw new IOException("bad magic number");
+			}
+			if (in.readShort() != InterfaceFile.VERSION) {
+				throw new IOException("unsupported version");
+			}
+			if (!name.equals(in.readUTF())) {
+				throw new IOException("file does not define class '" + name
+						+ "'");
+			}
+			String parentName = in.readBoolean() ? in.readUTF() : null;
+			boolean sealed = in.readBoolean();
+			Class c = new Class(name, parentName, InterfaceFile
+					.readLocation(in));
+			c.setSealed(sealed);
+			c.setCheck(true);
+			globalScope.declare(c);
+			if (parentName != null
+					&& (resolve(parentName) == null || isCyclic(c))) {
+				c.dettachParent();
+			}
+			readMembers(c, in);
+			loaded.add(c);
+			return c;
+		} catch (EOFException e) {
+			issueError(file, "unexpected end of file");
+		} catch (IOException e) {
+			issueError(file, e.getMessage());
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+		missing.add(name);
+		return null;
+	}
+
+	private void readMembers(Class c, DataInputStream in) throws IOException {
+		ClassScope cs = c.getAssociatedScope();
+		int n = in.readInt();
+		for (int i = 0; i < n; i++) {
+			byte kind = in.readByte();
+			String name = in.readUTF();
+			Location loc = InterfaceFile.readLocation(in);
+			if (kind == InterfaceFile.VARIABLE) {
+				cs.declare(new Variable(name, InterfaceFile.readType(in, this),
+						loc));
+			} else if (kind == InterfaceFile.FUNCTION) {
+				boolean statik = in.readBoolean();
+				Type returnType = InterfaceFile.readType(in, this);
+				Function f = new Function(statik, name, returnType, null, loc,
+						c);
+				int m = in.readInt();
+				for (int j = 0; j < m; j++) {
+					String paramName = in.readUTF();
+					Location paramLoc = InterfaceFile.readLocation(in);
+					Variable param = new Variable(paramName, InterfaceFile
+							.readType(in, this), paramLoc);
+					f.getAssociatedScope().declare(param);
+					f.appendParam(param);
+				}
+				cs.declare(f);
+			} else {
+				throw new IOException("bad member kind " + kind);
+			}
+		}
+	}
+
+	private boolean isCyclic(Class c) {
+		Set<Class> seen = new HashSet<Class>();
+		for (Class p = c; p != null; p = p.getParent()) {
+			if (!seen.add(p)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void issueError(File file, String reason) {
+		Driver.getDriver().issueError(
+				new BadInterfaceError(file.getPath(), reason));
+	}
+}
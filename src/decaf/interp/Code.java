@@ -0,0 +1,208 @@
+package decaf.interp;
+
+/**
+ * 解释器的运行时结构和可执行结点<br>
+ * 语法树在运行前由 {@link CodeBuilder} 一次性转换为 Stmt/Expr 对象：每个结点都是专门化的子类
+ * （多为匿名类，捕获子结点和变量的槽位），执行时直接调用子结点，不再经过 Visitor 的两次分派。
+ * int、bool 值（bool 为 0/1）存放在 int 槽位中，其余值（string、对象、数组、null）存放在引用槽位中；
+ * int、bool 数组为 int[]，其余数组为 Object[]。
+ */
+final class Code {
+
+	private Code() {
+	}
+
+	/**
+	 * 语句执行的结果
+	 */
+	static final int NORMAL = 0;
+
+	static final int BREAK = 1;
+
+	static final int RETURN = 2;
+
+	abstract static class Stmt {
+
+		/**
+		 * @return NORMAL、BREAK 或 RETURN（返回值在 f 中）
+		 */
+		abstract int exec(Frame f);
+	}
+
+	abstract static class Expr {
+
+		/**
+		 * 求 int 或 bool 类型的值
+		 */
+		int evalInt(Frame f) {
+			throw new UnsupportedOperationException(getClass().getName());
+		}
+
+		/**
+		 * 求其余类型的值，void 方法调用返回 null
+		 */
+		Object eval(Frame f) {
+			throw new UnsupportedOperationException(getClass().getName());
+		}
+	}
+
+	/**
+	 * 一次方法调用的局部变量
+	 */
+	static final class Frame {
+
+		final int[] ints;
+
+		final Object[] refs;
+
+		int intResult;
+
+		Object refResult;
+
+		Frame(Method m) {
+			ints = new int[m.numInts];
+			refs = new Object[m.numRefs];
+		}
+	}
+
+	/**
+	 * 类：父类、各成员变量的槽位数和虚表
+	 */
+	static final class RuntimeClass {
+
+		final String name;
+
+		final RuntimeClass parent;
+
+		int numInts;
+
+		int numRefs;
+
+		Method[] vtable;
+
+		RuntimeClass(String name, RuntimeClass parent) {
+			this.name = name;
+			this.parent = parent;
+		}
+
+		boolean isSubclassOf(RuntimeClass c) {
+			for (RuntimeClass p = this; p != null; p = p.parent) {
+				if (p == c) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	static final class Obj {
+
+		final RuntimeClass cls;
+
+		final int[] ints;
+
+		final Object[] refs;
+
+		Obj(RuntimeClass cls) {
+			this.cls = cls;
+			ints = new int[cls.numInts];
+			refs = new Object[cls.numRefs];
+		}
+	}
+
+	/**
+	 * 方法：参数依次占据各自种类的最前面的槽位，非静态方法的 this 为 0 号引用槽位
+	 */
+	static final class Method {
+
+		final String name;
+
+		int numInts;
+
+		int numRefs;
+
+		/**
+		 * 从接口文件载入的方法没有方法体，为 null
+		 */
+		Stmt body;
+
+		Method(String name) {
+			this.name = name;
+		}
+	}
+
+	/**
+	 * 方法调用：receiver 为 null 时为静态调用
+	 */
+	static final class Call extends Expr {
+
+		private final Method method;
+
+		private final Expr receiver;
+
+		private final int index;
+
+		private final Expr[] args;
+
+		private final boolean[] intArgs;
+
+		private final int[] argSlots;
+
+		Call(Method method, Expr receiver, int index, Expr[] args,
+				boolean[] intArgs, int[] argSlots) {
+			this.method = method;
+			this.receiver = receiver;
+			this.index = index;
+			this.args = args;
+			this.intArgs = intArgs;
+			this.argSlots = argSlots;
+		}
+
+		private Frame invoke(Frame f) {
+			Method m = method;
+			Obj self = null;
+			if (receiver != null) {
+				self = Interpreter.deref(receiver.eval(f));
+				m = self.cls.vtable[index];
+			}
+			if (m.body == null) {
+				throw new IllegalStateException("no body for " + m.name);
+			}
+			Frame callee = new Frame(m);
+			if (self != null) {
+				callee.refs[0] = self;
+			}
+			for (int i = 0; i < args.length; i++) {
+				if (intArgs[i]) {
+					callee.ints[argSlots[i]] = args[i].evalInt(f);
+				} else {
+					callee.refs[argSlots[i]] = args[i].eval(f);
+				}
+			}
+			m.body.exec(callee);
+			return callee;
+		}
+
+		@Override
+		int evalInt(Frame f) {
+			return invoke(f).intResult;
+		}
+
+		@Override
+		Object eval(Frame f) {
+			return invoke(f).refResult;
+		}
+	}
+
+	/**
+	 * Decaf 程序的运行期错误，消息为 {@link decaf.error.RuntimeError} 中的文字
+	 */
+	static final class Halt extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		Halt(String message) {
+			super(message, null, false, false);
+		}
+	}
+}
@@ -0,0 +1,1275 @@
+package decaf.interp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import decaf.error.RuntimeError;
+import decaf.interp.Code.Expr;
+import decaf.interp.Code.Frame;
+import decaf.interp.Code.Halt;
+import decaf.interp.Code.Stmt;
+import decaf.symbol.Function;
+import decaf.symbol.Symbol;
+import decaf.symbol.Variable;
+import decaf.tree.Tree;
+import decaf.type.ArrayType;
+import decaf.type.BaseType;
+import decaf.type.Type;
+
+/**
+ * 把方法体转换为可执行结点<br>
+ * 局部变量和参数在转换时分配槽位，执行时直接按下标访问 Frame 中的数组。
+ * 求值顺序与三地址码相同：&amp;&amp; 和 || 两边都求值，数组下标先于赋值号右边检查。
+ */
+final class CodeBuilder extends Tree.Visitor {
+
+	private final Interpreter interp;
+
+	/**
+	 * 最近转换的表达式或语句
+	 */
+	private Expr expr;
+
+	private Stmt stmt;
+
+	private Function currentFunction;
+
+	private Code.Method currentMethod;
+
+	private Map<Variable, Integer> slots = new IdentityHashMap<Variable, Integer>();
+
+	CodeBuilder(Interpreter interp) {
+		this.interp = interp;
+	}
+
+	void build(Tree.TopLevel tree) {
+		for (Tree.ClassDef cd : tree.classes) {
+			for (Tree f : cd.fields) {
+				if (f.tag == Tree.METHODDEF) {
+					buildMethod((Tree.MethodDef) f);
+				}
+			}
+		}
+	}
+
+	private void buildMethod(Tree.MethodDef funcDef) {
+		currentFunction = funcDef.symbol;
+		currentMethod = interp.getMethod(currentFunction);
+		slots.clear();
+		for (Iterator<Symbol> iter = currentFunction.getAssociatedScope()
+				.iterator(); iter.hasNext();) {
+			slotOf((Variable) iter.next());
+		}
+		currentMethod.body = stmt(funcDef.body);
+		currentFunction = null;
+	}
+
+	/**
+	 * @return 局部变量或参数 v 的槽位，第一次用到时分配
+	 */
+	private int slotOf(Variable v) {
+		Integer slot = slots.get(v);
+		if (slot == null) {
+			slot = Interpreter.isInt(v.getType()) ? currentMethod.numInts++
+					: currentMethod.numRefs++;
+			slots.put(v, slot);
+		}
+		return slot;
+	}
+
+	private Expr expr(Tree.Expr e) {
+		e.accept(this);
+		return expr;
+	}
+
+	private Stmt stmt(Tree t) {
+		if (t == null) {
+			return new Stmt() {
+
+				@Override
+				int exec(Frame f) {
+					return Code.NORMAL;
+				}
+
+			};
+		}
+		t.accept(this);
+		return stmt;
+	}
+
+	private static boolean isInt(Tree.Expr e) {
+		return Interpreter.isInt(e.type);
+	}
+
+	/**
+	 * @return 数组类型 t 的元素是否为 int 或 bool
+	 */
+	private static boolean hasIntElements(Type t) {
+		return Interpreter.isInt(((ArrayType) t).getElementType());
+	}
+
+	// 语句
+
+	@Override
+	public void visitBlock(Tree.Block block) {
+		final Stmt[] stmts = new Stmt[block.block.size()];
+		for (int i = 0; i < stmts.length; i++) {
+			stmts[i] = stmt(block.block.get(i));
+		}
+		stmt = block(stmts);
+	}
+
+	private static Stmt block(final Stmt[] stmts) {
+		return new Stmt() {
+
+			@Override
+			int exec(Frame f) {
+				for (Stmt s : stmts) {
+					int status = s.exec(f);
+					if (status != Code.NORMAL) {
+						return status;
+					}
+				}
+				return Code.NORMAL;
+			}
+
+		};
+	}
+
+	@Override
+	public void visitVarDef(Tree.VarDef varDef) {
+		final int slot = slotOf(varDef.symbol);
+		if (Interpreter.isInt(varDef.symbol.getType())) {
+			stmt = new Stmt() {
+
+				@Override
+				int exec(Frame f) {
+					f.ints[slot] = 0;
+					return Code.NORMAL;
+				}
+
+			};
+		} else {
+			stmt = new Stmt() {
+
+				@Override
+				int exec(Frame f) {
+					f.refs[slot] = null;
+					return Code.NORMAL;
+				}
+
+			};
+		}
+	}
+
+	@Override
+	public void visitSkip(Tree.Skip skip) {
+		stmt = stmt(null);
+	}
+
+	@Override
+	public void visitExec(Tree.Exec exec) {
+		final Expr e = expr(exec.expr);
+		if (isInt(exec.expr)) {
+			stmt = new Stmt() {
+
+				@Override
+				int exec(Frame f) {
+					e.evalInt(f);
+					return Code.NORMAL;
+				}
+
+			};
+		} else {
+			stmt = new Stmt() {
+
+				@Override
+				int exec(Frame f) {
+					e.eval(f);
+					return Code.NORMAL;
+				}
+
+			};
+		}
+	}
+
+	@Override
+	public void visitAssign(Tree.Assign assign) {
+		if (assign.left.tag == Tree.INDEXED) {
+			Tree.Indexed indexed = (Tree.Indexed) assign.left;
+			final Expr array = expr(indexed.array);
+			final Expr index = expr(indexed.index);
+			final Expr value = expr(assign.expr);
+			if (hasIntElements(indexed.array.type)) {
+				stmt = new Stmt() {
+
+					@Override
+					int exec(Frame f) {
+						int[] a = Interpreter.intArray(array.eval(f));
+						int i = index.evalInt(f);
+						Interpreter.checkIndex(i, a.length);
+						a[i] = value.evalInt(f);
+						return Code.NORMAL;
+					}
+
+				};
+			} else {
+				stmt = new Stmt() {
+
+					@Override
+					int exec(Frame f) {
+						Object[] a = Interpreter.refArray(array.eval(f));
+						int i = index.evalInt(f);
+						Interpreter.checkIndex(i, a.length);
+						a[i] = value.eval(f);
+						return Code.NORMAL;
+					}
+
+				};
+			}
+			return;
+		}
+		Tree.Ident ident = (Tree.Ident) assign.left;
+		final Expr value = expr(assign.expr);
+		boolean intValue = Interpreter.isInt(ident.symbol.getType());
+		if (ident.lvKind == Tree.LValue.Kind.MEMBER_VAR) {
+			final Expr owner = expr(ident.owner);
+			final int slot = interp.getFieldSlot(ident.symbol);
+			if (intValue) {
+				stmt = new Stmt() {
+
+					@Override
+					int exec(Frame f) {
+						Code.Obj o = Interpreter.deref(owner.eval(f));
+						o.ints[slot] = value.evalInt(f);
+						return Code.NORMAL;
+					}
+
+				};
+			} else {
+				stmt = new Stmt() {
+
+					@Override
+					int exec(Frame f) {
+						Code.Obj o = Interpreter.deref(owner.eval(f));
+						o.refs[slot] = value.eval(f);
+						return Code.NORMAL;
+					}
+
+				};
+			}
+		} else {
+			final int slot = slotOf(ident.symbol);
+			if (intValue) {
+				stmt = new Stmt() {
+
+					@Override
+					int exec(Frame f) {
+						f.ints[slot] = value.evalInt(f);
+						return Code.NORMAL;
+					}
+
+				};
+			} else {
+				stmt = new Stmt() {
+
+					@Override
+					int exec(Frame f) {
+						f.refs[slot] = value.eval(f);
+						return Code.NORMAL;
+					}
+
+				};
+			}
+		}
+	}
+
+	@Override
+	public void visitIf(Tree.If ifStmt) {
+		final Expr cond = expr(ifStmt.condition);
+		final Stmt then = stmt(ifStmt.trueBranch);
+		if (ifStmt.falseBranch == null) {
+			stmt = new Stmt() {
+
+				@Override
+				int exec(Frame f) {
+					return cond.evalInt(f) != 0 ? then.exec(f) : Code.NORMAL;
+				}
+
+			};
+		} else {
+			final Stmt otherwise = stmt(ifStmt.falseBranch);
+			stmt = new Stmt() {
+
+				@Override
+				int exec(Frame f) {
+					return cond.evalInt(f) != 0 ? then.exec(f) : otherwise
+							.exec(f);
+				}
+
+			};
+		}
+	}
+
+	@Override
+	public void visitWhileLoop(Tree.WhileLoop whileLoop) {
+		final Expr cond = expr(whileLoop.condition);
+		final Stmt body = stmt(whileLoop.loopBody);
+		stmt = new Stmt() {
+
+			@Override
+			int exec(Frame f) {
+				while (cond.evalInt(f) != 0) {
+					int status = body.exec(f);
+					if (status == Code.BREAK) {
+						break;
+					} else if (status == Code.RETURN) {
+						return status;
+					}
+				}
+				return Code.NORMAL;
+			}
+
+		};
+	}
+
+	@Override
+	public void visitForLoop(Tree.ForLoop forLoop) {
+		final Stmt init = stmt(forLoop.init);
+		final Expr cond = expr(forLoop.condition);
+		final Stmt update = stmt(forLoop.update);
+		final Stmt body = stmt(forLoop.loopBody);
+		stmt = new Stmt() {
+
+			@Override
+			int exec(Frame f) {
+				for (init.exec(f); cond.evalInt(f) != 0; update.exec(f)) {
+					int status = body.exec(f);
+					if (status == Code.BREAK) {
+						break;
+					} else if (status == Code.RETURN) {
+						return status;
+					}
+				}
+				return Code.NORMAL;
+			}
+
+		};
+	}
+
+	@Override
+	public void visitBreak(Tree.Break breakStmt) {
+		stmt = new Stmt() {
+
+			@Override
+			int exec(Frame f) {
+				return Code.BREAK;
+			}
+
+		};
+	}
+
+	@Override
+	public void visitReturn(Tree.Return returnStmt) {
+		if (returnStmt.expr == null) {
+			stmt = new Stmt() {
+
+				@Override
+				int exec(Frame f) {
+					return Code.RETURN;
+				}
+
+			};
+			return;
+		}
+		final Expr value = expr(returnStmt.expr);
+		if (Interpreter.isInt(currentFunction.getReturnType())) {
+			stmt = new Stmt() {
+
+				@Override
+				int exec(Frame f) {
+					f.intResult = value.evalInt(f);
+					return Code.RETURN;
+				}
+
+			};
+		} else {
+			stmt = new Stmt() {
+
+				@Override
+				int exec(Frame f) {
+					f.refResult = value.eval(f);
+					return Code.RETURN;
+				}
+
+			};
+		}
+	}
+
+	@Override
+	public void visitPrint(Tree.Print printStmt) {
+		final Stmt[] prints = new Stmt[printStmt.exprs.size()];
+		for (int i = 0; i < prints.length; i++) {
+			Tree.Expr e = printStmt.exprs.get(i);
+			final Expr value = expr(e);
+			if (e.type.equal(BaseType.BOOL)) {
+				prints[i] = new Stmt() {
+
+					@Override
+					int exec(Frame f) {
+						interp.print(value.evalInt(f) != 0 ? "true" : "false");
+						return Code.NORMAL;
+					}
+
+				};
+			} else if (e.type.equal(BaseType.INT)) {
+				prints[i] = new Stmt() {
+
+					@Override
+					int exec(Frame f) {
+						interp.print(Integer.toString(value.evalInt(f)));
+						return Code.NORMAL;
+					}
+
+				};
+			} else {
+				prints[i] = new Stmt() {
+
+					@Override
+					int exec(Frame f) {
+						interp.print((String) value.eval(f));
+						return Code.NORMAL;
+					}
+
+				};
+			}
+		}
+		stmt = block(prints);
+	}
+
+	/**
+	 * 按源对象的运行时类新建对象，复制它的全部成员变量
+	 */
+	@Override
+	public void visitScopy(Tree.Scopy scopy) {
+		final Expr src = expr(scopy.instance);
+		if (scopy.symbol == null) {
+			stmt = new Stmt() {
+
+				@Override
+				int exec(Frame f) {
+					src.eval(f);
+					return Code.NORMAL;
+				}
+
+			};
+			return;
+		}
+		final Variable v = scopy.symbol;
+		final int slot = v.isMemberVar() ? interp.getFieldSlot(v) : slotOf(v);
+		final int self = v.isMemberVar() ? slotOf((Variable) currentFunction
+				.getAssociatedScope().lookup("this")) : -1;
+		stmt = new Stmt() {
+
+			@Override
+			int exec(Frame f) {
+				Code.Obj o = Interpreter.deref(src.eval(f));
+				Code.Obj copy = new Code.Obj(o.cls);
+				System.arraycopy(o.ints, 0, copy.ints, 0, o.ints.length);
+				System.arraycopy(o.refs, 0, copy.refs, 0, o.refs.length);
+				if (self >= 0) {
+					Interpreter.deref(f.refs[self]).refs[slot] = copy;
+				} else {
+					f.refs[slot] = copy;
+				}
+				return Code.NORMAL;
+			}
+
+		};
+	}
+
+	@Override
+	public void visitGuard(Tree.Guard guard) {
+		List<Tree.Guard> arms = new ArrayList<Tree.Guard>();
+		collectArms(guard, arms);
+		// 各分支依次判断，条件成立的都执行
+		final Expr[] conds = new Expr[arms.size()];
+		final Stmt[] bodies = new Stmt[arms.size()];
+		for (int i = 0; i < conds.length; i++) {
+			conds[i] = expr(arms.get(i).expr);
+			bodies[i] = stmt(arms.get(i).stmt);
+		}
+		stmt = new Stmt() {
+
+			@Override
+			int exec(Frame f) {
+				for (int i = 0; i < conds.length; i++) {
+					if (conds[i].evalInt(f) != 0) {
+						int status = bodies[i].exec(f);
+						if (status != Code.NORMAL) {
+							return status;
+						}
+					}
+				}
+				return Code.NORMAL;
+			}
+
+		};
+	}
+
+	private static void collectArms(Tree.Guard guard, List<Tree.Guard> arms) {
+		if (guard.stmt_exist) {
+			arms.add(guard);
+		} else if (guard.multi) {
+			collectArms((Tree.Guard) guard.ifsubstmt, arms);
+		} else if (guard.serial) {
+			for (Tree s : guard.stmts) {
+				collectArms((Tree.Guard) s, arms);
+			}
+			collectArms((Tree.Guard) guard.serialstmt, arms);
+		}
+	}
+
+	@Override
+	public void visitForeach(Tree.Foreach foreach) {
+		List<Tree> block = foreach.foreachblock.block;
+		Variable x = (Variable) foreach.foreachblock.associatedScope
+				.lookup(foreach.var_);
+		Tree.Expr arrayExpr = (Tree.Expr) block.get(0);
+		final Expr array = expr(arrayExpr);
+		final int slot = slotOf(x);
+		final Expr cond = foreach._while ? expr((Tree.Expr) block.get(1))
+				: null;
+		int first = foreach._while ? 2 : 1;
+		Stmt[] stmts = new Stmt[block.size() - first];
+		for (int i = 0; i < stmts.length; i++) {
+			stmts[i] = stmt(block.get(first + i));
+		}
+		final Stmt body = block(stmts);
+		if (Interpreter.isInt(x.getType())) {
+			stmt = new Stmt() {
+
+				@Override
+				int exec(Frame f) {
+					int[] a = Interpreter.intArray(array.eval(f));
+					for (int i = 0; i < a.length; i++) {
+						f.ints[slot] = a[i];
+						if (cond != null && cond.evalInt(f) == 0) {
+							break;
+						}
+						int status = body.exec(f);
+						if (status == Code.BREAK) {
+							break;
+						} else if (status == Code.RETURN) {
+							return status;
+						}
+					}
+					return Code.NORMAL;
+				}
+
+			};
+		} else {
+			stmt = new Stmt() {
+
+				@Override
+				int exec(Frame f) {
+					Object a = array.eval(f);
+					int n = Interpreter.length(a);
+					for (int i = 0; i < n; i++) {
+						f.refs[slot] = ((Object[]) a)[i];
+						if (cond != null && cond.evalInt(f) == 0) {
+							break;
+						}
+						int status = body.exec(f);
+						if (status == Code.BREAK) {
+							break;
+						} else if (status == Code.RETURN) {
+							return status;
+						}
+					}
+					return Code.NORMAL;
+				}
+
+			};
+		}
+	}
+
+	// 表达式
+
+	@Override
+	public void visitLiteral(Tree.Literal literal) {
+		switch (literal.typeTag) {
+		case Tree.INT:
+			expr = intConst(((Integer) literal.value).intValue());
+			break;
+		case Tree.BOOL:
+			expr = intConst((Boolean) literal.value ? 1 : 0);
+			break;
+		default:
+			expr = refConst(literal.value);
+		}
+	}
+
+	private static Expr intConst(final int value) {
+		return new Expr() {
+
+			@Override
+			int evalInt(Frame f) {
+				return value;
+			}
+
+		};
+	}
+
+	private static Expr refConst(final Object value) {
+		return new Expr() {
+
+			@Override
+			Object eval(Frame f) {
+				return value;
+			}
+
+		};
+	}
+
+	@Override
+	public void visitNull(Tree.Null nullExpr) {
+		expr = refConst(null);
+	}
+
+	@Override
+	public void visitThisExpr(Tree.ThisExpr thisExpr) {
+		expr = local(slotOf((Variable) currentFunction.getAssociatedScope()
+				.lookup("this")), false);
+	}
+
+	private static Expr local(final int slot, boolean intValue) {
+		if (intValue) {
+			return new Expr() {
+
+				@Override
+				int evalInt(Frame f) {
+					return f.ints[slot];
+				}
+
+			};
+		}
+		return new Expr() {
+
+			@Override
+			Object eval(Frame f) {
+				return f.refs[slot];
+			}
+
+		};
+	}
+
+	@Override
+	public void visitIdent(Tree.Ident ident) {
+		boolean intValue = Interpreter.isInt(ident.symbol.getType());
+		if (ident.lvKind != Tree.LValue.Kind.MEMBER_VAR) {
+			expr = local(slotOf(ident.symbol), intValue);
+			return;
+		}
+		final Expr owner = expr(ident.owner);
+		final int slot = interp.getFieldSlot(ident.symbol);
+		if (intValue) {
+			expr = new Expr() {
+
+				@Override
+				int evalInt(Frame f) {
+					return Interpreter.deref(owner.eval(f)).ints[slot];
+				}
+
+			};
+		} else {
+			expr = new Expr() {
+
+				@Override
+				Object eval(Frame f) {
+					return Interpreter.deref(owner.eval(f)).refs[slot];
+				}
+
+			};
+		}
+	}
+
+	@Override
+	public void visitIndexed(Tree.Indexed indexed) {
+		final Expr array = expr(indexed.array);
+		final Expr index = expr(indexed.index);
+		if (hasIntElements(indexed.array.type)) {
+			expr = new Expr() {
+
+				@Override
+				int evalInt(Frame f) {
+					int[] a = Interpreter.intArray(array.eval(f));
+					int i = index.evalInt(f);
+					Interpreter.checkIndex(i, a.length);
+					return a[i];
+				}
+
+			};
+		} else {
+			expr = new Expr() {
+
+				@Override
+				Object eval(Frame f) {
+					Object[] a = Interpreter.refArray(array.eval(f));
+					int i = index.evalInt(f);
+					Interpreter.checkIndex(i, a.length);
+					return a[i];
+				}
+
+			};
+		}
+	}
+
+	@Override
+	public void visitReadIntExpr(Tree.ReadIntExpr readIntExpr) {
+		expr = new Expr() {
+
+			@Override
+			int evalInt(Frame f) {
+				return interp.readInteger();
+			}
+
+		};
+	}
+
+	@Override
+	public void visitReadLineExpr(Tree.ReadLineExpr readStringExpr) {
+		expr = new Expr() {
+
+			@Override
+			Object eval(Frame f) {
+				return interp.readLine();
+			}
+
+		};
+	}
+
+	@Override
+	public void visitUnary(Tree.Unary unary) {
+		final Expr e = expr(unary.expr);
+		if (unary.tag == Tree.NEG) {
+			expr = new Expr() {
+
+				@Override
+				int evalInt(Frame f) {
+					return -e.evalInt(f);
+				}
+
+			};
+		} else {
+			expr = new Expr() {
+
+				@Override
+				int evalInt(Frame f) {
+					return e.evalInt(f) == 0 ? 1 : 0;
+				}
+
+			};
+		}
+	}
+
+	@Override
+	public void visitBinary(Tree.Binary binary) {
+		final Expr l = expr(binary.left);
+		final Expr r = expr(binary.right);
+		if ((binary.tag == Tree.EQ || binary.tag == Tree.NE)
+				&& !isInt(binary.left)) {
+			final boolean strings = binary.left.type.equal(BaseType.STRING);
+			final int equal = binary.tag == Tree.EQ ? 1 : 0;
+			expr = new Expr() {
+
+				@Override
+				int evalInt(Frame f) {
+					Object a = l.eval(f);
+					Object b = r.eval(f);
+					boolean same = strings && a != null ? a.equals(b) : a == b;
+					return same ? equal : 1 - equal;
+				}
+
+			};
+			return;
+		}
+		switch (binary.tag) {
+		case Tree.PLUS:
+			expr = new Expr() {
+
+				@Override
+				int evalInt(Frame f) {
+					return l.evalInt(f) + r.evalInt(f);
+				}
+
+			};
+			break;
+		case Tree.MINUS:
+			expr = new Expr() {
+
+				@Override
+				int evalInt(Frame f) {
+					return l.evalInt(f) - r.evalInt(f);
+				}
+
+			};
+			break;
+		case Tree.MUL:
+			expr = new Expr() {
+
+				@Override
+				int evalInt(Frame f) {
+					return l.evalInt(f) * r.evalInt(f);
+				}
+
+			};
+			break;
+		case Tree.DIV:
+			expr = new Expr() {
+
+				@Override
+				int evalInt(Frame f) {
+					int a = l.evalInt(f);
+					return a / divisor(r.evalInt(f));
+				}
+
+			};
+			break;
+		case Tree.MOD:
+			expr = new Expr() {
+
+				@Override
+				int evalInt(Frame f) {
+					int a = l.evalInt(f);
+					return a % divisor(r.evalInt(f));
+				}
+
+			};
+			break;
+		case Tree.AND:
+			expr = new Expr() {
+
+				@Override
+				int evalInt(Frame f) {
+					int a = l.evalInt(f);
+					return a & r.evalInt(f);
+				}
+
+			};
+			break;
+		case Tree.OR:
+			expr = new Expr() {
+
+				@Override
+				int evalInt(Frame f) {
+					int a = l.evalInt(f);
+					return a | r.evalInt(f);
+				}
+
+			};
+			break;
+		case Tree.EQ:
+			expr = new Expr() {
+
+				@Override
+				int evalInt(Frame f) {
+					return l.evalInt(f) == r.evalInt(f) ? 1 : 0;
+				}
+
+			};
+			break;
+		case Tree.NE:
+			expr = new Expr() {
+
+				@Override
+				int evalInt(Frame f) {
+					return l.evalInt(f) != r.evalInt(f) ? 1 : 0;
+				}
+
+			};
+			break;
+		case Tree.LT:
+			expr = new Expr() {
+
+				@Override
+				int evalInt(Frame f) {
+					return l.evalInt(f) < r.evalInt(f) ? 1 : 0;
+				}
+
+			};
+			break;
+		case Tree.LE:
+			expr = new Expr() {
+
+				@Override
+				int evalInt(Frame f) {
+					return l.evalInt(f) <= r.evalInt(f) ? 1 : 0;
+				}
+
+			};
+			break;
+		case Tree.GT:
+			expr = new Expr() {
+
+				@Override
+				int evalInt(Frame f) {
+					return l.evalInt(f) > r.evalInt(f) ? 1 : 0;
+				}
+
+			};
+			break;
+		default:
+			expr = new Expr() {
+
+				@Override
+				int evalInt(Frame f) {
+					return l.evalInt(f) >= r.evalInt(f) ? 1 : 0;
+				}
+
+			};
+		}
+	}
+
+	private static int divisor(int d) {
+		if (d == 0) {
+			throw new Halt(RuntimeError.DIVISION_BY_ZERO);
+		}
+		return d;
+	}
+
+	@Override
+	public void visitCallExpr(Tree.CallExpr callExpr) {
+		if (callExpr.isArrayLength) {
+			final Expr array = expr(callExpr.receiver);
+			expr = new Expr() {
+
+				@Override
+				int evalInt(Frame f) {
+					return Interpreter.length(array.eval(f));
+				}
+
+			};
+			return;
+		}
+		Function func = callExpr.symbol;
+		Expr receiver = callExpr.receiver == null ? null
+				: expr(callExpr.receiver);
+		int n = callExpr.actuals.size();
+		Expr[] args = new Expr[n];
+		boolean[] intArgs = new boolean[n];
+		int[] argSlots = new int[n];
+		// 参数槽位与被调方法中的分配相同：this 之后按种类依次编号
+		int ints = 0;
+		int refs = func.isStatik() ? 0 : 1;
+		for (int i = 0; i < n; i++) {
+			Tree.Expr e = callExpr.actuals.get(i);
+			args[i] = expr(e);
+			intArgs[i] = Interpreter.isInt(func.getType().getArgList().get(
+					func.isStatik() ? i : i + 1));
+			argSlots[i] = intArgs[i] ? ints++ : refs++;
+		}
+		if (func.isStatik()) {
+			expr = new Code.Call(interp.getMethod(func), null, -1, args,
+					intArgs, argSlots);
+		} else {
+			expr = new Code.Call(null, receiver, interp.getIndex(func), args,
+					intArgs, argSlots);
+		}
+	}
+
+	@Override
+	public void visitNewClass(Tree.NewClass newClass) {
+		final Code.RuntimeClass rc = interp.getRuntimeClass(newClass.symbol);
+		expr = new Expr() {
+
+			@Override
+			Object eval(Frame f) {
+				return new Code.Obj(rc);
+			}
+
+		};
+	}
+
+	@Override
+	public void visitNewArray(Tree.NewArray newArray) {
+		final Expr length = expr(newArray.length);
+		final boolean intElements = hasIntElements(newArray.type);
+		expr = new Expr() {
+
+			@Override
+			Object eval(Frame f) {
+				int n = length.evalInt(f);
+				if (n < 0) {
+					throw new Halt(RuntimeError.NEGATIVE_ARR_SIZE);
+				}
+				return intElements ? new int[n] : new Object[n];
+			}
+
+		};
+	}
+
+	@Override
+	public void visitTypeTest(Tree.TypeTest instanceofExpr) {
+		final Expr e = expr(instanceofExpr.instance);
+		final Code.RuntimeClass rc = interp
+				.getRuntimeClass(instanceofExpr.symbol);
+		expr = new Expr() {
+
+			@Override
+			int evalInt(Frame f) {
+				Object o = e.eval(f);
+				return o != null && ((Code.Obj) o).cls.isSubclassOf(rc) ? 1 : 0;
+			}
+
+		};
+	}
+
+	@Override
+	public void visitTypeCast(Tree.TypeCast cast) {
+		final Expr e = expr(cast.expr);
+		if (cast.expr.type.compatible(cast.type)) {
+			expr = e;
+			return;
+		}
+		final Code.RuntimeClass rc = interp.getRuntimeClass(cast.symbol);
+		expr = new Expr() {
+
+			@Override
+			Object eval(Frame f) {
+				Object o = e.eval(f);
+				if (o != null && !((Code.Obj) o).cls.isSubclassOf(rc)) {
+					throw new Halt(RuntimeError.CLASS_CAST_ERROR1
+							+ ((Code.Obj) o).cls.name
+							+ RuntimeError.CLASS_CAST_ERROR2 + rc.name
+							+ RuntimeError.CLASS_CAST_ERROR3);
+				}
+				return o;
+			}
+
+		};
+	}
+
+	@Override
+	public void visitArrayConstant(Tree.ArrayConstant arrayConstant) {
+		int n = arrayConstant.empty ? 0 : arrayConstant.elist.size();
+		final Expr[] elements = new Expr[n];
+		for (int i = 0; i < n; i++) {
+			elements[i] = expr(arrayConstant.elist.get(i));
+		}
+		if (hasIntElements(arrayConstant.type)) {
+			expr = new Expr() {
+
+				@Override
+				Object eval(Frame f) {
+					int[] a = new int[elements.length];
+					for (int i = 0; i < a.length; i++) {
+						a[i] = elements[i].evalInt(f);
+					}
+					return a;
+				}
+
+			};
+		} else {
+			expr = new Expr() {
+
+				@Override
+				Object eval(Frame f) {
+					Object[] a = new Object[elements.length];
+					for (int i = 0; i < a.length; i++) {
+						a[i] = elements[i].eval(f);
+					}
+					return a;
+				}
+
+			};
+		}
+	}
+
+	@Override
+	public void visitArrayRepeat(Tree.ArrayRepeat arrayRepeat) {
+		final Expr value = expr(arrayRepeat.expr);
+		final Expr count = expr(arrayRepeat.intconst);
+		if (hasIntElements(arrayRepeat.type)) {
+			expr = new Expr() {
+
+				@Override
+				Object eval(Frame f) {
+					int v = value.evalInt(f);
+					int[] a = new int[size(count.evalInt(f))];
+					Arrays.fill(a, v);
+					return a;
+				}
+
+			};
+		} else {
+			expr = new Expr() {
+
+				@Override
+				Object eval(Frame f) {
+					Object v = value.eval(f);
+					Object[] a = new Object[size(count.evalInt(f))];
+					Arrays.fill(a, v);
+					return a;
+				}
+
+			};
+		}
+	}
+
+	private static int size(int n) {
+		if (n < 0) {
+			throw new Halt(RuntimeError.NEGATIVE_ARR_SIZE);
+		}
+		return n;
+	}
+
+	@Override
+	public void visitArrayConcat(Tree.ArrayConcat arrayConcat) {
+		final Expr left = expr(arrayConcat.left);
+		final Expr right = expr(arrayConcat.right);
+		if (hasIntElements(arrayConcat.type)) {
+			expr = new Expr() {
+
+				@Override
+				Object eval(Frame f) {
+					int[] a = Interpreter.intArray(left.eval(f));
+					int[] b = Interpreter.intArray(right.eval(f));
+					int[] c = Arrays.copyOf(a, a.length + b.length);
+					System.arraycopy(b, 0, c, a.length, b.length);
+					return c;
+				}
+
+			};
+		} else {
+			expr = new Expr() {
+
+				@Override
+				Object eval(Frame f) {
+					Object[] a = Interpreter.refArray(left.eval(f));
+					Object[] b = Interpreter.refArray(right.eval(f));
+					Object[] c = Arrays.copyOf(a, a.length + b.length);
+					System.arraycopy(b, 0, c, a.length, b.length);
+					return c;
+				}
+
+			};
+		}
+	}
+
+	/**
+	 * a[i:j] 为下标在 [i, j) 中的元素组成的新数组，与三地址码相同
+	 */
+	@Override
+	public void visitSubArray(Tree.SubArray subArray) {
+		final Expr array = expr(subArray._1);
+		final Expr from = expr(subArray._3);
+		final Expr to = expr(subArray._5);
+		if (hasIntElements(subArray.type)) {
+			expr = new Expr() {
+
+				@Override
+				Object eval(Frame f) {
+					int[] a = Interpreter.intArray(array.eval(f));
+					int i = from.evalInt(f);
+					int j = to.evalInt(f);
+					checkRange(i, j, a.length);
+					return Arrays.copyOfRange(a, i, Math.max(i, j));
+				}
+
+			};
+		} else {
+			expr = new Expr() {
+
+				@Override
+				Object eval(Frame f) {
+					Object[] a = Interpreter.refArray(array.eval(f));
+					int i = from.evalInt(f);
+					int j = to.evalInt(f);
+					checkRange(i, j, a.length);
+					return Arrays.copyOfRange(a, i, Math.max(i, j));
+				}
+
+			};
+		}
+	}
+
+	private static void checkRange(int from, int to, int length) {
+		if (from < 0 || to > length) {
+			throw new Halt(RuntimeError.ARRAY_INDEX_OUT_OF_BOUND);
+		}
+	}
+
+	@Override
+	public void visitDynamicAccess(Tree.DynamicAccess dynamicAccess) {
+		final Expr array = expr(dynamicAccess._1);
+		final Expr index = expr(dynamicAccess._2);
+		final Expr otherwise = expr(dynamicAccess._3);
+		if (hasIntElements(dynamicAccess._1.type)) {
+			expr = new Expr() {
+
+				@Override
+				int evalInt(Frame f) {
+					int[] a = Interpreter.intArray(array.eval(f));
+					int i = index.evalInt(f);
+					return i >= 0 && i < a.length ? a[i] : otherwise.evalInt(f);
+				}
+
+			};
+		} else {
+			expr = new Expr() {
+
+				@Override
+				Object eval(Frame f) {
+					Object[] a = Interpreter.refArray(array.eval(f));
+					int i = index.evalInt(f);
+					return i >= 0 && i < a.length ? a[i] : otherwise.eval(f);
+				}
+
+			};
+		}
+	}
+
+	@Override
+	public void visitPythonArr(Tree.PythonArr pythonArr) {
+		final Expr src = expr(pythonArr._2);
+		final int slot = slotOf(pythonArr.symbol);
+		final boolean intSrc = Interpreter.isInt(pythonArr.symbol.getType());
+		final Expr cond = pythonArr._if ? expr(pythonArr._3) : null;
+		final Expr element = expr(pythonArr._1);
+		final boolean intElements = hasIntElements(pythonArr.type);
+		expr = new Expr() {
+
+			@Override
+			Object eval(Frame f) {
+				Object a = src.eval(f);
+				int n = Interpreter.length(a);
+				int[] ints = intElements ? new int[n] : null;
+				Object[] refs = intElements ? null : new Object[n];
+				int k = 0;
+				for (int i = 0; i < n; i++) {
+					if (intSrc) {
+						f.ints[slot] = ((int[]) a)[i];
+					} else {
+						f.refs[slot] = ((Object[]) a)[i];
+					}
+					if (cond != null && cond.evalInt(f) == 0) {
+						continue;
+					}
+					if (intElements) {
+						ints[k++] = element.evalInt(f);
+					} else {
+						refs[k++] = element.eval(f);
+					}
+				}
+				return intElements ? Arrays.copyOf(ints, k) : Arrays.copyOf(
+						refs, k);
+			}
+
+		};
+	}
+}
@@ -0,0 +1,260 @@
+package decaf.interp;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import decaf.Driver;
+import decaf.error.RuntimeError;
+import decaf.scope.GlobalScope;
+import decaf.symbol.Class;
+import decaf.symbol.Function;
+import decaf.symbol.Symbol;
+import decaf.symbol.Variable;
+import decaf.tree.Tree;
+import decaf.type.BaseType;
+import decaf.type.Type;
+
+/**
+ * 直接执行类型检查过的程序（-run）<br>
+ * 先为全局作用域中的每个类确定成员变量的槽位和虚表（虚方法按类作用域中的顺序，
+ * 覆盖父类的方法占用父类中的位置），再把各方法体转换为可执行结点，最后在一个栈较大的线程中执行 Main.main。
+ */
+public final class Interpreter {
+
+	/**
+	 * 执行线程的栈大小，递归较深的程序也不会溢出
+	 */
+	private static final long STACK_SIZE = 1L << 29;
+
+	private BufferedReader in;
+
+	private PrintWriter out;
+
+	private Map<Class, Code.RuntimeClass> classes = new IdentityHashMap<Class, Code.RuntimeClass>();
+
+	private Map<Function, Code.Method> methods = new IdentityHashMap<Function, Code.Method>();
+
+	/**
+	 * 虚方法在虚表中的位置
+	 */
+	private Map<Function, Integer> indexes = new IdentityHashMap<Function, Integer>();
+
+	/**
+	 * 成员变量在对象中的槽位
+	 */
+	private Map<Variable, Integer> fieldSlots = new IdentityHashMap<Variable, Integer>();
+
+	private Interpreter(InputStream in, PrintStream out) {
+		this.in = new BufferedReader(new InputStreamReader(in));
+		this.out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+				out)));
+	}
+
+	/**
+	 * 执行 tree 中的 Main.main
+	 *
+	 * @return 正常结束时为 0，发生运行期错误时为 1
+	 * @throws IllegalStateException
+	 *             调用了没有方法体的方法（类只有接口文件）
+	 */
+	public static int run(Tree.TopLevel tree, InputStream in, PrintStream out) {
+		final Interpreter interp = new Interpreter(in, out);
+		interp.link(tree.globalScope);
+		new CodeBuilder(interp).build(tree);
+		final Code.Method main = interp.methods.get(mainOf(tree));
+		final int[] status = new int[1];
+		final Throwable[] failure = new Throwable[1];
+		Thread thread = new Thread(null, new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					main.body.exec(new Code.Frame(main));
+				} catch (Code.Halt e) {
+					interp.out.print(e.getMessage());
+					status[0] = 1;
+				} catch (StackOverflowError e) {
+					interp.out.print(RuntimeError.STACK_OVERFLOW);
+					status[0] = 1;
+				} catch (Throwable e) {
+					failure[0] = e;
+				}
+				interp.out.flush();
+			}
+
+		}, "decaf-run", STACK_SIZE);
+		thread.start();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (failure[0] instanceof RuntimeException) {
+			throw (RuntimeException) failure[0];
+		} else if (failure[0] != null) {
+			throw new IllegalStateException(failure[0]);
+		}
+		return status[0];
+	}
+
+	private static Function mainOf(Tree.TopLevel tree) {
+		return (Function) tree.main.getAssociatedScope().lookup(
+				Driver.getDriver().getOption().getMainFuncName());
+	}
+
+	private void link(GlobalScope globalScope) {
+		for (Iterator<Symbol> iter = globalScope.iterator(); iter.hasNext();) {
+			Symbol s = iter.next();
+			if (s.isClass()) {
+				resolve((Class) s);
+			}
+		}
+	}
+
+	private Code.RuntimeClass resolve(Class c) {
+		Code.RuntimeClass rc = classes.get(c);
+		if (rc != null) {
+			return rc;
+		}
+		Code.RuntimeClass parent = c.getParent() == null ? null : resolve(c
+				.getParent());
+		rc = new Code.RuntimeClass(c.getName(), parent);
+		List<Code.Method> vtable = new ArrayList<Code.Method>();
+		Map<String, Integer> slots = new HashMap<String, Integer>();
+		if (parent != null) {
+			rc.numInts = parent.numInts;
+			rc.numRefs = parent.numRefs;
+			for (Code.Method m : parent.vtable) {
+				slots.put(m.name.substring(m.name.indexOf('.') + 1), vtable
+						.size());
+				vtable.add(m);
+			}
+		}
+		for (Iterator<Symbol> iter = c.getAssociatedScope().iterator(); iter
+				.hasNext();) {
+			Symbol s = iter.next();
+			if (s.isVariable()) {
+				fieldSlots.put((Variable) s, isInt(s.getType()) ? rc.numInts++
+						: rc.numRefs++);
+			} else if (s.isFunction()) {
+				Function f = (Function) s;
+				Code.Method m = new Code.Method(c.getName() + "." + f.getName());
+				methods.put(f, m);
+				if (!f.isStatik()) {
+					Integer index = slots.get(f.getName());
+					if (index == null) {
+						index = vtable.size();
+						slots.put(f.getName(), index);
+						vtable.add(m);
+					} else {
+						vtable.set(index, m);
+					}
+					indexes.put(f, index);
+				}
+			}
+		}
+		rc.vtable = vtable.toArray(new Code.Method[vtable.size()]);
+		classes.put(c, rc);
+		return rc;
+	}
+
+	Code.RuntimeClass getRuntimeClass(Class c) {
+		return classes.get(c);
+	}
+
+	Code.Method getMethod(Function f) {
+		return methods.get(f);
+	}
+
+	int getIndex(Function f) {
+		return indexes.get(f);
+	}
+
+	int getFieldSlot(Variable v) {
+		return fieldSlots.get(v);
+	}
+
+	/**
+	 * @return 类型为 t 的值是否存放在 int 槽位中
+	 */
+	static boolean isInt(Type t) {
+		return t.equal(BaseType.INT) || t.equal(BaseType.BOOL);
+	}
+
+	static Code.Obj deref(Object o) {
+		if (o == null) {
+			throw new Code.Halt(RuntimeError.NULL_POINTER);
+		}
+		return (Code.Obj) o;
+	}
+
+	/**
+	 * @return 元素为 int 或 bool 的数组；静态类型为元素未知的空数组常量 [] 也当作空的 int[]
+	 */
+	static int[] intArray(Object o) {
+		if (o instanceof int[]) {
+			return (int[]) o;
+		}
+		if (o == null) {
+			throw new Code.Halt(RuntimeError.NULL_POINTER);
+		}
+		return EMPTY;
+	}
+
+	static Object[] refArray(Object o) {
+		if (o == null) {
+			throw new Code.Halt(RuntimeError.NULL_POINTER);
+		}
+		return (Object[]) o;
+	}
+
+	private static final int[] EMPTY = new int[0];
+
+	static int length(Object array) {
+		if (array instanceof int[]) {
+			return ((int[]) array).length;
+		}
+		return refArray(array).length;
+	}
+
+	static void checkIndex(int index, int length) {
+		if (index < 0 || index >= length) {
+			throw new Code.Halt(RuntimeError.ARRAY_INDEX_OUT_OF_BOUND);
+		}
+	}
+
+	void print(String s) {
+		out.print(s);
+	}
+
+	int readInteger() {
+		String line = readLine();
+		try {
+			return Integer.parseInt(line.trim());
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	String readLine() {
+		out.flush();
+		try {
+			String line = in.readLine();
+			return line == null ? "" : line;
+		} catch (IOException e) {
+			return "";
+		}
+	}
+}
@@ -0,0 +1,38 @@
+package decaf.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * 建立符号表或类型检查时对一个类的处理
+ */
+@Name("decaf.Class")
+@Label("Class")
+@Category("Decaf")
+@Description("Symbol building or type checking of one class")
+public final class ClassEvent extends Event {
+
+	@Label("Phase")
+	public String phase;
+
+	@Label("Class")
+	public String className;
+
+	@Label("Members")
+	public int members;
+
+	@Label("Nodes")
+	@Description("Number of syntax tree nodes in the class")
+	public int nodes;
+
+	@Label("Errors")
+	@Description("Number of errors reported for the class")
+	public int errors;
+
+	public ClassEvent(String phase) {
+		this.phase = phase;
+	}
+}
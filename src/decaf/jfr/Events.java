@@ -0,0 +1,43 @@
+package decaf.jfr;
+
+import decaf.Driver;
+import decaf.tree.Tree;
+import decaf.tree.TreeScanner;
+
+/**
+ * Flight Recorder 事件的辅助函数<br>
+ * 事件的用法：开始处 new 出事件并 begin，只有 isEnabled 时才记下当前线程的错误数；
+ * 结束处先 end，只有 shouldCommit 时才统计结点数（不计入事件的时长）并 commit。
+ * 不记录时事件对象不逃逸，即时编译后这些代码几乎没有开销。<br>
+ * 录制：java -XX:StartFlightRecording=filename=decaf.jfr -jar decaf.jar ...；
+ * 查看：jfr print --events 'decaf.*' decaf.jfr
+ */
+public final class Events {
+
+	private Events() {
+	}
+
+	/**
+	 * @return 当前线程报告过的错误数
+	 */
+	public static int errors() {
+		return Driver.getDriver().getErrorSink().issuedHere();
+	}
+
+	/**
+	 * @return 以 tree 为根的子树中的结点数
+	 */
+	public static int countNodes(Tree tree) {
+		final int[] count = new int[1];
+		new TreeScanner() {
+
+			@Override
+			protected boolean enter(Tree t) {
+				count[0]++;
+				return true;
+			}
+
+		}.scan(tree);
+		return count[0];
+	}
+}
@@ -0,0 +1,35 @@
+package decaf.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * 类型检查一个方法
+ */
+@Name("decaf.Method")
+@Label("Method")
+@Category("Decaf")
+@Description("Type checking of one method body")
+public final class MethodEvent extends Event {
+
+	@Label("Class")
+	public String className;
+
+	@Label("Method")
+	public String methodName;
+
+	@Label("Nodes")
+	@Description("Number of syntax tree nodes in the method")
+	public int nodes;
+
+	@Label("Errors")
+	@Description("Number of errors reported for the method")
+	public int errors;
+
+	@Label("Replayed")
+	@Description("Whether the result was replayed from the method cache")
+	public boolean replayed;
+}
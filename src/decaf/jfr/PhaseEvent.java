@@ -0,0 +1,35 @@
+package decaf.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * 一个编译阶段（整个编译、语法分析、输出语法树或作用域等）
+ */
+@Name("decaf.Phase")
+@Label("Compiler Phase")
+@Category("Decaf")
+@Description("A phase of the Decaf compiler over a whole program")
+public final class PhaseEvent extends Event {
+
+	@Label("Phase")
+	public String phase;
+
+	@Label("Source")
+	public String source;
+
+	@Label("Nodes")
+	@Description("Number of syntax tree nodes in the program")
+	public int nodes;
+
+	@Label("Errors")
+	@Description("Number of errors reported during the phase")
+	public int errors;
+
+	public PhaseEvent(String phase) {
+		this.phase = phase;
+	}
+}
@@ -0,0 +1,902 @@
+package decaf.jvm;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import decaf.jvm.CodeWriter.Label;
+import decaf.scope.ClassScope;
+import decaf.symbol.Class;
+import decaf.symbol.Function;
+import decaf.symbol.Symbol;
+import decaf.symbol.Variable;
+import decaf.tree.Tree;
+import decaf.type.ArrayType;
+import decaf.type.BaseType;
+import decaf.type.ClassType;
+import decaf.type.Type;
+
+/**
+ * 为一个 Decaf 类生成 JVM 类<br>
+ * 求值顺序与三地址码相同：&amp;&amp; 和 || 两边都求值，数组下标先于赋值号右边检查。
+ * 覆盖父类方法时参数类型可以更宽、返回类型可以更窄，描述符因此不同，
+ * 此时另外生成与父类方法描述符相同的桥方法转调本方法。
+ */
+final class ClassGen extends Tree.Visitor {
+
+	private static final String OBJECT = "java/lang/Object";
+
+	/**
+	 * 复制对象的方法名，Decaf 的标识符中不会有 $
+	 */
+	private static final String COPY = "copy$";
+
+	private final ClassWriter cw;
+
+	private CodeWriter code;
+
+	private Function currentFunction;
+
+	private final Map<Variable, Integer> slots = new IdentityHashMap<Variable, Integer>();
+
+	/**
+	 * 外层循环的出口，最内层在最后
+	 */
+	private final List<Label> breaks = new ArrayList<Label>();
+
+	private ClassGen(ClassWriter cw) {
+		this.cw = cw;
+	}
+
+	static byte[] generate(Tree.ClassDef classDef) {
+		Class c = classDef.symbol;
+		String superName = c.getParent() == null ? OBJECT : Jvm
+				.internalName(c.getParent());
+		ClassGen gen = new ClassGen(new ClassWriter(Jvm.internalName(c),
+				superName));
+		for (Iterator<Symbol> iter = c.getAssociatedScope().iterator(); iter
+				.hasNext();) {
+			Symbol s = iter.next();
+			if (s.isVariable()) {
+				gen.cw.addField(ClassWriter.ACC_PUBLIC, s.getName(), Jvm
+						.descriptor(s.getType()));
+			}
+		}
+		gen.constructor(superName);
+		if (c.getParent() == null) {
+			gen.copy();
+		}
+		for (Tree f : classDef.fields) {
+			if (f.tag == Tree.METHODDEF) {
+				gen.method((Tree.MethodDef) f);
+				gen.bridges(c, ((Tree.MethodDef) f).symbol);
+			}
+		}
+		return gen.cw.toByteArray();
+	}
+
+	private void constructor(String superName) {
+		code = new CodeWriter(cw, 1);
+		code.var(CodeWriter.ALOAD, 0);
+		code.invoke(CodeWriter.INVOKESPECIAL, superName, "<init>", "()V");
+		code.op(CodeWriter.RETURN);
+		cw.addMethod(ClassWriter.ACC_PUBLIC, "<init>", "()V", code);
+	}
+
+	/**
+	 * 根类实现 Cloneable，生成 scopy 用的 copy$：按运行时类浅复制，子类都继承它
+	 */
+	private void copy() {
+		cw.setInterface("java/lang/Cloneable");
+		code = new CodeWriter(cw, 1);
+		code.var(CodeWriter.ALOAD, 0);
+		code.invoke(CodeWriter.INVOKESPECIAL, OBJECT, "clone",
+				"()Ljava/lang/Object;");
+		code.op(CodeWriter.ARETURN);
+		cw.addMethod(ClassWriter.ACC_PUBLIC, COPY, "()Ljava/lang/Object;", code);
+	}
+
+	private void method(Tree.MethodDef funcDef) {
+		currentFunction = funcDef.symbol;
+		slots.clear();
+		int n = 0;
+		for (Iterator<Symbol> iter = currentFunction.getAssociatedScope()
+				.iterator(); iter.hasNext();) {
+			slots.put((Variable) iter.next(), n++);
+		}
+		code = new CodeWriter(cw, n);
+		funcDef.body.accept(this);
+		if (code.isReachable()) {
+			Type t = currentFunction.getReturnType();
+			if (!t.equal(BaseType.VOID)) {
+				pushDefault(t);
+			}
+			code.op(returnOp(t));
+		}
+		int access = ClassWriter.ACC_PUBLIC
+				| (currentFunction.isStatik() ? ClassWriter.ACC_STATIC : 0);
+		cw.addMethod(access, Jvm.methodName(currentFunction), Jvm
+				.descriptor(currentFunction), code);
+		currentFunction = null;
+	}
+
+	/**
+	 * 为祖先类中描述符与 f 不同的同名方法各生成一个桥方法
+	 */
+	private void bridges(Class c, Function f) {
+		if (f.isStatik()) {
+			return;
+		}
+		String descriptor = Jvm.descriptor(f);
+		Set<String> seen = new HashSet<String>();
+		seen.add(descriptor);
+		for (Class a = c.getParent(); a != null; a = a.getParent()) {
+			Function g = Jvm.declared(a, f.getName());
+			if (g == null || g.isStatik() || !seen.add(Jvm.descriptor(g))) {
+				continue;
+			}
+			List<Type> params = g.getType().getArgList();
+			code = new CodeWriter(cw, params.size());
+			code.var(CodeWriter.ALOAD, 0);
+			for (int i = 1; i < params.size(); i++) {
+				code.var(loadOp(params.get(i)), i);
+			}
+			code.invoke(CodeWriter.INVOKEVIRTUAL, Jvm.internalName(c), Jvm
+					.methodName(f), descriptor);
+			code.op(returnOp(g.getReturnType()));
+			cw.addMethod(ClassWriter.ACC_PUBLIC, Jvm.methodName(g), Jvm
+					.descriptor(g), code);
+		}
+	}
+
+	private int slotOf(Variable v) {
+		Integer slot = slots.get(v);
+		if (slot == null) {
+			slot = code.newLocal();
+			slots.put(v, slot);
+		}
+		return slot;
+	}
+
+	// 按类型选择指令
+
+	private static boolean isInt(Type t) {
+		return t.equal(BaseType.INT) || t.equal(BaseType.BOOL);
+	}
+
+	private static int loadOp(Type t) {
+		return isInt(t) ? CodeWriter.ILOAD : CodeWriter.ALOAD;
+	}
+
+	private static int storeOp(Type t) {
+		return isInt(t) ? CodeWriter.ISTORE : CodeWriter.ASTORE;
+	}
+
+	private static int returnOp(Type t) {
+		if (t.equal(BaseType.VOID)) {
+			return CodeWriter.RETURN;
+		}
+		return isInt(t) ? CodeWriter.IRETURN : CodeWriter.ARETURN;
+	}
+
+	private static Type elementOf(Type arrayType) {
+		return arrayType.isArrayType() ? ((ArrayType) arrayType)
+				.getElementType() : BaseType.UNKNOWN;
+	}
+
+	private static int arrayLoadOp(Type arrayType) {
+		Type t = elementOf(arrayType);
+		if (t.equal(BaseType.INT)) {
+			return CodeWriter.IALOAD;
+		}
+		return t.equal(BaseType.BOOL) ? CodeWriter.BALOAD : CodeWriter.AALOAD;
+	}
+
+	private static int arrayStoreOp(Type arrayType) {
+		Type t = elementOf(arrayType);
+		if (t.equal(BaseType.INT)) {
+			return CodeWriter.IASTORE;
+		}
+		return t.equal(BaseType.BOOL) ? CodeWriter.BASTORE
+				: CodeWriter.AASTORE;
+	}
+
+	private void pushDefault(Type t) {
+		if (isInt(t)) {
+			code.intConst(0);
+		} else {
+			code.op(CodeWriter.ACONST_NULL);
+		}
+	}
+
+	/**
+	 * 新建元素类型为 element 的数组，长度已在栈顶
+	 */
+	private void newArray(Type element) {
+		if (element.equal(BaseType.INT)) {
+			code.newArray(CodeWriter.T_INT);
+		} else if (element.equal(BaseType.BOOL)) {
+			code.newArray(CodeWriter.T_BOOLEAN);
+		} else {
+			code.type(CodeWriter.ANEWARRAY, Jvm.typeName(element));
+		}
+	}
+
+	/**
+	 * 调用 Intrinsics 中参数与结果按数组类型 t 选择的方法，引用数组的结果转换回 t
+	 */
+	private void intrinsic(String name, String params, Type t) {
+		String array = arrayDescriptor(t);
+		code.invoke(CodeWriter.INVOKESTATIC, Jvm.INTRINSICS, name, "("
+				+ params.replace("A", array) + ")" + array);
+		if (array.equals("[Ljava/lang/Object;") && !Jvm.hasUnknown(t)) {
+			code.type(CodeWriter.CHECKCAST, Jvm.typeName(t));
+		}
+	}
+
+	private static String arrayDescriptor(Type t) {
+		String d = Jvm.descriptor(t);
+		return d.equals("[I") || d.equals("[Z") ? d : "[Ljava/lang/Object;";
+	}
+
+	// 表达式
+
+	private void gen(Tree.Expr e) {
+		e.accept(this);
+	}
+
+	/**
+	 * 求 e 的值，需要时把 [] 得到的数组换成 expected 类型的数组
+	 */
+	private void gen(Tree.Expr e, Type expected) {
+		e.accept(this);
+		if (expected.isArrayType() && Jvm.hasUnknown(e.type)
+				&& !Jvm.hasUnknown(expected)) {
+			code.classConst(Jvm.typeName(expected));
+			code.invoke(CodeWriter.INVOKESTATIC, Jvm.INTRINSICS, "coerce",
+					"(Ljava/lang/Object;Ljava/lang/Class;)Ljava/lang/Object;");
+			code.type(CodeWriter.CHECKCAST, Jvm.typeName(expected));
+		}
+	}
+
+	/**
+	 * 条件 cond 的值为 when 时跳到 target
+	 */
+	private void branch(Tree.Expr cond, Label target, boolean when) {
+		if (cond.tag == Tree.NOT) {
+			branch(((Tree.Unary) cond).expr, target, !when);
+			return;
+		}
+		int op = compareOp(cond);
+		if (op < 0) {
+			gen(cond);
+			code.jump(when ? CodeWriter.IFNE : CodeWriter.IFEQ, target);
+			return;
+		}
+		Tree.Binary binary = (Tree.Binary) cond;
+		gen(binary.left);
+		gen(binary.right);
+		code.jump(when ? op : negate(op), target);
+	}
+
+	/**
+	 * @return 两个操作数比较并跳转的指令，需要调用方法比较时为 -1
+	 */
+	private static int compareOp(Tree.Expr e) {
+		if (e.tag < Tree.EQ || e.tag > Tree.GE) {
+			return -1;
+		}
+		Tree.Binary binary = (Tree.Binary) e;
+		if (!isInt(binary.left.type)) {
+			if (binary.left.type.equal(BaseType.STRING)) {
+				return -1;
+			}
+			return e.tag == Tree.EQ ? CodeWriter.IF_ACMPEQ
+					: CodeWriter.IF_ACMPNE;
+		}
+		switch (e.tag) {
+		case Tree.EQ:
+			return CodeWriter.IF_ICMPEQ;
+		case Tree.NE:
+			return CodeWriter.IF_ICMPNE;
+		case Tree.LT:
+			return CodeWriter.IF_ICMPLT;
+		case Tree.LE:
+			return CodeWriter.IF_ICMPLE;
+		case Tree.GT:
+			return CodeWriter.IF_ICMPGT;
+		default:
+			return CodeWriter.IF_ICMPGE;
+		}
+	}
+
+	/**
+	 * IF_ICMPEQ 起的比较指令两两互为相反条件
+	 */
+	private static int negate(int op) {
+		return (op - CodeWriter.IF_ICMPEQ ^ 1) + CodeWriter.IF_ICMPEQ;
+	}
+
+	@Override
+	public void visitLiteral(Tree.Literal literal) {
+		switch (literal.typeTag) {
+		case Tree.INT:
+			code.intConst(((Integer) literal.value).intValue());
+			break;
+		case Tree.BOOL:
+			code.intConst((Boolean) literal.value ? 1 : 0);
+			break;
+		default:
+			code.stringConst((String) literal.value);
+		}
+	}
+
+	@Override
+	public void visitNull(Tree.Null nullExpr) {
+		code.op(CodeWriter.ACONST_NULL);
+	}
+
+	@Override
+	public void visitThisExpr(Tree.ThisExpr thisExpr) {
+		code.var(CodeWriter.ALOAD, 0);
+	}
+
+	@Override
+	public void visitIdent(Tree.Ident ident) {
+		Variable v = ident.symbol;
+		if (ident.lvKind == Tree.LValue.Kind.MEMBER_VAR) {
+			gen(ident.owner);
+			code.field(CodeWriter.GETFIELD, ownerOf(v), v.getName(), Jvm
+					.descriptor(v.getType()));
+		} else {
+			code.var(loadOp(v.getType()), slotOf(v));
+		}
+	}
+
+	private static String ownerOf(Variable field) {
+		return Jvm.internalName(((ClassScope) field.getScope())
+				.getOwner());
+	}
+
+	@Override
+	public void visitIndexed(Tree.Indexed indexed) {
+		gen(indexed.array);
+		gen(indexed.index);
+		code.op(arrayLoadOp(indexed.array.type));
+	}
+
+	@Override
+	public void visitReadIntExpr(Tree.ReadIntExpr readIntExpr) {
+		code.invoke(CodeWriter.INVOKESTATIC, Jvm.INTRINSICS, "readInteger",
+				"()I");
+	}
+
+	@Override
+	public void visitReadLineExpr(Tree.ReadLineExpr readStringExpr) {
+		code.invoke(CodeWriter.INVOKESTATIC, Jvm.INTRINSICS, "readLine",
+				"()Ljava/lang/String;");
+	}
+
+	@Override
+	public void visitUnary(Tree.Unary unary) {
+		gen(unary.expr);
+		if (unary.tag == Tree.NEG) {
+			code.op(CodeWriter.INEG);
+		} else {
+			code.intConst(1);
+			code.op(CodeWriter.IXOR);
+		}
+	}
+
+	@Override
+	public void visitBinary(Tree.Binary binary) {
+		if (binary.tag >= Tree.EQ && binary.tag <= Tree.GE) {
+			if (compareOp(binary) < 0) {
+				// 字符串比较内容
+				gen(binary.left);
+				gen(binary.right);
+				code.invoke(CodeWriter.INVOKESTATIC, Jvm.INTRINSICS, "equal",
+						"(Ljava/lang/String;Ljava/lang/String;)Z");
+				if (binary.tag == Tree.NE) {
+					code.intConst(1);
+					code.op(CodeWriter.IXOR);
+				}
+				return;
+			}
+			Label yes = new Label();
+			Label end = new Label();
+			branch(binary, yes, true);
+			code.intConst(0);
+			code.jump(CodeWriter.GOTO, end);
+			code.mark(yes);
+			code.intConst(1);
+			code.mark(end);
+			return;
+		}
+		gen(binary.left);
+		gen(binary.right);
+		switch (binary.tag) {
+		case Tree.PLUS:
+			code.op(CodeWriter.IADD);
+			break;
+		case Tree.MINUS:
+			code.op(CodeWriter.ISUB);
+			break;
+		case Tree.MUL:
+			code.op(CodeWriter.IMUL);
+			break;
+		case Tree.DIV:
+			code.op(CodeWriter.IDIV);
+			break;
+		case Tree.MOD:
+			code.op(CodeWriter.IREM);
+			break;
+		case Tree.AND:
+			code.op(CodeWriter.IAND);
+			break;
+		default:
+			code.op(CodeWriter.IOR);
+		}
+	}
+
+	@Override
+	public void visitCallExpr(Tree.CallExpr callExpr) {
+		if (callExpr.isArrayLength) {
+			gen(callExpr.receiver);
+			code.op(CodeWriter.ARRAYLENGTH);
+			return;
+		}
+		Function func = callExpr.symbol;
+		if (!func.isStatik()) {
+			if (callExpr.receiver == null) {
+				code.var(CodeWriter.ALOAD, 0);
+			} else {
+				gen(callExpr.receiver);
+			}
+		}
+		List<Type> params = func.getType().getArgList();
+		int first = func.isStatik() ? 0 : 1;
+		for (int i = 0; i < callExpr.actuals.size(); i++) {
+			gen(callExpr.actuals.get(i), params.get(first + i));
+		}
+		code.invoke(func.isStatik() ? CodeWriter.INVOKESTATIC
+				: CodeWriter.INVOKEVIRTUAL, Jvm.internalName(func.getScope()
+				.getOwner()), Jvm.methodName(func), Jvm.descriptor(func));
+	}
+
+	@Override
+	public void visitNewClass(Tree.NewClass newClass) {
+		String name = Jvm.internalName(newClass.symbol);
+		code.type(CodeWriter.NEW, name);
+		code.op(CodeWriter.DUP);
+		code.invoke(CodeWriter.INVOKESPECIAL, name, "<init>", "()V");
+	}
+
+	@Override
+	public void visitNewArray(Tree.NewArray newArray) {
+		gen(newArray.length);
+		newArray(elementOf(newArray.type));
+	}
+
+	@Override
+	public void visitTypeTest(Tree.TypeTest instanceofExpr) {
+		gen(instanceofExpr.instance);
+		code.type(CodeWriter.INSTANCEOF, Jvm
+				.internalName(instanceofExpr.symbol));
+	}
+
+	@Override
+	public void visitTypeCast(Tree.TypeCast cast) {
+		gen(cast.expr);
+		if (cast.expr.type.compatible(cast.type)) {
+			return;
+		}
+		// null 可以转换为任何类
+		String name = Jvm.internalName(cast.symbol);
+		Label ok = new Label();
+		code.op(CodeWriter.DUP);
+		code.jump(CodeWriter.IFNULL, ok);
+		code.op(CodeWriter.DUP);
+		code.type(CodeWriter.INSTANCEOF, name);
+		code.jump(CodeWriter.IFNE, ok);
+		code.op(CodeWriter.DUP);
+		code.stringConst(cast.symbol.getName());
+		code.invoke(CodeWriter.INVOKESTATIC, Jvm.INTRINSICS, "castError",
+				"(Ljava/lang/Object;Ljava/lang/String;)V");
+		code.mark(ok);
+		code.type(CodeWriter.CHECKCAST, name);
+	}
+
+	@Override
+	public void visitArrayConstant(Tree.ArrayConstant arrayConstant) {
+		int n = arrayConstant.empty ? 0 : arrayConstant.elist.size();
+		Type element = elementOf(arrayConstant.type);
+		code.intConst(n);
+		newArray(element);
+		for (int i = 0; i < n; i++) {
+			code.op(CodeWriter.DUP);
+			code.intConst(i);
+			gen(arrayConstant.elist.get(i), element);
+			code.op(arrayStoreOp(arrayConstant.type));
+		}
+	}
+
+	@Override
+	public void visitArrayRepeat(Tree.ArrayRepeat arrayRepeat) {
+		Type element = elementOf(arrayRepeat.type);
+		if (isInt(element)) {
+			gen(arrayRepeat.expr);
+			gen(arrayRepeat.intconst);
+			code.invoke(CodeWriter.INVOKESTATIC, Jvm.INTRINSICS, "repeat", "("
+					+ Jvm.descriptor(element) + "I)"
+					+ Jvm.descriptor(arrayRepeat.type));
+			return;
+		}
+		// 值先于次数求值，数组按元素类型新建
+		int value = code.newLocal();
+		gen(arrayRepeat.expr, element);
+		code.var(CodeWriter.ASTORE, value);
+		gen(arrayRepeat.intconst);
+		newArray(element);
+		code.var(CodeWriter.ALOAD, value);
+		intrinsic("fill", "ALjava/lang/Object;", arrayRepeat.type);
+	}
+
+	@Override
+	public void visitArrayConcat(Tree.ArrayConcat arrayConcat) {
+		gen(arrayConcat.left, arrayConcat.type);
+		gen(arrayConcat.right, arrayConcat.type);
+		intrinsic("concat", "AA", arrayConcat.type);
+	}
+
+	@Override
+	public void visitSubArray(Tree.SubArray subArray) {
+		gen(subArray._1);
+		gen(subArray._3);
+		gen(subArray._5);
+		intrinsic("slice", "AII", subArray.type);
+	}
+
+	/**
+	 * 下标越界时才求默认值
+	 */
+	@Override
+	public void visitDynamicAccess(Tree.DynamicAccess dynamicAccess) {
+		int array = code.newLocal();
+		int index = code.newLocal();
+		gen(dynamicAccess._1);
+		code.var(CodeWriter.ASTORE, array);
+		gen(dynamicAccess._2);
+		code.var(CodeWriter.ISTORE, index);
+		code.var(CodeWriter.ILOAD, index);
+		code.var(CodeWriter.ALOAD, array);
+		code.op(CodeWriter.ARRAYLENGTH);
+		code.invoke(CodeWriter.INVOKESTATIC, Jvm.INTRINSICS, "inRange",
+				"(II)Z");
+		Label otherwise = new Label();
+		Label end = new Label();
+		code.jump(CodeWriter.IFEQ, otherwise);
+		code.var(CodeWriter.ALOAD, array);
+		code.var(CodeWriter.ILOAD, index);
+		code.op(arrayLoadOp(dynamicAccess._1.type));
+		code.jump(CodeWriter.GOTO, end);
+		code.mark(otherwise);
+		gen(dynamicAccess._3, elementOf(dynamicAccess._1.type));
+		code.mark(end);
+	}
+
+	@Override
+	public void visitPythonArr(Tree.PythonArr pythonArr) {
+		Variable x = pythonArr.symbol;
+		int array = code.newLocal();
+		int n = code.newLocal();
+		int result = code.newLocal();
+		int k = code.newLocal();
+		int i = code.newLocal();
+		Type source = elementsOf(pythonArr._2, x);
+		code.var(CodeWriter.ASTORE, array);
+		code.var(CodeWriter.ALOAD, array);
+		code.op(CodeWriter.ARRAYLENGTH);
+		code.op(CodeWriter.DUP);
+		code.var(CodeWriter.ISTORE, n);
+		newArray(elementOf(pythonArr.type));
+		code.var(CodeWriter.ASTORE, result);
+		code.intConst(0);
+		code.var(CodeWriter.ISTORE, k);
+		code.intConst(0);
+		code.var(CodeWriter.ISTORE, i);
+		Label head = new Label();
+		Label next = new Label();
+		Label exit = new Label();
+		code.mark(head);
+		code.var(CodeWriter.ILOAD, i);
+		code.var(CodeWriter.ILOAD, n);
+		code.jump(CodeWriter.IF_ICMPGE, exit);
+		code.var(CodeWriter.ALOAD, array);
+		code.var(CodeWriter.ILOAD, i);
+		code.op(arrayLoadOp(source));
+		code.var(storeOp(x.getType()), slotOf(x));
+		if (pythonArr._if) {
+			branch(pythonArr._3, next, false);
+		}
+		code.var(CodeWriter.ALOAD, result);
+		code.var(CodeWriter.ILOAD, k);
+		gen(pythonArr._1, elementOf(pythonArr.type));
+		code.op(arrayStoreOp(pythonArr.type));
+		code.iinc(k, 1);
+		code.mark(next);
+		code.iinc(i, 1);
+		code.jump(CodeWriter.GOTO, head);
+		code.mark(exit);
+		code.var(CodeWriter.ALOAD, result);
+		code.var(CodeWriter.ILOAD, k);
+		intrinsic("trim", "AI", pythonArr.type);
+	}
+
+	/**
+	 * 求遍历的数组，需要时换成元素类型为循环变量类型的数组
+	 *
+	 * @return 栈顶数组的类型
+	 */
+	private Type elementsOf(Tree.Expr array, Variable x) {
+		Type t = array.type;
+		if (Jvm.hasUnknown(t) && !Jvm.hasUnknown(x.getType())) {
+			t = new ArrayType(x.getType());
+		}
+		gen(array, t);
+		return t;
+	}
+
+	// 语句
+
+	@Override
+	public void visitBlock(Tree.Block block) {
+		for (Tree s : block.block) {
+			s.accept(this);
+		}
+	}
+
+	@Override
+	public void visitVarDef(Tree.VarDef varDef) {
+		Type t = varDef.symbol.getType();
+		pushDefault(t);
+		code.var(storeOp(t), slotOf(varDef.symbol));
+	}
+
+	@Override
+	public void visitSkip(Tree.Skip skip) {
+	}
+
+	@Override
+	public void visitExec(Tree.Exec exec) {
+		gen(exec.expr);
+		if (!exec.expr.type.equal(BaseType.VOID)) {
+			code.op(CodeWriter.POP);
+		}
+	}
+
+	@Override
+	public void visitAssign(Tree.Assign assign) {
+		if (assign.left.tag == Tree.INDEXED) {
+			Tree.Indexed indexed = (Tree.Indexed) assign.left;
+			gen(indexed.array);
+			code.op(CodeWriter.DUP);
+			code.op(CodeWriter.ARRAYLENGTH);
+			gen(indexed.index);
+			code.op(CodeWriter.SWAP);
+			code.invoke(CodeWriter.INVOKESTATIC, Jvm.INTRINSICS, "index",
+					"(II)I");
+			gen(assign.expr, elementOf(indexed.array.type));
+			code.op(arrayStoreOp(indexed.array.type));
+			return;
+		}
+		Tree.Ident ident = (Tree.Ident) assign.left;
+		Variable v = ident.symbol;
+		if (ident.lvKind == Tree.LValue.Kind.MEMBER_VAR) {
+			gen(ident.owner);
+			// 对象为 null 时在求右边之前报错
+			if (ident.owner.tag != Tree.THISEXPR) {
+				nullCheck();
+			}
+			gen(assign.expr, v.getType());
+			code.field(CodeWriter.PUTFIELD, ownerOf(v), v.getName(), Jvm
+					.descriptor(v.getType()));
+		} else {
+			gen(assign.expr, v.getType());
+			code.var(storeOp(v.getType()), slotOf(v));
+		}
+	}
+
+	/**
+	 * 栈顶引用为 null 时抛出 NullPointerException，引用留在栈顶
+	 */
+	private void nullCheck() {
+		code.op(CodeWriter.DUP);
+		code.invoke(CodeWriter.INVOKEVIRTUAL, OBJECT, "getClass",
+				"()Ljava/lang/Class;");
+		code.op(CodeWriter.POP);
+	}
+
+	@Override
+	public void visitIf(Tree.If ifStmt) {
+		Label otherwise = new Label();
+		branch(ifStmt.condition, otherwise, false);
+		ifStmt.trueBranch.accept(this);
+		if (ifStmt.falseBranch == null) {
+			code.mark(otherwise);
+			return;
+		}
+		Label end = new Label();
+		if (code.isReachable()) {
+			code.jump(CodeWriter.GOTO, end);
+		}
+		code.mark(otherwise);
+		ifStmt.falseBranch.accept(this);
+		code.mark(end);
+	}
+
+	@Override
+	public void visitWhileLoop(Tree.WhileLoop whileLoop) {
+		Label head = new Label();
+		Label exit = new Label();
+		code.mark(head);
+		branch(whileLoop.condition, exit, false);
+		loopBody(whileLoop.loopBody, exit);
+		code.jump(CodeWriter.GOTO, head);
+		code.mark(exit);
+	}
+
+	@Override
+	public void visitForLoop(Tree.ForLoop forLoop) {
+		if (forLoop.init != null) {
+			forLoop.init.accept(this);
+		}
+		Label head = new Label();
+		Label exit = new Label();
+		code.mark(head);
+		if (forLoop.condition != null) {
+			branch(forLoop.condition, exit, false);
+		}
+		loopBody(forLoop.loopBody, exit);
+		if (forLoop.update != null) {
+			forLoop.update.accept(this);
+		}
+		code.jump(CodeWriter.GOTO, head);
+		code.mark(exit);
+	}
+
+	private void loopBody(Tree body, Label exit) {
+		breaks.add(exit);
+		if (body != null) {
+			body.accept(this);
+		}
+		breaks.remove(breaks.size() - 1);
+	}
+
+	@Override
+	public void visitBreak(Tree.Break breakStmt) {
+		code.jump(CodeWriter.GOTO, breaks.get(breaks.size() - 1));
+	}
+
+	@Override
+	public void visitReturn(Tree.Return returnStmt) {
+		Type t = currentFunction.getReturnType();
+		if (returnStmt.expr != null) {
+			gen(returnStmt.expr, t);
+		}
+		code.op(returnOp(t));
+	}
+
+	@Override
+	public void visitPrint(Tree.Print printStmt) {
+		for (Tree.Expr e : printStmt.exprs) {
+			gen(e);
+			if (e.type.equal(BaseType.BOOL)) {
+				code.invoke(CodeWriter.INVOKESTATIC, Jvm.INTRINSICS,
+						"printBool", "(Z)V");
+			} else if (e.type.equal(BaseType.INT)) {
+				code.invoke(CodeWriter.INVOKESTATIC, Jvm.INTRINSICS,
+						"printInt", "(I)V");
+			} else {
+				code.invoke(CodeWriter.INVOKESTATIC, Jvm.INTRINSICS,
+						"printString", "(Ljava/lang/String;)V");
+			}
+		}
+	}
+
+	/**
+	 * 调用源对象的 copy$ 按它的运行时类复制；源为 null 时 invokevirtual 抛出 NullPointerException
+	 */
+	@Override
+	public void visitScopy(Tree.Scopy scopy) {
+		Variable v = scopy.symbol;
+		if (v == null) {
+			gen(scopy.instance);
+			code.op(CodeWriter.POP);
+			return;
+		}
+		if (v.isMemberVar()) {
+			code.var(CodeWriter.ALOAD, 0);
+		}
+		gen(scopy.instance);
+		String name = Jvm.internalName(((ClassType) v.getType()).getSymbol());
+		code.invoke(CodeWriter.INVOKEVIRTUAL, name, COPY,
+				"()Ljava/lang/Object;");
+		code.type(CodeWriter.CHECKCAST, name);
+		if (v.isMemberVar()) {
+			code.field(CodeWriter.PUTFIELD, ownerOf(v), v.getName(), Jvm
+					.descriptor(v.getType()));
+		} else {
+			code.var(CodeWriter.ASTORE, slotOf(v));
+		}
+	}
+
+	/**
+	 * 各分支依次判断，条件成立的都执行
+	 */
+	@Override
+	public void visitGuard(Tree.Guard guard) {
+		List<Tree.Guard> arms = new ArrayList<Tree.Guard>();
+		collectArms(guard, arms);
+		for (Tree.Guard arm : arms) {
+			Label skip = new Label();
+			branch(arm.expr, skip, false);
+			arm.stmt.accept(this);
+			code.mark(skip);
+		}
+	}
+
+	private static void collectArms(Tree.Guard guard, List<Tree.Guard> arms) {
+		if (guard.stmt_exist) {
+			arms.add(guard);
+		} else if (guard.multi) {
+			collectArms((Tree.Guard) guard.ifsubstmt, arms);
+		} else if (guard.serial) {
+			for (Tree s : guard.stmts) {
+				collectArms((Tree.Guard) s, arms);
+			}
+			collectArms((Tree.Guard) guard.serialstmt, arms);
+		}
+	}
+
+	@Override
+	public void visitForeach(Tree.Foreach foreach) {
+		List<Tree> block = foreach.foreachblock.block;
+		Variable x = (Variable) foreach.foreachblock.associatedScope
+				.lookup(foreach.var_);
+		int array = code.newLocal();
+		int i = code.newLocal();
+		Type source = elementsOf((Tree.Expr) block.get(0), x);
+		code.var(CodeWriter.ASTORE, array);
+		code.intConst(0);
+		code.var(CodeWriter.ISTORE, i);
+		Label head = new Label();
+		Label exit = new Label();
+		code.mark(head);
+		code.var(CodeWriter.ILOAD, i);
+		code.var(CodeWriter.ALOAD, array);
+		code.op(CodeWriter.ARRAYLENGTH);
+		code.jump(CodeWriter.IF_ICMPGE, exit);
+		code.var(CodeWriter.ALOAD, array);
+		code.var(CodeWriter.ILOAD, i);
+		code.op(arrayLoadOp(source));
+		code.var(storeOp(x.getType()), slotOf(x));
+		int first = 1;
+		if (foreach._while) {
+			branch((Tree.Expr) block.get(1), exit, false);
+			first = 2;
+		}
+		breaks.add(exit);
+		for (Tree s : block.subList(first, block.size())) {
+			s.accept(this);
+		}
+		breaks.remove(breaks.size() - 1);
+		code.iinc(i, 1);
+		code.jump(CodeWriter.GOTO, head);
+		code.mark(exit);
+	}
+}
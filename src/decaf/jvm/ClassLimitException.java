@@ -0,0 +1,14 @@
+package decaf.jvm;
+
+/**
+ * 生成的类超出了 class 文件格式的限制（常量池的大小、方法代码的长度、跳转的距离、
+ * 字符串常量的长度），这样的程序不能编译为 JVM 类
+ */
+public class ClassLimitException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public ClassLimitException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,272 @@
+package decaf.jvm;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 生成一个 class 文件<br>
+ * 版本号为 49（Java 5），不需要 StackMapTable，由载入时的类型推导校验。
+ * 常量池中相同的项只存一次，方法的代码由 {@link CodeWriter} 给出。
+ */
+final class ClassWriter {
+
+	static final int ACC_PUBLIC = 0x0001;
+
+	static final int ACC_STATIC = 0x0008;
+
+	static final int ACC_SUPER = 0x0020;
+
+	private static final int VERSION = 49;
+
+	/**
+	 * 一个方法的代码最多的字节数
+	 */
+	private static final int MAX_CODE = 65535;
+
+	private static final int UTF8 = 1;
+
+	private static final int INTEGER = 3;
+
+	private static final int CLASS = 7;
+
+	private static final int STRING = 8;
+
+	private static final int FIELD = 9;
+
+	private static final int METHOD = 10;
+
+	private static final int NAME_AND_TYPE = 12;
+
+	private final ByteVector pool = new ByteVector();
+
+	private int poolSize = 1;
+
+	private final Map<String, Integer> entries = new HashMap<String, Integer>();
+
+	private final ByteVector fields = new ByteVector();
+
+	private int numFields;
+
+	private final ByteVector methods = new ByteVector();
+
+	private int numMethods;
+
+	private final int thisClass;
+
+	private final int superClass;
+
+	/**
+	 * 实现的接口，没有时为 0
+	 */
+	private int iface;
+
+	/**
+	 * @param name
+	 *            类的内部名，如 decaf/user/Main
+	 */
+	ClassWriter(String name, String superName) {
+		thisClass = classRef(name);
+		superClass = classRef(superName);
+	}
+
+	/**
+	 * 实现接口 name（至多一个）
+	 */
+	void setInterface(String name) {
+		iface = classRef(name);
+	}
+
+	void addField(int access, String name, String descriptor) {
+		fields.put2(access).put2(utf8(name)).put2(utf8(descriptor)).put2(0);
+		numFields++;
+	}
+
+	void addMethod(int access, String name, String descriptor, CodeWriter code) {
+		ByteVector body = code.getCode();
+		if (body.length() > MAX_CODE) {
+			throw new ClassLimitException("method " + name + " is too large ("
+					+ body.length() + " bytes of code, the limit is " + MAX_CODE
+					+ ")");
+		}
+		methods.put2(access).put2(utf8(name)).put2(utf8(descriptor)).put2(1);
+		methods.put2(utf8("Code")).put4(12 + body.length());
+		methods.put2(code.getMaxStack()).put2(code.getMaxLocals());
+		methods.put4(body.length()).putBytes(body);
+		// 没有异常表和属性
+		methods.put2(0).put2(0);
+		numMethods++;
+	}
+
+	byte[] toByteArray() {
+		ByteVector out = new ByteVector();
+		out.put4(0xCAFEBABE).put2(0).put2(VERSION);
+		out.put2(poolSize).putBytes(pool);
+		out.put2(ACC_PUBLIC | ACC_SUPER).put2(thisClass).put2(superClass);
+		if (iface > 0) {
+			out.put2(1).put2(iface);
+		} else {
+			out.put2(0);
+		}
+		out.put2(numFields).putBytes(fields);
+		out.put2(numMethods).putBytes(methods);
+		out.put2(0);
+		return out.toByteArray();
+	}
+
+	// 常量池
+
+	int utf8(String s) {
+		String key = "U" + s;
+		Integer k = entries.get(key);
+		if (k == null) {
+			pool.put1(UTF8).putUtf8(s);
+			k = add(key);
+		}
+		return k;
+	}
+
+	int integer(int value) {
+		String key = "I" + value;
+		Integer k = entries.get(key);
+		if (k == null) {
+			pool.put1(INTEGER).put4(value);
+			k = add(key);
+		}
+		return k;
+	}
+
+	int classRef(String name) {
+		return ref(CLASS, "C", utf8(name));
+	}
+
+	int string(String s) {
+		return ref(STRING, "S", utf8(s));
+	}
+
+	int fieldRef(String owner, String name, String descriptor) {
+		return ref(FIELD, "F", classRef(owner), nameAndType(name, descriptor));
+	}
+
+	int methodRef(String owner, String name, String descriptor) {
+		return ref(METHOD, "M", classRef(owner), nameAndType(name, descriptor));
+	}
+
+	private int nameAndType(String name, String descriptor) {
+		return ref(NAME_AND_TYPE, "N", utf8(name), utf8(descriptor));
+	}
+
+	private int ref(int tag, String kind, int a) {
+		String key = kind + a;
+		Integer k = entries.get(key);
+		if (k == null) {
+			pool.put1(tag).put2(a);
+			k = add(key);
+		}
+		return k;
+	}
+
+	private int ref(int tag, String kind, int a, int b) {
+		String key = kind + a + ":" + b;
+		Integer k = entries.get(key);
+		if (k == null) {
+			pool.put1(tag).put2(a).put2(b);
+			k = add(key);
+		}
+		return k;
+	}
+
+	private int add(String key) {
+		if (poolSize > 0xFFFF) {
+			throw new ClassLimitException("constant pool too large");
+		}
+		entries.put(key, poolSize);
+		return poolSize++;
+	}
+
+	/**
+	 * 按大端序写入的字节数组
+	 */
+	static final class ByteVector {
+
+		private byte[] data = new byte[64];
+
+		private int length;
+
+		int length() {
+			return length;
+		}
+
+		byte[] toByteArray() {
+			byte[] result = new byte[length];
+			System.arraycopy(data, 0, result, 0, length);
+			return result;
+		}
+
+		ByteVector put1(int b) {
+			ensure(1);
+			data[length++] = (byte) b;
+			return this;
+		}
+
+		ByteVector put2(int s) {
+			ensure(2);
+			data[length++] = (byte) (s >>> 8);
+			data[length++] = (byte) s;
+			return this;
+		}
+
+		ByteVector put4(int i) {
+			ensure(4);
+			data[length++] = (byte) (i >>> 24);
+			data[length++] = (byte) (i >>> 16);
+			data[length++] = (byte) (i >>> 8);
+			data[length++] = (byte) i;
+			return this;
+		}
+
+		ByteVector putBytes(ByteVector v) {
+			ensure(v.length);
+			System.arraycopy(v.data, 0, data, length, v.length);
+			length += v.length;
+			return this;
+		}
+
+		/**
+		 * 写入长度和 class 文件所用的修改过的 UTF-8 编码
+		 */
+		ByteVector putUtf8(String s) {
+			int start = length;
+			put2(0);
+			for (int i = 0; i < s.length(); i++) {
+				char c = s.charAt(i);
+				if (c >= 0x01 && c <= 0x7F) {
+					put1(c);
+				} else if (c <= 0x7FF) {
+					put1(0xC0 | c >> 6).put1(0x80 | c & 0x3F);
+				} else {
+					put1(0xE0 | c >> 12).put1(0x80 | c >> 6 & 0x3F).put1(
+							0x80 | c & 0x3F);
+				}
+			}
+			int n = length - start - 2;
+			if (n > 0xFFFF) {
+				throw new ClassLimitException("string constant too long");
+			}
+			set2(start, n);
+			return this;
+		}
+
+		void set2(int offset, int s) {
+			data[offset] = (byte) (s >>> 8);
+			data[offset + 1] = (byte) s;
+		}
+
+		private void ensure(int n) {
+			if (length + n > data.length) {
+				byte[] bigger = new byte[Math.max(data.length * 2, length + n)];
+				System.arraycopy(data, 0, bigger, 0, length);
+				data = bigger;
+			}
+		}
+	}
+}
@@ -0,0 +1,408 @@
+package decaf.jvm;
+
+import java.util.Arrays;
+
+/**
+ * 一个方法的字节码<br>
+ * 写入时按每条指令对操作数栈的影响累计栈深，得到 max_stack；跳转目标用 {@link Label}，
+ * 位置确定后回填偏移。无条件跳转之后栈深未知，到下一个标号时取跳到该标号时的栈深。
+ */
+final class CodeWriter {
+
+	static final int ACONST_NULL = 1;
+
+	static final int ICONST_0 = 3;
+
+	static final int BIPUSH = 16;
+
+	static final int SIPUSH = 17;
+
+	static final int LDC = 18;
+
+	static final int LDC_W = 19;
+
+	static final int ILOAD = 21;
+
+	static final int ALOAD = 25;
+
+	static final int IALOAD = 46;
+
+	static final int AALOAD = 50;
+
+	static final int BALOAD = 51;
+
+	static final int ISTORE = 54;
+
+	static final int ASTORE = 58;
+
+	static final int IASTORE = 79;
+
+	static final int AASTORE = 83;
+
+	static final int BASTORE = 84;
+
+	static final int POP = 87;
+
+	static final int DUP = 89;
+
+	static final int SWAP = 95;
+
+	static final int IADD = 96;
+
+	static final int ISUB = 100;
+
+	static final int IMUL = 104;
+
+	static final int IDIV = 108;
+
+	static final int IREM = 112;
+
+	static final int INEG = 116;
+
+	static final int IAND = 126;
+
+	static final int IOR = 128;
+
+	static final int IXOR = 130;
+
+	static final int IINC = 132;
+
+	static final int IFEQ = 153;
+
+	static final int IFNE = 154;
+
+	static final int IFLT = 155;
+
+	static final int IFGE = 156;
+
+	static final int IFGT = 157;
+
+	static final int IFLE = 158;
+
+	static final int IF_ICMPEQ = 159;
+
+	static final int IF_ICMPNE = 160;
+
+	static final int IF_ICMPLT = 161;
+
+	static final int IF_ICMPGE = 162;
+
+	static final int IF_ICMPGT = 163;
+
+	static final int IF_ICMPLE = 164;
+
+	static final int IF_ACMPEQ = 165;
+
+	static final int IF_ACMPNE = 166;
+
+	static final int GOTO = 167;
+
+	static final int IRETURN = 172;
+
+	static final int ARETURN = 176;
+
+	static final int RETURN = 177;
+
+	static final int GETFIELD = 180;
+
+	static final int PUTFIELD = 181;
+
+	static final int INVOKEVIRTUAL = 182;
+
+	static final int INVOKESPECIAL = 183;
+
+	static final int INVOKESTATIC = 184;
+
+	static final int NEW = 187;
+
+	static final int NEWARRAY = 188;
+
+	static final int ANEWARRAY = 189;
+
+	static final int ARRAYLENGTH = 190;
+
+	static final int ATHROW = 191;
+
+	static final int CHECKCAST = 192;
+
+	static final int INSTANCEOF = 193;
+
+	static final int WIDE = 196;
+
+	static final int IFNULL = 198;
+
+	static final int IFNONNULL = 199;
+
+	/**
+	 * NEWARRAY 的元素类型
+	 */
+	static final int T_BOOLEAN = 4;
+
+	static final int T_INT = 10;
+
+	/**
+	 * 不带操作数或操作数固定的指令对栈深的影响
+	 */
+	private static final int[] STACK = new int[256];
+
+	static {
+		STACK[ACONST_NULL] = 1;
+		for (int op = ICONST_0 - 1; op <= ICONST_0 + 5; op++) {
+			STACK[op] = 1;
+		}
+		STACK[BIPUSH] = STACK[SIPUSH] = STACK[LDC] = STACK[LDC_W] = 1;
+		STACK[ILOAD] = STACK[ALOAD] = 1;
+		STACK[IALOAD] = STACK[AALOAD] = STACK[BALOAD] = -1;
+		STACK[ISTORE] = STACK[ASTORE] = -1;
+		STACK[IASTORE] = STACK[AASTORE] = STACK[BASTORE] = -3;
+		STACK[POP] = -1;
+		STACK[DUP] = 1;
+		STACK[IADD] = STACK[ISUB] = STACK[IMUL] = STACK[IDIV] = STACK[IREM] = -1;
+		STACK[IAND] = STACK[IOR] = STACK[IXOR] = -1;
+		for (int op = IFEQ; op <= IFLE; op++) {
+			STACK[op] = -1;
+		}
+		for (int op = IF_ICMPEQ; op <= IF_ACMPNE; op++) {
+			STACK[op] = -2;
+		}
+		STACK[IRETURN] = STACK[ARETURN] = -1;
+		STACK[NEW] = 1;
+		STACK[ATHROW] = -1;
+		STACK[IFNULL] = STACK[IFNONNULL] = -1;
+	}
+
+	/**
+	 * 跳转目标
+	 */
+	static final class Label {
+
+		private int position = -1;
+
+		/**
+		 * 跳到此处时的栈深，还没有跳转时为 -1
+		 */
+		private int depth = -1;
+
+		/**
+		 * 位置确定前引用它的跳转指令的位置
+		 */
+		private int[] fixups = new int[2];
+
+		private int numFixups;
+	}
+
+	private final ClassWriter cw;
+
+	private final ClassWriter.ByteVector code = new ClassWriter.ByteVector();
+
+	private int stack;
+
+	private int maxStack;
+
+	private int maxLocals;
+
+	/**
+	 * 上一条指令之后是否不可达（无条件跳转、返回或抛出）
+	 */
+	private boolean unreachable;
+
+	/**
+	 * @param numParams
+	 *            参数（含 this）占用的局部变量个数
+	 */
+	CodeWriter(ClassWriter cw, int numParams) {
+		this.cw = cw;
+		maxLocals = numParams;
+	}
+
+	ClassWriter.ByteVector getCode() {
+		return code;
+	}
+
+	int getMaxStack() {
+		return maxStack;
+	}
+
+	int getMaxLocals() {
+		return maxLocals;
+	}
+
+	/**
+	 * @return 新分配的局部变量下标
+	 */
+	int newLocal() {
+		return maxLocals++;
+	}
+
+	/**
+	 * @return 上一条指令之后是否可达
+	 */
+	boolean isReachable() {
+		return !unreachable;
+	}
+
+	private void adjust(int delta) {
+		if (unreachable) {
+			unreachable = false;
+			stack = 0;
+		}
+		stack += delta;
+		if (stack > maxStack) {
+			maxStack = stack;
+		}
+	}
+
+	/**
+	 * 没有操作数的指令
+	 */
+	void op(int opcode) {
+		adjust(STACK[opcode]);
+		code.put1(opcode);
+		if (opcode >= IRETURN && opcode <= RETURN || opcode == ATHROW) {
+			unreachable = true;
+		}
+	}
+
+	void intConst(int value) {
+		if (value >= -1 && value <= 5) {
+			op(ICONST_0 + value);
+		} else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+			adjust(1);
+			code.put1(BIPUSH).put1(value);
+		} else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+			adjust(1);
+			code.put1(SIPUSH).put2(value);
+		} else {
+			ldc(cw.integer(value));
+		}
+	}
+
+	void stringConst(String s) {
+		ldc(cw.string(s));
+	}
+
+	/**
+	 * @param name
+	 *            类的内部名或数组类型的描述符
+	 */
+	void classConst(String name) {
+		ldc(cw.classRef(name));
+	}
+
+	private void ldc(int k) {
+		adjust(1);
+		if (k <= 0xFF) {
+			code.put1(LDC).put1(k);
+		} else {
+			code.put1(LDC_W).put2(k);
+		}
+	}
+
+	/**
+	 * ILOAD、ALOAD、ISTORE 或 ASTORE
+	 */
+	void var(int opcode, int slot) {
+		adjust(STACK[opcode]);
+		if (slot <= 3) {
+			// ILOAD_0 等，各组四条依次排列在 ILOAD_0 = 26 起的位置
+			int base = opcode < ISTORE ? 26 + (opcode - ILOAD) * 4
+					: 59 + (opcode - ISTORE) * 4;
+			code.put1(base + slot);
+		} else if (slot <= 0xFF) {
+			code.put1(opcode).put1(slot);
+		} else {
+			code.put1(WIDE).put1(opcode).put2(slot);
+		}
+	}
+
+	void iinc(int slot, int delta) {
+		adjust(0);
+		if (slot <= 0xFF && delta >= Byte.MIN_VALUE && delta <= Byte.MAX_VALUE) {
+			code.put1(IINC).put1(slot).put1(delta);
+		} else {
+			code.put1(WIDE).put1(IINC).put2(slot).put2(delta);
+		}
+	}
+
+	/**
+	 * NEW、ANEWARRAY、CHECKCAST 或 INSTANCEOF
+	 */
+	void type(int opcode, String name) {
+		adjust(STACK[opcode]);
+		code.put1(opcode).put2(cw.classRef(name));
+	}
+
+	void newArray(int elementType) {
+		adjust(0);
+		code.put1(NEWARRAY).put1(elementType);
+	}
+
+	void field(int opcode, String owner, String name, String descriptor) {
+		adjust(opcode == GETFIELD ? 0 : -2);
+		code.put1(opcode).put2(cw.fieldRef(owner, name, descriptor));
+	}
+
+	void invoke(int opcode, String owner, String name, String descriptor) {
+		// 所有参数和结果都只占一个字
+		int args = 0;
+		int i = 1;
+		while (descriptor.charAt(i) != ')') {
+			char c = descriptor.charAt(i);
+			while (c == '[') {
+				c = descriptor.charAt(++i);
+			}
+			if (c == 'L') {
+				i = descriptor.indexOf(';', i);
+			}
+			i++;
+			args++;
+		}
+		boolean returnsValue = descriptor.charAt(i + 1) != 'V';
+		adjust((opcode == INVOKESTATIC ? 0 : -1) - args
+				+ (returnsValue ? 1 : 0));
+		code.put1(opcode).put2(cw.methodRef(owner, name, descriptor));
+	}
+
+	void jump(int opcode, Label label) {
+		adjust(STACK[opcode]);
+		if (label.depth < 0) {
+			label.depth = stack;
+		}
+		int at = code.length();
+		code.put1(opcode);
+		if (label.position >= 0) {
+			code.put2(offset(at, label.position));
+		} else {
+			if (label.numFixups == label.fixups.length) {
+				label.fixups = Arrays.copyOf(label.fixups, label.numFixups * 2);
+			}
+			label.fixups[label.numFixups++] = at;
+			code.put2(0);
+		}
+		if (opcode == GOTO) {
+			unreachable = true;
+		}
+	}
+
+	void mark(Label label) {
+		label.position = code.length();
+		for (int i = 0; i < label.numFixups; i++) {
+			int at = label.fixups[i];
+			code.set2(at + 1, offset(at, label.position));
+		}
+		if (unreachable) {
+			unreachable = false;
+			stack = Math.max(label.depth, 0);
+		} else if (label.depth < 0) {
+			label.depth = stack;
+		}
+	}
+
+	private static int offset(int from, int to) {
+		int offset = to - from;
+		if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+			throw new ClassLimitException("method too large to branch across");
+		}
+		return offset;
+	}
+}
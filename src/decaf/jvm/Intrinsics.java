@@ -0,0 +1,191 @@
+package decaf.jvm;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.Array;
+import java.util.Arrays;
+
+import decaf.error.RuntimeError;
+
+/**
+ * 生成的类在运行时调用的方法<br>
+ * 输入输出、字符串比较以及数组扩展（%%、++、切片、默认值访问）都由这里实现。
+ * 下标越界、空引用等错误直接抛出 JVM 的异常，由 {@link Jvm} 换成 Decaf 的错误信息。
+ */
+public final class Intrinsics {
+
+	private Intrinsics() {
+	}
+
+	/**
+	 * 类型转换失败等没有对应 JVM 异常的运行期错误
+	 */
+	public static final class Halt extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		Halt(String message) {
+			super(message);
+		}
+	}
+
+	static BufferedReader in;
+
+	static PrintWriter out;
+
+	public static void printInt(int value) {
+		out.print(value);
+	}
+
+	public static void printBool(boolean value) {
+		out.print(value ? "true" : "false");
+	}
+
+	public static void printString(String value) {
+		out.print(value);
+	}
+
+	public static int readInteger() {
+		String line = readLine();
+		try {
+			return Integer.parseInt(line.trim());
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	public static String readLine() {
+		out.flush();
+		try {
+			String line = in.readLine();
+			return line == null ? "" : line;
+		} catch (IOException e) {
+			return "";
+		}
+	}
+
+	public static boolean equal(String a, String b) {
+		return a != null ? a.equals(b) : b == null;
+	}
+
+	/**
+	 * 检查赋值的下标，使下标先于赋值号右边检查
+	 *
+	 * @return index
+	 */
+	public static int index(int index, int length) {
+		if (index < 0 || index >= length) {
+			throw new ArrayIndexOutOfBoundsException(index);
+		}
+		return index;
+	}
+
+	public static boolean inRange(int index, int length) {
+		return index >= 0 && index < length;
+	}
+
+	public static void castError(Object o, String target) {
+		String name = o.getClass().getName();
+		throw new Halt(RuntimeError.CLASS_CAST_ERROR1
+				+ name.substring(name.lastIndexOf('.') + 1)
+				+ RuntimeError.CLASS_CAST_ERROR2 + target
+				+ RuntimeError.CLASS_CAST_ERROR3);
+	}
+
+	/**
+	 * 把元素类型未知的数组（由 [] 得到）换成 type 类型的数组，元素逐个转换
+	 */
+	public static Object coerce(Object value, Class<?> type) {
+		if (value == null || type.isInstance(value)) {
+			return value;
+		}
+		Object[] a = (Object[]) value;
+		Class<?> element = type.getComponentType();
+		Object result = Array.newInstance(element, a.length);
+		for (int i = 0; i < a.length; i++) {
+			Array.set(result, i, coerce(a[i], element));
+		}
+		return result;
+	}
+
+	// e %% n
+
+	public static int[] repeat(int value, int count) {
+		int[] a = new int[count];
+		Arrays.fill(a, value);
+		return a;
+	}
+
+	public static boolean[] repeat(boolean value, int count) {
+		boolean[] a = new boolean[count];
+		Arrays.fill(a, value);
+		return a;
+	}
+
+	/**
+	 * @param a
+	 *            生成代码按元素类型新建的数组
+	 */
+	public static Object[] fill(Object[] a, Object value) {
+		Arrays.fill(a, value);
+		return a;
+	}
+
+	// a ++ b
+
+	public static int[] concat(int[] a, int[] b) {
+		int[] c = Arrays.copyOf(a, a.length + b.length);
+		System.arraycopy(b, 0, c, a.length, b.length);
+		return c;
+	}
+
+	public static boolean[] concat(boolean[] a, boolean[] b) {
+		boolean[] c = Arrays.copyOf(a, a.length + b.length);
+		System.arraycopy(b, 0, c, a.length, b.length);
+		return c;
+	}
+
+	public static Object[] concat(Object[] a, Object[] b) {
+		Object[] c = Arrays.copyOf(a, a.length + b.length);
+		System.arraycopy(b, 0, c, a.length, b.length);
+		return c;
+	}
+
+	// a[i:j]，下标在 [i, j) 中的元素
+
+	public static int[] slice(int[] a, int from, int to) {
+		checkRange(from, to, a.length);
+		return Arrays.copyOfRange(a, from, Math.max(from, to));
+	}
+
+	public static boolean[] slice(boolean[] a, int from, int to) {
+		checkRange(from, to, a.length);
+		return Arrays.copyOfRange(a, from, Math.max(from, to));
+	}
+
+	public static Object[] slice(Object[] a, int from, int to) {
+		checkRange(from, to, a.length);
+		return Arrays.copyOfRange(a, from, Math.max(from, to));
+	}
+
+	private static void checkRange(int from, int to, int length) {
+		if (from < 0 || to > length) {
+			throw new ArrayIndexOutOfBoundsException(from < 0 ? from : to);
+		}
+	}
+
+	// 数组推导式的结果只保留前 n 个元素
+
+	public static int[] trim(int[] a, int n) {
+		return n == a.length ? a : Arrays.copyOf(a, n);
+	}
+
+	public static boolean[] trim(boolean[] a, int n) {
+		return n == a.length ? a : Arrays.copyOf(a, n);
+	}
+
+	public static Object[] trim(Object[] a, int n) {
+		return n == a.length ? a : Arrays.copyOf(a, n);
+	}
+}
@@ -0,0 +1,265 @@
+package decaf.jvm;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import decaf.Driver;
+import decaf.error.RuntimeError;
+import decaf.symbol.Class;
+import decaf.symbol.Function;
+import decaf.symbol.Symbol;
+import decaf.tree.Tree;
+import decaf.type.ArrayType;
+import decaf.type.BaseType;
+import decaf.type.ClassType;
+import decaf.type.Type;
+
+/**
+ * 把类型检查过的程序编译为 JVM 类并在本进程中执行（-jvm）<br>
+ * 每个 Decaf 类对应一个 JVM 类，成员变量为字段，方法为方法，虚方法用 invokevirtual 调用；
+ * 生成的类由一个单独的类载入器定义，执行结束后即可回收。
+ */
+public final class Jvm {
+
+	/**
+	 * 生成的类所在的包，避免与 java.lang 中的类重名
+	 */
+	static final String PACKAGE = "decaf/user/";
+
+	static final String INTRINSICS = "decaf/jvm/Intrinsics";
+
+	/**
+	 * 执行线程的栈大小，与 -run 相同
+	 */
+	private static final long STACK_SIZE = 1L << 29;
+
+	private Jvm() {
+	}
+
+	/**
+	 * @return 各类的二进制名（如 decaf.user.Main）到 class 文件内容
+	 * @throws ClassLimitException
+	 *             某个类超出了 class 文件的限制（常量池或方法过大）
+	 * @throws IllegalStateException
+	 *             某个类只有接口文件而没有方法体
+	 */
+	static Map<String, byte[]> compile(Tree.TopLevel tree) {
+		Set<Class> defined = new HashSet<Class>();
+		for (Tree.ClassDef cd : tree.classes) {
+			defined.add(cd.symbol);
+		}
+		for (Iterator<Symbol> iter = tree.globalScope.iterator(); iter
+				.hasNext();) {
+			Symbol sym = iter.next();
+			if (sym.isClass() && !defined.contains(sym)) {
+				throw new IllegalStateException("class " + sym.getName()
+						+ " has no method bodies");
+			}
+		}
+		Map<String, byte[]> classes = new HashMap<String, byte[]>();
+		for (Tree.ClassDef cd : tree.classes) {
+			try {
+				classes.put(internalName(cd.symbol).replace('/', '.'),
+						ClassGen.generate(cd));
+			} catch (ClassLimitException e) {
+				throw new ClassLimitException("class " + cd.name + ": "
+						+ e.getMessage());
+			}
+		}
+		return classes;
+	}
+
+	/**
+	 * 执行 tree 中的 Main.main
+	 *
+	 * @return 正常结束时为 0，发生运行期错误时为 1
+	 * @throws ClassLimitException
+	 *             程序不能编译为 JVM 类，此时还没有开始执行
+	 */
+	public static int run(Tree.TopLevel tree, InputStream in, PrintStream out) {
+		final Loader loader = new Loader(compile(tree));
+		final String main = internalName(tree.main).replace('/', '.');
+		final String method = Driver.getDriver().getOption().getMainFuncName();
+		final PrintWriter writer = new PrintWriter(new BufferedWriter(
+				new OutputStreamWriter(out)));
+		Intrinsics.in = new BufferedReader(new InputStreamReader(in));
+		Intrinsics.out = writer;
+		final int[] status = new int[1];
+		final Throwable[] failure = new Throwable[1];
+		Thread thread = new Thread(null, new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					loader.loadClass(main).getMethod(method).invoke(null);
+				} catch (InvocationTargetException e) {
+					String message = messageOf(e.getCause());
+					if (message != null) {
+						writer.print(message);
+						status[0] = 1;
+					} else {
+						failure[0] = e.getCause();
+					}
+				} catch (Throwable e) {
+					failure[0] = e;
+				}
+				writer.flush();
+			}
+
+		}, "decaf-jvm", STACK_SIZE);
+		thread.start();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			Intrinsics.in = null;
+			Intrinsics.out = null;
+		}
+		if (failure[0] instanceof RuntimeException) {
+			throw (RuntimeException) failure[0];
+		} else if (failure[0] != null) {
+			throw new IllegalStateException(failure[0]);
+		}
+		return status[0];
+	}
+
+	/**
+	 * @return 程序抛出的异常对应的 Decaf 运行期错误信息，不是运行期错误时为 null
+	 */
+	private static String messageOf(Throwable e) {
+		if (e instanceof Intrinsics.Halt) {
+			return e.getMessage();
+		} else if (e instanceof NullPointerException) {
+			return RuntimeError.NULL_POINTER;
+		} else if (e instanceof ArrayIndexOutOfBoundsException) {
+			return RuntimeError.ARRAY_INDEX_OUT_OF_BOUND;
+		} else if (e instanceof NegativeArraySizeException) {
+			return RuntimeError.NEGATIVE_ARR_SIZE;
+		} else if (e instanceof ArithmeticException) {
+			return RuntimeError.DIVISION_BY_ZERO;
+		} else if (e instanceof StackOverflowError) {
+			return RuntimeError.STACK_OVERFLOW;
+		}
+		return null;
+	}
+
+	/**
+	 * 按需定义生成的类
+	 */
+	private static final class Loader extends ClassLoader {
+
+		private final Map<String, byte[]> classes;
+
+		Loader(Map<String, byte[]> classes) {
+			super(Jvm.class.getClassLoader());
+			this.classes = classes;
+		}
+
+		@Override
+		protected java.lang.Class<?> findClass(String name)
+				throws ClassNotFoundException {
+			byte[] b = classes.remove(name);
+			if (b == null) {
+				throw new ClassNotFoundException(name);
+			}
+			return defineClass(name, b, 0, b.length);
+		}
+	}
+
+	// 名字和描述符
+
+	static String internalName(Class c) {
+		return PACKAGE + c.getName();
+	}
+
+	/**
+	 * 与 Object 的方法同名的方法加上 $，以免覆盖或隐藏它们
+	 */
+	static String methodName(Function f) {
+		String name = f.getName();
+		if (name.equals("getClass") || name.equals("hashCode")
+				|| name.equals("equals") || name.equals("clone")
+				|| name.equals("toString") || name.equals("notify")
+				|| name.equals("notifyAll") || name.equals("wait")
+				|| name.equals("finalize")) {
+			return name + "$";
+		}
+		return name;
+	}
+
+	static String descriptor(Function f) {
+		StringBuilder sb = new StringBuilder("(");
+		Iterator<Type> iter = f.getType().getArgList().iterator();
+		if (!f.isStatik()) {
+			// 第一个参数为 this
+			iter.next();
+		}
+		while (iter.hasNext()) {
+			sb.append(descriptor(iter.next()));
+		}
+		return sb.append(')').append(descriptor(f.getReturnType()))
+				.toString();
+	}
+
+	static String descriptor(Type t) {
+		if (t.equal(BaseType.INT)) {
+			return "I";
+		} else if (t.equal(BaseType.BOOL)) {
+			return "Z";
+		} else if (t.equal(BaseType.VOID)) {
+			return "V";
+		} else if (t.equal(BaseType.STRING)) {
+			return "Ljava/lang/String;";
+		} else if (t.isClassType()) {
+			return "L" + internalName(((ClassType) t).getSymbol()) + ";";
+		} else if (t.isArrayType()) {
+			return "[" + descriptor(((ArrayType) t).getElementType());
+		}
+		// 空数组常量的元素和 null
+		return "Ljava/lang/Object;";
+	}
+
+	/**
+	 * @return CHECKCAST、ANEWARRAY 等指令所用的类名，数组为其描述符
+	 */
+	static String typeName(Type t) {
+		String d = descriptor(t);
+		return d.charAt(0) == 'L' ? d.substring(1, d.length() - 1) : d;
+	}
+
+	/**
+	 * @return 类型中是否含有空数组常量的未知元素类型
+	 */
+	static boolean hasUnknown(Type t) {
+		while (t.isArrayType()) {
+			t = ((ArrayType) t).getElementType();
+		}
+		return t.equal(BaseType.UNKNOWN);
+	}
+
+	/**
+	 * @return c 中声明的名为 name 的方法，没有时为 null
+	 */
+	static Function declared(Class c, String name) {
+		for (Iterator<Symbol> iter = c.getAssociatedScope().iterator(); iter
+				.hasNext();) {
+			Symbol s = iter.next();
+			if (s.isFunction() && s.getName().equals(name)) {
+				return (Function) s;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,83 @@
+package decaf.lsp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import decaf.Driver;
+import decaf.IncrementalCompiler;
+import decaf.error.DecafError;
+import decaf.frontend.TextEdit;
+import decaf.typecheck.MethodCache;
+
+/**
+ * 编辑器中打开的一个文件：常驻的编译状态、最近一次编译的错误和名字索引
+ */
+final class Document {
+
+	private String uri;
+
+	private IncrementalCompiler compiler;
+
+	private List<DecafError> diagnostics = new ArrayList<DecafError>();
+
+	private SemanticIndex index;
+
+	private SemanticIndex lastIndex;
+
+	Document(String uri, String text) {
+		this.uri = uri;
+		compiler = new IncrementalCompiler(new MethodCache(uri));
+		compiler.setIndexing(true);
+		compiler.update(text);
+		analyzed();
+	}
+
+	String getUri() {
+		return uri;
+	}
+
+	String getText() {
+		return compiler.getText();
+	}
+
+	/**
+	 * 用编辑器发来的全文替换
+	 */
+	void update(String text) {
+		if (compiler.update(text) != null) {
+			analyzed();
+		}
+	}
+
+	void apply(List<TextEdit> edits) {
+		compiler.apply(edits);
+		analyzed();
+	}
+
+	List<DecafError> getDiagnostics() {
+		return diagnostics;
+	}
+
+	/**
+	 * @return 名字索引，文件有语法错误或符号表错误、无法做类型检查时为 null
+	 */
+	SemanticIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return 最近一次能做类型检查时的名字索引（输入到一半时文件往往有语法错误，补全只能用它）
+	 */
+	SemanticIndex getLastIndex() {
+		return lastIndex;
+	}
+
+	private void analyzed() {
+		diagnostics = Driver.getDriver().getErrorSink().drain();
+		index = compiler.isChecked() ? SemanticIndex.build(compiler.getXref(),
+				compiler.getTree().globalScope) : null;
+		if (index != null) {
+			lastIndex = index;
+		}
+	}
+}
@@ -0,0 +1,308 @@
+package decaf.lsp;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 语言服务器协议所需的最小 JSON 实现<br>
+ * 对象读为 {@link Map}（保持键的顺序），数组读为 {@link List}，
+ * 整数读为 {@link Long}，其余数字读为 {@link Double}。
+ */
+public final class Json {
+
+	private String s;
+
+	private int pos;
+
+	private Json(String s) {
+		this.s = s;
+	}
+
+	public static Object parse(String s) {
+		Json json = new Json(s);
+		Object value = json.value();
+		json.space();
+		if (json.pos != s.length()) {
+			throw json.error("trailing characters");
+		}
+		return value;
+	}
+
+	public static String write(Object value) {
+		StringBuilder sb = new StringBuilder();
+		write(sb, value);
+		return sb.toString();
+	}
+
+	/**
+	 * 构造一个对象，参数依次为键和值
+	 */
+	public static Map<String, Object> object(Object... keysAndValues) {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		for (int i = 0; i + 1 < keysAndValues.length; i += 2) {
+			map.put((String) keysAndValues[i], keysAndValues[i + 1]);
+		}
+		return map;
+	}
+
+	/**
+	 * 沿着一串键取出嵌套对象中的值，中途缺失时返回 null
+	 */
+	@SuppressWarnings("unchecked")
+	public static Object get(Object value, String... path) {
+		for (String key : path) {
+			if (!(value instanceof Map)) {
+				return null;
+			}
+			value = ((Map<String, Object>) value).get(key);
+		}
+		return value;
+	}
+
+	public static int getInt(Object value, String... path) {
+		Object v = get(value, path);
+		return v instanceof Number ? ((Number) v).intValue() : -1;
+	}
+
+	public static String getString(Object value, String... path) {
+		Object v = get(value, path);
+		return v instanceof String ? (String) v : null;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void write(StringBuilder sb, Object value) {
+		if (value == null) {
+			sb.append("null");
+		} else if (value instanceof String) {
+			quote(sb, (String) value);
+		} else if (value instanceof Map) {
+			sb.append('{');
+			Iterator<Map.Entry<String, Object>> iter = ((Map<String, Object>) value)
+					.entrySet().iterator();
+			while (iter.hasNext()) {
+				Map.Entry<String, Object> e = iter.next();
+				quote(sb, e.getKey());
+				sb.append(':');
+				write(sb, e.getValue());
+				if (iter.hasNext()) {
+					sb.append(',');
+				}
+			}
+			sb.append('}');
+		} else if (value instanceof List) {
+			sb.append('[');
+			Iterator<Object> iter = ((List<Object>) value).iterator();
+			while (iter.hasNext()) {
+				write(sb, iter.next());
+				if (iter.hasNext()) {
+					sb.append(',');
+				}
+			}
+			sb.append(']');
+		} else {
+			// Number、Boolean
+			sb.append(value);
+		}
+	}
+
+	private static void quote(StringBuilder sb, String str) {
+		sb.append('"');
+		for (int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			switch (c) {
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					sb.append(String.format("\\u%04x", (int) c));
+				} else {
+					sb.append(c);
+				}
+			}
+		}
+		sb.append('"');
+	}
+
+	private Object value() {
+		space();
+		if (pos >= s.length()) {
+			throw error("unexpected end");
+		}
+		char c = s.charAt(pos);
+		switch (c) {
+		case '{':
+			return object();
+		case '[':
+			return array();
+		case '"':
+			return string();
+		case 't':
+			return literal("true", Boolean.TRUE);
+		case 'f':
+			return literal("false", Boolean.FALSE);
+		case 'n':
+			return literal("null", null);
+		default:
+			return number();
+		}
+	}
+
+	private Map<String, Object> object() {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		pos++;
+		space();
+		if (peek() == '}') {
+			pos++;
+			return map;
+		}
+		while (true) {
+			space();
+			if (peek() != '"') {
+				throw error("string expected");
+			}
+			String key = string();
+			space();
+			expect(':');
+			map.put(key, value());
+			space();
+			if (peek() == ',') {
+				pos++;
+			} else {
+				expect('}');
+				return map;
+			}
+		}
+	}
+
+	private List<Object> array() {
+		List<Object> list = new ArrayList<Object>();
+		pos++;
+		space();
+		if (peek() == ']') {
+			pos++;
+			return list;
+		}
+		while (true) {
+			list.add(value());
+			space();
+			if (peek() == ',') {
+				pos++;
+			} else {
+				expect(']');
+				return list;
+			}
+		}
+	}
+
+	private String string() {
+		StringBuilder sb = new StringBuilder();
+		pos++;
+		while (pos < s.length()) {
+			char c = s.charAt(pos++);
+			if (c == '"') {
+				return sb.toString();
+			}
+			if (c != '\\') {
+				sb.append(c);
+				continue;
+			}
+			if (pos >= s.length()) {
+				break;
+			}
+			c = s.charAt(pos++);
+			switch (c) {
+			case 'n':
+				sb.append('\n');
+				break;
+			case 'r':
+				sb.append('\r');
+				break;
+			case 't':
+				sb.append('\t');
+				break;
+			case 'b':
+				sb.append('\b');
+				break;
+			case 'f':
+				sb.append('\f');
+				break;
+			case 'u':
+				if (pos + 4 > s.length()) {
+					throw error("bad escape");
+				}
+				sb.append((char) Integer.parseInt(s.substring(pos, pos + 4), 16));
+				pos += 4;
+				break;
+			default:
+				sb.append(c);
+			}
+		}
+		throw error("unterminated string");
+	}
+
+	private Object number() {
+		int start = pos;
+		boolean integral = true;
+		while (pos < s.length()) {
+			char c = s.charAt(pos);
+			if (c == '.' || c == 'e' || c == 'E') {
+				integral = false;
+			} else if (!(c == '-' || c == '+' || Character.isDigit(c))) {
+				break;
+			}
+			pos++;
+		}
+		if (start == pos) {
+			throw error("unexpected character");
+		}
+		String text = s.substring(start, pos);
+		return integral ? (Object) Long.valueOf(text) : (Object) Double
+				.valueOf(text);
+	}
+
+	private Object literal(String word, Object value) {
+		if (!s.startsWith(word, pos)) {
+			throw error("unexpected character");
+		}
+		pos += word.length();
+		return value;
+	}
+
+	private void space() {
+		while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) {
+			pos++;
+		}
+	}
+
+	private char peek() {
+		return pos < s.length() ? s.charAt(pos) : 0;
+	}
+
+	private void expect(char c) {
+		if (peek() != c) {
+			throw error("'" + c + "' expected");
+		}
+		pos++;
+	}
+
+	private IllegalArgumentException error(String message) {
+		return new IllegalArgumentException("bad JSON at " + pos + ": "
+				+ message);
+	}
+}
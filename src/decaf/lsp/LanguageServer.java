@@ -0,0 +1,519 @@
+package decaf.lsp;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import decaf.Driver;
+import decaf.Location;
+import decaf.error.DecafError;
+import decaf.error.ReplayedError;
+import decaf.frontend.TextEdit;
+import decaf.scope.ClassScope;
+import decaf.scope.CompletionIndex;
+import decaf.symbol.Class;
+import decaf.symbol.Symbol;
+import decaf.type.ClassType;
+
+/**
+ * 通过标准输入输出提供服务的语言服务器（Language Server Protocol 的一个子集）<br>
+ * 支持打开、增量修改和关闭文件，发布错误，跳转到定义，悬停显示类型，查找引用，成员补全。
+ * 每个打开的文件常驻一个 {@link Document}：修改时只重新编译受影响的部分，
+ * 编译后建立名字索引，查询只在索引中二分查找，不再做任何分析。<br>
+ * 每个文件单独作为一个完整的程序编译。
+ */
+public class LanguageServer {
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int METHOD_NOT_FOUND = -32601;
+
+	private static final int INTERNAL_ERROR = -32603;
+
+	/**
+	 * 一种请求或通知的处理程序
+	 */
+	private interface Handler {
+
+		/**
+		 * @return 请求的结果，通知的结果被丢弃
+		 */
+		Object handle(Object params) throws IOException;
+	}
+
+	private static final Pattern COMPLETION_CONTEXT = Pattern
+			.compile("(?:([A-Za-z][A-Za-z0-9_]*)\\s*\\.\\s*)?([A-Za-z0-9_]*)$");
+
+	private InputStream in;
+
+	private OutputStream out;
+
+	private Map<String, Document> documents = new HashMap<String, Document>();
+
+	private boolean shutdown;
+
+	/**
+	 * 方法名到处理程序的分派表
+	 */
+	private Map<String, Handler> handlers = new HashMap<String, Handler>();
+
+	public LanguageServer(InputStream in, OutputStream out) {
+		this.in = new BufferedInputStream(in);
+		this.out = out;
+		handlers.put("initialize", new Handler() {
+
+			@Override
+			public Object handle(Object params) {
+				return Json.object("capabilities", Json.object(
+						"textDocumentSync", Json.object("openClose", true,
+								"change", 2), "definitionProvider", true,
+						"hoverProvider", true, "referencesProvider", true,
+						"completionProvider", Json.object("triggerCharacters",
+								list("."))), "serverInfo", Json.object("name",
+						"decaf"));
+			}
+
+		});
+		handlers.put("initialized", new Handler() {
+
+			@Override
+			public Object handle(Object params) {
+				return null;
+			}
+
+		});
+		handlers.put("shutdown", new Handler() {
+
+			@Override
+			public Object handle(Object params) {
+				shutdown = true;
+				return null;
+			}
+
+		});
+		handlers.put("textDocument/didOpen", new Handler() {
+
+			@Override
+			public Object handle(Object params) throws IOException {
+				didOpen(params);
+				return null;
+			}
+
+		});
+		handlers.put("textDocument/didChange", new Handler() {
+
+			@Override
+			public Object handle(Object params) throws IOException {
+				didChange(params);
+				return null;
+			}
+
+		});
+		handlers.put("textDocument/didClose", new Handler() {
+
+			@Override
+			public Object handle(Object params) throws IOException {
+				didClose(params);
+				return null;
+			}
+
+		});
+		handlers.put("textDocument/definition", new Handler() {
+
+			@Override
+			public Object handle(Object params) {
+				return definition(params);
+			}
+
+		});
+		handlers.put("textDocument/hover", new Handler() {
+
+			@Override
+			public Object handle(Object params) {
+				return hover(params);
+			}
+
+		});
+		handlers.put("textDocument/references", new Handler() {
+
+			@Override
+			public Object handle(Object params) {
+				return references(params);
+			}
+
+		});
+		handlers.put("textDocument/completion", new Handler() {
+
+			@Override
+			public Object handle(Object params) {
+				return completion(params);
+			}
+
+		});
+	}
+
+	/**
+	 * 处理请求直到收到 exit 或输入结束
+	 *
+	 * @return 进程的退出码
+	 */
+	public int run() throws IOException {
+		while (true) {
+			String body = readMessage(in);
+			if (body == null) {
+				return 1;
+			}
+			Object message = Json.parse(body);
+			String method = Json.getString(message, "method");
+			Object id = Json.get(message, "id");
+			Object params = Json.get(message, "params");
+			if ("exit".equals(method)) {
+				return shutdown ? 0 : 1;
+			}
+			if (method == null) {
+				// 对服务器发出的请求的应答，不需要处理
+				continue;
+			}
+			Handler handler = handlers.get(method);
+			if (handler == null) {
+				// 不认识的通知（包括 $/ 开头的）直接忽略
+				if (id != null) {
+					respondError(id, METHOD_NOT_FOUND, "unknown method " + method);
+				}
+				continue;
+			}
+			try {
+				Object result = handler.handle(params);
+				if (id != null) {
+					respond(id, result);
+				}
+			} catch (RuntimeException e) {
+				if (id != null) {
+					respondError(id, INTERNAL_ERROR, String.valueOf(e));
+				}
+			}
+		}
+	}
+
+	private void didOpen(Object params) throws IOException {
+		String uri = Json.getString(params, "textDocument", "uri");
+		Document doc = new Document(uri, Json.getString(params, "textDocument",
+				"text"));
+		documents.put(uri, doc);
+		publishDiagnostics(doc);
+	}
+
+	private void didClose(Object params) throws IOException {
+		Document doc = documents.remove(Json.getString(params, "textDocument",
+				"uri"));
+		if (doc != null) {
+			notify("textDocument/publishDiagnostics", Json.object("uri", doc
+					.getUri(), "diagnostics", new ArrayList<Object>()));
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void didChange(Object params) throws IOException {
+		Document doc = documents.get(Json.getString(params, "textDocument",
+				"uri"));
+		if (doc == null) {
+			return;
+		}
+		List<Object> changes = (List<Object>) Json.get(params, "contentChanges");
+		List<TextEdit> edits = new ArrayList<TextEdit>();
+		String full = null;
+		for (Object change : changes) {
+			String text = Json.getString(change, "text");
+			if (Json.get(change, "range") == null) {
+				// 整个文件被替换，之前的修改都不再有意义
+				edits.clear();
+				full = text;
+			} else {
+				edits.add(new TextEdit(toLocation(Json.get(change, "range",
+						"start")), toLocation(Json.get(change, "range", "end")),
+						text));
+			}
+		}
+		if (full != null) {
+			doc.update(full);
+		}
+		if (!edits.isEmpty()) {
+			doc.apply(edits);
+		}
+		publishDiagnostics(doc);
+	}
+
+	private Object definition(Object params) {
+		Document doc = documents.get(Json.getString(params, "textDocument",
+				"uri"));
+		SemanticIndex index = doc == null ? null : doc.getIndex();
+		int occ = occurrenceAt(index, params);
+		if (occ < 0) {
+			return null;
+		}
+		Location def = index.getDefinition(occ);
+		if (def == null) {
+			return null;
+		}
+		int at = index.occurrenceAt(def.getLine(), def.getColumn());
+		int length = at < 0 ? 0 : index.getLength(at);
+		return Json.object("uri", doc.getUri(), "range", toRange(def.getLine(),
+				def.getColumn(), length));
+	}
+
+	private Object hover(Object params) {
+		Document doc = documents.get(Json.getString(params, "textDocument",
+				"uri"));
+		SemanticIndex index = doc == null ? null : doc.getIndex();
+		int occ = occurrenceAt(index, params);
+		if (occ < 0) {
+			return null;
+		}
+		return Json.object("contents", Json.object("kind", "plaintext",
+				"value", index.getHover(occ)), "range", toRange(index
+				.getLine(occ), index.getColumn(occ), index.getLength(occ)));
+	}
+
+	private Object references(Object params) {
+		Document doc = documents.get(Json.getString(params, "textDocument",
+				"uri"));
+		SemanticIndex index = doc == null ? null : doc.getIndex();
+		int occ = occurrenceAt(index, params);
+		List<Object> result = new ArrayList<Object>();
+		if (occ < 0) {
+			return result;
+		}
+		boolean withDeclaration = !Boolean.FALSE.equals(Json.get(params,
+				"context", "includeDeclaration"));
+		Location def = index.getDefinition(occ);
+		for (int i : index.getReferences(occ)) {
+			if (!withDeclaration && def != null
+					&& index.getLine(i) == def.getLine()
+					&& index.getColumn(i) == def.getColumn()) {
+				continue;
+			}
+			result.add(Json.object("uri", doc.getUri(), "range", toRange(index
+					.getLine(i), index.getColumn(i), index.getLength(i))));
+		}
+		return result;
+	}
+
+	/**
+	 * 补全光标前的 "接收者.前缀" 或 "前缀"：接收者为类名时列出静态函数，
+	 * 为 this 或变量时列出它的类的所有可见成员，没有接收者时列出当前类的成员
+	 */
+	private Object completion(Object params) {
+		List<Object> result = new ArrayList<Object>();
+		Document doc = documents.get(Json.getString(params, "textDocument",
+				"uri"));
+		SemanticIndex index = doc == null ? null : doc.getLastIndex();
+		if (index == null) {
+			return result;
+		}
+		int line = Json.getInt(params, "position", "line") + 1;
+		int column = Json.getInt(params, "position", "character") + 1;
+		Matcher m = COMPLETION_CONTEXT.matcher(lineBefore(doc.getText(), line,
+				column));
+		if (!m.find()) {
+			return result;
+		}
+		String receiver = m.group(1);
+		String prefix = m.group(2);
+		ClassScope scope = null;
+		int mask = CompletionIndex.ALL;
+		if (receiver == null || receiver.equals("this")) {
+			Class c = index.classAt(line);
+			scope = c == null ? null : c.getAssociatedScope();
+		} else {
+			Symbol s = index.getGlobalScope().lookup(receiver);
+			if (s != null && s.isClass()) {
+				scope = ((Class) s).getAssociatedScope();
+				mask = CompletionIndex.FUNCTION | CompletionIndex.STATIC;
+			} else {
+				s = index.variableBefore(receiver, line, column);
+				if (s != null && s.getType() instanceof ClassType) {
+					scope = ((ClassType) s.getType()).getClassScope();
+					// 与类型检查相同，字段只能经由当前类或其父类的对象访问
+					Class c = index.classAt(line);
+					if (c == null || !c.getType().compatible(s.getType())) {
+						mask = CompletionIndex.FUNCTION | CompletionIndex.STATIC
+								| CompletionIndex.INSTANCE;
+					}
+				}
+			}
+		}
+		if (scope == null) {
+			return result;
+		}
+		// 父类经由 Driver 的作用域栈查找
+		Driver.getDriver().getTable().open(index.getGlobalScope());
+		List<Symbol> members;
+		try {
+			members = scope.getCompletionIndex().complete(prefix, mask);
+		} finally {
+			Driver.getDriver().getTable().close();
+		}
+		for (Symbol s : members) {
+			String detail = s.toString();
+			result.add(Json.object("label", s.getName(), "kind", s
+					.isVariable() ? 5 : 2, "detail", detail.substring(detail
+					.indexOf(" -> ") + 4)));
+		}
+		return result;
+	}
+
+	/**
+	 * @return 第 line 行中 column 之前的文本
+	 */
+	private static String lineBefore(String text, int line, int column) {
+		int start = 0;
+		for (int l = 1; l < line && start >= 0; l++) {
+			int n = text.indexOf('\n', start);
+			start = n < 0 ? -1 : n + 1;
+		}
+		if (start < 0) {
+			return "";
+		}
+		return text.substring(start, Math.min(text.length(), start + column - 1));
+	}
+
+	private static List<Object> list(Object... items) {
+		List<Object> list = new ArrayList<Object>();
+		for (Object o : items) {
+			list.add(o);
+		}
+		return list;
+	}
+
+	private static int occurrenceAt(SemanticIndex index, Object params) {
+		if (index == null) {
+			return -1;
+		}
+		return index.occurrenceAt(Json.getInt(params, "position", "line") + 1,
+				Json.getInt(params, "position", "character") + 1);
+	}
+
+	private void publishDiagnostics(Document doc) throws IOException {
+		List<Object> list = new ArrayList<Object>();
+		SemanticIndex index = doc.getIndex();
+		for (DecafError e : doc.getDiagnostics()) {
+			Location loc = e.getLocation();
+			Object range;
+			if (loc == null || loc == Location.NO_LOCATION) {
+				range = toRange(1, 1, 0);
+			} else {
+				// 错误落在一个名字上时标出整个名字
+				int at = index == null ? -1 : index.occurrenceAt(loc.getLine(),
+						loc.getColumn());
+				range = toRange(loc.getLine(), loc.getColumn(), at < 0 ? 1
+						: index.getLength(at));
+			}
+			list.add(Json.object("range", range, "severity", 1, "source",
+					"decaf", "message", ReplayedError.messageOf(e)));
+		}
+		notify("textDocument/publishDiagnostics", Json.object("uri", doc
+				.getUri(), "diagnostics", list));
+	}
+
+	/**
+	 * 协议中的位置从 0 开始，编译器中的从 1 开始
+	 */
+	private static Location toLocation(Object position) {
+		return new Location(Json.getInt(position, "line") + 1, Json.getInt(
+				position, "character") + 1);
+	}
+
+	private static Object toRange(int line, int column, int length) {
+		return Json.object("start", Json.object("line", line - 1, "character",
+				column - 1), "end", Json.object("line", line - 1, "character",
+				column - 1 + length));
+	}
+
+	private void respond(Object id, Object result) throws IOException {
+		Map<String, Object> message = Json.object("jsonrpc", "2.0", "id", id);
+		message.put("result", result);
+		writeMessage(out, message);
+	}
+
+	private void respondError(Object id, int code, String text)
+			throws IOException {
+		writeMessage(out, Json.object("jsonrpc", "2.0", "id", id, "error", Json
+				.object("code", code, "message", text)));
+	}
+
+	private void notify(String method, Object params) throws IOException {
+		writeMessage(out, Json.object("jsonrpc", "2.0", "method", method,
+				"params", params));
+	}
+
+	/**
+	 * 读入一条带 Content-Length 头的消息
+	 *
+	 * @return 消息体，输入结束时为 null
+	 */
+	static String readMessage(InputStream in) throws IOException {
+		int length = -1;
+		while (true) {
+			String header = readLine(in);
+			if (header == null) {
+				return null;
+			}
+			if (header.length() == 0) {
+				if (length >= 0) {
+					break;
+				}
+				continue;
+			}
+			int colon = header.indexOf(':');
+			if (colon > 0
+					&& header.substring(0, colon).trim().equalsIgnoreCase(
+							"Content-Length")) {
+				length = Integer.parseInt(header.substring(colon + 1).trim());
+			}
+		}
+		byte[] body = new byte[length];
+		int n = 0;
+		while (n < length) {
+			int r = in.read(body, n, length - n);
+			if (r < 0) {
+				return null;
+			}
+			n += r;
+		}
+		return new String(body, UTF8);
+	}
+
+	private static String readLine(InputStream in) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int c;
+		while ((c = in.read()) != '\n') {
+			if (c < 0) {
+				return line.size() == 0 ? null : line.toString("US-ASCII");
+			}
+			if (c != '\r') {
+				line.write(c);
+			}
+		}
+		return line.toString("US-ASCII");
+	}
+
+	static void writeMessage(OutputStream out, Object message)
+			throws IOException {
+		byte[] body = Json.write(message).getBytes(UTF8);
+		synchronized (out) {
+			out.write(("Content-Length: " + body.length + "\r\n\r\n")
+					.getBytes(UTF8));
+			out.write(body);
+			out.flush();
+		}
+	}
+}
@@ -0,0 +1,207 @@
+package decaf.lsp;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 用于测试语言服务器的命令行客户端<br>
+ * 启动 "decaf.Driver -lsp" 子进程，打开 FILE，然后从标准输入逐行读入命令：<br>
+ * hover|definition|references|completion LINE COLUMN —— 查询，行号、列号从 1 开始；<br>
+ * change LINE1 COL1 LINE2 COL2 TEXT —— 把 [LINE1:COL1, LINE2:COL2) 换成 TEXT（\n 表示换行）；<br>
+ * quit —— 结束。<br>
+ * 每次查询输出结果和往返时间，每次收到错误列表时输出它。
+ */
+public class LspClient {
+
+	private InputStream in;
+
+	private OutputStream out;
+
+	private String uri;
+
+	private int nextId = 1;
+
+	private LspClient(InputStream in, OutputStream out, String uri) {
+		this.in = in;
+		this.out = out;
+		this.uri = uri;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.err.println("Usage: java decaf.lsp.LspClient FILE < COMMANDS");
+			System.exit(1);
+		}
+		File file = new File(args[0]);
+		String text = new String(Files.readAllBytes(file.toPath()),
+				LanguageServer.UTF8);
+		List<String> command = new ArrayList<String>();
+		command.add(new File(System.getProperty("java.home"), "bin/java")
+				.getPath());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add("decaf.Driver");
+		command.add("-lsp");
+		Process server = new ProcessBuilder(command).redirectError(
+				ProcessBuilder.Redirect.INHERIT).start();
+		LspClient client = new LspClient(server.getInputStream(), server
+				.getOutputStream(), file.toURI().toString());
+
+		client.request("initialize", Json.object("processId", null, "rootUri",
+				null, "capabilities", Json.object()));
+		client.notify("initialized", Json.object());
+		client.notify("textDocument/didOpen", Json.object("textDocument", Json
+				.object("uri", client.uri, "languageId", "decaf", "version", 1,
+						"text", text)));
+		client.awaitDiagnostics();
+
+		BufferedReader commands = new BufferedReader(new InputStreamReader(
+				System.in));
+		String line;
+		int version = 1;
+		while ((line = commands.readLine()) != null) {
+			String[] words = line.trim().split("\\s+", 6);
+			if (words[0].length() == 0 || words[0].startsWith("#")) {
+				continue;
+			}
+			if (words[0].equals("quit")) {
+				break;
+			}
+			if (words[0].equals("change") && words.length >= 5) {
+				String replacement = words.length > 5 ? words[5].replace("\\n",
+						"\n") : "";
+				client.notify("textDocument/didChange", Json.object(
+						"textDocument", Json.object("uri", client.uri, "version",
+								++version), "contentChanges", list(Json.object(
+								"range", Json.object("start", position(words[1],
+										words[2]), "end", position(words[3],
+										words[4])), "text", replacement))));
+				client.awaitDiagnostics();
+			} else if (words.length == 3) {
+				Map<String, Object> params = Json.object("textDocument", Json
+						.object("uri", client.uri), "position", position(
+						words[1], words[2]));
+				if (words[0].equals("references")) {
+					params.put("context", Json.object("includeDeclaration", true));
+				}
+				long start = System.nanoTime();
+				Object result = client.request("textDocument/" + words[0],
+						params);
+				long micros = (System.nanoTime() - start) / 1000;
+				System.out.println(line.trim() + ": " + describe(result) + "  ("
+						+ micros + " us)");
+			} else {
+				System.out.println("unknown command: " + line);
+			}
+		}
+		client.request("shutdown", null);
+		client.notify("exit", null);
+		try {
+			System.exit(server.waitFor());
+		} catch (InterruptedException e) {
+			server.destroy();
+		}
+	}
+
+	private static Object position(String line, String column) {
+		return Json.object("line", Integer.parseInt(line) - 1, "character",
+				Integer.parseInt(column) - 1);
+	}
+
+	private static List<Object> list(Object... items) {
+		List<Object> list = new ArrayList<Object>();
+		for (Object o : items) {
+			list.add(o);
+		}
+		return list;
+	}
+
+	/**
+	 * 把查询结果写成 "LINE:COLUMN" 或悬停文字的形式
+	 */
+	@SuppressWarnings("unchecked")
+	private static String describe(Object result) {
+		if (result == null) {
+			return "none";
+		}
+		if (result instanceof List) {
+			StringBuilder sb = new StringBuilder();
+			for (Object o : (List<Object>) result) {
+				sb.append(sb.length() == 0 ? "" : " ").append(describe(o));
+			}
+			return sb.length() == 0 ? "none" : sb.toString();
+		}
+		String hover = Json.getString(result, "contents", "value");
+		if (hover != null) {
+			return hover;
+		}
+		String label = Json.getString(result, "label");
+		if (label != null) {
+			return label;
+		}
+		return (Json.getInt(result, "range", "start", "line") + 1) + ":"
+				+ (Json.getInt(result, "range", "start", "character") + 1);
+	}
+
+	private Object request(String method, Object params) throws IOException {
+		int id = nextId++;
+		LanguageServer.writeMessage(out, Json.object("jsonrpc", "2.0", "id",
+				id, "method", method, "params", params));
+		while (true) {
+			Object message = read();
+			if (message == null) {
+				throw new IOException("server closed the connection");
+			}
+			if (Json.get(message, "method") == null
+					&& Json.getInt(message, "id") == id) {
+				if (Json.get(message, "error") != null) {
+					throw new IOException(Json.getString(message, "error",
+							"message"));
+				}
+				return Json.get(message, "result");
+			}
+		}
+	}
+
+	private void notify(String method, Object params) throws IOException {
+		LanguageServer.writeMessage(out, Json.object("jsonrpc", "2.0",
+				"method", method, "params", params));
+	}
+
+	/**
+	 * 等待并输出服务器发布的错误列表
+	 */
+	@SuppressWarnings("unchecked")
+	private void awaitDiagnostics() throws IOException {
+		while (true) {
+			Object message = read();
+			if (message == null) {
+				throw new IOException("server closed the connection");
+			}
+			if ("textDocument/publishDiagnostics".equals(Json.getString(message,
+					"method"))) {
+				List<Object> list = (List<Object>) Json.get(message, "params",
+						"diagnostics");
+				System.out.println("diagnostics: " + list.size());
+				for (Object d : list) {
+					System.out.println("  " + describe(d) + " "
+							+ Json.getString(d, "message"));
+				}
+				return;
+			}
+		}
+	}
+
+	private Object read() throws IOException {
+		String body = LanguageServer.readMessage(in);
+		return body == null ? null : Json.parse(body);
+	}
+}
@@ -0,0 +1,232 @@
+package decaf.lsp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import decaf.Location;
+import decaf.scope.GlobalScope;
+import decaf.symbol.Class;
+import decaf.symbol.Symbol;
+import decaf.typecheck.XrefIndex;
+
+/**
+ * 一个已经完成类型检查的文件中所有名字出现处的索引，由类型检查建立的交叉引用索引整理而来<br>
+ * 每个出现处（符号的声明和使用）记下它的位置、长度（符号名字的长度）和所指的符号，
+ * 按位置排序存放在几个并列的数组中，查询时二分查找；
+ * 同一符号的所有出现处预先分好组，查找引用时直接取出。
+ */
+public final class SemanticIndex {
+
+	private int size;
+
+	private int[] lines;
+
+	private int[] columns;
+
+	private int[] lengths;
+
+	/**
+	 * 出现处所指符号在交叉引用索引中的编号
+	 */
+	private int[] targets;
+
+	private XrefIndex xref;
+
+	/**
+	 * 每个符号的所有出现处（按位置排序）
+	 */
+	private int[][] uses;
+
+	/**
+	 * 各个类（按源文件中的顺序）及其开始的行
+	 */
+	private List<Class> classes = new ArrayList<Class>();
+
+	private List<Integer> classLines = new ArrayList<Integer>();
+
+	private GlobalScope globalScope;
+
+	private SemanticIndex(XrefIndex xref, GlobalScope globalScope) {
+		this.xref = xref;
+		this.globalScope = globalScope;
+	}
+
+	/**
+	 * 由类型检查时建立的交叉引用索引建立名字索引
+	 */
+	public static SemanticIndex build(XrefIndex xref, GlobalScope globalScope) {
+		SemanticIndex index = new SemanticIndex(xref, globalScope);
+		index.collect();
+		return index;
+	}
+
+	/**
+	 * 取出所有声明和使用处，按位置排序（去掉重复的出现处）并为每个符号收集出现处
+	 */
+	private void collect() {
+		int n = 0;
+		for (int id = 0; id < xref.size(); id++) {
+			n += xref.useCount(id) + (xref.getDefinition(id) == null ? 0 : 1);
+		}
+		long[] locations = new long[n];
+		int[] ids = new int[n];
+		// 类的声明按位置排序，用来确定每一行所在的类
+		long[] classDefs = new long[xref.size()];
+		int[] classIds = new int[xref.size()];
+		int k = 0;
+		int c = 0;
+		for (int id = 0; id < xref.size(); id++) {
+			Location def = xref.getDefinition(id);
+			if (def != null) {
+				locations[k] = XrefIndex.pack(def);
+				ids[k++] = id;
+				if (xref.getSymbol(id).isClass()) {
+					classDefs[c] = locations[k - 1];
+					classIds[c++] = id;
+				}
+			}
+			for (long use : xref.usesOf(id)) {
+				locations[k] = use;
+				ids[k++] = id;
+			}
+		}
+		XrefIndex.sortByLocation(locations, ids, n);
+		XrefIndex.sortByLocation(classDefs, classIds, c);
+		for (int i = 0; i < c; i++) {
+			classes.add((Class) xref.getSymbol(classIds[i]));
+			classLines.add(XrefIndex.lineOf(classDefs[i]));
+		}
+
+		lines = new int[n];
+		columns = new int[n];
+		lengths = new int[n];
+		targets = new int[n];
+		for (int i = 0; i < n; i++) {
+			if (i > 0 && locations[i] == locations[i - 1]) {
+				continue;
+			}
+			lines[size] = XrefIndex.lineOf(locations[i]);
+			columns[size] = XrefIndex.columnOf(locations[i]);
+			lengths[size] = xref.getSymbol(ids[i]).getName().length();
+			targets[size] = ids[i];
+			size++;
+		}
+
+		int[] counts = new int[xref.size()];
+		for (int i = 0; i < size; i++) {
+			counts[targets[i]]++;
+		}
+		uses = new int[xref.size()][];
+		for (int s = 0; s < uses.length; s++) {
+			uses[s] = new int[counts[s]];
+			counts[s] = 0;
+		}
+		for (int i = 0; i < size; i++) {
+			int s = targets[i];
+			uses[s][counts[s]++] = i;
+		}
+	}
+
+	/**
+	 * @return 覆盖位置 (line, column) 的出现处，没有时为 -1
+	 */
+	public int occurrenceAt(int line, int column) {
+		int lo = 0;
+		int hi = size - 1;
+		int found = -1;
+		// 最后一个起点不在 (line, column) 之后的出现处
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (lines[mid] < line || lines[mid] == line
+					&& columns[mid] <= column) {
+				found = mid;
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		if (found >= 0 && lines[found] == line
+				&& column < columns[found] + lengths[found]) {
+			return found;
+		}
+		return -1;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getLine(int occurrence) {
+		return lines[occurrence];
+	}
+
+	public int getColumn(int occurrence) {
+		return columns[occurrence];
+	}
+
+	public int getLength(int occurrence) {
+		return lengths[occurrence];
+	}
+
+	public Symbol getSymbol(int occurrence) {
+		return xref.getSymbol(targets[occurrence]);
+	}
+
+	/**
+	 * @return 出现处所指符号的声明中名字的位置，符号来自接口文件等没有源代码位置时为 null
+	 */
+	public Location getDefinition(int occurrence) {
+		Location loc = xref.getDefinition(targets[occurrence]);
+		if (loc == null) {
+			loc = getSymbol(occurrence).getLocation();
+		}
+		return loc == null || loc == Location.NO_LOCATION ? null : loc;
+	}
+
+	/**
+	 * @return 与出现处指向同一符号的所有出现处（含声明）
+	 */
+	public int[] getReferences(int occurrence) {
+		return uses[targets[occurrence]];
+	}
+
+	public GlobalScope getGlobalScope() {
+		return globalScope;
+	}
+
+	/**
+	 * @return 第 line 行所在的类，在所有类之前时为 null
+	 */
+	public Class classAt(int line) {
+		Class result = null;
+		for (int i = 0; i < classes.size() && classLines.get(i) <= line; i++) {
+			result = classes.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * @return (line, column) 之前最近一处名为 name 的变量，没有时为 null
+	 */
+	public Symbol variableBefore(String name, int line, int column) {
+		for (int i = size - 1; i >= 0; i--) {
+			if (lines[i] > line || lines[i] == line && columns[i] >= column) {
+				continue;
+			}
+			Symbol symbol = getSymbol(i);
+			if (symbol.isVariable() && symbol.getName().equals(name)) {
+				return symbol;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return 出现处所指符号的描述，格式与作用域输出中的相同，但不含位置
+	 */
+	public String getHover(int occurrence) {
+		String s = getSymbol(occurrence).toString();
+		int arrow = s.indexOf(" -> ");
+		return arrow < 0 ? s : s.substring(arrow + 4);
+	}
+}
@@ -0,0 +1,111 @@
+package decaf.opt;
+
+import decaf.ssa.Ssa;
+import decaf.tac.Tac;
+
+/**
+ * 删除结果不再使用的指令和 φ<br>
+ * 从有副作用的指令（写内存、调用、传参、跳转、返回，以及除数不是非零常量的除法）出发，
+ * 沿操作数标记有用的值，没有标记的纯计算和 φ 都删除，因此循环中互相使用而别处不用的值也能删去。
+ */
+final class DeadCode {
+
+	private final Ssa ssa;
+
+	private final Stats stats;
+
+	private boolean[] live;
+
+	/**
+	 * 标记时判定的必须保留的指令；删除时不能重新判定，
+	 * 否则除数的常量定值删去后除法又被当作必须保留，而它的操作数已经没有定值了
+	 */
+	private boolean[] critical;
+
+	private int[] work;
+
+	private int size;
+
+	private final int[] fields = new int[2];
+
+	DeadCode(Ssa ssa, Stats stats) {
+		this.ssa = ssa;
+		this.stats = stats;
+	}
+
+	void run() {
+		live = new boolean[ssa.getNumValues()];
+		work = new int[ssa.getNumValues()];
+		critical = new boolean[ssa.getNumInstrs()];
+		for (int b = ssa.firstInLayout(); b >= 0; b = ssa.nextInLayout(b)) {
+			for (int i = ssa.first(b); i >= 0; i = ssa.next(i)) {
+				if (isCritical(i)) {
+					critical[i] = true;
+					markOperands(i);
+				}
+			}
+		}
+		while (size > 0) {
+			int v = work[--size];
+			int d = ssa.definition(v);
+			if (d >= 0) {
+				markOperands(d);
+			} else if (d != Ssa.ENTRY) {
+				int p = ssa.phiOf(v);
+				int b = ssa.phiBlock(p);
+				for (int k = 0; k < ssa.numPreds(b); k++) {
+					mark(ssa.phiArg(p, k));
+				}
+			}
+		}
+		int instrs = 0;
+		for (int b = ssa.firstInLayout(); b >= 0; b = ssa.nextInLayout(b)) {
+			for (int i = ssa.first(b); i >= 0;) {
+				int next = ssa.next(i);
+				if (!critical[i] && !live[ssa.defOf(i)]) {
+					ssa.remove(i);
+					instrs++;
+				}
+				i = next;
+			}
+			for (int p = ssa.firstPhi(b); p >= 0;) {
+				int next = ssa.nextPhi(p);
+				if (!live[ssa.phiDest(p)]) {
+					ssa.removePhi(p);
+				}
+				p = next;
+			}
+		}
+		if (stats != null) {
+			stats.add("dce", "instructions", instrs);
+		}
+	}
+
+	/**
+	 * @return 指令是否不论结果是否使用都要保留
+	 */
+	private boolean isCritical(int i) {
+		int op = ssa.op(i);
+		if (op == Tac.DIV || op == Tac.MOD) {
+			int d = ssa.z(i);
+			return !ssa.isConstant(d) || ssa.constant(d) == 0;
+		}
+		return Tac.isBinary(op) || Tac.isUnary(op) ? false : ssa.defOf(i) < 0
+				|| op == Tac.DIRECT_CALL || op == Tac.INDIRECT_CALL;
+	}
+
+	private void markOperands(int i) {
+		int[] code = ssa.code();
+		int n = ssa.useFields(i, fields);
+		for (int k = 0; k < n; k++) {
+			mark(code[fields[k]]);
+		}
+	}
+
+	private void mark(int v) {
+		if (!live[v]) {
+			live[v] = true;
+			work[size++] = v;
+		}
+	}
+}
@@ -0,0 +1,429 @@
+package decaf.opt;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import decaf.ssa.Dominators;
+import decaf.ssa.Ssa;
+import decaf.tac.Program;
+import decaf.tac.Tac;
+
+/**
+ * 基于支配树的全局值编号（Briggs、Cooper、Simpson 的 DVNT）<br>
+ * 沿支配树先序处理各块，散列表中只有支配当前块的指令，离开子树时按记录撤销：
+ * 复制直接取源的编号，运算、LOAD_STR_CONST、LOAD_VTBL 和 LOAD 与散列表中已有的相同时删去，
+ * 以后的使用改用已有的值。常量按值比较，不按定值比较。<br>
+ * LOAD 按内存区域区分别名：每个区域有一个版本号，写该区域的 STORE 使其加一，
+ * 调用用户函数使所有字段和数组元素的区域失效（对象头、虚表、数组长度在创建后不变）；
+ * STORE 之后读同一地址直接得到写入的值。块有多个前驱时，从其直接支配者到它的各条路径上写过的区域都失效。<br>
+ * 条件跳转的两个后继中只有这一个前驱的块知道条件的值，其支配的块中对同一值的条件跳转
+ * （如对同一下标重复的越界检查、checkcast 中对同一对象的 null 判断）只剩一个后继。
+ */
+final class Gvn {
+
+	/**
+	 * 散列表的键：操作码和两个操作数，LOAD 另有偏移和区域的版本
+	 */
+	private static final class Key {
+
+		final int op;
+
+		final long a;
+
+		final long b;
+
+		final long c;
+
+		Key(int op, long a, long b, long c) {
+			this.op = op;
+			this.a = a;
+			this.b = b;
+			this.c = c;
+		}
+
+		@Override
+		public int hashCode() {
+			long h = op * 0x9E3779B97F4A7C15L + a;
+			h = h * 0x9E3779B97F4A7C15L + b;
+			h = h * 0x9E3779B97F4A7C15L + c;
+			return (int) (h ^ h >>> 32);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			Key k = (Key) o;
+			return op == k.op && a == k.a && b == k.b && c == k.c;
+		}
+	}
+
+	/**
+	 * 不会被调用改写的区域的个数（编号小于它的区域）
+	 */
+	static final int IMMUTABLE_REGIONS = Program.LENGTH + 1;
+
+	private final Ssa ssa;
+
+	private final int numRegions;
+
+	private final Stats stats;
+
+	private Dominators dom;
+
+	/**
+	 * 值编号：与之相同的值，未删去的值为其自身
+	 */
+	private int[] vn;
+
+	/**
+	 * 已知的条件：1 为非零，2 为零
+	 */
+	private byte[] known;
+
+	private final Map<Key, Integer> table = new HashMap<Key, Integer>();
+
+	private final List<Key> inserted = new ArrayList<Key>();
+
+	private int[] version;
+
+	/**
+	 * 调用用户函数的次数，作为字段和数组元素区域的版本的一部分
+	 */
+	private int callEpoch;
+
+	private int counter;
+
+	/**
+	 * 撤销记录：区域（-1 为 callEpoch，-2 - v 为 known[v]）及其之前的值
+	 */
+	private int[] undo = new int[64];
+
+	private int undoSize;
+
+	private int[] mark;
+
+	private int[] stack;
+
+	private final int[] fields = new int[2];
+
+	private int removed;
+
+	private int branches;
+
+	Gvn(Ssa ssa, int numRegions, Stats stats) {
+		this.ssa = ssa;
+		this.numRegions = numRegions;
+		this.stats = stats;
+	}
+
+	void run() {
+		dom = new Dominators(ssa);
+		int numValues = ssa.getNumValues();
+		vn = new int[numValues];
+		for (int v = 0; v < numValues; v++) {
+			vn[v] = v;
+		}
+		known = new byte[numValues];
+		version = new int[numRegions];
+		mark = new int[ssa.getNumBlocks()];
+		Arrays.fill(mark, -1);
+		stack = new int[ssa.getNumBlocks()];
+		walk();
+		// φ 的参数在前驱的末尾使用，最后统一改为值编号
+		for (int b = ssa.firstInLayout(); b >= 0; b = ssa.nextInLayout(b)) {
+			for (int p = ssa.firstPhi(b); p >= 0; p = ssa.nextPhi(p)) {
+				for (int k = 0; k < ssa.numPreds(b); k++) {
+					ssa.setPhiArg(p, k, find(ssa.phiArg(p, k)));
+				}
+			}
+		}
+		int blocks = 0;
+		if (branches > 0) {
+			Dominators d = new Dominators(ssa);
+			for (int b = 0; b < ssa.getNumBlocks(); b++) {
+				if (!ssa.isRemoved(b) && !d.isReachable(b)) {
+					ssa.removeBlock(b);
+					blocks++;
+				}
+			}
+		}
+		if (stats != null) {
+			stats.add("gvn", "instructions", removed + branches);
+			stats.add("gvn", "branches", branches);
+			stats.add("gvn", "blocks", blocks);
+		}
+	}
+
+	/**
+	 * 不用递归地沿支配树先序遍历，离开子树时撤销
+	 */
+	private void walk() {
+		int n = ssa.getNumBlocks();
+		int[] path = new int[n];
+		int[] next = new int[n];
+		int[] undoMark = new int[n];
+		int[] tableMark = new int[n];
+		int sp = 0;
+		int entry = ssa.getEntry();
+		path[sp++] = entry;
+		undoMark[entry] = undoSize;
+		tableMark[entry] = inserted.size();
+		visitBlock(entry);
+		while (sp > 0) {
+			int b = path[sp - 1];
+			if (next[b] < dom.numChildren(b)) {
+				int c = dom.child(b, next[b]++);
+				undoMark[c] = undoSize;
+				tableMark[c] = inserted.size();
+				next[c] = 0;
+				path[sp++] = c;
+				enter(c);
+				visitBlock(c);
+			} else {
+				while (undoSize > undoMark[b]) {
+					undoSize -= 2;
+					int r = undo[undoSize];
+					if (r >= 0) {
+						version[r] = undo[undoSize + 1];
+					} else if (r == -1) {
+						callEpoch = undo[undoSize + 1];
+					} else {
+						known[-2 - r] = (byte) undo[undoSize + 1];
+					}
+				}
+				for (int k = inserted.size() - 1; k >= tableMark[b]; k--) {
+					table.remove(inserted.remove(k));
+				}
+				sp--;
+			}
+		}
+	}
+
+	/**
+	 * 进入块 c 时：只有一个前驱时从条件跳转得知条件的值，有多个前驱时使路径上写过的区域失效
+	 */
+	private void enter(int c) {
+		if (ssa.numPreds(c) == 1) {
+			int p = ssa.pred(c, 0);
+			int t = ssa.terminator(p);
+			if (ssa.numSuccs(p) == 2 && t >= 0) {
+				boolean taken = ssa.succ(p, 1) == c;
+				boolean nonzero = taken == (ssa.op(t) == Tac.BNEZ);
+				setKnown(find(ssa.y(t)), nonzero ? 1 : 2);
+			}
+			return;
+		}
+		// 从各前驱向上直到直接支配者
+		int idom = dom.idom(c);
+		int sp = 0;
+		for (int k = 0; k < ssa.numPreds(c); k++) {
+			int p = ssa.pred(c, k);
+			if (p != idom && mark[p] != c && dom.isReachable(p)) {
+				mark[p] = c;
+				stack[sp++] = p;
+			}
+		}
+		boolean call = false;
+		while (sp > 0) {
+			int b = stack[--sp];
+			for (int i = ssa.first(b); i >= 0; i = ssa.next(i)) {
+				int op = ssa.op(i);
+				if (op == Tac.STORE) {
+					bump(ssa.region(i));
+				} else if (isUserCall(i)) {
+					call = true;
+				}
+			}
+			for (int k = 0; k < ssa.numPreds(b); k++) {
+				int p = ssa.pred(b, k);
+				if (p != idom && mark[p] != c && dom.isReachable(p)) {
+					mark[p] = c;
+					stack[sp++] = p;
+				}
+			}
+		}
+		if (call) {
+			bumpCalls();
+		}
+	}
+
+	private void visitBlock(int b) {
+		for (int p = ssa.firstPhi(b); p >= 0;) {
+			int next = ssa.nextPhi(p);
+			int dest = ssa.phiDest(p);
+			int same = -1;
+			for (int k = 0; k < ssa.numPreds(b) && same != -2; k++) {
+				int a = find(ssa.phiArg(p, k));
+				if (a != dest && a != same) {
+					same = same == -1 ? a : -2;
+				}
+			}
+			if (same >= 0) {
+				vn[dest] = same;
+				ssa.removePhi(p);
+				removed++;
+			}
+			p = next;
+		}
+		int[] code = ssa.code();
+		for (int i = ssa.first(b); i >= 0;) {
+			int next = ssa.next(i);
+			int n = ssa.useFields(i, fields);
+			for (int k = 0; k < n; k++) {
+				code[fields[k]] = find(code[fields[k]]);
+			}
+			visit(b, i);
+			i = next;
+		}
+	}
+
+	private void visit(int b, int i) {
+		int op = ssa.op(i);
+		int x = ssa.x(i);
+		int y = ssa.y(i);
+		int z = ssa.z(i);
+		Key key = null;
+		switch (op) {
+		case Tac.ASSIGN:
+			vn[x] = y;
+			ssa.remove(i);
+			removed++;
+			return;
+		case Tac.LOAD_STR_CONST:
+		case Tac.LOAD_VTBL:
+			key = new Key(op, y, 0, 0);
+			break;
+		case Tac.LOAD:
+			key = loadKey(ssa.region(i), y, z);
+			break;
+		case Tac.STORE: {
+			int r = ssa.region(i);
+			bump(r);
+			// 之后读同一地址得到写入的值
+			insert(loadKey(r, y, z), x);
+			return;
+		}
+		case Tac.DIRECT_CALL:
+		case Tac.INDIRECT_CALL:
+			if (isUserCall(i)) {
+				bumpCalls();
+			}
+			return;
+		case Tac.BEQZ:
+		case Tac.BNEZ:
+			if (ssa.numSuccs(b) == 2 && known[y] != 0) {
+				boolean nonzero = known[y] == 1;
+				// 不会走的边：BEQZ 在非零时不跳转（删去第 1 个后继）
+				int dead = nonzero == (op == Tac.BEQZ) ? 1 : 0;
+				ssa.remove(i);
+				ssa.removeEdge(b, dead);
+				branches++;
+			}
+			return;
+		default:
+			if (Tac.isBinary(op)) {
+				key = binaryKey(op, y, z);
+			} else if (Tac.isUnary(op)) {
+				key = new Key(op, operand(y), 0, 0);
+			} else {
+				return;
+			}
+		}
+		Integer w = table.get(key);
+		if (w != null) {
+			vn[x] = w;
+			ssa.remove(i);
+			removed++;
+		} else {
+			insert(key, x);
+		}
+	}
+
+	/**
+	 * 交换律的运算按操作数排序，a &gt; b 记为 b &lt; a
+	 */
+	private Key binaryKey(int op, int y, int z) {
+		long a = operand(y);
+		long b = operand(z);
+		switch (op) {
+		case Tac.GTR:
+			op = Tac.LES;
+			break;
+		case Tac.GEQ:
+			op = Tac.LEQ;
+			break;
+		case Tac.ADD:
+		case Tac.MUL:
+		case Tac.LAND:
+		case Tac.LOR:
+		case Tac.EQU:
+		case Tac.NEQ:
+			if (a > b) {
+				long t = a;
+				a = b;
+				b = t;
+			}
+			return new Key(op, a, b, 0);
+		default:
+			return new Key(op, a, b, 0);
+		}
+		return new Key(op, b, a, 0);
+	}
+
+	private Key loadKey(int region, int base, int offset) {
+		long v = region < IMMUTABLE_REGIONS ? version[region]
+				: (long) version[region] << 32 | callEpoch & 0xffffffffL;
+		return new Key(Tac.opcode(Tac.LOAD, region), operand(base), offset, v);
+	}
+
+	/**
+	 * @return 作为键的操作数：常量为 2^32 加其值，否则为值编号
+	 */
+	private long operand(int v) {
+		return ssa.isConstant(v) ? 1L << 32 | ssa.constant(v) & 0xffffffffL : v;
+	}
+
+	private boolean isUserCall(int i) {
+		int op = ssa.op(i);
+		return op == Tac.INDIRECT_CALL || op == Tac.DIRECT_CALL && ssa.y(i) >= 0;
+	}
+
+	private void insert(Key key, int v) {
+		if (table.put(key, v) == null) {
+			inserted.add(key);
+		}
+	}
+
+	private void bump(int region) {
+		log(region, version[region]);
+		version[region] = ++counter;
+	}
+
+	private void bumpCalls() {
+		log(-1, callEpoch);
+		callEpoch = ++counter;
+	}
+
+	private void setKnown(int v, int value) {
+		log(-2 - v, known[v]);
+		known[v] = (byte) value;
+	}
+
+	private void log(int what, int old) {
+		if (undoSize + 2 > undo.length) {
+			undo = Arrays.copyOf(undo, undo.length * 2);
+		}
+		undo[undoSize++] = what;
+		undo[undoSize++] = old;
+	}
+
+	private int find(int v) {
+		while (vn[v] != v) {
+			vn[v] = vn[vn[v]];
+			v = vn[v];
+		}
+		return v;
+	}
+}
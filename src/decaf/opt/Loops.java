@@ -0,0 +1,532 @@
+package decaf.opt;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import decaf.ssa.Dominators;
+import decaf.ssa.Ssa;
+import decaf.ssa.Uses;
+import decaf.symbol.Function;
+import decaf.tac.Tac;
+
+/**
+ * 循环不变量外提和归纳变量的强度削弱<br>
+ * 由回边（到其支配者的边）找出自然循环，首结点相同的合为一个，由内层向外层处理。
+ * 首结点在循环外只有一个前驱时在这条边上放一个前置块，否则不处理该循环。<br>
+ * 操作数都在循环外定值（或为常量，在前置块中另装一份）的运算、LOAD_STR_CONST、LOAD_VTBL
+ * 移到前置块，除法只在除数为非零常量时移动。LOAD 还要求循环中没有写该区域的 STORE，
+ * 字段和数组元素的区域还要求没有调用用户函数；读空指针会出错，因此所在块还要支配循环的
+ * 所有出口（每次进入循环都会执行），除非基址是 this。<br>
+ * 首结点中 i = φ(i0, i + s)（s 为常量或循环不变量）是基本归纳变量，
+ * 循环中的 a + i * k（a 不变、k 为常量）改为新的归纳变量 p = φ(a + i0 * k, p + s * k)，
+ * 即每次迭代加一个增量的指针。虚拟机把只用于一次读写的 a + i * 4 合并为一条 LOADX/STOREX，
+ * 比另加一次指针的加法快，这样的地址不削弱。
+ */
+final class Loops {
+
+	private final Ssa ssa;
+
+	private final int numRegions;
+
+	private final Stats stats;
+
+	private Dominators dom;
+
+	private Uses uses;
+
+	/**
+	 * 块所在的最内层循环的首结点，不在循环中为 -1
+	 */
+	private int[] header;
+
+	/**
+	 * 循环（以首结点表示）的外面一层循环，没有时为 -1
+	 */
+	private int[] parent;
+
+	/**
+	 * 循环唯一的回边的起点，有多条回边时为 -1
+	 */
+	private int[] latch;
+
+	/**
+	 * 循环的前置块，没有时为 -1
+	 */
+	private int[] preheader;
+
+	/**
+	 * 各循环的首结点，内层循环在前
+	 */
+	private int[] loops;
+
+	private int numLoops;
+
+	/**
+	 * 循环 h 的块按逆后序为 blocks[blockStart[h] .. blockStart[h + 1])
+	 */
+	private int[] blockStart;
+
+	private int[] blocks;
+
+	/**
+	 * 当前循环中写过的区域
+	 */
+	private boolean[] stored;
+
+	/**
+	 * 当前循环中是否调用了用户函数
+	 */
+	private boolean calls;
+
+	/**
+	 * 当前循环中有边通向循环外的块
+	 */
+	private int[] exits;
+
+	private int numExits;
+
+	/**
+	 * 当前循环中的常量 → 前置块中的副本
+	 */
+	private final Map<Integer, Integer> constants = new HashMap<Integer, Integer>();
+
+	/**
+	 * 成员函数的 this，没有时为 -1
+	 */
+	private int thisValue = -1;
+
+	private final int[] fields = new int[2];
+
+	private int hoisted;
+
+	private int reduced;
+
+	Loops(Ssa ssa, int numRegions, Stats stats) {
+		this.ssa = ssa;
+		this.numRegions = numRegions;
+		this.stats = stats;
+	}
+
+	void run() {
+		dom = new Dominators(ssa);
+		findLoops();
+		if (numLoops == 0) {
+			return;
+		}
+		while (insertPreheaders()) {
+			// 新的前置块属于外层循环；拆边后重算支配树和循环，直到每个循环都有前置块
+			dom = new Dominators(ssa);
+			findLoops();
+		}
+		collectBlocks();
+		Function symbol = ssa.getFuncty().getSymbol();
+		if (symbol != null && !symbol.isStatik()) {
+			for (int v = 0; v < ssa.getNumValues(); v++) {
+				if (ssa.definition(v) == Ssa.ENTRY && ssa.varOf(v) == 0) {
+					thisValue = v;
+				}
+			}
+		}
+		stored = new boolean[numRegions];
+		exits = new int[ssa.getNumBlocks()];
+		for (int k = 0; k < numLoops; k++) {
+			int h = loops[k];
+			if (preheader[h] >= 0) {
+				summarize(h);
+				hoist(h);
+				// 内层循环的削弱新加了值和指令（可能就在本循环的前置块和首结点中），使用者要重新统计
+				uses = new Uses(ssa);
+				reduce(h);
+			}
+		}
+		if (stats != null) {
+			stats.add("loops", "hoisted", hoisted);
+			stats.add("loops", "pointers", reduced);
+		}
+	}
+
+	/**
+	 * 按逆后序从后向前（内层循环的首结点在后）找出各循环：从回边的起点沿前驱向上直到首结点，
+	 * 遇到已找出的内层循环时跳到其最外层的首结点，把它作为当前循环的子循环
+	 */
+	private void findLoops() {
+		int n = ssa.getNumBlocks();
+		header = new int[n];
+		parent = new int[n];
+		latch = new int[n];
+		loops = new int[n];
+		numLoops = 0;
+		Arrays.fill(header, -1);
+		Arrays.fill(parent, -1);
+		Arrays.fill(latch, -1);
+		// 每条边至多入栈一次
+		int[] stack = new int[2 * n];
+		int[] rpo = dom.rpo();
+		for (int r = rpo.length - 1; r >= 0; r--) {
+			int h = rpo[r];
+			int sp = 0;
+			for (int k = 0; k < ssa.numPreds(h); k++) {
+				int p = ssa.pred(h, k);
+				if (dom.isReachable(p) && dom.dominates(h, p)) {
+					stack[sp++] = p;
+				}
+			}
+			if (sp == 0) {
+				continue;
+			}
+			latch[h] = sp == 1 ? stack[0] : -1;
+			header[h] = h;
+			loops[numLoops++] = h;
+			while (sp > 0) {
+				int b = stack[--sp];
+				if (header[b] < 0) {
+					header[b] = h;
+					for (int k = 0; k < ssa.numPreds(b); k++) {
+						if (dom.isReachable(ssa.pred(b, k))) {
+							stack[sp++] = ssa.pred(b, k);
+						}
+					}
+					continue;
+				}
+				int top = header[b];
+				while (parent[top] >= 0) {
+					top = parent[top];
+				}
+				if (top != h) {
+					// 内层循环只从其首结点在循环外的前驱继续
+					parent[top] = h;
+					for (int k = 0; k < ssa.numPreds(top); k++) {
+						int p = ssa.pred(top, k);
+						if (dom.isReachable(p) && !dom.dominates(top, p)) {
+							stack[sp++] = p;
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * 找出各循环的前置块：首结点在循环外唯一的前驱只有这一个后继时就是它，否则拆开这条边
+	 *
+	 * @return 是否拆了边
+	 */
+	private boolean insertPreheaders() {
+		preheader = new int[ssa.getNumBlocks()];
+		Arrays.fill(preheader, -1);
+		boolean split = false;
+		for (int k = 0; k < numLoops; k++) {
+			int h = loops[k];
+			int outside = -1;
+			int count = 0;
+			for (int j = 0; j < ssa.numPreds(h); j++) {
+				int p = ssa.pred(h, j);
+				if (dom.isReachable(p) && !dom.dominates(h, p)) {
+					outside = p;
+					count++;
+				}
+			}
+			if (count != 1) {
+				continue;
+			}
+			if (ssa.numSuccs(outside) == 1) {
+				preheader[h] = outside;
+			} else {
+				// 放在首结点之前，不打断 outside 原来顺序执行到的块
+				int ph = ssa.splitEdge(outside, ssa.succ(outside, 0) == h ? 0 : 1);
+				ssa.moveBefore(ph, h);
+				split = true;
+			}
+		}
+		return split;
+	}
+
+	private void collectBlocks() {
+		int n = ssa.getNumBlocks();
+		blockStart = new int[n + 1];
+		int[] rpo = dom.rpo();
+		for (int b : rpo) {
+			for (int l = header[b]; l >= 0; l = parent[l]) {
+				blockStart[l + 1]++;
+			}
+		}
+		for (int b = 0; b < n; b++) {
+			blockStart[b + 1] += blockStart[b];
+		}
+		blocks = new int[blockStart[n]];
+		int[] fill = Arrays.copyOf(blockStart, n);
+		for (int b : rpo) {
+			for (int l = header[b]; l >= 0; l = parent[l]) {
+				blocks[fill[l]++] = b;
+			}
+		}
+	}
+
+	/**
+	 * @return 块 b 是否在首结点为 h 的循环中（含其内层循环）
+	 */
+	private boolean inLoop(int b, int h) {
+		for (int l = header[b]; l >= 0; l = parent[l]) {
+			if (l == h) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * 找出循环 h 写的区域、是否调用用户函数和出口
+	 */
+	private void summarize(int h) {
+		Arrays.fill(stored, false);
+		calls = false;
+		numExits = 0;
+		for (int k = blockStart[h]; k < blockStart[h + 1]; k++) {
+			int b = blocks[k];
+			for (int i = ssa.first(b); i >= 0; i = ssa.next(i)) {
+				int op = ssa.op(i);
+				if (op == Tac.STORE) {
+					stored[ssa.region(i)] = true;
+				} else if (op == Tac.INDIRECT_CALL || op == Tac.DIRECT_CALL
+						&& ssa.y(i) >= 0) {
+					calls = true;
+				}
+			}
+			for (int s = 0; s < ssa.numSuccs(b); s++) {
+				if (!inLoop(ssa.succ(b, s), h)) {
+					exits[numExits++] = b;
+					break;
+				}
+			}
+		}
+	}
+
+	private void hoist(int h) {
+		int ph = preheader[h];
+		constants.clear();
+		for (int k = blockStart[h]; k < blockStart[h + 1]; k++) {
+			for (int i = ssa.first(blocks[k]); i >= 0;) {
+				int next = ssa.next(i);
+				if (isInvariant(h, i)) {
+					int n = ssa.useFields(i, fields);
+					for (int j = 0; j < n; j++) {
+						int v = ssa.code()[fields[j]];
+						if (inLoop(ssa.defBlock(v), h)) {
+							int c = constantIn(ph, v);
+							ssa.code()[fields[j]] = c;
+						}
+					}
+					int d = ssa.defOf(i);
+					ssa.remove(i);
+					ssa.appendBeforeTerminator(ph, i);
+					ssa.setDefinition(d, i);
+					hoisted++;
+				}
+				i = next;
+			}
+		}
+	}
+
+	/**
+	 * @return 第 i 条指令能否移到循环 h 的前置块
+	 */
+	private boolean isInvariant(int h, int i) {
+		int op = ssa.op(i);
+		if (op == Tac.LOAD) {
+			int r = ssa.region(i);
+			if (stored[r] || calls && r >= Gvn.IMMUTABLE_REGIONS
+					|| ssa.y(i) != thisValue && !dominatesExits(ssa.blockOf(i))) {
+				return false;
+			}
+		} else if (op == Tac.DIV || op == Tac.MOD) {
+			int d = ssa.z(i);
+			if (!ssa.isConstant(d) || ssa.constant(d) == 0) {
+				return false;
+			}
+		} else if (!Tac.isBinary(op) && !Tac.isUnary(op)
+				&& op != Tac.LOAD_STR_CONST && op != Tac.LOAD_VTBL) {
+			return false;
+		}
+		int[] code = ssa.code();
+		int n = ssa.useFields(i, fields);
+		for (int k = 0; k < n; k++) {
+			int v = code[fields[k]];
+			if (inLoop(ssa.defBlock(v), h) && !ssa.isConstant(v)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean dominatesExits(int b) {
+		for (int k = 0; k < numExits; k++) {
+			if (!dom.dominates(b, exits[k])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return 循环中的常量 v 在前置块 ph 中的副本
+	 */
+	private int constantIn(int ph, int v) {
+		Integer c = constants.get(v);
+		if (c == null) {
+			c = emit(ph, Tac.LOAD_IMM4, ssa.constant(v), -1);
+			constants.put(v, c);
+		}
+		return c;
+	}
+
+	/**
+	 * 削弱循环 h 中以其基本归纳变量为下标的地址计算
+	 */
+	private void reduce(int h) {
+		int l = latch[h];
+		if (l < 0 || ssa.numPreds(h) != 2) {
+			return;
+		}
+		int in = ssa.predIndex(h, preheader[h]);
+		int back = ssa.predIndex(h, l);
+		for (int k = blockStart[h]; k < blockStart[h + 1]; k++) {
+			for (int i = ssa.first(blocks[k]); i >= 0; i = ssa.next(i)) {
+				if (ssa.op(i) == Tac.MUL) {
+					reduce(h, i, in, back);
+				}
+			}
+		}
+	}
+
+	private void reduce(int h, int i, int in, int back) {
+		int iv = ssa.y(i);
+		int factor = ssa.z(i);
+		if (!ssa.isConstant(factor)) {
+			iv = ssa.z(i);
+			factor = ssa.y(i);
+			if (!ssa.isConstant(factor)) {
+				return;
+			}
+		}
+		int k = ssa.constant(factor);
+		int phi = ssa.phiOf(iv);
+		if (phi < 0 || ssa.phiBlock(phi) != h) {
+			return;
+		}
+		// 基本归纳变量：回边上的参数为 iv + s（s 为常量或循环不变量）或 iv - 常量
+		int d = ssa.definition(ssa.phiArg(phi, back));
+		if (d < 0 || !inLoop(ssa.blockOf(d), h)) {
+			return;
+		}
+		int op = ssa.op(d);
+		int step = ssa.y(d) == iv ? ssa.z(d) : ssa.y(d);
+		if (op != Tac.ADD && op != Tac.SUB || ssa.y(d) != iv
+				&& (op == Tac.SUB || ssa.z(d) != iv)) {
+			return;
+		}
+		boolean constant = ssa.isConstant(step);
+		if (!constant && (op == Tac.SUB || inLoop(ssa.defBlock(step), h))) {
+			return;
+		}
+		int m = ssa.x(i);
+		for (int j = 0; j < uses.count(m); j++) {
+			int u = uses.user(m, j);
+			if (u < 0 || ssa.blockOf(u) < 0 || ssa.op(u) != Tac.ADD
+					|| !inLoop(ssa.blockOf(u), h)) {
+				continue;
+			}
+			int base = ssa.y(u) == m ? ssa.z(u) : ssa.z(u) == m ? ssa.y(u) : m;
+			if (base == m || inLoop(ssa.defBlock(base), h)
+					|| isIndexedAccess(m, u, k)) {
+				continue;
+			}
+			// 前置块中算出初值 base + i0 * k 和增量 s * k
+			int ph = preheader[h];
+			int i0 = ssa.phiArg(phi, in);
+			int start = base;
+			if (!ssa.isConstant(i0)) {
+				int offset = emit(ph, Tac.MUL, i0, emit(ph, Tac.LOAD_IMM4, k, -1));
+				start = emit(ph, Tac.ADD, base, offset);
+			} else if (ssa.constant(i0) != 0) {
+				int offset = emit(ph, Tac.LOAD_IMM4, ssa.constant(i0) * k, -1);
+				start = emit(ph, Tac.ADD, base, offset);
+			}
+			int inc;
+			if (constant) {
+				int s = ssa.constant(step);
+				inc = emit(ph, Tac.LOAD_IMM4, (op == Tac.SUB ? -s : s) * k, -1);
+			} else {
+				inc = emit(ph, Tac.MUL, step, emit(ph, Tac.LOAD_IMM4, k, -1));
+			}
+			int p = ssa.newValue(-1);
+			int q = ssa.newPhi(h, p);
+			int next = ssa.newValue(-1);
+			ssa.setPhiArg(q, in, start);
+			ssa.setPhiArg(q, back, next);
+			int add = ssa.newInstr(Tac.ADD, next, p, inc);
+			if (ssa.next(d) >= 0) {
+				ssa.insertBefore(ssa.next(d), add);
+			} else {
+				ssa.append(ssa.blockOf(d), add);
+			}
+			ssa.setDefinition(next, add);
+			replaceUses(ssa.x(u), p);
+			reduced++;
+		}
+	}
+
+	/**
+	 * @return 地址 m + base 是否只用于一次读写，虚拟机会把它合并为 LOADX/STOREX
+	 */
+	private boolean isIndexedAccess(int m, int add, int k) {
+		int a = ssa.x(add);
+		if (k != 4 || uses.count(m) != 1 || uses.count(a) != 1) {
+			return false;
+		}
+		int w = uses.user(a, 0);
+		if (w < 0) {
+			return false;
+		}
+		int op = ssa.op(w);
+		return (op == Tac.LOAD || op == Tac.STORE && ssa.x(w) != a)
+				&& ssa.y(w) == a && ssa.z(w) == 0;
+	}
+
+	/**
+	 * 把值 a 的使用都改为 p
+	 */
+	private void replaceUses(int a, int p) {
+		for (int k = 0; k < uses.count(a); k++) {
+			int u = uses.user(a, k);
+			if (u >= 0) {
+				int n = ssa.useFields(u, fields);
+				for (int j = 0; j < n; j++) {
+					if (ssa.code()[fields[j]] == a) {
+						ssa.code()[fields[j]] = p;
+					}
+				}
+			} else if (ssa.phiBlock(~u) >= 0) {
+				int b = ssa.phiBlock(~u);
+				for (int j = 0; j < ssa.numPreds(b); j++) {
+					if (ssa.phiArg(~u, j) == a) {
+						ssa.setPhiArg(~u, j, p);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * 在块 b 的跳转之前加一条定值新值的指令
+	 *
+	 * @return 新值
+	 */
+	private int emit(int b, int op, int y, int z) {
+		int v = ssa.newValue(-1);
+		int i = ssa.newInstr(op, v, y, z);
+		ssa.appendBeforeTerminator(b, i);
+		ssa.setDefinition(v, i);
+		return v;
+	}
+}
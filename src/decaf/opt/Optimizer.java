@@ -0,0 +1,67 @@
+package decaf.opt;
+
+import decaf.ssa.Ssa;
+import decaf.ssa.SsaVerifier;
+import decaf.tac.Functy;
+import decaf.tac.Program;
+
+/**
+ * 三地址码的优化（-O）<br>
+ * 每个有函数体的函数构造 SSA 形式，依次做各遍优化后翻译回三地址码，替换原来的函数体：
+ * <ol>
+ * <li>{@link Sccp} 常量传播，删去条件为常量的分支和到不了的块</li>
+ * <li>{@link Gvn} 值编号，删去支配块中已算过的运算、读过的内存和判断过的条件</li>
+ * <li>{@link Ranges} 值域分析，删去结果已经确定的比较跳转，主要是数组的下标检查</li>
+ * <li>{@link DeadCode} 删去结果不再使用的指令</li>
+ * <li>{@link Loops} 把循环不变量移到循环之前，把以归纳变量为下标的地址改为每次迭代递增的指针，
+ * 再做一次 {@link DeadCode}</li>
+ * </ol>
+ */
+public final class Optimizer {
+
+	private Optimizer() {
+	}
+
+	/**
+	 * @param stats 记录各遍的统计，不需要时为 null
+	 * @param verify 是否在每一遍之后用 {@link SsaVerifier} 检查 SSA 形式
+	 */
+	public static void optimize(Program program, Stats stats, boolean verify) {
+		for (Functy f : program.getFunctions()) {
+			if (f.hasBody()) {
+				optimize(f, program.getNumRegions(), stats, verify);
+			}
+		}
+	}
+
+	private static void optimize(Functy f, int numRegions, Stats stats,
+			boolean verify) {
+		if (stats != null) {
+			stats.begin(f.getName(), f.size());
+		}
+		Ssa ssa = Ssa.build(f);
+		verify(ssa, "build", verify);
+		new Sccp(ssa, stats).run();
+		verify(ssa, "sccp", verify);
+		new Gvn(ssa, numRegions, stats).run();
+		verify(ssa, "gvn", verify);
+		new Ranges(ssa, stats).run();
+		verify(ssa, "ranges", verify);
+		new DeadCode(ssa, stats).run();
+		verify(ssa, "dce", verify);
+		new Loops(ssa, numRegions, stats).run();
+		verify(ssa, "loops", verify);
+		new DeadCode(ssa, stats).run();
+		verify(ssa, "dce", verify);
+		ssa.writeBack();
+		if (stats != null) {
+			stats.end(f.size());
+		}
+	}
+
+	private static void verify(Ssa ssa, String pass, boolean verify) {
+		if (verify) {
+			SsaVerifier.verify(ssa, pass);
+		}
+	}
+}
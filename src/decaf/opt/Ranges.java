@@ -0,0 +1,619 @@
+package decaf.opt;
+
+import decaf.ssa.Dominators;
+import decaf.ssa.Ssa;
+import decaf.tac.Program;
+import decaf.tac.Tac;
+
+/**
+ * 值域分析，删去结果已经确定的比较跳转（主要是数组的下标检查）<br>
+ * 按逆后序求出每个值的取值范围：常量、运算的结果、数组长度（分配时按 4 * 长度 + 4 个字节算，
+ * 不超过 (2^31 - 5) / 4），φ 取各前驱末尾的参数范围的并。循环首结点的 φ i = φ(i0, i + s) 中
+ * s 恒正（恒负）且增量所在处不会溢出时，i 不小于（不大于）i0 的下界（上界），否则不知道范围。<br>
+ * 某块只有一个前驱且该前驱以条件跳转结束时，它支配的块都知道条件的真假，由条件中的比较
+ * （经过 !、&amp;&amp;、||）得到 x &lt;= y + d 形式的关系，x、y 为值或加减常量之前的值。
+ * 在条件跳转处比较 a &lt; b 时，先用这些关系缩小 a、b 的范围作比较，再看关系能否推出
+ * a &lt;= b + d：同一个值（同一数组的两次取长度也算）、已知的关系、递减的归纳变量不大于其初值，
+ * a 为 w - u（u 非负）或 w / c 时改为证明 w &lt;= b + d。
+ * 这样 for、while 循环中的下标、反向遍历、a[i + 1]、a[n - 1 - i]、SubArray 的上下界和
+ * DynamicAccess 的两次比较都能去掉已经成立的部分。<br>
+ * 确定的跳转只剩一个后继，到不了的块（如越界出错的代码）删去，不再使用的比较留给 {@link DeadCode}。
+ */
+final class Ranges {
+
+	/**
+	 * 条件中的关系 a[k] &lt;= b[k] + d[k]
+	 */
+	private static final class Facts {
+
+		int size;
+
+		final int[] a = new int[LIMIT];
+
+		final int[] b = new int[LIMIT];
+
+		final long[] d = new long[LIMIT];
+	}
+
+	/**
+	 * 一块可见的关系的个数上限，支配链很长时只用离它近的
+	 */
+	private static final int LIMIT = 64;
+
+	/**
+	 * 数组长度的上界
+	 */
+	private static final int MAX_LENGTH = (Integer.MAX_VALUE - 4) / 4;
+
+	private final Ssa ssa;
+
+	private final Stats stats;
+
+	private Dominators dom;
+
+	private int[] lo;
+
+	private int[] hi;
+
+	/**
+	 * 递减的归纳变量的初值及其所在的前驱，不是时为 -1
+	 */
+	private int[] init;
+
+	private int[] initBlock;
+
+	/**
+	 * 块本身或支配它的最近的有条件的块，没有时为 -1
+	 */
+	private int[] factAt;
+
+	/**
+	 * 有条件的块所知的条件值及其真假
+	 */
+	private int[] condition;
+
+	private boolean[] truth;
+
+	/**
+	 * 按递归深度使用
+	 */
+	private final Facts[] pool = { new Facts(), new Facts(), new Facts() };
+
+	private int checks;
+
+	Ranges(Ssa ssa, Stats stats) {
+		this.ssa = ssa;
+		this.stats = stats;
+	}
+
+	void run() {
+		dom = new Dominators(ssa);
+		int numValues = ssa.getNumValues();
+		lo = new int[numValues];
+		hi = new int[numValues];
+		init = new int[numValues];
+		initBlock = new int[numValues];
+		for (int v = 0; v < numValues; v++) {
+			lo[v] = Integer.MIN_VALUE;
+			hi[v] = Integer.MAX_VALUE;
+			init[v] = -1;
+		}
+		findFacts();
+		// 首结点的 φ 先于块中的指令计算，第二遍用上循环中算出的范围
+		for (int pass = 0; pass < 2; pass++) {
+			for (int b : dom.rpo()) {
+				visitBlock(b);
+			}
+		}
+		for (int b : dom.rpo()) {
+			fold(b);
+		}
+		int blocks = 0;
+		if (checks > 0) {
+			Dominators d = new Dominators(ssa);
+			for (int b = 0; b < ssa.getNumBlocks(); b++) {
+				if (!ssa.isRemoved(b) && !d.isReachable(b)) {
+					ssa.removeBlock(b);
+					blocks++;
+				}
+			}
+		}
+		if (stats != null) {
+			stats.add("ranges", "checks", checks);
+			stats.add("ranges", "blocks", blocks);
+		}
+	}
+
+	private void findFacts() {
+		int n = ssa.getNumBlocks();
+		factAt = new int[n];
+		condition = new int[n];
+		truth = new boolean[n];
+		int entry = ssa.getEntry();
+		for (int b : dom.rpo()) {
+			factAt[b] = b == entry ? -1 : factAt[dom.idom(b)];
+			if (ssa.numPreds(b) != 1) {
+				continue;
+			}
+			int p = ssa.pred(b, 0);
+			int t = ssa.terminator(p);
+			if (ssa.numSuccs(p) == 2 && t >= 0 && ssa.succ(p, 0) != ssa.succ(p, 1)) {
+				boolean taken = ssa.succ(p, 1) == b;
+				condition[b] = ssa.y(t);
+				truth[b] = taken == (ssa.op(t) == Tac.BNEZ);
+				factAt[b] = b;
+			}
+		}
+	}
+
+	/**
+	 * 收集块 b 处已知的关系
+	 */
+	private Facts gather(int b, int depth) {
+		Facts facts = pool[depth];
+		facts.size = 0;
+		int entry = ssa.getEntry();
+		for (int f = factAt[b]; f >= 0 && facts.size < LIMIT; f = f == entry ? -1
+				: factAt[dom.idom(f)]) {
+			addCondition(facts, condition[f], truth[f], 0);
+		}
+		return facts;
+	}
+
+	private void addCondition(Facts facts, int c, boolean t, int depth) {
+		int i = ssa.definition(c);
+		if (i < 0 || ssa.blockOf(i) < 0 || depth > 4) {
+			return;
+		}
+		int x = ssa.y(i);
+		int y = ssa.z(i);
+		switch (ssa.op(i)) {
+		case Tac.LNOT:
+			addCondition(facts, x, !t, depth + 1);
+			break;
+		case Tac.LAND:
+		case Tac.LOR:
+			if (t == (ssa.op(i) == Tac.LAND)) {
+				addCondition(facts, x, t, depth + 1);
+				addCondition(facts, y, t, depth + 1);
+			}
+			break;
+		case Tac.LES:
+			addRelation(facts, t ? x : y, t ? y : x, t ? -1 : 0);
+			break;
+		case Tac.LEQ:
+			addRelation(facts, t ? x : y, t ? y : x, t ? 0 : -1);
+			break;
+		case Tac.GTR:
+			addRelation(facts, t ? y : x, t ? x : y, t ? -1 : 0);
+			break;
+		case Tac.GEQ:
+			addRelation(facts, t ? y : x, t ? x : y, t ? 0 : -1);
+			break;
+		case Tac.EQU:
+		case Tac.NEQ:
+			if (t == (ssa.op(i) == Tac.EQU)) {
+				addRelation(facts, x, y, 0);
+				addRelation(facts, y, x, 0);
+			}
+			break;
+		}
+	}
+
+	/**
+	 * 记下 x &lt;= y + d，x、y 为加减常量的结果时也记下对加减之前的值的关系，
+	 * y 不大于另一个值 w 时（见 {@link #above}）也记下 x &lt;= w + d
+	 */
+	private void addRelation(Facts facts, int x, int y, long d) {
+		add(facts, x, y, d);
+		int bx = base(x, null);
+		int by = base(y, null);
+		if (bx >= 0) {
+			add(facts, bx, y, d - offset(x));
+		}
+		if (by >= 0) {
+			add(facts, x, by, d + offset(y));
+		}
+		if (bx >= 0 && by >= 0) {
+			add(facts, bx, by, d + offset(y) - offset(x));
+		}
+		int ay = above(y, null);
+		if (ay >= 0) {
+			add(facts, x, ay, d);
+		}
+	}
+
+	private void add(Facts facts, int x, int y, long d) {
+		if (facts.size < LIMIT) {
+			facts.a[facts.size] = x;
+			facts.b[facts.size] = y;
+			facts.d[facts.size] = d;
+			facts.size++;
+		}
+	}
+
+	/**
+	 * @return v 为 w + 常量（或 w - 常量）且不会溢出时为 w，否则为 -1
+	 */
+	private int base(int v, Facts facts) {
+		int i = ssa.definition(v);
+		if (i < 0 || ssa.blockOf(i) < 0) {
+			return -1;
+		}
+		int op = ssa.op(i);
+		int w;
+		if (op == Tac.ADD && ssa.isConstant(ssa.z(i)) || op == Tac.SUB
+				&& ssa.isConstant(ssa.z(i))) {
+			w = ssa.y(i);
+		} else if (op == Tac.ADD && ssa.isConstant(ssa.y(i))) {
+			w = ssa.z(i);
+		} else {
+			return -1;
+		}
+		if (ssa.isConstant(w)) {
+			return -1;
+		}
+		long c = offset(v);
+		long low = low(w, facts) + c;
+		long high = high(w, facts) + c;
+		return low >= Integer.MIN_VALUE && high <= Integer.MAX_VALUE ? w : -1;
+	}
+
+	/**
+	 * @return v 为 w - u（u 非负且不会溢出）或 w / c（w 非负，c 为正常量）时为 w，否则为 -1
+	 */
+	private int above(int v, Facts facts) {
+		int i = ssa.definition(v);
+		if (i < 0 || ssa.blockOf(i) < 0) {
+			return -1;
+		}
+		int w = ssa.y(i);
+		int u = ssa.z(i);
+		if (ssa.op(i) == Tac.SUB && low(u, facts) >= 0
+				&& low(w, facts) - high(u, facts) >= Integer.MIN_VALUE
+				|| ssa.op(i) == Tac.DIV && ssa.isConstant(u)
+				&& ssa.constant(u) > 0 && low(w, facts) >= 0) {
+			return ssa.isConstant(w) ? -1 : w;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return {@link #base} 不为 -1 时 v 比它大的常量
+	 */
+	private long offset(int v) {
+		int i = ssa.definition(v);
+		if (ssa.op(i) == Tac.SUB) {
+			return -(long) ssa.constant(ssa.z(i));
+		}
+		return ssa.isConstant(ssa.z(i)) ? ssa.constant(ssa.z(i)) : ssa
+				.constant(ssa.y(i));
+	}
+
+	/**
+	 * @return v 在 facts 成立处的下界
+	 */
+	private long low(int v, Facts facts) {
+		if (ssa.isConstant(v)) {
+			return ssa.constant(v);
+		}
+		long l = lo[v];
+		if (facts != null) {
+			// a <= v + d
+			for (int k = 0; k < facts.size; k++) {
+				if (facts.b[k] == v) {
+					l = Math.max(l, global(facts.a[k], false) - facts.d[k]);
+				}
+			}
+		}
+		return l;
+	}
+
+	private long high(int v, Facts facts) {
+		if (ssa.isConstant(v)) {
+			return ssa.constant(v);
+		}
+		long h = hi[v];
+		if (facts != null) {
+			// v <= b + d
+			for (int k = 0; k < facts.size; k++) {
+				if (facts.a[k] == v) {
+					h = Math.min(h, global(facts.b[k], true) + facts.d[k]);
+				}
+			}
+		}
+		return h;
+	}
+
+	private long global(int v, boolean high) {
+		return ssa.isConstant(v) ? ssa.constant(v) : high ? hi[v] : lo[v];
+	}
+
+	private void visitBlock(int b) {
+		for (int p = ssa.firstPhi(b); p >= 0; p = ssa.nextPhi(p)) {
+			visitPhi(b, p);
+		}
+		Facts facts = gather(b, 0);
+		for (int i = ssa.first(b); i >= 0; i = ssa.next(i)) {
+			int x = ssa.defOf(i);
+			if (x >= 0) {
+				long[] r = evaluate(i, facts);
+				if (r != null && r[0] >= Integer.MIN_VALUE
+						&& r[1] <= Integer.MAX_VALUE && r[0] <= r[1]) {
+					lo[x] = (int) r[0];
+					hi[x] = (int) r[1];
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return 第 i 条指令结果的范围，不知道时为 null
+	 */
+	private long[] evaluate(int i, Facts facts) {
+		int op = ssa.op(i);
+		int y = ssa.y(i);
+		int z = ssa.z(i);
+		switch (op) {
+		case Tac.LOAD_IMM4:
+			return new long[] { y, y };
+		case Tac.ASSIGN:
+			return new long[] { low(y, facts), high(y, facts) };
+		case Tac.NEG:
+			return new long[] { -high(y, facts), -low(y, facts) };
+		case Tac.LOAD:
+			return ssa.region(i) == Program.LENGTH && z == -4 ? new long[] { 0,
+					MAX_LENGTH } : null;
+		case Tac.ADD:
+			return new long[] { low(y, facts) + low(z, facts),
+					high(y, facts) + high(z, facts) };
+		case Tac.SUB:
+			return new long[] { low(y, facts) - high(z, facts),
+					high(y, facts) - low(z, facts) };
+		case Tac.MUL: {
+			long a = low(y, facts);
+			long b = high(y, facts);
+			long c = low(z, facts);
+			long d = high(z, facts);
+			// 只在乘积都不超过 long 的范围时
+			if (Math.max(Math.abs(a), Math.abs(b)) > Integer.MAX_VALUE + 1L
+					|| Math.max(Math.abs(c), Math.abs(d)) > Integer.MAX_VALUE + 1L) {
+				return null;
+			}
+			return new long[] { Math.min(Math.min(a * c, a * d), Math.min(b * c, b * d)),
+					Math.max(Math.max(a * c, a * d), Math.max(b * c, b * d)) };
+		}
+		case Tac.DIV:
+			if (ssa.isConstant(z) && ssa.constant(z) > 0) {
+				return new long[] { low(y, facts) / ssa.constant(z),
+						high(y, facts) / ssa.constant(z) };
+			}
+			return null;
+		case Tac.MOD:
+			if (ssa.isConstant(z) && ssa.constant(z) != 0) {
+				long m = Math.abs((long) ssa.constant(z)) - 1;
+				long a = low(y, facts);
+				long b = high(y, facts);
+				return new long[] { a >= 0 ? 0 : -Math.min(m, -a),
+						b <= 0 ? 0 : Math.min(m, b) };
+			}
+			return null;
+		default:
+			if (op >= Tac.LAND && op <= Tac.GEQ || op == Tac.LNOT) {
+				return new long[] { 0, 1 };
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * φ 的范围为各前驱末尾参数范围的并；首结点中的归纳变量见类的说明
+	 */
+	private void visitPhi(int b, int p) {
+		int dest = ssa.phiDest(p);
+		long l = Long.MAX_VALUE;
+		long h = Long.MIN_VALUE;
+		int direction = 0;
+		int in = -1;
+		for (int k = 0; k < ssa.numPreds(b); k++) {
+			int pred = ssa.pred(b, k);
+			int arg = ssa.phiArg(p, k);
+			if (!dom.isReachable(pred) || arg == dest) {
+				continue;
+			}
+			if (dom.rpoIndex(pred) < dom.rpoIndex(b)) {
+				Facts facts = gather(pred, 0);
+				l = Math.min(l, low(arg, facts));
+				h = Math.max(h, high(arg, facts));
+				in = in == -1 ? k : -2;
+				continue;
+			}
+			int d = dom.dominates(b, pred) ? step(b, dest, arg) : 0;
+			if (d == 0 || direction != 0 && d != direction) {
+				return;
+			}
+			direction = d;
+		}
+		if (direction > 0) {
+			h = Integer.MAX_VALUE;
+		} else if (direction < 0) {
+			l = Integer.MIN_VALUE;
+			if (in >= 0) {
+				init[dest] = ssa.phiArg(p, in);
+				initBlock[dest] = ssa.pred(b, in);
+			}
+		}
+		if (l <= h) {
+			lo[dest] = (int) l;
+			hi[dest] = (int) h;
+		}
+	}
+
+	/**
+	 * 首结点 b 中的 φ 在回边上的参数 next 为 phi + s 时判断 s 的符号，
+	 * 并要求在算 next 的块中 phi + s 不会溢出
+	 *
+	 * @return 1 为递增，-1 为递减，0 为不知道
+	 */
+	private int step(int b, int phi, int next) {
+		int i = ssa.definition(next);
+		if (i < 0 || ssa.blockOf(i) < 0 || !dom.dominates(b, ssa.blockOf(i))) {
+			return 0;
+		}
+		int op = ssa.op(i);
+		int s;
+		if (op == Tac.ADD && ssa.y(i) == phi) {
+			s = ssa.z(i);
+		} else if (op == Tac.ADD && ssa.z(i) == phi || op == Tac.SUB
+				&& ssa.y(i) == phi) {
+			s = op == Tac.ADD ? ssa.y(i) : ssa.z(i);
+		} else {
+			return 0;
+		}
+		// 增量在循环外定值或为常量，此时已知其范围
+		if (!ssa.isConstant(s)
+				&& dom.rpoIndex(ssa.defBlock(s)) >= dom.rpoIndex(b)) {
+			return 0;
+		}
+		Facts facts = gather(ssa.blockOf(i), 1);
+		long low = low(s, facts);
+		long high = high(s, facts);
+		if (op == Tac.SUB) {
+			long t = -low;
+			low = -high;
+			high = t;
+		}
+		if (low > 0 && high(phi, facts) + high <= Integer.MAX_VALUE) {
+			return 1;
+		}
+		if (high < 0 && low(phi, facts) + low >= Integer.MIN_VALUE) {
+			return -1;
+		}
+		return 0;
+	}
+
+	/**
+	 * 块 b 以条件跳转结束且条件已经确定时删去不会走的边
+	 */
+	private void fold(int b) {
+		int t = ssa.terminator(b);
+		if (t < 0 || ssa.numSuccs(b) != 2
+				|| ssa.op(t) != Tac.BEQZ && ssa.op(t) != Tac.BNEZ) {
+			return;
+		}
+		int value = decide(ssa.y(t), gather(b, 0));
+		if (value < 0) {
+			return;
+		}
+		// 不会走的边：BEQZ 在非零时不跳转（删去第 1 个后继）
+		int dead = (value == 1) == (ssa.op(t) == Tac.BEQZ) ? 1 : 0;
+		ssa.remove(t);
+		ssa.removeEdge(b, dead);
+		checks++;
+	}
+
+	/**
+	 * @return 条件 c 在 facts 成立处的值：1 为真，0 为假，-1 为不知道
+	 */
+	private int decide(int c, Facts facts) {
+		int i = ssa.definition(c);
+		if (i < 0 || ssa.blockOf(i) < 0) {
+			return -1;
+		}
+		int x = ssa.y(i);
+		int y = ssa.z(i);
+		switch (ssa.op(i)) {
+		case Tac.LNOT: {
+			int v = decide(x, facts);
+			return v < 0 ? v : 1 - v;
+		}
+		case Tac.LES:
+			return compare(x, y, -1, facts);
+		case Tac.LEQ:
+			return compare(x, y, 0, facts);
+		case Tac.GTR:
+			return compare(y, x, -1, facts);
+		case Tac.GEQ:
+			return compare(y, x, 0, facts);
+		default:
+			return -1;
+		}
+	}
+
+	/**
+	 * @return x &lt;= y + d 是否成立：1 为真，0 为假，-1 为不知道
+	 */
+	private int compare(int x, int y, long d, Facts facts) {
+		if (lessEqual(x, y, d, facts, 0)) {
+			return 1;
+		}
+		// 不成立即 y <= x - d - 1
+		if (lessEqual(y, x, -d - 1, facts, 0)) {
+			return 0;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return 能否推出 x &lt;= y + d
+	 */
+	private boolean lessEqual(int x, int y, long d, Facts facts, int depth) {
+		if (high(x, facts) <= low(y, facts) + d) {
+			return true;
+		}
+		int bx = base(x, facts);
+		int by = base(y, facts);
+		for (int m = 0; m < 2; m++) {
+			int u = m == 0 ? x : bx;
+			if (u < 0) {
+				continue;
+			}
+			for (int n = 0; n < 2; n++) {
+				int w = n == 0 ? y : by;
+				if (w < 0) {
+					continue;
+				}
+				// u <= w + g 即 x <= y + d
+				long g = d + (n == 0 ? 0 : offset(y)) - (m == 0 ? 0 : offset(x));
+				if (related(u, w, g, facts, depth)) {
+					return true;
+				}
+			}
+		}
+		int ax = above(x, facts);
+		return ax >= 0 && depth + 1 < pool.length
+				&& lessEqual(ax, y, d, facts, depth + 1);
+	}
+
+	private boolean related(int u, int w, long g, Facts facts, int depth) {
+		if (same(u, w) && g >= 0) {
+			return true;
+		}
+		for (int k = 0; k < facts.size; k++) {
+			if (facts.d[k] <= g && same(facts.a[k], u) && same(facts.b[k], w)) {
+				return true;
+			}
+		}
+		// 递减的归纳变量不大于初值
+		if (init[u] >= 0 && depth + 1 < pool.length) {
+			return lessEqual(init[u], w, g, gather(initBlock[u], depth + 1),
+					depth + 1);
+		}
+		return false;
+	}
+
+	/**
+	 * @return 两个值是否相等：同一个值，或同一数组的长度（数组的长度创建后不变）
+	 */
+	private boolean same(int u, int w) {
+		if (u == w) {
+			return true;
+		}
+		int i = ssa.definition(u);
+		int j = ssa.definition(w);
+		return i >= 0 && j >= 0 && ssa.op(i) == Tac.LOAD && ssa.op(j) == Tac.LOAD
+				&& ssa.region(i) == Program.LENGTH
+				&& ssa.region(j) == Program.LENGTH && ssa.z(i) == -4
+				&& ssa.z(j) == -4 && ssa.y(i) == ssa.y(j);
+	}
+}
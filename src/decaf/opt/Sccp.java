@@ -0,0 +1,423 @@
+package decaf.opt;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import decaf.ssa.Ssa;
+import decaf.ssa.Uses;
+import decaf.tac.Intrinsic;
+import decaf.tac.Program;
+import decaf.tac.Tac;
+
+/**
+ * 稀疏条件常量传播（Wegman、Zadeck）<br>
+ * 每个值的格为 未知 → 常量 → 不是常量，只沿可执行的边传播：条件为常量的跳转只有一个后继可执行，
+ * φ 只取可执行的前驱的参数。数组的长度在分配后写入 LENGTH 区域，只写一次且写入的值为常量时
+ * 读出的长度也是该常量（如数组常量、{@code %%} 的长度）。<br>
+ * 结束后把常量值的定值改为 LOAD_IMM4（后面各遍由 {@link Ssa#isConstant} 得知），
+ * 删去条件为常量的跳转和到不了的块；不再使用的指令留给 {@link DeadCode} 删除。
+ */
+final class Sccp {
+
+	private static final byte TOP = 0;
+
+	private static final byte CONST = 1;
+
+	private static final byte BOTTOM = 2;
+
+	private final Ssa ssa;
+
+	private final Stats stats;
+
+	private Uses uses;
+
+	private byte[] state;
+
+	private int[] value;
+
+	private boolean[] executable;
+
+	/**
+	 * 块 b 的第 k 个出边是否可执行：edge[2b + k]
+	 */
+	private boolean[] edge;
+
+	private int[] blockWork;
+
+	private int blockSize;
+
+	private int[] valueWork;
+
+	private int valueSize;
+
+	private boolean[] queued;
+
+	/**
+	 * 读数组长度的 LOAD 所读的值（写入该长度的 STORE 的源），不知道时为 -1
+	 */
+	private int[] lengthSource;
+
+	/**
+	 * 以某值为长度来源的 LOAD 串成的链表：dependents[v] 为第一条，nextDependent[i] 为下一条
+	 */
+	private int[] dependents;
+
+	private int[] nextDependent;
+
+	Sccp(Ssa ssa, Stats stats) {
+		this.ssa = ssa;
+		this.stats = stats;
+	}
+
+	void run() {
+		int numValues = ssa.getNumValues();
+		int numBlocks = ssa.getNumBlocks();
+		uses = new Uses(ssa);
+		state = new byte[numValues];
+		value = new int[numValues];
+		queued = new boolean[numValues];
+		valueWork = new int[16];
+		executable = new boolean[numBlocks];
+		edge = new boolean[2 * numBlocks];
+		blockWork = new int[numBlocks];
+		for (int v = 0; v < numValues; v++) {
+			if (ssa.definition(v) == Ssa.ENTRY) {
+				// 参数不是常量；未定值就使用的变量翻译回三地址码时为 0
+				boolean param = ssa.varOf(v) >= 0
+						&& ssa.varOf(v) < ssa.getFuncty().getNumParams();
+				state[v] = param ? BOTTOM : CONST;
+			}
+		}
+		findLengths();
+		executable[ssa.getEntry()] = true;
+		blockWork[blockSize++] = ssa.getEntry();
+		while (blockSize > 0 || valueSize > 0) {
+			while (blockSize > 0) {
+				visitBlock(blockWork[--blockSize]);
+			}
+			while (valueSize > 0 && blockSize == 0) {
+				int v = valueWork[--valueSize];
+				queued[v] = false;
+				for (int k = 0; k < uses.count(v); k++) {
+					int u = uses.user(v, k);
+					if (u < 0) {
+						int b = ssa.phiBlock(~u);
+						if (b >= 0 && executable[b]) {
+							visitPhi(~u);
+						}
+					} else if (ssa.blockOf(u) >= 0 && executable[ssa.blockOf(u)]) {
+						visit(u);
+					}
+				}
+				for (int i = dependents[v]; i >= 0; i = nextDependent[i]) {
+					if (executable[ssa.blockOf(i)]) {
+						visit(i);
+					}
+				}
+			}
+		}
+		rewrite();
+	}
+
+	/**
+	 * 找出分配后只写入一次长度的数组，记下读其长度的 LOAD 所读的值
+	 */
+	private void findLengths() {
+		int numInstrs = ssa.getNumInstrs();
+		lengthSource = new int[numInstrs];
+		nextDependent = new int[numInstrs];
+		dependents = new int[ssa.getNumValues()];
+		Arrays.fill(lengthSource, -1);
+		Arrays.fill(dependents, -1);
+		Map<Long, Integer> cells = new HashMap<Long, Integer>();
+		long[] key = new long[1];
+		for (int b = ssa.firstInLayout(); b >= 0; b = ssa.nextInLayout(b)) {
+			for (int i = ssa.first(b); i >= 0; i = ssa.next(i)) {
+				if (ssa.op(i) != Tac.STORE || ssa.region(i) != Program.LENGTH) {
+					continue;
+				}
+				if (!allocated(ssa.y(i), ssa.z(i), key)) {
+					// 写入的不是本函数分配的数组时不作任何假设
+					return;
+				}
+				cells.put(key[0], cells.containsKey(key[0]) ? -1 : ssa.x(i));
+			}
+		}
+		for (int b = ssa.firstInLayout(); b >= 0; b = ssa.nextInLayout(b)) {
+			for (int i = ssa.first(b); i >= 0; i = ssa.next(i)) {
+				if (ssa.op(i) != Tac.LOAD || ssa.region(i) != Program.LENGTH
+						|| !allocated(ssa.y(i), ssa.z(i), key)) {
+					continue;
+				}
+				Integer v = cells.get(key[0]);
+				if (v != null && v >= 0) {
+					lengthSource[i] = v;
+					nextDependent[i] = dependents[v];
+					dependents[v] = i;
+				}
+			}
+		}
+	}
+
+	/**
+	 * 把地址 base + offset 中复制和加常量的部分并入偏移
+	 *
+	 * @return 地址是否在本函数中 _Alloc 的结果的基础上，是时 key[0] 为 (分配结果, 偏移)
+	 */
+	private boolean allocated(int base, int offset, long[] key) {
+		for (int d = ssa.definition(base); d >= 0; d = ssa.definition(base)) {
+			if (ssa.op(d) == Tac.ASSIGN) {
+				base = ssa.y(d);
+			} else if (ssa.op(d) != Tac.ADD) {
+				break;
+			} else if (ssa.isConstant(ssa.z(d))) {
+				offset += ssa.constant(ssa.z(d));
+				base = ssa.y(d);
+			} else if (ssa.isConstant(ssa.y(d))) {
+				offset += ssa.constant(ssa.y(d));
+				base = ssa.z(d);
+			} else {
+				break;
+			}
+		}
+		int d = ssa.definition(base);
+		if (d < 0 || ssa.op(d) != Tac.DIRECT_CALL
+				|| ssa.y(d) != Intrinsic.ALLOCATE.id()) {
+			return false;
+		}
+		key[0] = (long) base << 32 | offset & 0xffffffffL;
+		return true;
+	}
+
+	private void visitBlock(int b) {
+		for (int p = ssa.firstPhi(b); p >= 0; p = ssa.nextPhi(p)) {
+			visitPhi(p);
+		}
+		for (int i = ssa.first(b); i >= 0; i = ssa.next(i)) {
+			visit(i);
+		}
+		int t = ssa.terminator(b);
+		if (t < 0 || ssa.numSuccs(b) < 2) {
+			for (int k = 0; k < ssa.numSuccs(b); k++) {
+				markEdge(b, k);
+			}
+		}
+	}
+
+	private void visitPhi(int p) {
+		int b = ssa.phiBlock(p);
+		byte s = TOP;
+		int c = 0;
+		for (int k = 0; k < ssa.numPreds(b) && s != BOTTOM; k++) {
+			int q = ssa.pred(b, k);
+			if (!edge[2 * q + (ssa.succ(q, 0) == b ? 0 : 1)]) {
+				continue;
+			}
+			int a = ssa.phiArg(p, k);
+			if (state[a] == BOTTOM || state[a] == CONST && s == CONST
+					&& value[a] != c) {
+				s = BOTTOM;
+			} else if (state[a] == CONST) {
+				s = CONST;
+				c = value[a];
+			}
+		}
+		update(ssa.phiDest(p), s, c);
+	}
+
+	private void visit(int i) {
+		int op = ssa.op(i);
+		if (op == Tac.BEQZ || op == Tac.BNEZ) {
+			int b = ssa.blockOf(i);
+			if (ssa.numSuccs(b) < 2) {
+				return;
+			}
+			int cond = ssa.y(i);
+			if (state[cond] == BOTTOM) {
+				markEdge(b, 0);
+				markEdge(b, 1);
+			} else if (state[cond] == CONST) {
+				markEdge(b, (op == Tac.BEQZ) == (value[cond] == 0) ? 1 : 0);
+			}
+			return;
+		}
+		int v = ssa.defOf(i);
+		if (v < 0) {
+			return;
+		}
+		switch (op) {
+		case Tac.LOAD_IMM4:
+			update(v, CONST, ssa.y(i));
+			break;
+		case Tac.ASSIGN:
+			update(v, state[ssa.y(i)], value[ssa.y(i)]);
+			break;
+		case Tac.NEG:
+		case Tac.LNOT: {
+			int a = ssa.y(i);
+			update(v, state[a], op == Tac.NEG ? -value[a] : value[a] == 0 ? 1
+					: 0);
+			break;
+		}
+		case Tac.LOAD:
+			if (lengthSource[i] >= 0) {
+				int a = lengthSource[i];
+				update(v, state[a], value[a]);
+			} else {
+				update(v, BOTTOM, 0);
+			}
+			break;
+		default:
+			if (Tac.isBinary(op)) {
+				int a = ssa.y(i);
+				int c = ssa.z(i);
+				if (state[a] == BOTTOM || state[c] == BOTTOM) {
+					update(v, BOTTOM, 0);
+				} else if (state[a] == CONST && state[c] == CONST) {
+					if ((op == Tac.DIV || op == Tac.MOD) && value[c] == 0) {
+						// 运行时除零出错，不折叠
+						update(v, BOTTOM, 0);
+					} else {
+						update(v, CONST, fold(op, value[a], value[c]));
+					}
+				}
+			} else {
+				update(v, BOTTOM, 0);
+			}
+		}
+	}
+
+	/**
+	 * @return 二元运算 a op b 的值，与虚拟机的语义相同
+	 */
+	static int fold(int op, int a, int b) {
+		switch (op) {
+		case Tac.ADD:
+			return a + b;
+		case Tac.SUB:
+			return a - b;
+		case Tac.MUL:
+			return a * b;
+		case Tac.DIV:
+			return a / b;
+		case Tac.MOD:
+			return a % b;
+		case Tac.LAND:
+			return a != 0 && b != 0 ? 1 : 0;
+		case Tac.LOR:
+			return a != 0 || b != 0 ? 1 : 0;
+		case Tac.EQU:
+			return a == b ? 1 : 0;
+		case Tac.NEQ:
+			return a != b ? 1 : 0;
+		case Tac.LES:
+			return a < b ? 1 : 0;
+		case Tac.LEQ:
+			return a <= b ? 1 : 0;
+		case Tac.GTR:
+			return a > b ? 1 : 0;
+		default:
+			return a >= b ? 1 : 0;
+		}
+	}
+
+	private void update(int v, byte s, int c) {
+		if (s < state[v] || s == state[v] && (s != CONST || c == value[v])) {
+			return;
+		}
+		if (s == CONST && state[v] == CONST) {
+			s = BOTTOM;
+		}
+		state[v] = s;
+		value[v] = c;
+		if (!queued[v]) {
+			queued[v] = true;
+			if (valueSize == valueWork.length) {
+				valueWork = Arrays.copyOf(valueWork, valueSize * 2);
+			}
+			valueWork[valueSize++] = v;
+		}
+	}
+
+	private void markEdge(int b, int k) {
+		if (edge[2 * b + k]) {
+			return;
+		}
+		edge[2 * b + k] = true;
+		int s = ssa.succ(b, k);
+		if (!executable[s]) {
+			executable[s] = true;
+			blockWork[blockSize++] = s;
+		} else {
+			for (int p = ssa.firstPhi(s); p >= 0; p = ssa.nextPhi(p)) {
+				visitPhi(p);
+			}
+		}
+	}
+
+	/**
+	 * 按分析结果改写：常量改为 LOAD_IMM4，删去不可执行的边和块
+	 */
+	private void rewrite() {
+		int folded = 0;
+		for (int v = 0; v < ssa.getNumValues(); v++) {
+			if (state[v] != CONST) {
+				continue;
+			}
+			int d = ssa.definition(v);
+			if (d >= 0) {
+				int b = ssa.blockOf(d);
+				if (b >= 0 && executable[b] && ssa.op(d) != Tac.LOAD_IMM4) {
+					ssa.set(d, Tac.LOAD_IMM4, v, value[v], -1);
+					folded++;
+				}
+			} else if (d != Ssa.ENTRY) {
+				int p = ssa.phiOf(v);
+				int b = ssa.phiBlock(p);
+				if (b >= 0 && executable[b]) {
+					int i = ssa.newInstr(Tac.LOAD_IMM4, v, value[v], -1);
+					if (ssa.first(b) >= 0) {
+						ssa.insertBefore(ssa.first(b), i);
+					} else {
+						ssa.append(b, i);
+					}
+					ssa.removePhi(p);
+					ssa.setDefinition(v, i);
+					folded++;
+				}
+			}
+		}
+		int branches = 0;
+		for (int b = ssa.firstInLayout(); b >= 0; b = ssa.nextInLayout(b)) {
+			if (!executable[b] || ssa.numSuccs(b) < 2) {
+				continue;
+			}
+			for (int k = 1; k >= 0; k--) {
+				if (!edge[2 * b + k]) {
+					ssa.remove(ssa.terminator(b));
+					ssa.removeEdge(b, k);
+					branches++;
+					break;
+				}
+			}
+		}
+		int blocks = 0;
+		int instrs = 0;
+		for (int b = 0; b < ssa.getNumBlocks(); b++) {
+			if (!ssa.isRemoved(b) && !executable[b]) {
+				for (int i = ssa.first(b); i >= 0; i = ssa.next(i)) {
+					instrs++;
+				}
+				ssa.removeBlock(b);
+				blocks++;
+			}
+		}
+		if (stats != null) {
+			stats.add("sccp", "constants", folded);
+			stats.add("sccp", "branches", branches);
+			stats.add("sccp", "blocks", blocks);
+			stats.add("sccp", "instructions", instrs + branches);
+		}
+	}
+}
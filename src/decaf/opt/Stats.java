@@ -0,0 +1,105 @@
+package decaf.opt;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * -stats 时记录各遍优化删去或改写的指令、块等的个数<br>
+ * 每个函数记下优化前后的三地址码指令条数和各遍的计数，最后按函数输出，再输出总计；
+ * 没有任何计数的函数不输出。
+ */
+public final class Stats {
+
+	private static final class Entry {
+
+		final String function;
+
+		int before;
+
+		int after;
+
+		/**
+		 * 遍的名字 → (项目 → 个数)，按第一次记录的顺序
+		 */
+		final Map<String, Map<String, Integer>> counts = new LinkedHashMap<String, Map<String, Integer>>();
+
+		Entry(String function) {
+			this.function = function;
+		}
+	}
+
+	private final List<Entry> entries = new ArrayList<Entry>();
+
+	private Entry current;
+
+	/**
+	 * 开始优化一个函数，size 为其指令条数
+	 */
+	void begin(String function, int size) {
+		current = new Entry(function);
+		current.before = size;
+		entries.add(current);
+	}
+
+	void end(int size) {
+		current.after = size;
+	}
+
+	/**
+	 * 在当前函数中给遍 pass 的 item 加上 n
+	 */
+	public void add(String pass, String item, int n) {
+		if (n == 0) {
+			return;
+		}
+		add(current, pass, item, n);
+	}
+
+	private static void add(Entry entry, String pass, String item, int n) {
+		Map<String, Integer> items = entry.counts.get(pass);
+		if (items == null) {
+			items = new LinkedHashMap<String, Integer>();
+			entry.counts.put(pass, items);
+		}
+		Integer old = items.get(item);
+		items.put(item, old == null ? n : old + n);
+	}
+
+	public void printTo(PrintStream out) {
+		Entry total = new Entry("total");
+		for (Entry e : entries) {
+			total.before += e.before;
+			total.after += e.after;
+			for (Map.Entry<String, Map<String, Integer>> pass : e.counts
+					.entrySet()) {
+				for (Map.Entry<String, Integer> item : pass.getValue()
+						.entrySet()) {
+					add(total, pass.getKey(), item.getKey(), item.getValue());
+				}
+			}
+			if (!e.counts.isEmpty()) {
+				print(out, e);
+			}
+		}
+		print(out, total);
+	}
+
+	private static void print(PrintStream out, Entry e) {
+		out.println(e.function + ": " + e.before + " -> " + e.after
+				+ " instructions");
+		for (Map.Entry<String, Map<String, Integer>> pass : e.counts.entrySet()) {
+			StringBuilder sb = new StringBuilder();
+			sb.append("    ").append(pass.getKey()).append(':');
+			String sep = " ";
+			for (Map.Entry<String, Integer> item : pass.getValue().entrySet()) {
+				sb.append(sep).append(item.getValue()).append(' ').append(
+						item.getKey());
+				sep = ", ";
+			}
+			out.println(sb);
+		}
+	}
+}
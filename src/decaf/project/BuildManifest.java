@@ -0,0 +1,132 @@
+package decaf.project;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 上一次成功构建的记录（接口目录下的 project.idx）：
+ * 每个源文件的摘要以及它定义、引用的类名。
+ */
+public class BuildManifest {
+
+	public static final String FILE_NAME = "project.idx";
+
+	private static final int MAGIC = 0xDECAF1D0;
+
+	private static final short VERSION = 1;
+
+	public static class Entry {
+
+		public String hash;
+
+		public Set<String> defines = new LinkedHashSet<String>();
+
+		public Set<String> references = new LinkedHashSet<String>();
+	}
+
+	private Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+	public Entry get(String path) {
+		return entries.get(path);
+	}
+
+	public void put(SourceUnit unit) {
+		Entry e = new Entry();
+		e.hash = unit.getHash();
+		e.defines.addAll(unit.getDefines());
+		e.references.addAll(unit.getReferences());
+		entries.put(unit.getPath(), e);
+	}
+
+	public Collection<String> paths() {
+		return entries.keySet();
+	}
+
+	public Collection<Entry> entries() {
+		return entries.values();
+	}
+
+	/**
+	 * 读入 dir 下的构建记录；不存在或已损坏时返回空记录，即全部重新构建
+	 */
+	public static BuildManifest load(File dir) {
+		BuildManifest manifest = new BuildManifest();
+		File file = new File(dir, FILE_NAME);
+		if (!file.isFile()) {
+			return manifest;
+		}
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
+			if (in.readInt() != MAGIC || in.readShort() != VERSION) {
+				return new BuildManifest();
+			}
+			int n = in.readInt();
+			for (int i = 0; i < n; i++) {
+				String path = in.readUTF();
+				Entry e = new Entry();
+				e.hash = in.readUTF();
+				readNames(in, e.defines);
+				readNames(in, e.references);
+				manifest.entries.put(path, e);
+			}
+		} catch (IOException e) {
+			return new BuildManifest();
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+		return manifest;
+	}
+
+	public void save(File dir) throws IOException {
+		dir.mkdirs();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(new File(dir, FILE_NAME))));
+		try {
+			out.writeInt(MAGIC);
+			out.writeShort(VERSION);
+			out.writeInt(entries.size());
+			for (Map.Entry<String, Entry> e : entries.entrySet()) {
+				out.writeUTF(e.getKey());
+				out.writeUTF(e.getValue().hash);
+				writeNames(out, e.getValue().defines);
+				writeNames(out, e.getValue().references);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void readNames(DataInputStream in, Set<String> names)
+			throws IOException {
+		int n = in.readInt();
+		for (int i = 0; i < n; i++) {
+			names.add(in.readUTF());
+		}
+	}
+
+	private static void writeNames(DataOutputStream out, Set<String> names)
+			throws IOException {
+		out.writeInt(names.size());
+		for (String name : names) {
+			out.writeUTF(name);
+		}
+	}
+}
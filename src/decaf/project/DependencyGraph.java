@@ -0,0 +1,171 @@
+package decaf.project;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 源文件之间的依赖图：文件 A 引用了文件 B 中定义的类（继承或类型引用）时，A 依赖 B。<br>
+ * 相互依赖的文件组成一个强连通分量，作为一个整体处理；
+ * 各分量按拓扑层次分成若干“波”，同一波内的分量互不依赖，可以并行处理。
+ */
+public class DependencyGraph {
+
+	private List<SourceUnit> units;
+
+	private List<List<Integer>> edges = new ArrayList<List<Integer>>();
+
+	private List<List<Integer>> reverse = new ArrayList<List<Integer>>();
+
+	// Tarjan 算法的状态
+	private int[] low;
+
+	private int[] number;
+
+	private boolean[] onStack;
+
+	private int counter;
+
+	private List<Integer> stack;
+
+	private int[] component;
+
+	private List<List<SourceUnit>> components;
+
+	public DependencyGraph(List<SourceUnit> units) {
+		this.units = units;
+		Map<String, Integer> definedIn = new HashMap<String, Integer>();
+		for (SourceUnit u : units) {
+			edges.add(new ArrayList<Integer>());
+			reverse.add(new ArrayList<Integer>());
+			for (String name : u.getDefines()) {
+				if (!definedIn.containsKey(name)) {
+					definedIn.put(name, u.getIndex());
+				}
+			}
+		}
+		for (SourceUnit u : units) {
+			Set<Integer> targets = new LinkedHashSet<Integer>();
+			for (String name : u.getReferences()) {
+				Integer v = definedIn.get(name);
+				if (v != null && v != u.getIndex()) {
+					targets.add(v);
+				}
+			}
+			for (int v : targets) {
+				edges.get(u.getIndex()).add(v);
+				reverse.get(v).add(u.getIndex());
+			}
+		}
+	}
+
+	/**
+	 * @return 直接或间接依赖 changed 中某个文件的所有文件（含 changed 本身）
+	 */
+	public Set<SourceUnit> dependentsOf(Collection<SourceUnit> changed) {
+		Set<SourceUnit> result = new LinkedHashSet<SourceUnit>();
+		List<Integer> work = new ArrayList<Integer>();
+		for (SourceUnit u : changed) {
+			if (result.add(u)) {
+				work.add(u.getIndex());
+			}
+		}
+		while (!work.isEmpty()) {
+			int u = work.remove(work.size() - 1);
+			for (int v : reverse.get(u)) {
+				if (result.add(units.get(v))) {
+					work.add(v);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 将 selected 中的文件按依赖关系分波：每一波是若干强连通分量，
+	 * 每个分量依赖的文件都在更早的波中（或不在 selected 中）
+	 */
+	public List<List<List<SourceUnit>>> waves(Collection<SourceUnit> selected) {
+		int n = units.size();
+		low = new int[n];
+		number = new int[n];
+		onStack = new boolean[n];
+		component = new int[n];
+		stack = new ArrayList<Integer>();
+		components = new ArrayList<List<SourceUnit>>();
+		counter = 0;
+		boolean[] chosen = new boolean[n];
+		for (SourceUnit u : selected) {
+			chosen[u.getIndex()] = true;
+		}
+		for (int u = 0; u < n; u++) {
+			if (chosen[u] && number[u] == 0) {
+				connect(u, chosen);
+			}
+		}
+
+		// Tarjan 按逆拓扑序产生分量：被依赖的分量先产生
+		int[] level = new int[components.size()];
+		List<List<List<SourceUnit>>> waves = new ArrayList<List<List<SourceUnit>>>();
+		for (int c = 0; c < components.size(); c++) {
+			for (SourceUnit u : components.get(c)) {
+				for (int v : edges.get(u.getIndex())) {
+					if (chosen[v] && component[v] != c) {
+						level[c] = Math.max(level[c], level[component[v]] + 1);
+					}
+				}
+			}
+			while (waves.size() <= level[c]) {
+				waves.add(new ArrayList<List<SourceUnit>>());
+			}
+			waves.get(level[c]).add(components.get(c));
+		}
+		return waves;
+	}
+
+	private void connect(int u, boolean[] chosen) {
+		number[u] = low[u] = ++counter;
+		stack.add(u);
+		onStack[u] = true;
+		for (int v : edges.get(u)) {
+			if (!chosen[v]) {
+				continue;
+			}
+			if (number[v] == 0) {
+				connect(v, chosen);
+				low[u] = Math.min(low[u], low[v]);
+			} else if (onStack[v]) {
+				low[u] = Math.min(low[u], number[v]);
+			}
+		}
+		if (low[u] == number[u]) {
+			List<SourceUnit> scc = new ArrayList<SourceUnit>();
+			int v;
+			do {
+				v = stack.remove(stack.size() - 1);
+				onStack[v] = false;
+				component[v] = components.size();
+				scc.add(units.get(v));
+			} while (v != u);
+			sortByIndex(scc);
+			components.add(scc);
+		}
+	}
+
+	static void sortByIndex(List<SourceUnit> list) {
+		Collections.sort(list, new Comparator<SourceUnit>() {
+
+			@Override
+			public int compare(SourceUnit o1, SourceUnit o2) {
+				return o1.getIndex() - o2.getIndex();
+			}
+
+		});
+	}
+}
@@ -0,0 +1,352 @@
+package decaf.project;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import decaf.Driver;
+import decaf.Location;
+import decaf.Option;
+import decaf.error.ErrorSink;
+import decaf.iface.InterfaceFile;
+import decaf.iface.InterfaceLoader;
+import decaf.scope.GlobalScope;
+import decaf.scope.ScopeStack;
+import decaf.tree.ClassReferences;
+import decaf.tree.Tree;
+import decaf.typecheck.BuildSym;
+import decaf.typecheck.TypeCheck;
+
+/**
+ * 多文件工程的构建<br>
+ * 1. 读入所有文件并与上次构建的记录比较，内容未变且接口文件仍在的文件是“干净”的
+ * （只在不需要方法体时，即只报告错误时，才利用干净的文件）；<br>
+ * 2. 并行分析所有变化了的文件，由依赖图求出需要重新构建的文件（变化的文件及所有依赖它们的文件）；<br>
+ * 3. 在同一个全局作用域中声明这些文件中的类，干净文件中的类从接口文件载入；<br>
+ * 4. 按依赖图的拓扑层次逐波建立符号表、再逐波做类型检查，同一波内的强连通分量并行处理；<br>
+ * 5. 为重新构建的类写出接口文件，并保存本次构建的记录。
+ */
+public class ProjectBuilder {
+
+	private Option option;
+
+	private ErrorSink errors;
+
+	private ExecutorService executor;
+
+	private List<SourceUnit> units = new ArrayList<SourceUnit>();
+
+	private BuildManifest manifest;
+
+	private DependencyGraph graph;
+
+	private List<SourceUnit> dirty = new ArrayList<SourceUnit>();
+
+	/**
+	 * 干净的文件能否只从接口文件载入；接口文件没有方法体，输出作用域、三地址码或运行程序时
+	 * 必须重新分析所有文件
+	 */
+	private final boolean reuseInterfaces;
+
+	public ProjectBuilder(Option option, ErrorSink errors,
+			boolean reuseInterfaces) {
+		this.option = option;
+		this.errors = errors;
+		this.reuseInterfaces = reuseInterfaces;
+	}
+
+	/**
+	 * 分析所有需要重新构建的文件
+	 *
+	 * @return 由这些文件中的类（按文件顺序）组成的语法树
+	 */
+	public Tree.TopLevel parse() {
+		List<File> sources = option.getSources();
+		String[] names = new String[sources.size()];
+		for (int i = 0; i < sources.size(); i++) {
+			SourceUnit unit = new SourceUnit(i, sources.get(i));
+			try {
+				unit.read();
+			} catch (IOException e) {
+				option.getErr().println("Can not read file " + unit);
+				System.exit(1);
+			}
+			units.add(unit);
+			names[i] = unit.getPath();
+		}
+		errors.setUnitNames(names);
+
+		File dir = option.getInterfaceDir();
+		manifest = dir == null || option.getLevel() == Option.Level.LEVEL0 ? new BuildManifest()
+				: BuildManifest.load(dir);
+		List<SourceUnit> changed = new ArrayList<SourceUnit>();
+		for (SourceUnit unit : units) {
+			if (!reuseInterfaces || !isClean(unit)) {
+				changed.add(unit);
+			}
+		}
+		parseAll(changed);
+
+		// 变化的文件定义过或正在定义的类名，引用它们的文件都要重新构建
+		Set<String> touched = new HashSet<String>();
+		Set<String> present = new HashSet<String>();
+		for (SourceUnit unit : units) {
+			present.add(unit.getPath());
+		}
+		for (SourceUnit unit : changed) {
+			touched.addAll(unit.getDefines());
+			BuildManifest.Entry old = manifest.get(unit.getPath());
+			if (old != null) {
+				touched.addAll(old.defines);
+			}
+		}
+		for (String path : manifest.paths()) {
+			if (!present.contains(path)) {
+				touched.addAll(manifest.get(path).defines);
+			}
+		}
+		List<SourceUnit> seeds = new ArrayList<SourceUnit>(changed);
+		for (SourceUnit unit : units) {
+			if (!unit.isParsed() && intersects(unit.getReferences(), touched)) {
+				seeds.add(unit);
+			}
+		}
+		graph = new DependencyGraph(units);
+		dirty.addAll(graph.dependentsOf(seeds));
+		List<SourceUnit> unparsed = new ArrayList<SourceUnit>();
+		for (SourceUnit unit : dirty) {
+			if (!unit.isParsed()) {
+				unparsed.add(unit);
+			}
+		}
+		parseAll(unparsed);
+		// 依赖关系可能随重新分析而改变
+		graph = new DependencyGraph(units);
+		DependencyGraph.sortByIndex(dirty);
+		for (SourceUnit unit : dirty) {
+			unit.setDirty(true);
+		}
+
+		if (dir != null) {
+			removeStaleInterfaces(dir);
+		}
+
+		List<Tree.ClassDef> classes = new ArrayList<Tree.ClassDef>();
+		for (SourceUnit unit : dirty) {
+			if (unit.getTree() != null) {
+				classes.addAll(unit.getTree().classes);
+			}
+		}
+		return new Tree.TopLevel(classes, Location.NO_LOCATION);
+	}
+
+	/**
+	 * 对 parse 得到的语法树建立符号表并做类型检查，每个阶段之后调用 checkPoint
+	 */
+	public void check(Tree.TopLevel program, Runnable checkPoint) {
+		ScopeStack table = Driver.getDriver().getTable();
+		BuildSym builder = new BuildSym(table);
+		program.globalScope = new GlobalScope();
+		table.open(program.globalScope);
+		for (SourceUnit unit : dirty) {
+			errors.setUnit(unit.getIndex());
+			unit.getTree().globalScope = program.globalScope;
+			for (Tree.ClassDef cd : unit.getTree().classes) {
+				builder.declareClass(cd);
+			}
+		}
+		errors.setUnit(-1);
+		// 所有源文件中的类都声明之后才从接口文件载入其余的类，
+		// 否则会先载入某个稍后才声明的类而报重复声明
+		InterfaceLoader loader = Driver.getDriver().getInterfaceLoader();
+		if (loader != null) {
+			loader.setGlobalScope(program.globalScope);
+			for (SourceUnit unit : units) {
+				if (unit.isDirty()) {
+					for (String name : ClassReferences.of(unit.getTree().classes)) {
+						loader.resolve(name);
+					}
+				} else {
+					for (String name : unit.getDefines()) {
+						loader.resolve(name);
+					}
+				}
+			}
+		}
+		for (SourceUnit unit : dirty) {
+			errors.setUnit(unit.getIndex());
+			builder.checkInheritance(unit.getTree().classes);
+		}
+		builder.createTypes(program.classes);
+		for (Tree.ClassDef cd : program.classes) {
+			if (cd.sealed) {
+				cd.symbol.setSealed(true);
+			}
+		}
+
+		List<List<List<SourceUnit>>> waves = graph.waves(dirty);
+		runWaves(waves, program.globalScope, false);
+		errors.setUnit(-1);
+		builder.checkMain(program);
+		checkPoint.run();
+		runWaves(waves, program.globalScope, true);
+		checkPoint.run();
+		table.close();
+	}
+
+	/**
+	 * 写出重新构建的类的接口文件并保存构建记录
+	 */
+	public void save() throws IOException {
+		File dir = option.getInterfaceDir();
+		for (SourceUnit unit : dirty) {
+			for (Tree.ClassDef cd : unit.getTree().classes) {
+				InterfaceFile.write(cd.symbol, dir);
+			}
+		}
+		BuildManifest current = new BuildManifest();
+		for (SourceUnit unit : units) {
+			current.put(unit);
+		}
+		current.save(dir);
+	}
+
+	public void shutdown() {
+		if (executor != null) {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * 删除已经没有文件定义的类的接口文件，以免它们被当作仍然存在的类载入
+	 */
+	private void removeStaleInterfaces(File dir) {
+		Set<String> defined = new HashSet<String>();
+		for (SourceUnit unit : units) {
+			defined.addAll(unit.getDefines());
+		}
+		for (BuildManifest.Entry e : manifest.entries()) {
+			for (String name : e.defines) {
+				if (!defined.contains(name)) {
+					InterfaceFile.fileOf(dir, name).delete();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return 内容未变、且它定义的类的接口文件都还在的文件
+	 */
+	private boolean isClean(SourceUnit unit) {
+		BuildManifest.Entry old = manifest.get(unit.getPath());
+		if (old == null || !old.hash.equals(unit.getHash())) {
+			return false;
+		}
+		for (String name : old.defines) {
+			if (!InterfaceFile.fileOf(option.getInterfaceDir(), name).isFile()) {
+				return false;
+			}
+		}
+		unit.restore(old.defines, old.references);
+		return true;
+	}
+
+	private void parseAll(Collection<SourceUnit> list) {
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (final SourceUnit unit : list) {
+			tasks.add(new Callable<Void>() {
+
+				@Override
+				public Void call() {
+					errors.setUnit(unit.getIndex());
+					unit.parse();
+					return null;
+				}
+
+			});
+		}
+		invokeAll(tasks);
+	}
+
+	/**
+	 * 逐波处理：typeCheck 为 false 时建立各类的成员符号并检查覆盖，否则做类型检查
+	 */
+	private void runWaves(List<List<List<SourceUnit>>> waves,
+			final GlobalScope globalScope, final boolean typeCheck) {
+		for (List<List<SourceUnit>> wave : waves) {
+			if (errors.isFullOverall()) {
+				return;
+			}
+			List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+			for (final List<SourceUnit> component : wave) {
+				tasks.add(new Callable<Void>() {
+
+					@Override
+					public Void call() {
+						ScopeStack table = new ScopeStack();
+						table.open(globalScope);
+						Tree.Visitor visitor = typeCheck ? new TypeCheck(table)
+								: new BuildSym(table);
+						for (SourceUnit unit : component) {
+							errors.setUnit(unit.getIndex());
+							for (Tree.ClassDef cd : unit.getTree().classes) {
+								if (errors.isFull()) {
+									return null;
+								}
+								cd.accept(visitor);
+							}
+						}
+						// 分量内的类可能互相继承，全部建立符号后再检查覆盖
+						if (!typeCheck) {
+							for (SourceUnit unit : component) {
+								errors.setUnit(unit.getIndex());
+								((BuildSym) visitor).checkOverrides(unit
+										.getTree().classes);
+							}
+						}
+						return null;
+					}
+
+				});
+			}
+			invokeAll(tasks);
+		}
+	}
+
+	private void invokeAll(List<Callable<Void>> tasks) {
+		if (tasks.isEmpty()) {
+			return;
+		}
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(option.getThreads());
+		}
+		try {
+			for (Future<Void> f : executor.invokeAll(tasks)) {
+				f.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	private static boolean intersects(Set<String> a, Set<String> b) {
+		for (String s : a) {
+			if (b.contains(s)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
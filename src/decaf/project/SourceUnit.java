@@ -0,0 +1,129 @@
+package decaf.project;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import decaf.frontend.Lexer;
+import decaf.frontend.Parser;
+import decaf.tree.ClassReferences;
+import decaf.tree.Tree;
+import decaf.utils.MiscUtils;
+
+/**
+ * 工程中的一个源文件<br>
+ * 未被重新编译的文件不会被分析，它定义和引用的类名来自上次构建的记录。
+ */
+public class SourceUnit {
+
+	private int index;
+
+	private File file;
+
+	private byte[] content;
+
+	private String hash;
+
+	private Tree.TopLevel tree;
+
+	private Set<String> defines = new LinkedHashSet<String>();
+
+	private Set<String> references = new LinkedHashSet<String>();
+
+	private boolean dirty;
+
+	public SourceUnit(int index, File file) {
+		this.index = index;
+		this.file = file;
+	}
+
+	/**
+	 * 读入文件内容并计算其摘要
+	 */
+	public void read() throws IOException {
+		content = Files.readAllBytes(file.toPath());
+		hash = MiscUtils.digest(content);
+	}
+
+	/**
+	 * 分析文件内容，得到语法树以及它定义和引用的类名
+	 */
+	public void parse() {
+		Lexer lexer = new Lexer(new ByteArrayInputStream(content));
+		Parser parser = new Parser();
+		lexer.setParser(parser);
+		parser.setLexer(lexer);
+		parser.setSourceName(file.getPath());
+		tree = parser.parseFile();
+		defines.clear();
+		references.clear();
+		if (tree != null) {
+			for (Tree.ClassDef cd : tree.classes) {
+				defines.add(cd.name);
+			}
+			references.addAll(ClassReferences.of(tree.classes));
+			references.removeAll(defines);
+		}
+	}
+
+	/**
+	 * 不分析文件，沿用上次构建记录中它定义和引用的类名
+	 */
+	public void restore(Set<String> defines, Set<String> references) {
+		this.defines.clear();
+		this.defines.addAll(defines);
+		this.references.clear();
+		this.references.addAll(references);
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public String getPath() {
+		return file.getPath();
+	}
+
+	public String getHash() {
+		return hash;
+	}
+
+	public Tree.TopLevel getTree() {
+		return tree;
+	}
+
+	public Set<String> getDefines() {
+		return defines;
+	}
+
+	public Set<String> getReferences() {
+		return references;
+	}
+
+	public boolean isDirty() {
+		return dirty;
+	}
+
+	public void setDirty(boolean dirty) {
+		this.dirty = dirty;
+	}
+
+	/**
+	 * @return 是否已经分析过（没有分析的文件使用上次构建的记录）
+	 */
+	public boolean isParsed() {
+		return tree != null;
+	}
+
+	@Override
+	public String toString() {
+		return getPath();
+	}
+}
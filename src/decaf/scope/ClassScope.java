@@ -11,11 +11,51 @@ public class ClassScope extends Scope {
 
 	private Class owner;
 
+	/**
+	 * 成员每变化一次加一，补全索引据此判断是否过时
+	 */
+	private int version;
+
+	private CompletionIndex completionIndex;
+
 	public ClassScope(Class owner) {
 		super();
 		this.owner = owner;
 	}
 
+	@Override
+	public void declare(Symbol symbol) {
+		super.declare(symbol);
+		version++;
+	}
+
+	@Override
+	public void cancel(Symbol symbol) {
+		super.cancel(symbol);
+		version++;
+	}
+
+	/**
+	 * 成员被直接从迭代器中删去（覆盖检查）后调用，使补全索引失效
+	 */
+	public void membersChanged() {
+		version++;
+	}
+
+	int getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return 本类所有可见成员（含继承来的）的补全索引，第一次使用或成员变化后重新建立
+	 */
+	public synchronized CompletionIndex getCompletionIndex() {
+		if (completionIndex == null || !completionIndex.isValidFor(this)) {
+			completionIndex = CompletionIndex.build(this);
+		}
+		return completionIndex;
+	}
+
 	@Override
 	public boolean isClassScope() {
 		return true;
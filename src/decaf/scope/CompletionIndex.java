@@ -0,0 +1,259 @@
+package decaf.scope;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import decaf.symbol.Function;
+import decaf.symbol.Symbol;
+
+/**
+ * 一个类中可见成员（含继承来的）的名字补全索引<br>
+ * 成员名存放在压缩前缀树中（只有一个孩子的路径合并为一条边），
+ * 每个名字带有变量/函数、静态/非静态两个标记；
+ * 每个结点记下其子树中出现过哪几种标记组合，查询时直接跳过不可能匹配的子树。<br>
+ * 索引记下建立时继承链上各类作用域的版本，任何一个作用域的成员变化（包括覆盖检查删去成员）后，
+ * {@link ClassScope#getCompletionIndex} 会重新建立它。
+ */
+public final class CompletionIndex {
+
+	public static final int VARIABLE = 1;
+
+	public static final int FUNCTION = 2;
+
+	public static final int STATIC = 4;
+
+	public static final int INSTANCE = 8;
+
+	public static final int ALL = VARIABLE | FUNCTION | STATIC | INSTANCE;
+
+	private static final Node[] NO_CHILDREN = new Node[0];
+
+	private static final class Node {
+
+		String label;
+
+		Node[] children = NO_CHILDREN;
+
+		Symbol symbol;
+
+		int flags;
+
+		/**
+		 * 子树（含自身）中出现的标记组合，第 i 位表示组合 i 出现过
+		 */
+		int combos;
+
+		Node(String label) {
+			this.label = label;
+		}
+
+		Node child(char c) {
+			for (Node n : children) {
+				if (n.label.charAt(0) == c) {
+					return n;
+				}
+			}
+			return null;
+		}
+
+		void addChild(Node n) {
+			int i = 0;
+			while (i < children.length
+					&& children[i].label.charAt(0) < n.label.charAt(0)) {
+				i++;
+			}
+			Node[] a = new Node[children.length + 1];
+			System.arraycopy(children, 0, a, 0, i);
+			a[i] = n;
+			System.arraycopy(children, i, a, i + 1, children.length - i);
+			children = a;
+		}
+
+		void replaceChild(Node old, Node now) {
+			for (int i = 0; i < children.length; i++) {
+				if (children[i] == old) {
+					children[i] = now;
+				}
+			}
+		}
+	}
+
+	private Node root = new Node("");
+
+	private int size;
+
+	private ClassScope[] chain;
+
+	private int[] versions;
+
+	/**
+	 * 为 scope 建立索引：从最上层的祖先开始依次加入各类的成员，子类的成员遮住父类的同名成员
+	 */
+	static CompletionIndex build(ClassScope scope) {
+		List<ClassScope> list = new ArrayList<ClassScope>();
+		for (ClassScope cs = scope; cs != null && !list.contains(cs); cs = cs
+				.getParentScope()) {
+			list.add(cs);
+		}
+		CompletionIndex index = new CompletionIndex();
+		index.chain = list.toArray(new ClassScope[list.size()]);
+		index.versions = new int[index.chain.length];
+		for (int i = index.chain.length - 1; i >= 0; i--) {
+			ClassScope cs = index.chain[i];
+			index.versions[i] = cs.getVersion();
+			for (Symbol symbol : cs.symbols.values()) {
+				index.put(symbol.getName(), symbol, flagsOf(symbol));
+			}
+		}
+		index.computeCombos(index.root);
+		return index;
+	}
+
+	/**
+	 * 继承链及其上各作用域的成员是否仍与建立索引时相同
+	 */
+	boolean isValidFor(ClassScope scope) {
+		ClassScope cs = scope;
+		for (int i = 0; i < chain.length; i++) {
+			if (cs != chain[i] || versions[i] != cs.getVersion()) {
+				return false;
+			}
+			cs = cs.getParentScope();
+		}
+		// 链的末端仍然没有父类，或者仍然因为循环继承回到链上
+		return cs == null || Arrays.asList(chain).contains(cs);
+	}
+
+	public static int flagsOf(Symbol symbol) {
+		int flags = symbol.isFunction() ? FUNCTION : VARIABLE;
+		if (symbol.isFunction() && ((Function) symbol).isStatik()) {
+			return flags | STATIC;
+		}
+		return flags | INSTANCE;
+	}
+
+	/**
+	 * @return 可见成员的个数
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * 按名字顺序列出以 prefix 开头、标记都在 mask 中的成员
+	 */
+	public List<Symbol> complete(String prefix, int mask) {
+		List<Symbol> result = new ArrayList<Symbol>();
+		int allowed = allowedCombos(mask);
+		Node n = root;
+		int i = 0;
+		while (i < prefix.length()) {
+			n = n.child(prefix.charAt(i));
+			if (n == null) {
+				return result;
+			}
+			int k = 0;
+			while (k < n.label.length() && i < prefix.length()) {
+				if (n.label.charAt(k) != prefix.charAt(i)) {
+					return result;
+				}
+				k++;
+				i++;
+			}
+		}
+		collect(n, allowed, result);
+		return result;
+	}
+
+	/**
+	 * @return 名为 name 的可见成员，没有时为 null
+	 */
+	public Symbol lookup(String name) {
+		Node n = root;
+		int i = 0;
+		while (i < name.length()) {
+			n = n.child(name.charAt(i));
+			if (n == null || !name.startsWith(n.label, i)) {
+				return null;
+			}
+			i += n.label.length();
+		}
+		return n.symbol;
+	}
+
+	private void collect(Node n, int allowed, List<Symbol> result) {
+		if ((n.combos & allowed) == 0) {
+			return;
+		}
+		if (n.symbol != null && (allowed & 1 << comboOf(n.flags)) != 0) {
+			result.add(n.symbol);
+		}
+		for (Node c : n.children) {
+			collect(c, allowed, result);
+		}
+	}
+
+	private void put(String name, Symbol symbol, int flags) {
+		Node n = root;
+		int i = 0;
+		while (true) {
+			if (i == name.length()) {
+				if (n.symbol == null) {
+					size++;
+				}
+				n.symbol = symbol;
+				n.flags = flags;
+				return;
+			}
+			Node c = n.child(name.charAt(i));
+			if (c == null) {
+				Node leaf = new Node(name.substring(i));
+				leaf.symbol = symbol;
+				leaf.flags = flags;
+				n.addChild(leaf);
+				size++;
+				return;
+			}
+			int k = 0;
+			while (k < c.label.length() && i + k < name.length()
+					&& c.label.charAt(k) == name.charAt(i + k)) {
+				k++;
+			}
+			if (k < c.label.length()) {
+				// 在第 k 个字符处拆开这条边
+				Node mid = new Node(c.label.substring(0, k));
+				c.label = c.label.substring(k);
+				mid.children = new Node[] { c };
+				n.replaceChild(c, mid);
+				c = mid;
+			}
+			n = c;
+			i += k;
+		}
+	}
+
+	private int computeCombos(Node n) {
+		n.combos = n.symbol == null ? 0 : 1 << comboOf(n.flags);
+		for (Node c : n.children) {
+			n.combos |= computeCombos(c);
+		}
+		return n.combos;
+	}
+
+	private static int comboOf(int flags) {
+		return ((flags & FUNCTION) != 0 ? 2 : 0) + ((flags & STATIC) != 0 ? 1 : 0);
+	}
+
+	private static int allowedCombos(int mask) {
+		int allowed = 0;
+		for (int kind : new int[] { VARIABLE, FUNCTION }) {
+			for (int access : new int[] { STATIC, INSTANCE }) {
+				if ((mask & kind) != 0 && (mask & access) != 0) {
+					allowed |= 1 << comboOf(kind | access);
+				}
+			}
+		}
+		return allowed;
+	}
+}
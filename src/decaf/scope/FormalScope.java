@@ -21,6 +21,10 @@ public class FormalScope extends Scope {
 		return Kind.FORMAL;
 	}
 
+	public void setAstNode(Block astNode) {
+		this.astNode = astNode;
+	}
+
 	public Function getOwner() {
 		return owner;
 	}
@@ -37,7 +41,10 @@ public class FormalScope extends Scope {
 		for (Symbol symbol : symbols.values()) {
 			pw.println(symbol);
 		}
-		astNode.associatedScope.printTo(pw);
+		// 从接口文件载入的函数没有函数体
+		if (astNode != null) {
+			astNode.associatedScope.printTo(pw);
+		}
 		pw.decIndent();
 	}
 }
@@ -1,11 +1,28 @@
 package decaf.scope;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
+
 import decaf.symbol.Class;
 import decaf.symbol.Symbol;
 import decaf.utils.IndentPrintWriter;
 
 public class GlobalScope extends Scope {
 
+	public GlobalScope() {
+	}
+
+	/**
+	 * @param shared
+	 *            是否会有多个线程同时声明和查找（流水线方式编译），是则每次访问加锁
+	 */
+	public GlobalScope(boolean shared) {
+		if (shared) {
+			symbols = Collections
+					.synchronizedMap(new LinkedHashMap<String, Symbol>());
+		}
+	}
+
 	@Override
 	public boolean isGlobalScope() {
 		return true;
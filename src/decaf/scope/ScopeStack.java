@@ -9,16 +9,35 @@ import decaf.symbol.Class;
 import decaf.symbol.Symbol;
 
 public class ScopeStack {
+	/**
+	 * 类作用域中的查找的观察者，用于记录方法体对类成员的依赖
+	 */
+	public interface LookupListener {
+
+		/**
+		 * 在 scope 中查找了 name，结果为 symbol（找不到时为 null）
+		 */
+		void lookedUp(ClassScope scope, String name, Symbol symbol);
+	}
+
 	private Stack<Scope> scopeStack = new Stack<Scope>();
 	
 	private GlobalScope globalScope;
 
+	private LookupListener listener;
+
+	public void setListener(LookupListener listener) {
+		this.listener = listener;
+	}
+
 	public Symbol lookup(String name, boolean through) {
 		if (through) {
 			ListIterator<Scope> iter = scopeStack.listIterator(scopeStack
 					.size());
 			while (iter.hasPrevious()) {
-				Symbol symbol = iter.previous().lookup(name);
+				Scope scope = iter.previous();
+				Symbol symbol = scope.lookup(name);
+				observe(scope, name, symbol);
 				if (symbol != null) {
 					return symbol;
 				}
@@ -34,6 +53,7 @@ public class ScopeStack {
 		while (iter.hasPrevious()) {
 			Scope scope = iter.previous();
 			Symbol symbol = scope.lookup(name);
+			observe(scope, name, symbol);
 			if (symbol != null) {
 				if (scope.isLocalScope()
 						&& symbol.getLocation().compareTo(loc) > 0) {
@@ -45,6 +65,26 @@ public class ScopeStack {
 		return null;
 	}
 
+	/**
+	 * 在类 cs 及其祖先类中查找成员，同 {@link ClassScope#lookupVisible}
+	 */
+	public Symbol lookupMember(ClassScope cs, String name) {
+		for (; cs != null; cs = cs.getParentScope()) {
+			Symbol symbol = cs.lookup(name);
+			observe(cs, name, symbol);
+			if (symbol != null) {
+				return symbol;
+			}
+		}
+		return null;
+	}
+
+	private void observe(Scope scope, String name, Symbol symbol) {
+		if (listener != null && scope.isClassScope()) {
+			listener.lookedUp((ClassScope) scope, name, symbol);
+		}
+	}
+
 	public void declare(Symbol symbol) {
 		scopeStack.peek().declare(symbol);
 	}
@@ -0,0 +1,273 @@
+package decaf.ssa;
+
+import java.util.Arrays;
+
+/**
+ * SSA 形式上的支配树和支配边界<br>
+ * 直接支配者用 Cooper、Harvey、Kennedy 的迭代算法按逆后序求出：每轮对每块把已处理的前驱沿支配树求交，
+ * 结构化程序的流图两三轮即收敛，块数很多时也接近线性。支配树的子结点按编号压缩存放，
+ * 先序、后序编号使 {@link #dominates} 为常数时间；支配边界在需要时才计算。
+ * 到不了的块不在支配树中。
+ */
+public final class Dominators {
+
+	private final Ssa ssa;
+
+	private final int[] rpo;
+
+	private final int[] rpoIndex;
+
+	private final int[] idom;
+
+	/**
+	 * 块 b 在支配树中的子结点为 children[childStart[b] .. childStart[b + 1])
+	 */
+	private int[] childStart;
+
+	private int[] children;
+
+	private final int[] pre;
+
+	private final int[] post;
+
+	/**
+	 * 块 b 的支配边界为 frontier[frontierStart[b] .. frontierStart[b + 1])
+	 */
+	private int[] frontierStart;
+
+	private int[] frontier;
+
+	public Dominators(Ssa ssa) {
+		this.ssa = ssa;
+		int n = ssa.getNumBlocks();
+		rpoIndex = new int[n];
+		rpo = order();
+		idom = new int[n];
+		pre = new int[n];
+		post = new int[n];
+		computeIdoms();
+		buildTree();
+	}
+
+	/**
+	 * 不用递归的深度优先遍历求逆后序
+	 */
+	private int[] order() {
+		int n = ssa.getNumBlocks();
+		Arrays.fill(rpoIndex, -1);
+		int[] post = new int[n];
+		int numPost = 0;
+		int[] stack = new int[n];
+		int[] next = new int[n];
+		boolean[] visited = new boolean[n];
+		int sp = 0;
+		stack[sp++] = ssa.getEntry();
+		visited[ssa.getEntry()] = true;
+		while (sp > 0) {
+			int b = stack[sp - 1];
+			if (next[b] < ssa.numSuccs(b)) {
+				int s = ssa.succ(b, next[b]++);
+				if (!visited[s]) {
+					visited[s] = true;
+					stack[sp++] = s;
+				}
+			} else {
+				post[numPost++] = b;
+				sp--;
+			}
+		}
+		int[] rpo = new int[numPost];
+		for (int i = 0; i < numPost; i++) {
+			rpo[i] = post[numPost - 1 - i];
+			rpoIndex[rpo[i]] = i;
+		}
+		return rpo;
+	}
+
+	private void computeIdoms() {
+		Arrays.fill(idom, -1);
+		int entry = ssa.getEntry();
+		idom[entry] = entry;
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int k = 1; k < rpo.length; k++) {
+				int b = rpo[k];
+				int d = -1;
+				for (int j = 0; j < ssa.numPreds(b); j++) {
+					int p = ssa.pred(b, j);
+					if (idom[p] < 0) {
+						continue;
+					}
+					d = d < 0 ? p : intersect(p, d);
+				}
+				if (d != idom[b]) {
+					idom[b] = d;
+					changed = true;
+				}
+			}
+		}
+	}
+
+	private int intersect(int a, int b) {
+		while (a != b) {
+			while (rpoIndex[a] > rpoIndex[b]) {
+				a = idom[a];
+			}
+			while (rpoIndex[b] > rpoIndex[a]) {
+				b = idom[b];
+			}
+		}
+		return a;
+	}
+
+	private void buildTree() {
+		int n = ssa.getNumBlocks();
+		int entry = ssa.getEntry();
+		childStart = new int[n + 1];
+		for (int b : rpo) {
+			if (b != entry) {
+				childStart[idom[b] + 1]++;
+			}
+		}
+		for (int b = 0; b < n; b++) {
+			childStart[b + 1] += childStart[b];
+		}
+		children = new int[Math.max(rpo.length - 1, 0)];
+		int[] fill = Arrays.copyOf(childStart, n);
+		for (int b : rpo) {
+			if (b != entry) {
+				children[fill[idom[b]]++] = b;
+			}
+		}
+		// 先序、后序编号
+		Arrays.fill(pre, -1);
+		Arrays.fill(post, -1);
+		int[] stack = new int[rpo.length];
+		int[] next = new int[n];
+		int sp = 0;
+		int numPre = 0;
+		int numPost = 0;
+		stack[sp++] = entry;
+		pre[entry] = numPre++;
+		next[entry] = childStart[entry];
+		while (sp > 0) {
+			int b = stack[sp - 1];
+			if (next[b] < childStart[b + 1]) {
+				int c = children[next[b]++];
+				pre[c] = numPre++;
+				next[c] = childStart[c];
+				stack[sp++] = c;
+			} else {
+				post[b] = numPost++;
+				sp--;
+			}
+		}
+	}
+
+	/**
+	 * 按 Cooper、Harvey、Kennedy 的方法求支配边界：从汇合点的每个前驱沿支配树上溯到其直接支配者为止，
+	 * 途经的块的支配边界都含该汇合点
+	 */
+	private void computeFrontiers() {
+		int n = ssa.getNumBlocks();
+		frontierStart = new int[n + 1];
+		// 两遍：先计数再填写，同一块不重复加入同一汇合点
+		int[] seen = new int[n];
+		for (int pass = 0; pass < 2; pass++) {
+			int[] fill = pass == 0 ? null : Arrays.copyOf(frontierStart, n);
+			Arrays.fill(seen, -1);
+			for (int b : rpo) {
+				if (ssa.numPreds(b) < 2) {
+					continue;
+				}
+				for (int j = 0; j < ssa.numPreds(b); j++) {
+					int runner = ssa.pred(b, j);
+					if (idom[runner] < 0) {
+						continue;
+					}
+					while (runner != idom[b] && seen[runner] != b) {
+						seen[runner] = b;
+						if (pass == 0) {
+							frontierStart[runner + 1]++;
+						} else {
+							frontier[fill[runner]++] = b;
+						}
+						runner = idom[runner];
+					}
+				}
+			}
+			if (pass == 0) {
+				for (int b = 0; b < n; b++) {
+					frontierStart[b + 1] += frontierStart[b];
+				}
+				frontier = new int[frontierStart[n]];
+			}
+		}
+	}
+
+	public Ssa getSsa() {
+		return ssa;
+	}
+
+	/**
+	 * @return 能从入口到达的块，按逆后序排列；不要修改
+	 */
+	public int[] rpo() {
+		return rpo;
+	}
+
+	public int rpoIndex(int b) {
+		return rpoIndex[b];
+	}
+
+	public boolean isReachable(int b) {
+		return rpoIndex[b] >= 0;
+	}
+
+	/**
+	 * @return 块 b 的直接支配者，入口为其自身，到不了的块为 -1
+	 */
+	public int idom(int b) {
+		return idom[b];
+	}
+
+	public int numChildren(int b) {
+		return childStart[b + 1] - childStart[b];
+	}
+
+	public int child(int b, int k) {
+		return children[childStart[b] + k];
+	}
+
+	/**
+	 * @return 块 b 在支配树先序遍历中的位置
+	 */
+	public int preorder(int b) {
+		return pre[b];
+	}
+
+	/**
+	 * @return a 是否支配 b（含 a == b）
+	 */
+	public boolean dominates(int a, int b) {
+		return pre[a] <= pre[b] && post[b] <= post[a] && pre[b] >= 0;
+	}
+
+	public int numFrontier(int b) {
+		if (frontier == null) {
+			computeFrontiers();
+		}
+		return frontierStart[b + 1] - frontierStart[b];
+	}
+
+	/**
+	 * @return 块 b 的支配边界中的第 k 块
+	 */
+	public int frontier(int b, int k) {
+		if (frontier == null) {
+			computeFrontiers();
+		}
+		return frontier[frontierStart[b] + k];
+	}
+}
@@ -0,0 +1,632 @@
+package decaf.ssa;
+
+import java.util.Arrays;
+
+import decaf.tac.Functy;
+import decaf.tac.Tac;
+
+/**
+ * 把 SSA 形式翻译回三地址码<br>
+ * 先删除到不了的块，在通往有 φ 的块的关键边上插入空块；再把值合并成尽量少的临时变量：
+ * 同一原临时变量的值先按支配顺序逐个检查，与之冲突的值分出去单独成类，然后尽量把 φ 的结果与其参数合并。
+ * 两个值是否冲突用 {@link SsaLiveness} 判断：一个的定值点支配另一个，且在后者的定值处仍活跃；
+ * 按支配顺序检查时只需与栈顶的值比较。合并后 φ 变成各前驱末尾的并行复制，
+ * 同一类的复制省去，其余按依赖排序，成环时借一个临时变量打断。
+ */
+final class OutOfSsa {
+
+	private final Ssa ssa;
+
+	private final Functy functy;
+
+	private Dominators dom;
+
+	private SsaLiveness live;
+
+	/**
+	 * 指令在所在块中的位置
+	 */
+	private int[] pos;
+
+	/**
+	 * 值所在的类（并查集），类的成员用 member 串成环
+	 */
+	private int[] parent;
+
+	private int[] member;
+
+	private int[] classSize;
+
+	/**
+	 * 各值在支配顺序中的位置，没有定值的为 -1
+	 */
+	private int[] orderIndex;
+
+	/**
+	 * 各值（类的代表）的临时变量
+	 */
+	private int[] temp;
+
+	private int numTemps;
+
+	/**
+	 * 是否用到了打断复制环的临时变量（编号为 numTemps）
+	 */
+	private boolean scratchUsed;
+
+	private int[] out = new int[64 * Tac.WIDTH];
+
+	private int size;
+
+	private final int[] fields = new int[2];
+
+	OutOfSsa(Ssa ssa) {
+		this.ssa = ssa;
+		this.functy = ssa.getFuncty();
+	}
+
+	void translate() {
+		removeUnreachable();
+		splitCriticalEdges();
+		dom = new Dominators(ssa);
+		live = new SsaLiveness(ssa);
+		numberInstrs();
+		int[] order = dominanceOrder();
+		coalesceVariables(order);
+		coalescePhis();
+		assignTemps(order);
+		emit();
+	}
+
+	private void removeUnreachable() {
+		Dominators d = new Dominators(ssa);
+		for (int b = 0; b < ssa.getNumBlocks(); b++) {
+			if (!ssa.isRemoved(b) && !d.isReachable(b)) {
+				ssa.removeBlock(b);
+			}
+		}
+	}
+
+	private void splitCriticalEdges() {
+		for (int b = ssa.firstInLayout(); b >= 0; b = ssa.nextInLayout(b)) {
+			if (ssa.numSuccs(b) < 2) {
+				continue;
+			}
+			for (int k = 0; k < 2; k++) {
+				int s = ssa.succ(b, k);
+				if (ssa.firstPhi(s) >= 0) {
+					ssa.splitEdge(b, k);
+				}
+			}
+		}
+	}
+
+	private void numberInstrs() {
+		pos = new int[ssa.getNumInstrs()];
+		for (int b = ssa.firstInLayout(); b >= 0; b = ssa.nextInLayout(b)) {
+			int n = 0;
+			for (int i = ssa.first(b); i >= 0; i = ssa.next(i)) {
+				pos[i] = n++;
+			}
+		}
+	}
+
+	/**
+	 * @return 有定值的值按支配树先序、块内按定值先后排列
+	 */
+	private int[] dominanceOrder() {
+		int numValues = ssa.getNumValues();
+		orderIndex = new int[numValues];
+		Arrays.fill(orderIndex, -1);
+		int[] order = new int[numValues];
+		int n = 0;
+		for (int v = 0; v < numValues; v++) {
+			if (ssa.definition(v) == Ssa.ENTRY) {
+				orderIndex[v] = n;
+				order[n++] = v;
+			}
+		}
+		int[] stack = new int[ssa.getNumBlocks()];
+		int sp = 0;
+		stack[sp++] = ssa.getEntry();
+		while (sp > 0) {
+			int b = stack[--sp];
+			for (int p = ssa.firstPhi(b); p >= 0; p = ssa.nextPhi(p)) {
+				int v = ssa.phiDest(p);
+				orderIndex[v] = n;
+				order[n++] = v;
+			}
+			for (int i = ssa.first(b); i >= 0; i = ssa.next(i)) {
+				int v = ssa.defOf(i);
+				if (v >= 0) {
+					orderIndex[v] = n;
+					order[n++] = v;
+				}
+			}
+			for (int k = dom.numChildren(b) - 1; k >= 0; k--) {
+				stack[sp++] = dom.child(b, k);
+			}
+		}
+		return Arrays.copyOf(order, n);
+	}
+
+	/**
+	 * 同一原临时变量的值合为一类，与类中已有的值冲突的分出去
+	 */
+	private void coalesceVariables(int[] order) {
+		int numValues = ssa.getNumValues();
+		parent = new int[numValues];
+		member = new int[numValues];
+		classSize = new int[numValues];
+		for (int v = 0; v < numValues; v++) {
+			parent[v] = member[v] = v;
+			classSize[v] = 1;
+		}
+		// 按原临时变量分组，组内保持支配顺序
+		int numVars = functy.getNumTemps();
+		int[] start = new int[numVars + 1];
+		for (int v : order) {
+			if (ssa.varOf(v) >= 0) {
+				start[ssa.varOf(v) + 1]++;
+			}
+		}
+		for (int t = 0; t < numVars; t++) {
+			start[t + 1] += start[t];
+		}
+		int[] grouped = new int[start[numVars]];
+		int[] fill = Arrays.copyOf(start, numVars);
+		for (int v : order) {
+			if (ssa.varOf(v) >= 0) {
+				grouped[fill[ssa.varOf(v)]++] = v;
+			}
+		}
+		int[] stack = new int[16];
+		for (int t = 0; t < numVars; t++) {
+			int sp = 0;
+			int leader = -1;
+			for (int k = start[t]; k < start[t + 1]; k++) {
+				int v = grouped[k];
+				while (sp > 0 && !dominatesDef(stack[sp - 1], v)) {
+					sp--;
+				}
+				if (sp > 0 && interferes(stack[sp - 1], v)) {
+					continue;
+				}
+				if (leader < 0) {
+					leader = v;
+				} else {
+					union(leader, v);
+				}
+				if (sp == stack.length) {
+					stack = Arrays.copyOf(stack, sp * 2);
+				}
+				stack[sp++] = v;
+			}
+		}
+	}
+
+	/**
+	 * 尽量把 φ 的结果与其参数合为一类，省去前驱末尾的复制
+	 */
+	private void coalescePhis() {
+		int[] merged = new int[64];
+		int[] stack = new int[64];
+		for (int b = ssa.firstInLayout(); b >= 0; b = ssa.nextInLayout(b)) {
+			for (int p = ssa.firstPhi(b); p >= 0; p = ssa.nextPhi(p)) {
+				for (int k = 0; k < ssa.numPreds(b); k++) {
+					int a = find(ssa.phiArg(p, k));
+					int d = find(ssa.phiDest(p));
+					if (a == d || orderIndex[ssa.phiArg(p, k)] < 0
+							|| classSize[a] + classSize[d] > merged.length) {
+						continue;
+					}
+					// 两类的成员按支配顺序合并检查，只比较不同类的相邻值
+					int n = 0;
+					for (int c : new int[] { a, d }) {
+						int v = c;
+						do {
+							merged[n++] = v;
+							v = member[v];
+						} while (v != c);
+					}
+					sortByOrder(merged, n);
+					boolean conflict = false;
+					int sp = 0;
+					for (int j = 0; j < n && !conflict; j++) {
+						int v = merged[j];
+						while (sp > 0 && !dominatesDef(stack[sp - 1], v)) {
+							sp--;
+						}
+						if (sp > 0 && find(stack[sp - 1]) != find(v)) {
+							conflict = interferes(stack[sp - 1], v);
+						}
+						stack[sp++] = v;
+					}
+					if (!conflict) {
+						union(a, d);
+					}
+				}
+			}
+		}
+	}
+
+	private void sortByOrder(int[] values, int n) {
+		for (int j = 1; j < n; j++) {
+			int v = values[j];
+			int k = j - 1;
+			while (k >= 0 && orderIndex[values[k]] > orderIndex[v]) {
+				values[k + 1] = values[k];
+				k--;
+			}
+			values[k + 1] = v;
+		}
+	}
+
+	private int find(int v) {
+		while (parent[v] != v) {
+			parent[v] = parent[parent[v]];
+			v = parent[v];
+		}
+		return v;
+	}
+
+	private void union(int a, int b) {
+		a = find(a);
+		b = find(b);
+		if (a == b) {
+			return;
+		}
+		if (classSize[a] < classSize[b]) {
+			int t = a;
+			a = b;
+			b = t;
+		}
+		parent[b] = a;
+		classSize[a] += classSize[b];
+		int t = member[a];
+		member[a] = member[b];
+		member[b] = t;
+	}
+
+	/**
+	 * @return 值在所在块中定值的先后：入口处的值最先，φ 其次
+	 */
+	private int defPosition(int v) {
+		int d = ssa.definition(v);
+		return d >= 0 ? pos[d] : d == Ssa.ENTRY ? -2 : -1;
+	}
+
+	/**
+	 * @return a 的定值点是否支配 b 的定值点
+	 */
+	private boolean dominatesDef(int a, int b) {
+		int ba = ssa.defBlock(a);
+		int bb = ssa.defBlock(b);
+		if (ba != bb) {
+			return dom.dominates(ba, bb);
+		}
+		return defPosition(a) <= defPosition(b);
+	}
+
+	/**
+	 * a 的定值点支配 b 的定值点时，a 是否在 b 的定值处活跃
+	 */
+	private boolean interferes(int a, int b) {
+		int x = ssa.defBlock(b);
+		int q = defPosition(b);
+		if (q < 0) {
+			// b 在块的入口定值
+			return live.isLiveIn(x, a) || ssa.defBlock(a) == x
+					&& defPosition(a) == q;
+		}
+		if (live.isLiveOut(x, a)) {
+			return true;
+		}
+		if (ssa.defBlock(a) != x && !live.isLiveIn(x, a)) {
+			return false;
+		}
+		for (int k = 0; k < live.numUses(a); k++) {
+			int u = live.use(a, k);
+			if (u >= 0 && ssa.blockOf(u) == x && pos[u] > q) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * 各类尽量沿用其中第一个值原来的临时变量（参数的类总是如此），其余的类用新的编号；
+	 * 输出后再把用到的临时变量按编号紧缩
+	 */
+	private void assignTemps(int[] order) {
+		int numValues = ssa.getNumValues();
+		temp = new int[numValues];
+		Arrays.fill(temp, -1);
+		boolean[] taken = new boolean[functy.getNumTemps()];
+		for (int v : order) {
+			int c = find(v);
+			int t = ssa.varOf(v);
+			if (temp[c] < 0 && t >= 0 && !taken[t]) {
+				temp[c] = t;
+				taken[t] = true;
+			}
+		}
+		numTemps = functy.getNumTemps();
+		for (int v = 0; v < numValues; v++) {
+			int c = find(v);
+			if (temp[c] < 0) {
+				temp[c] = numTemps++;
+			}
+		}
+	}
+
+	private int tempOf(int v) {
+		return temp[find(v)];
+	}
+
+	/**
+	 * @return 块 b 末尾是否要为后继的 φ 复制
+	 */
+	private boolean needsCopies(int b) {
+		if (ssa.numSuccs(b) != 1) {
+			return false;
+		}
+		int s = ssa.succ(b, 0);
+		int j = ssa.predIndex(s, b);
+		for (int p = ssa.firstPhi(s); p >= 0; p = ssa.nextPhi(p)) {
+			if (tempOf(ssa.phiDest(p)) != tempOf(ssa.phiArg(p, j))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void emit() {
+		int numBlocks = ssa.getNumBlocks();
+		// 不需要复制的空块（多为拆分关键边所加）不输出，到它的边直接到其后继
+		boolean[] skip = new boolean[numBlocks];
+		for (int b = ssa.firstInLayout(); b >= 0; b = ssa.nextInLayout(b)) {
+			skip[b] = b != ssa.getEntry() && ssa.first(b) < 0
+					&& ssa.numSuccs(b) == 1 && !needsCopies(b);
+		}
+		int[] target = new int[numBlocks];
+		int[] nextEmitted = new int[numBlocks];
+		int following = -1;
+		for (int b = ssa.lastInLayout(); b >= 0; b = ssa.prevInLayout(b)) {
+			nextEmitted[b] = following;
+			if (!skip[b]) {
+				following = b;
+			}
+		}
+		// 沿空块的链找到实际的目标，途经的块一并记下
+		Arrays.fill(target, -1);
+		int[] path = new int[numBlocks];
+		for (int b = ssa.firstInLayout(); b >= 0; b = ssa.nextInLayout(b)) {
+			int n = 0;
+			int s = b;
+			while (skip[s] && target[s] < 0) {
+				path[n++] = s;
+				s = ssa.succ(s, 0);
+			}
+			int end = skip[s] ? target[s] : s;
+			for (int k = 0; k < n; k++) {
+				target[path[k]] = end;
+			}
+			target[b] = end;
+		}
+		int[] label = new int[numBlocks];
+		Arrays.fill(label, -1);
+		for (int b = ssa.firstInLayout(); b >= 0; b = ssa.nextInLayout(b)) {
+			for (int k = 0; !skip[b] && k < ssa.numSuccs(b); k++) {
+				int s = target[ssa.succ(b, k)];
+				if (k == 1 || s != nextEmitted[b]) {
+					label[s] = 0;
+				}
+			}
+		}
+		// 标号按布局顺序编号
+		int numLabels = 0;
+		for (int b = ssa.firstInLayout(); b >= 0; b = ssa.nextInLayout(b)) {
+			if (label[b] == 0) {
+				label[b] = numLabels++;
+			}
+		}
+		// 未定值就使用的变量从 0 开始
+		for (int v = 0; v < ssa.getNumValues(); v++) {
+			if (ssa.definition(v) == Ssa.ENTRY
+					&& ssa.varOf(v) >= functy.getNumParams()
+					&& live.numUses(v) > 0) {
+				append(Tac.LOAD_IMM4, tempOf(v), 0, -1);
+			}
+		}
+		int scratch = numTemps;
+		int[] code = ssa.code();
+		for (int b = ssa.firstInLayout(); b >= 0; b = ssa.nextInLayout(b)) {
+			if (skip[b]) {
+				continue;
+			}
+			if (label[b] >= 0) {
+				append(Tac.MARK, -1, label[b], -1);
+			}
+			int t = ssa.terminator(b);
+			for (int i = ssa.first(b); i >= 0 && i != t; i = ssa.next(i)) {
+				emitInstr(code, i);
+			}
+			if (needsCopies(b)) {
+				emitCopies(b, ssa.succ(b, 0), scratch);
+			}
+			if (t >= 0) {
+				int op = ssa.op(t);
+				if (op != Tac.BRANCH && op != Tac.BEQZ && op != Tac.BNEZ) {
+					emitInstr(code, t);
+				} else if (ssa.numSuccs(b) == 2) {
+					append(op, -1, tempOf(ssa.y(t)), label[target[ssa.succ(b, 1)]]);
+				}
+			}
+			if (ssa.numSuccs(b) > 0 && target[ssa.succ(b, 0)] != nextEmitted[b]) {
+				append(Tac.BRANCH, -1, label[target[ssa.succ(b, 0)]], -1);
+			}
+		}
+		if (scratchUsed) {
+			numTemps++;
+		}
+		functy.replace(out, size, compactTemps(), numLabels);
+	}
+
+	/**
+	 * 把输出中用到的临时变量按原来的顺序重新连续编号，参数不变
+	 *
+	 * @return 临时变量的个数
+	 */
+	private int compactTemps() {
+		int[] renumber = new int[numTemps];
+		Arrays.fill(renumber, -1);
+		for (int t = 0; t < functy.getNumParams(); t++) {
+			renumber[t] = 0;
+		}
+		for (int i = 0; i < size; i++) {
+			int at = i * Tac.WIDTH;
+			int d = Tac.defOf(out, at);
+			if (d >= 0) {
+				renumber[d] = 0;
+			}
+			int n = Tac.useFields(out, at, fields);
+			for (int k = 0; k < n; k++) {
+				renumber[out[fields[k]]] = 0;
+			}
+		}
+		int count = 0;
+		for (int t = 0; t < numTemps; t++) {
+			if (renumber[t] == 0) {
+				renumber[t] = count++;
+			}
+		}
+		for (int i = 0; i < size; i++) {
+			int at = i * Tac.WIDTH;
+			if (Tac.defOf(out, at) >= 0) {
+				out[at + 1] = renumber[out[at + 1]];
+			}
+			int n = Tac.useFields(out, at, fields);
+			for (int k = 0; k < n; k++) {
+				out[fields[k]] = renumber[out[fields[k]]];
+			}
+		}
+		return count;
+	}
+
+	private void emitInstr(int[] code, int i) {
+		int at = i * Tac.WIDTH;
+		int op = code[at] & 0xff;
+		int x = code[at + 1];
+		int y = code[at + 2];
+		int z = code[at + 3];
+		int def = ssa.defOf(i);
+		if (def >= 0) {
+			x = tempOf(def);
+		}
+		int n = ssa.useFields(i, fields);
+		for (int k = 0; k < n; k++) {
+			int t = tempOf(code[fields[k]]);
+			if (fields[k] == at + 1) {
+				x = t;
+			} else if (fields[k] == at + 2) {
+				y = t;
+			} else {
+				z = t;
+			}
+		}
+		if (op == Tac.ASSIGN && x == y) {
+			return;
+		}
+		append(code[at], x, y, z);
+	}
+
+	/**
+	 * 在 b 的末尾按 s 中各 φ 的参数生成并行复制
+	 */
+	private void emitCopies(int b, int s, int scratch) {
+		int j = ssa.predIndex(s, b);
+		int n = 0;
+		for (int p = ssa.firstPhi(s); p >= 0; p = ssa.nextPhi(p)) {
+			n++;
+		}
+		int[] dst = new int[n];
+		int[] src = new int[n];
+		n = 0;
+		for (int p = ssa.firstPhi(s); p >= 0; p = ssa.nextPhi(p)) {
+			int d = tempOf(ssa.phiDest(p));
+			int a = tempOf(ssa.phiArg(p, j));
+			if (d != a) {
+				dst[n] = d;
+				src[n] = a;
+				n++;
+			}
+		}
+		sequentialize(dst, src, n, scratch);
+	}
+
+	/**
+	 * 把并行复制 dst[k] ← src[k] 排成顺序的复制：先写不再被读的目标，剩下的都在环上，
+	 * 把环上一个目标的旧值存到 scratch 后继续
+	 */
+	private void sequentialize(int[] dst, int[] src, int n, int scratch) {
+		if (n == 0) {
+			return;
+		}
+		// readers[k]：还要读 dst[k] 旧值的复制数；loc[k]：复制 k 的源现在所在的临时变量
+		int[] readers = new int[n];
+		int[] loc = new int[n];
+		boolean[] done = new boolean[n];
+		for (int k = 0; k < n; k++) {
+			loc[k] = src[k];
+			for (int m = 0; m < n; m++) {
+				if (src[m] == dst[k]) {
+					readers[k]++;
+				}
+			}
+		}
+		int remaining = n;
+		while (remaining > 0) {
+			boolean progress = false;
+			for (int k = 0; k < n; k++) {
+				if (!done[k] && readers[k] <= 0) {
+					append(Tac.ASSIGN, dst[k], loc[k], -1);
+					done[k] = true;
+					remaining--;
+					progress = true;
+					for (int m = 0; m < n; m++) {
+						if (!done[m] && dst[m] == src[k]) {
+							readers[m]--;
+						}
+					}
+				}
+			}
+			if (!progress) {
+				// 全在环上：把某个目标的旧值移到 scratch，读它的复制改读 scratch
+				int k = 0;
+				while (done[k]) {
+					k++;
+				}
+				append(Tac.ASSIGN, scratch, dst[k], -1);
+				scratchUsed = true;
+				for (int m = 0; m < n; m++) {
+					if (!done[m] && loc[m] == dst[k]) {
+						loc[m] = scratch;
+					}
+				}
+				readers[k] = 0;
+			}
+		}
+	}
+
+	private void append(int opcode, int x, int y, int z) {
+		if ((size + 1) * Tac.WIDTH > out.length) {
+			out = Arrays.copyOf(out, out.length * 2);
+		}
+		int at = size++ * Tac.WIDTH;
+		out[at] = opcode;
+		out[at + 1] = x;
+		out[at + 2] = y;
+		out[at + 3] = z;
+	}
+}
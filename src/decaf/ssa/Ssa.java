@@ -0,0 +1,701 @@
+package decaf.ssa;
+
+import java.util.Arrays;
+
+import decaf.tac.Functy;
+import decaf.tac.Intrinsic;
+import decaf.tac.Tac;
+
+/**
+ * 一个函数的 SSA 形式<br>
+ * 指令仍按 {@link Tac} 的编码存放在一个 int 数组中，但临时变量换成了值的编号，每个值只定值一次；
+ * 跳转指令的标号不再使用，目标由块的后继给出，MARK 不再出现。每块的指令用 next/prev 数组串成链表，
+ * 插入和删除指令不移动其他指令。φ 同样按编号存放，其参数连续存放在一个 int 数组中，
+ * 第 k 个参数对应块的第 k 个前驱。整个形式只由 int 数组组成，大函数上也可以反复重建。<br>
+ * 条件跳转的第 0 个后继为条件不成立时顺序执行的块，第 1 个为跳转目标；
+ * 输出时按 {@link #firstInLayout} 开始的顺序排列各块，顺序执行的后继不是下一块时补上跳转。
+ */
+public final class Ssa {
+
+	/**
+	 * 在入口处定值的值（参数和未定值就使用的变量）的 {@link #definition}
+	 */
+	public static final int ENTRY = -1;
+
+	private final Functy functy;
+
+	// 指令
+
+	private int[] code = new int[64 * Tac.WIDTH];
+
+	private int[] next = new int[64];
+
+	private int[] prev = new int[64];
+
+	/**
+	 * 指令所在的块，已删除的为 -1
+	 */
+	private int[] blockOf = new int[64];
+
+	private int numInstrs;
+
+	// 块
+
+	private int numBlocks;
+
+	private int[] first = new int[16];
+
+	private int[] last = new int[16];
+
+	/**
+	 * 块 b 的两个后继为 succs[2b]、succs[2b + 1]，没有时为 -1
+	 */
+	private int[] succs = new int[32];
+
+	private int[][] preds = new int[16][];
+
+	private int[] numPreds = new int[16];
+
+	private int[] phiFirst = new int[16];
+
+	private boolean[] removed = new boolean[16];
+
+	private int[] layoutNext = new int[16];
+
+	private int[] layoutPrev = new int[16];
+
+	private int layoutFirst = -1;
+
+	private int layoutLast = -1;
+
+	private int entry;
+
+	// φ
+
+	private int numPhis;
+
+	private int[] phiBlock = new int[16];
+
+	private int[] phiDest = new int[16];
+
+	private int[] phiNext = new int[16];
+
+	private int[] phiPrev = new int[16];
+
+	/**
+	 * φ p 的参数为 phiArgs[phiArgStart[p] ..]，个数为所在块的前驱数
+	 */
+	private int[] phiArgStart = new int[16];
+
+	private int[] phiArgs = new int[64];
+
+	private int phiArgsSize;
+
+	// 值
+
+	private int numValues;
+
+	private int[] varOf = new int[64];
+
+	/**
+	 * 值的定值：指令的下标，φ p 为 -2 - p，入口处为 {@link #ENTRY}
+	 */
+	private int[] definition = new int[64];
+
+	Ssa(Functy functy) {
+		this.functy = functy;
+	}
+
+	/**
+	 * 构造 functy 的 SSA 形式，functy 本身不变
+	 */
+	public static Ssa build(Functy functy) {
+		return new SsaBuilder(functy).build();
+	}
+
+	/**
+	 * 把 SSA 形式翻译回三地址码，替换 functy 的函数体
+	 */
+	public void writeBack() {
+		new OutOfSsa(this).translate();
+	}
+
+	public Functy getFuncty() {
+		return functy;
+	}
+
+	// 指令
+
+	/**
+	 * 直接访问指令数组，第 i 条指令从下标 i * WIDTH 开始
+	 */
+	public int[] code() {
+		return code;
+	}
+
+	/**
+	 * @return 指令编号的上界（含已删除的指令）
+	 */
+	public int getNumInstrs() {
+		return numInstrs;
+	}
+
+	public int op(int i) {
+		return code[i * Tac.WIDTH] & 0xff;
+	}
+
+	public int region(int i) {
+		return code[i * Tac.WIDTH] >>> 8;
+	}
+
+	public int x(int i) {
+		return code[i * Tac.WIDTH + 1];
+	}
+
+	public int y(int i) {
+		return code[i * Tac.WIDTH + 2];
+	}
+
+	public int z(int i) {
+		return code[i * Tac.WIDTH + 3];
+	}
+
+	public void set(int i, int opcode, int x, int y, int z) {
+		int at = i * Tac.WIDTH;
+		code[at] = opcode;
+		code[at + 1] = x;
+		code[at + 2] = y;
+		code[at + 3] = z;
+	}
+
+	/**
+	 * @return 第 i 条指令定值的值，没有时为 -1
+	 */
+	public int defOf(int i) {
+		return Tac.defOf(code, i * Tac.WIDTH);
+	}
+
+	/**
+	 * 把第 i 条指令使用的值写入 uses
+	 *
+	 * @return 个数（至多 2）
+	 */
+	public int usesOf(int i, int[] uses) {
+		int n = Tac.useFields(code, i * Tac.WIDTH, uses);
+		for (int k = 0; k < n; k++) {
+			uses[k] = code[uses[k]];
+		}
+		return n;
+	}
+
+	/**
+	 * 把第 i 条指令中是所用值的操作数在 {@link #code} 中的下标写入 fields
+	 *
+	 * @return 个数（至多 2）
+	 */
+	public int useFields(int i, int[] fields) {
+		return Tac.useFields(code, i * Tac.WIDTH, fields);
+	}
+
+	/**
+	 * @return 是否为块的最后一条指令（跳转、返回或 _Halt）
+	 */
+	public boolean isTerminator(int i) {
+		return Tac.isJump(op(i)) || op(i) == Tac.DIRECT_CALL
+				&& y(i) == Intrinsic.HALT.id();
+	}
+
+	/**
+	 * 新建一条不在任何块中的指令
+	 *
+	 * @return 指令的下标
+	 */
+	public int newInstr(int opcode, int x, int y, int z) {
+		if (numInstrs == next.length) {
+			int n = numInstrs * 2;
+			code = Arrays.copyOf(code, n * Tac.WIDTH);
+			next = Arrays.copyOf(next, n);
+			prev = Arrays.copyOf(prev, n);
+			blockOf = Arrays.copyOf(blockOf, n);
+		}
+		int i = numInstrs++;
+		set(i, opcode, x, y, z);
+		next[i] = prev[i] = blockOf[i] = -1;
+		return i;
+	}
+
+	public int next(int i) {
+		return next[i];
+	}
+
+	public int prev(int i) {
+		return prev[i];
+	}
+
+	/**
+	 * @return 指令所在的块，已删除或还未放入块中时为 -1
+	 */
+	public int blockOf(int i) {
+		return blockOf[i];
+	}
+
+	/**
+	 * 把指令 j 放在指令 i 之前
+	 */
+	public void insertBefore(int i, int j) {
+		int b = blockOf[i];
+		blockOf[j] = b;
+		prev[j] = prev[i];
+		next[j] = i;
+		if (prev[i] >= 0) {
+			next[prev[i]] = j;
+		} else {
+			first[b] = j;
+		}
+		prev[i] = j;
+	}
+
+	/**
+	 * 把指令 j 放在块 b 的末尾
+	 */
+	public void append(int b, int j) {
+		blockOf[j] = b;
+		next[j] = -1;
+		prev[j] = last[b];
+		if (last[b] >= 0) {
+			next[last[b]] = j;
+		} else {
+			first[b] = j;
+		}
+		last[b] = j;
+	}
+
+	/**
+	 * 把指令 j 放在块 b 的跳转之前，没有跳转时放在末尾
+	 */
+	public void appendBeforeTerminator(int b, int j) {
+		int t = terminator(b);
+		if (t >= 0) {
+			insertBefore(t, j);
+		} else {
+			append(b, j);
+		}
+	}
+
+	/**
+	 * 把指令 i 从所在的块中删除；它定值的值不再有定值
+	 */
+	public void remove(int i) {
+		int b = blockOf[i];
+		if (prev[i] >= 0) {
+			next[prev[i]] = next[i];
+		} else {
+			first[b] = next[i];
+		}
+		if (next[i] >= 0) {
+			prev[next[i]] = prev[i];
+		} else {
+			last[b] = prev[i];
+		}
+		blockOf[i] = next[i] = prev[i] = -1;
+	}
+
+	// 块
+
+	/**
+	 * @return 块编号的上界（含已删除的块）
+	 */
+	public int getNumBlocks() {
+		return numBlocks;
+	}
+
+	public int getEntry() {
+		return entry;
+	}
+
+	void setEntry(int entry) {
+		this.entry = entry;
+	}
+
+	/**
+	 * 新建一个空块，放在布局的末尾
+	 */
+	public int newBlock() {
+		if (numBlocks == first.length) {
+			int n = numBlocks * 2;
+			first = Arrays.copyOf(first, n);
+			last = Arrays.copyOf(last, n);
+			succs = Arrays.copyOf(succs, 2 * n);
+			preds = Arrays.copyOf(preds, n);
+			numPreds = Arrays.copyOf(numPreds, n);
+			phiFirst = Arrays.copyOf(phiFirst, n);
+			removed = Arrays.copyOf(removed, n);
+			layoutNext = Arrays.copyOf(layoutNext, n);
+			layoutPrev = Arrays.copyOf(layoutPrev, n);
+		}
+		int b = numBlocks++;
+		first[b] = last[b] = phiFirst[b] = -1;
+		succs[2 * b] = succs[2 * b + 1] = -1;
+		preds[b] = new int[2];
+		numPreds[b] = 0;
+		layoutPrev[b] = layoutLast;
+		layoutNext[b] = -1;
+		if (layoutLast >= 0) {
+			layoutNext[layoutLast] = b;
+		} else {
+			layoutFirst = b;
+		}
+		layoutLast = b;
+		return b;
+	}
+
+	public boolean isRemoved(int b) {
+		return removed[b];
+	}
+
+	/**
+	 * @return 块 b 的第一条指令，空块为 -1
+	 */
+	public int first(int b) {
+		return first[b];
+	}
+
+	public int last(int b) {
+		return last[b];
+	}
+
+	/**
+	 * @return 块 b 末尾的跳转、返回或 _Halt，顺序执行到下一块时为 -1
+	 */
+	public int terminator(int b) {
+		int i = last[b];
+		return i >= 0 && isTerminator(i) ? i : -1;
+	}
+
+	public int numSuccs(int b) {
+		return succs[2 * b] < 0 ? 0 : succs[2 * b + 1] < 0 ? 1 : 2;
+	}
+
+	/**
+	 * @return 块 b 的第 k 个后继
+	 */
+	public int succ(int b, int k) {
+		return succs[2 * b + k];
+	}
+
+	public int numPreds(int b) {
+		return numPreds[b];
+	}
+
+	public int pred(int b, int k) {
+		return preds[b][k];
+	}
+
+	/**
+	 * @return p 在块 b 的前驱中的位置，不是前驱时为 -1
+	 */
+	public int predIndex(int b, int p) {
+		for (int k = 0; k < numPreds[b]; k++) {
+			if (preds[b][k] == p) {
+				return k;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * 加一条边 p → s，作为 p 的最后一个后继和 s 的最后一个前驱；s 中不能有 φ
+	 */
+	public void addEdge(int p, int s) {
+		succs[2 * p + numSuccs(p)] = s;
+		if (numPreds[s] == preds[s].length) {
+			preds[s] = Arrays.copyOf(preds[s], numPreds[s] * 2);
+		}
+		preds[s][numPreds[s]++] = p;
+	}
+
+	/**
+	 * 删除 p 的第 k 个后继所对应的边，s 的 φ 中对应的参数一并删除；p 的另一个后继成为第 0 个
+	 */
+	public void removeEdge(int p, int k) {
+		int s = succs[2 * p + k];
+		if (k == 0) {
+			succs[2 * p] = succs[2 * p + 1];
+		}
+		succs[2 * p + 1] = -1;
+		int j = predIndex(s, p);
+		int n = numPreds[s];
+		System.arraycopy(preds[s], j + 1, preds[s], j, n - j - 1);
+		numPreds[s] = n - 1;
+		for (int q = phiFirst[s]; q >= 0; q = phiNext[q]) {
+			int at = phiArgStart[q];
+			System.arraycopy(phiArgs, at + j + 1, phiArgs, at + j, n - j - 1);
+		}
+	}
+
+	/**
+	 * 在 p 的第 k 个后继 s 与 p 之间插入一个空块，φ 的参数不变
+	 *
+	 * @return 新块，布局上紧接在 p 之后
+	 */
+	public int splitEdge(int p, int k) {
+		int s = succs[2 * p + k];
+		int n = newBlock();
+		moveAfter(n, p);
+		succs[2 * p + k] = n;
+		preds[s][predIndex(s, p)] = n;
+		preds[n][numPreds[n]++] = p;
+		succs[2 * n] = s;
+		return n;
+	}
+
+	/**
+	 * 删除块 b（到不了的块）：删除其出边、指令和 φ，并从布局中去掉
+	 */
+	public void removeBlock(int b) {
+		while (numSuccs(b) > 0) {
+			removeEdge(b, numSuccs(b) - 1);
+		}
+		while (first[b] >= 0) {
+			remove(first[b]);
+		}
+		while (phiFirst[b] >= 0) {
+			removePhi(phiFirst[b]);
+		}
+		unlinkLayout(b);
+		removed[b] = true;
+	}
+
+	// 布局
+
+	public int firstInLayout() {
+		return layoutFirst;
+	}
+
+	/**
+	 * @return 布局上的下一块，没有时为 -1
+	 */
+	public int nextInLayout(int b) {
+		return layoutNext[b];
+	}
+
+	public int lastInLayout() {
+		return layoutLast;
+	}
+
+	/**
+	 * @return 布局上的上一块，没有时为 -1
+	 */
+	public int prevInLayout(int b) {
+		return layoutPrev[b];
+	}
+
+	/**
+	 * 把块 b 移到块 after 之后
+	 */
+	public void moveAfter(int b, int after) {
+		unlinkLayout(b);
+		layoutPrev[b] = after;
+		layoutNext[b] = layoutNext[after];
+		if (layoutNext[after] >= 0) {
+			layoutPrev[layoutNext[after]] = b;
+		} else {
+			layoutLast = b;
+		}
+		layoutNext[after] = b;
+	}
+
+	/**
+	 * 把块 b 移到块 before 之前
+	 */
+	public void moveBefore(int b, int before) {
+		unlinkLayout(b);
+		layoutNext[b] = before;
+		layoutPrev[b] = layoutPrev[before];
+		if (layoutPrev[before] >= 0) {
+			layoutNext[layoutPrev[before]] = b;
+		} else {
+			layoutFirst = b;
+		}
+		layoutPrev[before] = b;
+	}
+
+	private void unlinkLayout(int b) {
+		if (layoutPrev[b] >= 0) {
+			layoutNext[layoutPrev[b]] = layoutNext[b];
+		} else {
+			layoutFirst = layoutNext[b];
+		}
+		if (layoutNext[b] >= 0) {
+			layoutPrev[layoutNext[b]] = layoutPrev[b];
+		} else {
+			layoutLast = layoutPrev[b];
+		}
+		layoutNext[b] = layoutPrev[b] = -1;
+	}
+
+	// φ
+
+	/**
+	 * 在块 b 中新建一个定值 dest 的 φ，参数都为 -1
+	 */
+	public int newPhi(int b, int dest) {
+		if (numPhis == phiBlock.length) {
+			int n = numPhis * 2;
+			phiBlock = Arrays.copyOf(phiBlock, n);
+			phiDest = Arrays.copyOf(phiDest, n);
+			phiNext = Arrays.copyOf(phiNext, n);
+			phiPrev = Arrays.copyOf(phiPrev, n);
+			phiArgStart = Arrays.copyOf(phiArgStart, n);
+		}
+		int arity = numPreds[b];
+		if (phiArgsSize + arity > phiArgs.length) {
+			phiArgs = Arrays.copyOf(phiArgs, Math.max(phiArgs.length * 2,
+					phiArgsSize + arity));
+		}
+		int p = numPhis++;
+		phiBlock[p] = b;
+		phiDest[p] = dest;
+		phiArgStart[p] = phiArgsSize;
+		Arrays.fill(phiArgs, phiArgsSize, phiArgsSize + arity, -1);
+		phiArgsSize += arity;
+		phiPrev[p] = -1;
+		phiNext[p] = phiFirst[b];
+		if (phiFirst[b] >= 0) {
+			phiPrev[phiFirst[b]] = p;
+		}
+		phiFirst[b] = p;
+		if (dest >= 0) {
+			definition[dest] = -2 - p;
+		}
+		return p;
+	}
+
+	/**
+	 * @return φ 编号的上界（含已删除的 φ）
+	 */
+	public int getNumPhis() {
+		return numPhis;
+	}
+
+	/**
+	 * @return 块 b 的第一个 φ，没有时为 -1
+	 */
+	public int firstPhi(int b) {
+		return phiFirst[b];
+	}
+
+	public int nextPhi(int p) {
+		return phiNext[p];
+	}
+
+	/**
+	 * @return φ 所在的块，已删除的为 -1
+	 */
+	public int phiBlock(int p) {
+		return phiBlock[p];
+	}
+
+	public int phiDest(int p) {
+		return phiDest[p];
+	}
+
+	void setPhiDest(int p, int dest) {
+		phiDest[p] = dest;
+		definition[dest] = -2 - p;
+	}
+
+	/**
+	 * @return φ p 对应其所在块第 k 个前驱的参数
+	 */
+	public int phiArg(int p, int k) {
+		return phiArgs[phiArgStart[p] + k];
+	}
+
+	public void setPhiArg(int p, int k, int value) {
+		phiArgs[phiArgStart[p] + k] = value;
+	}
+
+	public void removePhi(int p) {
+		int b = phiBlock[p];
+		if (phiPrev[p] >= 0) {
+			phiNext[phiPrev[p]] = phiNext[p];
+		} else {
+			phiFirst[b] = phiNext[p];
+		}
+		if (phiNext[p] >= 0) {
+			phiPrev[phiNext[p]] = phiPrev[p];
+		}
+		phiBlock[p] = -1;
+	}
+
+	// 值
+
+	public int getNumValues() {
+		return numValues;
+	}
+
+	/**
+	 * 新建一个值，var 为它对应的原临时变量（没有时为 -1）
+	 */
+	public int newValue(int var) {
+		if (numValues == varOf.length) {
+			varOf = Arrays.copyOf(varOf, numValues * 2);
+			definition = Arrays.copyOf(definition, numValues * 2);
+		}
+		varOf[numValues] = var;
+		definition[numValues] = ENTRY;
+		return numValues++;
+	}
+
+	/**
+	 * @return 值 v 对应的原临时变量，没有时为 -1
+	 */
+	public int varOf(int v) {
+		return varOf[v];
+	}
+
+	/**
+	 * @return 定值 v 的指令、φ（-2 - p）或 {@link #ENTRY}
+	 */
+	public int definition(int v) {
+		return definition[v];
+	}
+
+	/**
+	 * 记下指令 i 定值 v
+	 */
+	public void setDefinition(int v, int i) {
+		definition[v] = i;
+	}
+
+	/**
+	 * @return 定值 v 的 φ，不是 φ 定值时为 -1
+	 */
+	public int phiOf(int v) {
+		return definition[v] <= -2 ? -2 - definition[v] : -1;
+	}
+
+	/**
+	 * @return v 是否由 LOAD_IMM4 定值（常量传播之后即为已知的常量）
+	 */
+	public boolean isConstant(int v) {
+		int d = definition[v];
+		return d >= 0 && blockOf[d] >= 0 && op(d) == Tac.LOAD_IMM4;
+	}
+
+	/**
+	 * @return 常量 v 的值，见 {@link #isConstant}
+	 */
+	public int constant(int v) {
+		return y(definition[v]);
+	}
+
+	/**
+	 * @return 定值 v 的块
+	 */
+	public int defBlock(int v) {
+		int d = definition[v];
+		return d >= 0 ? blockOf[d] : d == ENTRY ? entry : phiBlock[-2 - d];
+	}
+}
@@ -0,0 +1,313 @@
+package decaf.ssa;
+
+import java.util.Arrays;
+
+import decaf.dataflow.FlowGraph;
+import decaf.dataflow.Liveness;
+import decaf.tac.Functy;
+import decaf.tac.Tac;
+
+/**
+ * 构造 SSA 形式<br>
+ * 先按 {@link FlowGraph} 复制能到达的块和指令，再对每个跨块活跃的临时变量
+ * 在其定值所在块的迭代支配边界上放置 φ，只放在该变量在块入口活跃的地方（剪枝的 SSA）；
+ * 块太多、活跃变量分析做不了时退而放在所有迭代支配边界上。最后沿支配树先序改名，
+ * 每个变量当前的值放在以临时变量为下标的数组中，离开子树时按撤销记录恢复。
+ */
+final class SsaBuilder {
+
+	private final Functy functy;
+
+	private final FlowGraph graph;
+
+	private final Ssa ssa;
+
+	/**
+	 * FlowGraph 的块对应的 SSA 块，到不了的为 -1
+	 */
+	private int[] blockOf;
+
+	/**
+	 * φ 对应的临时变量（改名前）
+	 */
+	private int[] phiVar = new int[16];
+
+	/**
+	 * 各临时变量当前的值和未定值就使用时的值
+	 */
+	private int[] current;
+
+	private int[] undefined;
+
+	/**
+	 * 改名时的撤销记录：临时变量及其之前的值
+	 */
+	private int[] undo = new int[64];
+
+	private int undoSize;
+
+	private final int[] fields = new int[2];
+
+	SsaBuilder(Functy functy) {
+		this.functy = functy;
+		this.graph = new FlowGraph(functy);
+		this.ssa = new Ssa(functy);
+	}
+
+	Ssa build() {
+		copyBlocks();
+		Dominators dom = new Dominators(ssa);
+		placePhis(dom);
+		rename(dom);
+		return ssa;
+	}
+
+	private void copyBlocks() {
+		int n = graph.getNumBlocks();
+		blockOf = new int[n];
+		Arrays.fill(blockOf, -1);
+		// 0 号块有前驱（函数以循环开始）时另加一个入口块
+		boolean loopAtEntry = false;
+		for (int k = 0; k < graph.numPreds(0); k++) {
+			loopAtEntry |= graph.isReachable(graph.pred(0, k));
+		}
+		int entry = loopAtEntry ? ssa.newBlock() : -1;
+		for (int b = 0; b < n; b++) {
+			if (graph.isReachable(b)) {
+				blockOf[b] = ssa.newBlock();
+			}
+		}
+		ssa.setEntry(entry >= 0 ? entry : blockOf[0]);
+		if (entry >= 0) {
+			ssa.addEdge(entry, blockOf[0]);
+		}
+		int[] code = functy.code();
+		for (int b = 0; b < n; b++) {
+			int sb = blockOf[b];
+			if (sb < 0) {
+				continue;
+			}
+			for (int i = graph.start(b); i < graph.end(b); i++) {
+				int at = i * Tac.WIDTH;
+				int op = code[at] & 0xff;
+				if (op == Tac.MARK) {
+					continue;
+				}
+				int j = ssa.newInstr(code[at], code[at + 1], code[at + 2],
+						code[at + 3]);
+				// 跳转目标由后继给出
+				if (op == Tac.BRANCH) {
+					ssa.set(j, Tac.BRANCH, -1, -1, -1);
+				} else if (op == Tac.BEQZ || op == Tac.BNEZ) {
+					ssa.set(j, op, -1, code[at + 2], -1);
+				}
+				ssa.append(sb, j);
+			}
+			for (int k = 0; k < graph.numSuccs(b); k++) {
+				ssa.addEdge(sb, blockOf[graph.succ(b, k)]);
+			}
+		}
+		// FlowGraph 中跳转到紧接着的块的条件跳转只有一个后继，SSA 中补成两个相同的后继不便处理，
+		// 改为顺序执行
+		for (int b = 0; b < n; b++) {
+			int sb = blockOf[b];
+			if (sb >= 0 && ssa.numSuccs(sb) == 1) {
+				int t = ssa.terminator(sb);
+				if (t >= 0 && (ssa.op(t) == Tac.BEQZ || ssa.op(t) == Tac.BNEZ)) {
+					ssa.remove(t);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 在全局临时变量的定值块的迭代支配边界上放置 φ
+	 */
+	private void placePhis(Dominators dom) {
+		Liveness live = null;
+		try {
+			live = new Liveness(graph);
+			live.solve();
+		} catch (IllegalStateException e) {
+			// 半剪枝：只对跨块活跃的变量放置
+		}
+		int numBlocks = ssa.getNumBlocks();
+		int numGlobals = graph.getNumGlobals();
+		// 各全局变量的定值块，按变量压缩存放
+		int[] defStart = new int[numGlobals + 1];
+		int[] seen = new int[numGlobals];
+		Arrays.fill(seen, -1);
+		int[] defBlocks = null;
+		for (int pass = 0; pass < 2; pass++) {
+			int[] fill = pass == 0 ? null : Arrays.copyOf(defStart, numGlobals);
+			Arrays.fill(seen, -1);
+			for (int b = 0; b < graph.getNumBlocks(); b++) {
+				int sb = blockOf[b];
+				if (sb < 0) {
+					continue;
+				}
+				for (int i = graph.start(b); i < graph.end(b); i++) {
+					int t = functy.defOf(i);
+					int g = t < 0 ? -1 : graph.globalIndex(t);
+					if (g < 0 || seen[g] == sb) {
+						continue;
+					}
+					seen[g] = sb;
+					if (pass == 0) {
+						defStart[g + 1]++;
+					} else {
+						defBlocks[fill[g]++] = sb;
+					}
+				}
+			}
+			if (pass == 0) {
+				for (int g = 0; g < numGlobals; g++) {
+					defStart[g + 1] += defStart[g];
+				}
+				defBlocks = new int[defStart[numGlobals]];
+			}
+		}
+		// ssa 块对应的 FlowGraph 块，用于查活跃变量
+		int[] graphBlock = new int[numBlocks];
+		Arrays.fill(graphBlock, -1);
+		for (int b = 0; b < graph.getNumBlocks(); b++) {
+			if (blockOf[b] >= 0) {
+				graphBlock[blockOf[b]] = b;
+			}
+		}
+		int[] hasPhi = new int[numBlocks];
+		int[] queued = new int[numBlocks];
+		Arrays.fill(hasPhi, -1);
+		Arrays.fill(queued, -1);
+		int[] work = new int[numBlocks];
+		for (int g = 0; g < numGlobals; g++) {
+			int t = graph.global(g);
+			int size = 0;
+			for (int k = defStart[g]; k < defStart[g + 1]; k++) {
+				queued[defBlocks[k]] = g;
+				work[size++] = defBlocks[k];
+			}
+			if (t < functy.getNumParams() && queued[ssa.getEntry()] != g) {
+				queued[ssa.getEntry()] = g;
+				work[size++] = ssa.getEntry();
+			}
+			while (size > 0) {
+				int b = work[--size];
+				if (!dom.isReachable(b)) {
+					continue;
+				}
+				for (int k = 0; k < dom.numFrontier(b); k++) {
+					int y = dom.frontier(b, k);
+					if (hasPhi[y] == g) {
+						continue;
+					}
+					hasPhi[y] = g;
+					if (live != null && graphBlock[y] >= 0
+							&& !live.isLiveIn(graphBlock[y], t)) {
+						continue;
+					}
+					int p = ssa.newPhi(y, -1);
+					if (p == phiVar.length) {
+						phiVar = Arrays.copyOf(phiVar, p * 2);
+					}
+					phiVar[p] = t;
+					if (queued[y] != g) {
+						queued[y] = g;
+						work[size++] = y;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * 沿支配树先序改名
+	 */
+	private void rename(Dominators dom) {
+		int numTemps = functy.getNumTemps();
+		current = new int[numTemps];
+		undefined = new int[numTemps];
+		Arrays.fill(current, -1);
+		Arrays.fill(undefined, -1);
+		for (int t = 0; t < functy.getNumParams(); t++) {
+			current[t] = ssa.newValue(t);
+		}
+		int numBlocks = ssa.getNumBlocks();
+		int[] mark = new int[numBlocks];
+		int[] stack = new int[numBlocks];
+		int[] next = new int[numBlocks];
+		int sp = 0;
+		int entry = ssa.getEntry();
+		stack[sp++] = entry;
+		mark[entry] = undoSize;
+		next[entry] = 0;
+		renameBlock(entry);
+		while (sp > 0) {
+			int b = stack[sp - 1];
+			if (next[b] < dom.numChildren(b)) {
+				int c = dom.child(b, next[b]++);
+				mark[c] = undoSize;
+				next[c] = 0;
+				stack[sp++] = c;
+				renameBlock(c);
+			} else {
+				while (undoSize > mark[b]) {
+					undoSize -= 2;
+					current[undo[undoSize]] = undo[undoSize + 1];
+				}
+				sp--;
+			}
+		}
+	}
+
+	private void renameBlock(int b) {
+		for (int p = ssa.firstPhi(b); p >= 0; p = ssa.nextPhi(p)) {
+			ssa.setPhiDest(p, define(phiVar[p]));
+		}
+		int[] code = ssa.code();
+		for (int i = ssa.first(b); i >= 0; i = ssa.next(i)) {
+			int n = ssa.useFields(i, fields);
+			for (int k = 0; k < n; k++) {
+				code[fields[k]] = valueOf(code[fields[k]]);
+			}
+			int t = ssa.defOf(i);
+			if (t >= 0) {
+				int v = define(t);
+				code[i * Tac.WIDTH + 1] = v;
+				ssa.setDefinition(v, i);
+			}
+		}
+		for (int k = 0; k < ssa.numSuccs(b); k++) {
+			int s = ssa.succ(b, k);
+			int j = ssa.predIndex(s, b);
+			for (int p = ssa.firstPhi(s); p >= 0; p = ssa.nextPhi(p)) {
+				ssa.setPhiArg(p, j, valueOf(phiVar[p]));
+			}
+		}
+	}
+
+	/**
+	 * 为临时变量 t 新建一个值作为其当前的值
+	 */
+	private int define(int t) {
+		if (undoSize + 2 > undo.length) {
+			undo = Arrays.copyOf(undo, undo.length * 2);
+		}
+		undo[undoSize++] = t;
+		undo[undoSize++] = current[t];
+		return current[t] = ssa.newValue(t);
+	}
+
+	/**
+	 * @return 临时变量 t 当前的值，还没有定值时为在入口处定值的一个值
+	 */
+	private int valueOf(int t) {
+		if (current[t] >= 0) {
+			return current[t];
+		}
+		if (undefined[t] < 0) {
+			undefined[t] = ssa.newValue(t);
+		}
+		return undefined[t];
+	}
+}
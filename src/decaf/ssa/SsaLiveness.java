@@ -0,0 +1,196 @@
+package decaf.ssa;
+
+import java.util.Arrays;
+
+/**
+ * SSA 形式上各块入口、出口活跃的值<br>
+ * 对每个值从其各使用处沿前驱向上标记，直到其定值所在的块（路径探索）；φ 的参数在对应前驱的出口使用，
+ * φ 的结果在块的入口定值。结果按块压缩存放，每块中的值按编号排序，查询用二分查找。
+ * 所用时间和空间与各值活跃范围所含的块数之和成正比，不必为每块分配整个位集。
+ */
+final class SsaLiveness {
+
+	private final Ssa ssa;
+
+	/**
+	 * 值 v 的使用为 uses[useStart[v] .. useStart[v + 1])：指令的下标，φ 的参数为 ~前驱块
+	 */
+	private int[] useStart;
+
+	private int[] uses;
+
+	private int[] inStart;
+
+	private int[] in;
+
+	private int[] outStart;
+
+	private int[] out;
+
+	private final int[] fields = new int[2];
+
+	SsaLiveness(Ssa ssa) {
+		this.ssa = ssa;
+		collectUses();
+		compute();
+	}
+
+	private void collectUses() {
+		int numValues = ssa.getNumValues();
+		useStart = new int[numValues + 1];
+		int[] code = ssa.code();
+		for (int pass = 0; pass < 2; pass++) {
+			int[] fill = pass == 0 ? null : Arrays.copyOf(useStart, numValues);
+			for (int b = ssa.firstInLayout(); b >= 0; b = ssa.nextInLayout(b)) {
+				for (int i = ssa.first(b); i >= 0; i = ssa.next(i)) {
+					int n = ssa.useFields(i, fields);
+					for (int k = 0; k < n; k++) {
+						int v = code[fields[k]];
+						if (pass == 0) {
+							useStart[v + 1]++;
+						} else {
+							uses[fill[v]++] = i;
+						}
+					}
+				}
+				for (int p = ssa.firstPhi(b); p >= 0; p = ssa.nextPhi(p)) {
+					for (int k = 0; k < ssa.numPreds(b); k++) {
+						int v = ssa.phiArg(p, k);
+						if (pass == 0) {
+							useStart[v + 1]++;
+						} else {
+							uses[fill[v]++] = ~ssa.pred(b, k);
+						}
+					}
+				}
+			}
+			if (pass == 0) {
+				for (int v = 0; v < numValues; v++) {
+					useStart[v + 1] += useStart[v];
+				}
+				uses = new int[useStart[numValues]];
+			}
+		}
+	}
+
+	private void compute() {
+		int numBlocks = ssa.getNumBlocks();
+		int[] inMark = new int[numBlocks];
+		int[] outMark = new int[numBlocks];
+		Arrays.fill(inMark, -1);
+		Arrays.fill(outMark, -1);
+		// (块, 值) 对，值按编号递增加入
+		int[] inPairs = new int[64];
+		int[] outPairs = new int[64];
+		int numIn = 0;
+		int numOut = 0;
+		int[] stack = new int[16];
+		for (int v = 0; v < ssa.getNumValues(); v++) {
+			if (useStart[v] == useStart[v + 1]) {
+				continue;
+			}
+			int def = ssa.defBlock(v);
+			int sp = 0;
+			for (int k = useStart[v]; k < useStart[v + 1]; k++) {
+				int u = uses[k];
+				int b;
+				if (u < 0) {
+					b = ~u;
+					if (outMark[b] != v) {
+						outMark[b] = v;
+						if (numOut + 2 > outPairs.length) {
+							outPairs = Arrays.copyOf(outPairs, outPairs.length * 2);
+						}
+						outPairs[numOut++] = b;
+						outPairs[numOut++] = v;
+					}
+				} else {
+					b = ssa.blockOf(u);
+				}
+				if (b != def) {
+					if (sp == stack.length) {
+						stack = Arrays.copyOf(stack, sp * 2);
+					}
+					stack[sp++] = b;
+				}
+			}
+			while (sp > 0) {
+				int b = stack[--sp];
+				if (inMark[b] == v) {
+					continue;
+				}
+				inMark[b] = v;
+				if (numIn + 2 > inPairs.length) {
+					inPairs = Arrays.copyOf(inPairs, inPairs.length * 2);
+				}
+				inPairs[numIn++] = b;
+				inPairs[numIn++] = v;
+				for (int k = 0; k < ssa.numPreds(b); k++) {
+					int p = ssa.pred(b, k);
+					if (outMark[p] != v) {
+						outMark[p] = v;
+						if (numOut + 2 > outPairs.length) {
+							outPairs = Arrays.copyOf(outPairs, outPairs.length * 2);
+						}
+						outPairs[numOut++] = p;
+						outPairs[numOut++] = v;
+					}
+					if (p != def && inMark[p] != v) {
+						if (sp == stack.length) {
+							stack = Arrays.copyOf(stack, sp * 2);
+						}
+						stack[sp++] = p;
+					}
+				}
+			}
+		}
+		inStart = new int[numBlocks + 1];
+		in = group(inPairs, numIn, inStart);
+		outStart = new int[numBlocks + 1];
+		out = group(outPairs, numOut, outStart);
+	}
+
+	/**
+	 * 把 (块, 值) 对按块分组（计数排序，块内保持值的递增顺序）
+	 */
+	private static int[] group(int[] pairs, int size, int[] start) {
+		int n = start.length - 1;
+		for (int k = 0; k < size; k += 2) {
+			start[pairs[k] + 1]++;
+		}
+		for (int b = 0; b < n; b++) {
+			start[b + 1] += start[b];
+		}
+		int[] values = new int[size / 2];
+		int[] fill = Arrays.copyOf(start, n);
+		for (int k = 0; k < size; k += 2) {
+			values[fill[pairs[k]]++] = pairs[k + 1];
+		}
+		return values;
+	}
+
+	/**
+	 * @return 值 v 是否在块 b 的入口活跃（不含 b 中 φ 定值的值）
+	 */
+	boolean isLiveIn(int b, int v) {
+		return Arrays.binarySearch(in, inStart[b], inStart[b + 1], v) >= 0;
+	}
+
+	/**
+	 * @return 值 v 是否在块 b 的出口活跃（含后继的 φ 在 b 的出口使用的值）
+	 */
+	boolean isLiveOut(int b, int v) {
+		return Arrays.binarySearch(out, outStart[b], outStart[b + 1], v) >= 0;
+	}
+
+	int numUses(int v) {
+		return useStart[v + 1] - useStart[v];
+	}
+
+	/**
+	 * @return 值 v 的第 k 个使用：指令的下标，φ 的参数为 ~前驱块
+	 */
+	int use(int v, int k) {
+		return uses[useStart[v] + k];
+	}
+}
@@ -0,0 +1,157 @@
+package decaf.ssa;
+
+/**
+ * 检查 SSA 形式是否完好（-verify）<br>
+ * 块的前驱与后继互相对应，布局中只有未删除的块，指令链表与所在块一致，
+ * 每个 φ 的参数个数等于所在块的前驱数；每个使用的值都有仍在块中的定值，且定值支配使用
+ * （φ 的参数由对应的前驱支配）。发现问题时抛出 IllegalStateException，说明是哪一遍之后出的错。
+ */
+public final class SsaVerifier {
+
+	private final Ssa ssa;
+
+	private final String pass;
+
+	private Dominators doms;
+
+	/**
+	 * 块中第 i 条指令的位置，用于比较同一块中定值与使用的先后
+	 */
+	private int[] position;
+
+	private final int[] uses = new int[2];
+
+	private SsaVerifier(Ssa ssa, String pass) {
+		this.ssa = ssa;
+		this.pass = pass;
+	}
+
+	/**
+	 * @param pass 刚做完的一遍的名字，用于出错信息
+	 * @throws IllegalStateException
+	 *             SSA 形式已被破坏
+	 */
+	public static void verify(Ssa ssa, String pass) {
+		new SsaVerifier(ssa, pass).run();
+	}
+
+	private void run() {
+		checkBlocks();
+		doms = new Dominators(ssa);
+		position = new int[ssa.getNumInstrs()];
+		for (int b = ssa.firstInLayout(); b >= 0; b = ssa.nextInLayout(b)) {
+			int n = 0;
+			for (int i = ssa.first(b); i >= 0; i = ssa.next(i)) {
+				position[i] = n++;
+			}
+		}
+		for (int b = ssa.firstInLayout(); b >= 0; b = ssa.nextInLayout(b)) {
+			if (!doms.isReachable(b)) {
+				continue;
+			}
+			for (int p = ssa.firstPhi(b); p >= 0; p = ssa.nextPhi(p)) {
+				if (ssa.phiBlock(p) != b || ssa.phiOf(ssa.phiDest(p)) != p) {
+					fail("phi " + p + " is not linked into block " + b);
+				}
+				for (int k = 0; k < ssa.numPreds(b); k++) {
+					int q = ssa.pred(b, k);
+					if (doms.isReachable(q)) {
+						checkUse(ssa.phiArg(p, k), q, Integer.MAX_VALUE,
+								"phi " + p);
+					}
+				}
+			}
+			for (int i = ssa.first(b); i >= 0; i = ssa.next(i)) {
+				int n = ssa.usesOf(i, uses);
+				for (int k = 0; k < n; k++) {
+					checkUse(uses[k], b, position[i], "instruction " + i);
+				}
+				int v = ssa.defOf(i);
+				if (v >= 0 && ssa.definition(v) != i) {
+					fail("value " + v + " defined by instruction " + i
+							+ " records definition " + ssa.definition(v));
+				}
+			}
+		}
+	}
+
+	private void checkBlocks() {
+		int prev = -1;
+		for (int b = ssa.firstInLayout(); b >= 0; b = ssa.nextInLayout(b)) {
+			if (ssa.isRemoved(b)) {
+				fail("removed block " + b + " is still in the layout");
+			}
+			if (ssa.prevInLayout(b) != prev) {
+				fail("layout links of block " + b + " are inconsistent");
+			}
+			prev = b;
+			for (int k = 0; k < ssa.numSuccs(b); k++) {
+				int s = ssa.succ(b, k);
+				if (ssa.isRemoved(s) || ssa.predIndex(s, b) < 0) {
+					fail("block " + s + " is a successor of " + b
+							+ " but does not list it as a predecessor");
+				}
+			}
+			for (int k = 0; k < ssa.numPreds(b); k++) {
+				int q = ssa.pred(b, k);
+				if (q < 0 || ssa.isRemoved(q)
+						|| ssa.succ(q, 0) != b && ssa.succ(q, 1) != b) {
+					fail("block " + q + " is a predecessor of " + b
+							+ " but does not list it as a successor");
+				}
+			}
+			int last = -1;
+			for (int i = ssa.first(b); i >= 0; i = ssa.next(i)) {
+				if (ssa.blockOf(i) != b || ssa.prev(i) != last) {
+					fail("instruction " + i + " is not linked into block " + b);
+				}
+				if (last >= 0 && ssa.isTerminator(last)) {
+					fail("instruction " + i + " follows the terminator of block "
+							+ b);
+				}
+				last = i;
+			}
+			if (ssa.last(b) != last) {
+				fail("last instruction of block " + b + " is inconsistent");
+			}
+		}
+		if (ssa.lastInLayout() != prev) {
+			fail("layout ends at " + ssa.lastInLayout() + " instead of " + prev);
+		}
+	}
+
+	/**
+	 * 检查在块 b 的第 at 条指令处使用的值 v 已有定值，且定值支配该处
+	 */
+	private void checkUse(int v, int b, int at, String user) {
+		if (v < 0 || v >= ssa.getNumValues()) {
+			fail(user + " uses undefined value " + v);
+		}
+		int d = ssa.definition(v);
+		if (d == Ssa.ENTRY) {
+			return;
+		}
+		int db;
+		if (d >= 0) {
+			db = ssa.blockOf(d);
+			if (db < 0) {
+				fail(user + " uses value " + v + " whose definition "
+						+ d + " was removed");
+			}
+		} else {
+			db = ssa.phiBlock(ssa.phiOf(v));
+			if (db < 0) {
+				fail(user + " uses value " + v + " whose phi was removed");
+			}
+		}
+		if (db == b ? d >= 0 && position[d] >= at : !doms.dominates(db, b)) {
+			fail(user + " in block " + b + " uses value " + v
+					+ " whose definition in block " + db + " does not dominate it");
+		}
+	}
+
+	private void fail(String message) {
+		throw new IllegalStateException(ssa.getFuncty().getName()
+				+ ": broken SSA after " + pass + ": " + message);
+	}
+}
@@ -0,0 +1,68 @@
+package decaf.ssa;
+
+import java.util.Arrays;
+
+/**
+ * SSA 形式上各值的使用者（定值-使用链）<br>
+ * 使用者为指令的下标，φ p 记为 ~p；同一指令用同一值两次时出现两次。
+ * 按值压缩存放，是构造时的快照：之后新加或删除的指令不会反映出来。
+ */
+public final class Uses {
+
+	private final int[] start;
+
+	private final int[] users;
+
+	public Uses(Ssa ssa) {
+		int numValues = ssa.getNumValues();
+		start = new int[numValues + 1];
+		int[] code = ssa.code();
+		int[] fields = new int[2];
+		int[] fill = null;
+		int[] users = null;
+		for (int pass = 0; pass < 2; pass++) {
+			for (int b = ssa.firstInLayout(); b >= 0; b = ssa.nextInLayout(b)) {
+				for (int i = ssa.first(b); i >= 0; i = ssa.next(i)) {
+					int n = ssa.useFields(i, fields);
+					for (int k = 0; k < n; k++) {
+						int v = code[fields[k]];
+						if (pass == 0) {
+							start[v + 1]++;
+						} else {
+							users[fill[v]++] = i;
+						}
+					}
+				}
+				for (int p = ssa.firstPhi(b); p >= 0; p = ssa.nextPhi(p)) {
+					for (int k = 0; k < ssa.numPreds(b); k++) {
+						int v = ssa.phiArg(p, k);
+						if (pass == 0) {
+							start[v + 1]++;
+						} else {
+							users[fill[v]++] = ~p;
+						}
+					}
+				}
+			}
+			if (pass == 0) {
+				for (int v = 0; v < numValues; v++) {
+					start[v + 1] += start[v];
+				}
+				users = new int[start[numValues]];
+				fill = Arrays.copyOf(start, numValues);
+			}
+		}
+		this.users = users;
+	}
+
+	public int count(int v) {
+		return start[v + 1] - start[v];
+	}
+
+	/**
+	 * @return 值 v 的第 k 个使用者：指令的下标，φ p 为 ~p
+	 */
+	public int user(int v, int k) {
+		return users[start[v] + k];
+	}
+}
@@ -45,16 +45,24 @@ public class Function extends Symbol {
 
 	public Function(boolean statik, String name, Type returnType,
 			Block node, Location location) {
+		this(statik, name, returnType, node, location, ((ClassScope) Driver
+				.getDriver().getTable().lookForScope(Scope.Kind.CLASS))
+				.getOwner());
+	}
+
+	/**
+	 * 不依赖当前作用域栈的构造方式，owner 为该函数所属的类
+	 */
+	public Function(boolean statik, String name, Type returnType,
+			Block node, Location location, Class owner) {
 		this.name = name;
 		this.location = location;
 
 		type = new FuncType(returnType);
 		associatedScope = new FormalScope(this, node);
-		ClassScope cs = (ClassScope) Driver.getDriver().getTable()
-				.lookForScope(Scope.Kind.CLASS);
 		this.statik = statik;
 		if (!statik) {
-			Variable _this = new Variable("this", cs.getOwner().getType(),
+			Variable _this = new Variable("this", owner.getType(),
 					location);
 			associatedScope.declare(_this);
 			appendParam(_this);
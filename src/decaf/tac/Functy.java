@@ -0,0 +1,226 @@
+package decaf.tac;
+
+import java.util.Arrays;
+
+import decaf.symbol.Function;
+
+/**
+ * 一个函数的三地址码<br>
+ * 指令按 {@link Tac} 的编码连续存放在一个 int 数组中，数组按需倍增，
+ * 每条指令不另外分配对象，很长的函数也只占与指令数成正比的一块内存。
+ * 参数是编号最小的临时变量（非静态方法的 this 为 0 号）。
+ */
+public final class Functy {
+
+	private final String name;
+
+	private final Function symbol;
+
+	private int id = -1;
+
+	private int numParams;
+
+	private int numTemps;
+
+	private int numLabels;
+
+	/**
+	 * 没有函数体（从接口文件载入的类）时为 null
+	 */
+	private int[] code;
+
+	private int size;
+
+	public Functy(String name, Function symbol) {
+		this.name = name;
+		this.symbol = symbol;
+	}
+
+	/**
+	 * @return 标号，即函数的名字
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return 对应的方法，构造函数 _C_New 为 null
+	 */
+	public Function getSymbol() {
+		return symbol;
+	}
+
+	/**
+	 * @return 在 {@link Program} 中的编号
+	 */
+	public int getId() {
+		return id;
+	}
+
+	void setId(int id) {
+		this.id = id;
+	}
+
+	/**
+	 * 开始生成函数体，前 numParams 个临时变量为参数
+	 */
+	public void begin(int numParams) {
+		this.numParams = numParams;
+		numTemps = numParams;
+		numLabels = 0;
+		code = new int[16 * Tac.WIDTH];
+		size = 0;
+	}
+
+	public boolean hasBody() {
+		return code != null;
+	}
+
+	public int getNumParams() {
+		return numParams;
+	}
+
+	public int getNumTemps() {
+		return numTemps;
+	}
+
+	public int getNumLabels() {
+		return numLabels;
+	}
+
+	public int newTemp() {
+		return numTemps++;
+	}
+
+	public int newLabel() {
+		return numLabels++;
+	}
+
+	/**
+	 * @return 指令条数
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * 在末尾加一条指令
+	 *
+	 * @return 指令的下标
+	 */
+	public int emit(int opcode, int x, int y, int z) {
+		if (size * Tac.WIDTH == code.length) {
+			code = Arrays.copyOf(code, code.length * 2);
+		}
+		int at = size * Tac.WIDTH;
+		code[at] = opcode;
+		code[at + 1] = x;
+		code[at + 2] = y;
+		code[at + 3] = z;
+		return size++;
+	}
+
+	/**
+	 * 改写第 i 条指令
+	 */
+	public void set(int i, int opcode, int x, int y, int z) {
+		int at = i * Tac.WIDTH;
+		code[at] = opcode;
+		code[at + 1] = x;
+		code[at + 2] = y;
+		code[at + 3] = z;
+	}
+
+	/**
+	 * 用新的指令序列替换函数体（优化后重排），numTemps 和 numLabels 为新的个数
+	 */
+	public void replace(int[] code, int size, int numTemps, int numLabels) {
+		this.code = code;
+		this.size = size;
+		this.numTemps = numTemps;
+		this.numLabels = numLabels;
+	}
+
+	/**
+	 * 直接访问指令数组，第 i 条指令从下标 i * WIDTH 开始；数组可能比 size 条指令长
+	 */
+	public int[] code() {
+		return code;
+	}
+
+	public int op(int i) {
+		return code[i * Tac.WIDTH] & 0xff;
+	}
+
+	public int region(int i) {
+		return code[i * Tac.WIDTH] >>> 8;
+	}
+
+	public int x(int i) {
+		return code[i * Tac.WIDTH + 1];
+	}
+
+	public int y(int i) {
+		return code[i * Tac.WIDTH + 2];
+	}
+
+	public int z(int i) {
+		return code[i * Tac.WIDTH + 3];
+	}
+
+	/**
+	 * @return 第 i 条指令定值的临时变量，没有时为 -1
+	 */
+	public int defOf(int i) {
+		return Tac.defOf(code, i * Tac.WIDTH);
+	}
+
+	/**
+	 * 把第 i 条指令使用的临时变量写入 uses
+	 *
+	 * @return 个数（至多 2）
+	 */
+	public int usesOf(int i, int[] uses) {
+		int n = Tac.useFields(code, i * Tac.WIDTH, uses);
+		for (int k = 0; k < n; k++) {
+			uses[k] = code[uses[k]];
+		}
+		return n;
+	}
+
+	/**
+	 * @return 第 i 条指令跳转到的标号，不是跳转时为 -1
+	 */
+	public int targetOf(int i) {
+		switch (op(i)) {
+		case Tac.BRANCH:
+			return y(i);
+		case Tac.BEQZ:
+		case Tac.BNEZ:
+			return z(i);
+		default:
+			return -1;
+		}
+	}
+
+	/**
+	 * @return 是否为对 _Halt 的调用（之后的指令不会执行）
+	 */
+	public boolean isHalt(int i) {
+		return op(i) == Tac.DIRECT_CALL && y(i) == Intrinsic.HALT.id();
+	}
+
+	/**
+	 * @return 每个标号所在的指令下标
+	 */
+	public int[] labelPositions() {
+		int[] at = new int[numLabels];
+		Arrays.fill(at, -1);
+		for (int i = 0; i < size; i++) {
+			if (op(i) == Tac.MARK) {
+				at[y(i)] = i;
+			}
+		}
+		return at;
+	}
+}
@@ -0,0 +1,57 @@
+package decaf.tac;
+
+/**
+ * 运行库函数<br>
+ * 在 DIRECT_CALL 中编码为负的函数编号 -(ordinal + 1)。
+ */
+public enum Intrinsic {
+
+	/**
+	 * 分配参数个字节的内存，内容全为 0
+	 */
+	ALLOCATE("_Alloc", 1, true),
+
+	READ_LINE("_ReadLine", 0, true),
+
+	READ_INT("_ReadInteger", 0, true),
+
+	STRING_EQUAL("_StringEqual", 2, true),
+
+	PRINT_INT("_PrintInt", 1, false),
+
+	PRINT_STRING("_PrintString", 1, false),
+
+	PRINT_BOOL("_PrintBool", 1, false),
+
+	/**
+	 * 结束程序，不返回
+	 */
+	HALT("_Halt", 0, false);
+
+	public final String label;
+
+	public final int numArgs;
+
+	public final boolean hasReturnValue;
+
+	private Intrinsic(String label, int numArgs, boolean hasReturnValue) {
+		this.label = label;
+		this.numArgs = numArgs;
+		this.hasReturnValue = hasReturnValue;
+	}
+
+	/**
+	 * @return DIRECT_CALL 中的函数编号
+	 */
+	public int id() {
+		return -(ordinal() + 1);
+	}
+
+	/**
+	 * @param id
+	 *            DIRECT_CALL 中的负函数编号
+	 */
+	public static Intrinsic of(int id) {
+		return values()[-id - 1];
+	}
+}
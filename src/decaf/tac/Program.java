@@ -0,0 +1,252 @@
+package decaf.tac;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import decaf.utils.IndentPrintWriter;
+import decaf.utils.MiscUtils;
+
+/**
+ * 整个程序的三地址码：虚表、函数、字符串常量和内存区域<br>
+ * 内存区域把 LOAD/STORE 按访问的对象分开：不同区域的访问一定不是同一个地址。
+ * 固定的区域为对象头（虚表指针）、虚表内容和数组长度，其余为每个成员变量（C.f）
+ * 和每种数组的元素（int[]）各一个。
+ */
+public final class Program {
+
+	public static final int HEADER = 1;
+
+	public static final int VTABLE = 2;
+
+	public static final int LENGTH = 3;
+
+	private List<VTable> vtables = new ArrayList<VTable>();
+
+	private List<Functy> functions = new ArrayList<Functy>();
+
+	private List<String> strings = new ArrayList<String>();
+
+	private Map<String, Integer> stringIds = new HashMap<String, Integer>();
+
+	private List<String> regions = new ArrayList<String>();
+
+	private Map<String, Integer> regionIds = new HashMap<String, Integer>();
+
+	private Functy main;
+
+	public Program() {
+		region("<none>");
+		region("<header>");
+		region("<vtable>");
+		region("<length>");
+	}
+
+	public void addVTable(VTable vtable) {
+		vtable.setId(vtables.size());
+		vtables.add(vtable);
+	}
+
+	public void addFunction(Functy functy) {
+		functy.setId(functions.size());
+		functions.add(functy);
+	}
+
+	public List<VTable> getVTables() {
+		return vtables;
+	}
+
+	public List<Functy> getFunctions() {
+		return functions;
+	}
+
+	public Functy getMain() {
+		return main;
+	}
+
+	public void setMain(Functy main) {
+		this.main = main;
+	}
+
+	/**
+	 * @return 字符串常量的编号，相同的常量只存一份
+	 */
+	public int intern(String s) {
+		Integer id = stringIds.get(s);
+		if (id == null) {
+			id = strings.size();
+			strings.add(s);
+			stringIds.put(s, id);
+		}
+		return id;
+	}
+
+	public String getString(int id) {
+		return strings.get(id);
+	}
+
+	public int getNumStrings() {
+		return strings.size();
+	}
+
+	/**
+	 * @return 名为 name 的内存区域的编号，第一次用到时建立
+	 */
+	public int region(String name) {
+		Integer id = regionIds.get(name);
+		if (id == null) {
+			id = regions.size();
+			regions.add(name);
+			regionIds.put(name, id);
+		}
+		return id;
+	}
+
+	public String getRegionName(int id) {
+		return regions.get(id);
+	}
+
+	public int getNumRegions() {
+		return regions.size();
+	}
+
+	/**
+	 * 按 PA3 的格式输出。临时变量和标号是函数内的编号，输出时依次接着前面的函数编号，使名字全局唯一
+	 */
+	public void printTo(IndentPrintWriter pw) {
+		for (VTable vt : vtables) {
+			pw.println("VTABLE(" + vt.getName() + ") {");
+			pw.incIndent();
+			pw.println(vt.getParent() == null ? "<empty>" : vt.getParent()
+					.getName());
+			pw.println(vt.getClassName());
+			for (Functy f : vt.getEntries()) {
+				pw.println(f.getName() + ";");
+			}
+			pw.decIndent();
+			pw.println("}");
+			pw.println();
+		}
+		int tempBase = 0;
+		int labelBase = 0;
+		for (Functy f : functions) {
+			if (!f.hasBody()) {
+				continue;
+			}
+			printTo(pw, f, tempBase, labelBase);
+			tempBase += f.getNumTemps();
+			labelBase += f.getNumLabels();
+		}
+	}
+
+	private void printTo(IndentPrintWriter pw, Functy f, int tempBase,
+			int labelBase) {
+		pw.println("FUNCTION(" + f.getName() + ") {");
+		StringBuilder memo = new StringBuilder();
+		for (int t = 0; t < f.getNumParams(); t++) {
+			if (t > 0) {
+				memo.append(' ');
+			}
+			memo.append("_T").append(tempBase + t).append(':').append(4 * (t + 1));
+		}
+		pw.println("memo '" + memo + "'");
+		pw.println(f.getName() + ":");
+		pw.incIndent();
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < f.size(); i++) {
+			int op = f.op(i);
+			if (op == Tac.MARK) {
+				pw.decIndent();
+				pw.println("_L" + (labelBase + f.y(i)) + ":");
+				pw.incIndent();
+				continue;
+			}
+			sb.setLength(0);
+			format(sb, f, i, tempBase, labelBase);
+			pw.println(sb);
+		}
+		pw.decIndent();
+		pw.println("}");
+		pw.println();
+	}
+
+	/**
+	 * 把 f 的第 i 条指令（不是标号）按 PA3 的格式写入 sb，临时变量和标号的编号分别加上 tempBase、labelBase
+	 */
+	public void format(StringBuilder sb, Functy f, int i, int tempBase,
+			int labelBase) {
+		int op = f.op(i);
+		String x = "_T" + (tempBase + f.x(i));
+		String y = "_T" + (tempBase + f.y(i));
+		if (Tac.isBinary(op)) {
+			sb.append(x).append(" = (").append(y).append(' ').append(
+					Tac.symbolOf(op)).append(" _T").append(tempBase + f.z(i))
+					.append(')');
+			return;
+		}
+		switch (op) {
+		case Tac.NEG:
+			sb.append(x).append(" = - ").append(y);
+			break;
+		case Tac.LNOT:
+			sb.append(x).append(" = ! ").append(y);
+			break;
+		case Tac.ASSIGN:
+			sb.append(x).append(" = ").append(y);
+			break;
+		case Tac.LOAD_IMM4:
+			sb.append(x).append(" = ").append(f.y(i));
+			break;
+		case Tac.LOAD_STR_CONST:
+			sb.append(x).append(" = ").append(
+					MiscUtils.quote(strings.get(f.y(i))));
+			break;
+		case Tac.LOAD_VTBL:
+			sb.append(x).append(" = VTBL <").append(
+					vtables.get(f.y(i)).getName()).append('>');
+			break;
+		case Tac.LOAD:
+			sb.append(x).append(" = ");
+			address(sb, y, f.z(i));
+			break;
+		case Tac.STORE:
+			address(sb, y, f.z(i));
+			sb.append(" = ").append(x);
+			break;
+		case Tac.BRANCH:
+			sb.append("branch _L").append(labelBase + f.y(i));
+			break;
+		case Tac.BEQZ:
+		case Tac.BNEZ:
+			sb.append("if (").append(y).append(op == Tac.BEQZ ? " == 0" : " != 0")
+					.append(") branch _L").append(labelBase + f.z(i));
+			break;
+		case Tac.PARM:
+			sb.append("parm ").append(y);
+			break;
+		case Tac.DIRECT_CALL:
+		case Tac.INDIRECT_CALL:
+			if (f.x(i) >= 0) {
+				sb.append(x).append(" =  ");
+			}
+			sb.append("call ");
+			if (op == Tac.INDIRECT_CALL) {
+				sb.append(y);
+			} else if (f.y(i) < 0) {
+				sb.append(Intrinsic.of(f.y(i)).label);
+			} else {
+				sb.append(functions.get(f.y(i)).getName());
+			}
+			break;
+		case Tac.RETURN:
+			sb.append("return ").append(f.y(i) < 0 ? "<empty>" : y);
+			break;
+		}
+	}
+
+	private static void address(StringBuilder sb, String base, int offset) {
+		sb.append("*(").append(base).append(offset < 0 ? " - " : " + ")
+				.append(Math.abs(offset)).append(')');
+	}
+}
@@ -0,0 +1,186 @@
+package decaf.tac;
+
+/**
+ * 三地址码指令的编码<br>
+ * 每条指令占 {@link Functy} 代码数组中连续的 {@link #WIDTH} 个 int：
+ * 第一个的低 8 位为操作码，其余位为 LOAD/STORE 访问的内存区域（{@link Program#region}），
+ * 其后为操作数 x、y、z，不用的操作数为 -1。临时变量和标号都是函数内的编号。
+ * <pre>
+ * 操作码                  x          y                   z
+ * ADD ... LOR             结果       左操作数            右操作数
+ * NEG LNOT                结果       操作数
+ * ASSIGN                  结果       源
+ * LOAD_IMM4               结果       常数
+ * LOAD_STR_CONST          结果       字符串编号
+ * LOAD_VTBL               结果       虚表编号
+ * LOAD                    结果       基址               偏移
+ * STORE                   源         基址               偏移
+ * BRANCH                             标号
+ * BEQZ BNEZ                          条件               标号
+ * MARK                               标号
+ * PARM                               参数
+ * DIRECT_CALL             结果或 -1  函数编号（负数为 {@link Intrinsic}）
+ * INDIRECT_CALL           结果或 -1  函数地址
+ * RETURN                             返回值或 -1
+ * </pre>
+ */
+public final class Tac {
+
+	private Tac() {
+	}
+
+	public static final int WIDTH = 4;
+
+	public static final int ADD = 0;
+
+	public static final int SUB = ADD + 1;
+
+	public static final int MUL = SUB + 1;
+
+	public static final int DIV = MUL + 1;
+
+	public static final int MOD = DIV + 1;
+
+	public static final int LAND = MOD + 1;
+
+	public static final int LOR = LAND + 1;
+
+	public static final int EQU = LOR + 1;
+
+	public static final int NEQ = EQU + 1;
+
+	public static final int LES = NEQ + 1;
+
+	public static final int LEQ = LES + 1;
+
+	public static final int GTR = LEQ + 1;
+
+	public static final int GEQ = GTR + 1;
+
+	public static final int NEG = GEQ + 1;
+
+	public static final int LNOT = NEG + 1;
+
+	public static final int ASSIGN = LNOT + 1;
+
+	public static final int LOAD_IMM4 = ASSIGN + 1;
+
+	public static final int LOAD_STR_CONST = LOAD_IMM4 + 1;
+
+	public static final int LOAD_VTBL = LOAD_STR_CONST + 1;
+
+	public static final int LOAD = LOAD_VTBL + 1;
+
+	public static final int STORE = LOAD + 1;
+
+	public static final int BRANCH = STORE + 1;
+
+	public static final int BEQZ = BRANCH + 1;
+
+	public static final int BNEZ = BEQZ + 1;
+
+	public static final int MARK = BNEZ + 1;
+
+	public static final int PARM = MARK + 1;
+
+	public static final int DIRECT_CALL = PARM + 1;
+
+	public static final int INDIRECT_CALL = DIRECT_CALL + 1;
+
+	public static final int RETURN = INDIRECT_CALL + 1;
+
+	public static final int NUM_OPS = RETURN + 1;
+
+	private static final String[] BINARY_OPS = { "+", "-", "*", "/", "%",
+			"&&", "||", "==", "!=", "<", "<=", ">", ">=" };
+
+	/**
+	 * 不访问内存的指令的内存区域
+	 */
+	public static final int NO_REGION = 0;
+
+	public static boolean isBinary(int op) {
+		return op <= GEQ;
+	}
+
+	public static boolean isUnary(int op) {
+		return op == NEG || op == LNOT;
+	}
+
+	/**
+	 * @return 是否结束基本块（跳转或返回）
+	 */
+	public static boolean isJump(int op) {
+		return op == BRANCH || op == BEQZ || op == BNEZ || op == RETURN;
+	}
+
+	/**
+	 * 二元运算的运算符
+	 */
+	public static String symbolOf(int op) {
+		return BINARY_OPS[op];
+	}
+
+	/**
+	 * 组合操作码和内存区域
+	 */
+	public static int opcode(int op, int region) {
+		return op | region << 8;
+	}
+
+	/**
+	 * @return 从 code[at] 开始的指令定值的临时变量，没有时为 -1
+	 */
+	public static int defOf(int[] code, int at) {
+		switch (code[at] & 0xff) {
+		case STORE:
+		case BRANCH:
+		case BEQZ:
+		case BNEZ:
+		case MARK:
+		case PARM:
+		case RETURN:
+			return -1;
+		default:
+			return code[at + 1];
+		}
+	}
+
+	/**
+	 * 把从 code[at] 开始的指令中是所用临时变量的操作数的下标（at + 1 到 at + 3）写入 fields
+	 *
+	 * @return 个数（至多 2）
+	 */
+	public static int useFields(int[] code, int at, int[] fields) {
+		int op = code[at] & 0xff;
+		if (isBinary(op)) {
+			fields[0] = at + 2;
+			fields[1] = at + 3;
+			return 2;
+		}
+		switch (op) {
+		case NEG:
+		case LNOT:
+		case ASSIGN:
+		case LOAD:
+		case BEQZ:
+		case BNEZ:
+		case PARM:
+		case INDIRECT_CALL:
+			fields[0] = at + 2;
+			return 1;
+		case STORE:
+			fields[0] = at + 1;
+			fields[1] = at + 2;
+			return 2;
+		case RETURN:
+			if (code[at + 2] < 0) {
+				return 0;
+			}
+			fields[0] = at + 2;
+			return 1;
+		default:
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package decaf.tac;
+
+/**
+ * 类的虚表：父类虚表、类名和各虚方法，方法的位置与父类中同名方法相同
+ */
+public final class VTable {
+
+	private final String name;
+
+	private final VTable parent;
+
+	private final String className;
+
+	private final Functy[] entries;
+
+	private int id = -1;
+
+	public VTable(String name, VTable parent, String className,
+			Functy[] entries) {
+		this.name = name;
+		this.parent = parent;
+		this.className = className;
+		this.entries = entries;
+	}
+
+	/**
+	 * @return 标号 _C
+	 */
+	public String getName() {
+		return name;
+	}
+
+	public VTable getParent() {
+		return parent;
+	}
+
+	public String getClassName() {
+		return className;
+	}
+
+	public Functy[] getEntries() {
+		return entries;
+	}
+
+	/**
+	 * @return 在 {@link Program} 中的编号
+	 */
+	public int getId() {
+		return id;
+	}
+
+	void setId(int id) {
+		this.id = id;
+	}
+}
@@ -0,0 +1,95 @@
+package decaf.translate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import decaf.scope.GlobalScope;
+import decaf.symbol.Class;
+import decaf.symbol.Function;
+import decaf.symbol.Symbol;
+import decaf.symbol.Variable;
+import decaf.tac.Functy;
+import decaf.tac.VTable;
+
+/**
+ * 确定对象布局和虚表<br>
+ * 对象的第一个字是虚表指针，其后依次为父类和本类的成员变量，各占 4 个字节。
+ * 虚表的前两项为父类虚表和类名，其后为虚方法：覆盖父类方法的用父类中的位置，其余按声明顺序接在后面。
+ * 全局作用域中的类（包括从接口文件载入的）都处理，父类先于子类。
+ */
+public class TransPass1 {
+
+	private Translater tr;
+
+	public TransPass1(Translater tr) {
+		this.tr = tr;
+	}
+
+	public void translate(GlobalScope globalScope) {
+		for (Iterator<Symbol> iter = globalScope.iterator(); iter.hasNext();) {
+			Symbol s = iter.next();
+			if (s.isClass()) {
+				resolve((Class) s);
+			}
+		}
+		for (Iterator<Symbol> iter = globalScope.iterator(); iter.hasNext();) {
+			Symbol s = iter.next();
+			if (s.isClass()) {
+				Class c = (Class) s;
+				tr.genNewForClass(c, new Functy("_" + c.getName() + "_New", null));
+			}
+		}
+	}
+
+	private void resolve(Class c) {
+		if (c.getNumVar() >= 0) {
+			return;
+		}
+		Class parent = c.getParent();
+		List<Variable> fields = new ArrayList<Variable>();
+		List<Functy> entries = new ArrayList<Functy>();
+		Map<String, Integer> slots = new HashMap<String, Integer>();
+		if (parent != null) {
+			resolve(parent);
+			fields.addAll(tr.getFields(parent));
+			for (Functy f : tr.getVTable(parent).getEntries()) {
+				slots.put(f.getSymbol().getName(), entries.size());
+				entries.add(f);
+			}
+		}
+		for (Iterator<Symbol> iter = c.getAssociatedScope().iterator(); iter
+				.hasNext();) {
+			Symbol s = iter.next();
+			if (s.isVariable()) {
+				Variable v = (Variable) s;
+				fields.add(v);
+				v.setOffset(4 * fields.size());
+			} else if (s.isFunction()) {
+				Function f = (Function) s;
+				tr.createFuncty(f, f.isMain() ? "main" : "_" + c.getName()
+						+ "." + f.getName());
+				if (!f.isStatik()) {
+					Integer slot = slots.get(f.getName());
+					if (slot == null) {
+						slot = entries.size();
+						slots.put(f.getName(), slot);
+						entries.add(tr.getFuncty(f));
+					} else {
+						entries.set(slot, tr.getFuncty(f));
+					}
+					f.setOffset(8 + 4 * slot);
+				}
+			}
+		}
+		c.setNumVar(fields.size());
+		c.setNumNonStaticFunc(entries.size());
+		c.setSize(4 * (fields.size() + 1));
+		tr.setFields(c, fields);
+		tr.createVTable(c, new VTable("_" + c.getName(), parent == null ? null
+				: tr.getVTable(parent), c.getName(), entries
+				.toArray(new Functy[entries.size()])));
+	}
+}
@@ -0,0 +1,552 @@
+package decaf.translate;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Stack;
+
+import decaf.symbol.Function;
+import decaf.symbol.Symbol;
+import decaf.symbol.Variable;
+import decaf.tac.Intrinsic;
+import decaf.tac.Program;
+import decaf.tac.Tac;
+import decaf.tree.Tree;
+import decaf.type.BaseType;
+import decaf.type.ClassType;
+
+/**
+ * 生成各方法体的三地址码<br>
+ * 表达式的值放在 val 中；&amp;&amp; 和 || 两边都求值。
+ * 数组的长度在第 0 个元素之前的字中，下标越界、长度为负都跳到函数末尾共用的出错代码。
+ */
+public class TransPass2 extends Tree.Visitor {
+
+	private Translater tr;
+
+	/**
+	 * 最近访问的表达式的值
+	 */
+	private int val;
+
+	private Function currentFunction;
+
+	/**
+	 * 各层循环的出口标号
+	 */
+	private Stack<Integer> loopExits = new Stack<Integer>();
+
+	public TransPass2(Translater tr) {
+		this.tr = tr;
+	}
+
+	private int gen(Tree.Expr expr) {
+		expr.accept(this);
+		return val;
+	}
+
+	@Override
+	public void visitTopLevel(Tree.TopLevel program) {
+		for (Tree.ClassDef cd : program.classes) {
+			cd.accept(this);
+		}
+	}
+
+	@Override
+	public void visitClassDef(Tree.ClassDef classDef) {
+		for (Tree f : classDef.fields) {
+			f.accept(this);
+		}
+	}
+
+	@Override
+	public void visitMethodDef(Tree.MethodDef funcDef) {
+		currentFunction = funcDef.symbol;
+		List<Variable> params = new ArrayList<Variable>();
+		for (Iterator<Symbol> iter = currentFunction.getAssociatedScope()
+				.iterator(); iter.hasNext();) {
+			params.add((Variable) iter.next());
+		}
+		tr.beginFunc(tr.getFuncty(currentFunction), params);
+		funcDef.body.accept(this);
+		tr.endFunc();
+		currentFunction = null;
+	}
+
+	@Override
+	public void visitVarDef(Tree.VarDef varDef) {
+		if (varDef.symbol.isLocalVar()) {
+			// 局部变量初始化为 0（null、false）
+			tr.genLoadImm4(tr.getTemp(varDef.symbol), 0);
+		}
+	}
+
+	@Override
+	public void visitSkip(Tree.Skip skip) {
+	}
+
+	@Override
+	public void visitBlock(Tree.Block block) {
+		for (Tree s : block.block) {
+			s.accept(this);
+		}
+	}
+
+	@Override
+	public void visitExec(Tree.Exec exec) {
+		exec.expr.accept(this);
+	}
+
+	@Override
+	public void visitAssign(Tree.Assign assign) {
+		if (assign.left.tag == Tree.INDEXED) {
+			Tree.Indexed indexed = (Tree.Indexed) assign.left;
+			int array = gen(indexed.array);
+			int index = gen(indexed.index);
+			tr.genCheckArrayIndex(array, index);
+			int address = tr.genElementAddress(array, index);
+			tr.genStore(gen(assign.expr), address, 0, tr
+					.elementRegion(indexed.array.type));
+			return;
+		}
+		Tree.Ident ident = (Tree.Ident) assign.left;
+		if (ident.lvKind == Tree.LValue.Kind.MEMBER_VAR) {
+			int owner = gen(ident.owner);
+			tr.genStore(gen(assign.expr), owner, ident.symbol.getOffset(), tr
+					.fieldRegion(ident.symbol));
+		} else {
+			tr.genAssign(tr.getTemp(ident.symbol), gen(assign.expr));
+		}
+	}
+
+	@Override
+	public void visitIf(Tree.If ifStmt) {
+		int cond = gen(ifStmt.condition);
+		int exit = tr.newLabel();
+		if (ifStmt.falseBranch == null) {
+			tr.genBeqz(cond, exit);
+			if (ifStmt.trueBranch != null) {
+				ifStmt.trueBranch.accept(this);
+			}
+		} else {
+			int falseLabel = tr.newLabel();
+			tr.genBeqz(cond, falseLabel);
+			if (ifStmt.trueBranch != null) {
+				ifStmt.trueBranch.accept(this);
+			}
+			tr.genBranch(exit);
+			tr.genMark(falseLabel);
+			ifStmt.falseBranch.accept(this);
+		}
+		tr.genMark(exit);
+	}
+
+	@Override
+	public void visitWhileLoop(Tree.WhileLoop whileLoop) {
+		int loop = tr.newLabel();
+		int exit = tr.newLabel();
+		tr.genMark(loop);
+		tr.genBeqz(gen(whileLoop.condition), exit);
+		loopExits.push(exit);
+		if (whileLoop.loopBody != null) {
+			whileLoop.loopBody.accept(this);
+		}
+		loopExits.pop();
+		tr.genBranch(loop);
+		tr.genMark(exit);
+	}
+
+	@Override
+	public void visitForLoop(Tree.ForLoop forLoop) {
+		if (forLoop.init != null) {
+			forLoop.init.accept(this);
+		}
+		int loop = tr.newLabel();
+		int exit = tr.newLabel();
+		tr.genMark(loop);
+		tr.genBeqz(gen(forLoop.condition), exit);
+		loopExits.push(exit);
+		if (forLoop.loopBody != null) {
+			forLoop.loopBody.accept(this);
+		}
+		loopExits.pop();
+		if (forLoop.update != null) {
+			forLoop.update.accept(this);
+		}
+		tr.genBranch(loop);
+		tr.genMark(exit);
+	}
+
+	@Override
+	public void visitBreak(Tree.Break breakStmt) {
+		tr.genBranch(loopExits.peek());
+	}
+
+	@Override
+	public void visitReturn(Tree.Return returnStmt) {
+		tr.genReturn(returnStmt.expr == null ? -1 : gen(returnStmt.expr));
+	}
+
+	@Override
+	public void visitPrint(Tree.Print printStmt) {
+		for (Tree.Expr e : printStmt.exprs) {
+			int v = gen(e);
+			if (e.type.equal(BaseType.BOOL)) {
+				tr.genIntrinsicCall(Intrinsic.PRINT_BOOL, v);
+			} else if (e.type.equal(BaseType.INT)) {
+				tr.genIntrinsicCall(Intrinsic.PRINT_INT, v);
+			} else {
+				tr.genIntrinsicCall(Intrinsic.PRINT_STRING, v);
+			}
+		}
+	}
+
+	@Override
+	public void visitScopy(Tree.Scopy scopy) {
+		int src = gen(scopy.instance);
+		if (scopy.symbol == null) {
+			return;
+		}
+		tr.genCheckNull(src);
+		int dst = tr.genCopyObject(src, ((ClassType) scopy.symbol.getType())
+				.getSymbol());
+		if (scopy.symbol.isMemberVar()) {
+			int self = tr.getTemp((Variable) currentFunction
+					.getAssociatedScope().lookup("this"));
+			tr.genStore(dst, self, scopy.symbol.getOffset(), tr
+					.fieldRegion(scopy.symbol));
+		} else {
+			tr.genAssign(tr.getTemp(scopy.symbol), dst);
+		}
+	}
+
+	@Override
+	public void visitGuard(Tree.Guard guard) {
+		if (guard.empty) {
+			return;
+		}
+		if (guard.stmt_exist) {
+			int exit = tr.newLabel();
+			tr.genBeqz(gen(guard.expr), exit);
+			guard.stmt.accept(this);
+			tr.genMark(exit);
+		} else if (guard.multi) {
+			guard.ifsubstmt.accept(this);
+		} else if (guard.serial) {
+			// 各分支依次判断，条件成立的都执行
+			for (Tree s : guard.stmts) {
+				s.accept(this);
+			}
+			guard.serialstmt.accept(this);
+		}
+	}
+
+	@Override
+	public void visitForeach(Tree.Foreach foreach) {
+		Variable x = (Variable) foreach.foreachblock.associatedScope
+				.lookup(foreach.var_);
+		Tree.Expr arrayExpr = (Tree.Expr) foreach.foreachblock.block.get(0);
+		int array = gen(arrayExpr);
+		int length = tr.genLength(array);
+		int i = tr.genLoadImm4(0);
+		int one = tr.genLoadImm4(1);
+		int loop = tr.newLabel();
+		int exit = tr.newLabel();
+		tr.genMark(loop);
+		tr.genBeqz(tr.genLes(i, length), exit);
+		tr.genAssign(tr.getTemp(x), tr.genLoad(tr.genElementAddress(array, i),
+				0, tr.elementRegion(arrayExpr.type)));
+		if (foreach._while) {
+			tr.genBeqz(gen((Tree.Expr) foreach.foreachblock.block.get(1)), exit);
+		}
+		loopExits.push(exit);
+		for (int k = foreach._while ? 2 : 1; k < foreach.foreachblock.block
+				.size(); k++) {
+			foreach.foreachblock.block.get(k).accept(this);
+		}
+		loopExits.pop();
+		tr.genAssign(i, tr.genAdd(i, one));
+		tr.genBranch(loop);
+		tr.genMark(exit);
+	}
+
+	@Override
+	public void visitLiteral(Tree.Literal literal) {
+		switch (literal.typeTag) {
+		case Tree.INT:
+			val = tr.genLoadImm4(((Integer) literal.value).intValue());
+			break;
+		case Tree.BOOL:
+			val = tr.genLoadImm4((Boolean) literal.value ? 1 : 0);
+			break;
+		default:
+			val = tr.genLoadStrConst((String) literal.value);
+		}
+	}
+
+	@Override
+	public void visitNull(Tree.Null nullExpr) {
+		val = tr.genLoadImm4(0);
+	}
+
+	@Override
+	public void visitThisExpr(Tree.ThisExpr thisExpr) {
+		val = tr.getTemp((Variable) currentFunction.getAssociatedScope()
+				.lookup("this"));
+	}
+
+	@Override
+	public void visitReadIntExpr(Tree.ReadIntExpr readIntExpr) {
+		val = tr.genIntrinsicCall(Intrinsic.READ_INT);
+	}
+
+	@Override
+	public void visitReadLineExpr(Tree.ReadLineExpr readStringExpr) {
+		val = tr.genIntrinsicCall(Intrinsic.READ_LINE);
+	}
+
+	@Override
+	public void visitUnary(Tree.Unary expr) {
+		int v = gen(expr.expr);
+		val = expr.tag == Tree.NEG ? tr.genNeg(v) : tr.genLNot(v);
+	}
+
+	@Override
+	public void visitBinary(Tree.Binary expr) {
+		int left = gen(expr.left);
+		int right = gen(expr.right);
+		if ((expr.tag == Tree.EQ || expr.tag == Tree.NE)
+				&& expr.left.type.equal(BaseType.STRING)) {
+			val = tr.genIntrinsicCall(Intrinsic.STRING_EQUAL, left, right);
+			if (expr.tag == Tree.NE) {
+				val = tr.genLNot(val);
+			}
+			return;
+		}
+		val = tr.genBinary(opOf(expr.tag), left, right);
+	}
+
+	private static int opOf(int tag) {
+		switch (tag) {
+		case Tree.PLUS:
+			return Tac.ADD;
+		case Tree.MINUS:
+			return Tac.SUB;
+		case Tree.MUL:
+			return Tac.MUL;
+		case Tree.DIV:
+			return Tac.DIV;
+		case Tree.MOD:
+			return Tac.MOD;
+		case Tree.AND:
+			return Tac.LAND;
+		case Tree.OR:
+			return Tac.LOR;
+		case Tree.EQ:
+			return Tac.EQU;
+		case Tree.NE:
+			return Tac.NEQ;
+		case Tree.LT:
+			return Tac.LES;
+		case Tree.LE:
+			return Tac.LEQ;
+		case Tree.GT:
+			return Tac.GTR;
+		default:
+			return Tac.GEQ;
+		}
+	}
+
+	@Override
+	public void visitIdent(Tree.Ident ident) {
+		if (ident.lvKind == Tree.LValue.Kind.MEMBER_VAR) {
+			val = tr.genLoad(gen(ident.owner), ident.symbol.getOffset(), tr
+					.fieldRegion(ident.symbol));
+		} else {
+			val = tr.getTemp(ident.symbol);
+		}
+	}
+
+	@Override
+	public void visitIndexed(Tree.Indexed indexed) {
+		int array = gen(indexed.array);
+		int index = gen(indexed.index);
+		tr.genCheckArrayIndex(array, index);
+		val = tr.genLoad(tr.genElementAddress(array, index), 0, tr
+				.elementRegion(indexed.array.type));
+	}
+
+	@Override
+	public void visitCallExpr(Tree.CallExpr callExpr) {
+		if (callExpr.isArrayLength) {
+			val = tr.genLength(gen(callExpr.receiver));
+			return;
+		}
+		Function func = callExpr.symbol;
+		boolean hasReturnValue = !func.getReturnType().equal(BaseType.VOID);
+		int receiver = callExpr.receiver == null ? -1 : gen(callExpr.receiver);
+		int[] actuals = new int[callExpr.actuals.size()];
+		for (int i = 0; i < actuals.length; i++) {
+			actuals[i] = gen(callExpr.actuals.get(i));
+		}
+		if (func.isStatik()) {
+			for (int a : actuals) {
+				tr.genParm(a);
+			}
+			val = tr.genDirectCall(tr.getFuncty(func), hasReturnValue);
+		} else {
+			int vt = tr.genLoad(receiver, 0, Program.HEADER);
+			int target = tr.genLoad(vt, func.getOffset(), Program.VTABLE);
+			tr.genParm(receiver);
+			for (int a : actuals) {
+				tr.genParm(a);
+			}
+			val = tr.genIndirectCall(target, hasReturnValue);
+		}
+	}
+
+	@Override
+	public void visitNewClass(Tree.NewClass newClass) {
+		val = tr.genDirectCall(tr.getConstructor(newClass.symbol), true);
+	}
+
+	@Override
+	public void visitNewArray(Tree.NewArray newArray) {
+		val = tr.genNewArray(gen(newArray.length));
+	}
+
+	@Override
+	public void visitTypeTest(Tree.TypeTest instanceofExpr) {
+		val = tr.genInstanceof(gen(instanceofExpr.instance),
+				instanceofExpr.symbol);
+	}
+
+	@Override
+	public void visitTypeCast(Tree.TypeCast cast) {
+		val = gen(cast.expr);
+		if (!cast.expr.type.compatible(cast.type)) {
+			tr.genCheckCast(val, cast.symbol);
+		}
+	}
+
+	@Override
+	public void visitArrayConstant(Tree.ArrayConstant arrayConstant) {
+		int n = arrayConstant.empty ? 0 : arrayConstant.elist.size();
+		int array = tr.genAllocArray(tr.genLoadImm4(n));
+		int region = tr.elementRegion(arrayConstant.type);
+		for (int i = 0; i < n; i++) {
+			int v = gen(arrayConstant.elist.get(i));
+			tr.genStore(v, array, 4 * i, region);
+		}
+		val = array;
+	}
+
+	@Override
+	public void visitArrayRepeat(Tree.ArrayRepeat arrayRepeat) {
+		int v = gen(arrayRepeat.expr);
+		int length = gen(arrayRepeat.intconst);
+		int array = tr.genNewArray(length);
+		int region = tr.elementRegion(arrayRepeat.type);
+		int i = tr.genLoadImm4(0);
+		int one = tr.genLoadImm4(1);
+		int loop = tr.newLabel();
+		int exit = tr.newLabel();
+		tr.genMark(loop);
+		tr.genBeqz(tr.genLes(i, length), exit);
+		tr.genStore(v, tr.genElementAddress(array, i), 0, region);
+		tr.genAssign(i, tr.genAdd(i, one));
+		tr.genBranch(loop);
+		tr.genMark(exit);
+		val = array;
+	}
+
+	@Override
+	public void visitArrayConcat(Tree.ArrayConcat arrayConcat) {
+		int left = gen(arrayConcat.left);
+		int right = gen(arrayConcat.right);
+		int leftLength = tr.genLength(left);
+		int rightLength = tr.genLength(right);
+		int array = tr.genAllocArray(tr.genAdd(leftLength, rightLength));
+		int region = tr.elementRegion(arrayConcat.type);
+		int zero = tr.genLoadImm4(0);
+		tr.genCopyElements(left, zero, array, zero, leftLength, region);
+		tr.genCopyElements(right, zero, array, leftLength, rightLength, region);
+		val = array;
+	}
+
+	/**
+	 * a[i:j] 为下标在 [i, j) 中的元素组成的新数组；i 小于 0 或 j 大于长度时越界，j &lt;= i 时为空数组
+	 */
+	@Override
+	public void visitSubArray(Tree.SubArray subArray) {
+		int src = gen(subArray._1);
+		int from = gen(subArray._3);
+		int to = gen(subArray._5);
+		int zero = tr.genLoadImm4(0);
+		tr.genCheckArrayBounds(src, from, to);
+		int length = tr.genSub(to, from);
+		int positive = tr.newLabel();
+		tr.genBnez(tr.genLes(zero, length), positive);
+		tr.genAssign(length, zero);
+		tr.genMark(positive);
+		int array = tr.genAllocArray(length);
+		tr.genCopyElements(src, from, array, zero, length, tr
+				.elementRegion(subArray.type));
+		val = array;
+	}
+
+	/**
+	 * a[i] default d：i 在下标范围内时为 a[i]，否则为 d（只在这时求值）
+	 */
+	@Override
+	public void visitDynamicAccess(Tree.DynamicAccess dynamicAccess) {
+		int array = gen(dynamicAccess._1);
+		int index = gen(dynamicAccess._2);
+		int result = tr.newTemp();
+		int otherwise = tr.newLabel();
+		int exit = tr.newLabel();
+		tr.genBeqz(tr.genLes(index, tr.genLength(array)), otherwise);
+		tr.genBnez(tr.genLes(index, tr.genLoadImm4(0)), otherwise);
+		tr.genAssign(result, tr.genLoad(tr.genElementAddress(array, index), 0,
+				tr.elementRegion(dynamicAccess._1.type)));
+		tr.genBranch(exit);
+		tr.genMark(otherwise);
+		tr.genAssign(result, gen(dynamicAccess._3));
+		tr.genMark(exit);
+		val = result;
+	}
+
+	/**
+	 * [e for x in a if c]：先按 a 的长度分配，最后把长度改为实际的元素个数
+	 */
+	@Override
+	public void visitPythonArr(Tree.PythonArr pythonArr) {
+		int src = gen(pythonArr._2);
+		int length = tr.genLength(src);
+		int array = tr.genAllocArray(length);
+		int srcRegion = tr.elementRegion(pythonArr._2.type);
+		int region = tr.elementRegion(pythonArr.type);
+		int i = tr.genLoadImm4(0);
+		int k = tr.genLoadImm4(0);
+		int one = tr.genLoadImm4(1);
+		int loop = tr.newLabel();
+		int next = tr.newLabel();
+		int exit = tr.newLabel();
+		tr.genMark(loop);
+		tr.genBeqz(tr.genLes(i, length), exit);
+		tr.genAssign(tr.getTemp(pythonArr.symbol), tr.genLoad(tr
+				.genElementAddress(src, i), 0, srcRegion));
+		if (pythonArr._if) {
+			tr.genBeqz(gen(pythonArr._3), next);
+		}
+		tr.genStore(gen(pythonArr._1), tr.genElementAddress(array, k), 0,
+				region);
+		tr.genAssign(k, tr.genAdd(k, one));
+		tr.genMark(next);
+		tr.genAssign(i, tr.genAdd(i, one));
+		tr.genBranch(loop);
+		tr.genMark(exit);
+		tr.genStore(k, array, -4, Program.LENGTH);
+		val = array;
+	}
+}
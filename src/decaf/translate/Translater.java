@@ -0,0 +1,500 @@
+package decaf.translate;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import decaf.error.RuntimeError;
+import decaf.scope.ClassScope;
+import decaf.symbol.Class;
+import decaf.symbol.Function;
+import decaf.symbol.Variable;
+import decaf.tac.Functy;
+import decaf.tac.Intrinsic;
+import decaf.tac.Program;
+import decaf.tac.Tac;
+import decaf.tac.VTable;
+import decaf.tree.Tree;
+import decaf.type.Type;
+
+/**
+ * 三地址码的生成<br>
+ * TransPass1 确定各类的对象布局和虚表，为每个方法建立 Functy；
+ * TransPass2 遍历类型检查过的语法树，借助本类的 gen* 方法生成各方法体的代码。
+ * 临时变量和标号都用函数内的 int 编号。
+ */
+public class Translater {
+
+	private Program program = new Program();
+
+	private Map<Function, Functy> functies = new IdentityHashMap<Function, Functy>();
+
+	private Map<Class, VTable> vtables = new IdentityHashMap<Class, VTable>();
+
+	/**
+	 * 建立了虚表的类，父类先于子类
+	 */
+	private List<Class> classes = new ArrayList<Class>();
+
+	private Map<Class, Functy> constructors = new IdentityHashMap<Class, Functy>();
+
+	/**
+	 * 每个类的全部成员变量（含继承的），按偏移排列
+	 */
+	private Map<Class, List<Variable>> fields = new IdentityHashMap<Class, List<Variable>>();
+
+	private Functy currentFuncty;
+
+	/**
+	 * 当前函数中各局部变量和参数的临时变量
+	 */
+	private Map<Variable, Integer> temps = new IdentityHashMap<Variable, Integer>();
+
+	/**
+	 * 当前函数中数组越界、数组长度为负、空指针时跳转到的出错代码的标号，尚未用到时为 -1
+	 */
+	private int boundsError;
+
+	private int sizeError;
+
+	private int nullError;
+
+	public static Program translate(Tree.TopLevel tree) {
+		Translater tr = new Translater();
+		new TransPass1(tr).translate(tree.globalScope);
+		new TransPass2(tr).visitTopLevel(tree);
+		return tr.program;
+	}
+
+	public Program getProgram() {
+		return program;
+	}
+
+	void createFuncty(Function func, String name) {
+		Functy functy = new Functy(name, func);
+		functies.put(func, functy);
+		program.addFunction(functy);
+		if (func.isMain()) {
+			program.setMain(functy);
+		}
+	}
+
+	Functy getFuncty(Function func) {
+		return functies.get(func);
+	}
+
+	void createVTable(Class c, VTable vtable) {
+		vtables.put(c, vtable);
+		classes.add(c);
+		program.addVTable(vtable);
+	}
+
+	VTable getVTable(Class c) {
+		return vtables.get(c);
+	}
+
+	void setFields(Class c, List<Variable> list) {
+		fields.put(c, list);
+	}
+
+	List<Variable> getFields(Class c) {
+		return fields.get(c);
+	}
+
+	/**
+	 * @return 成员变量所在的内存区域
+	 */
+	int fieldRegion(Variable v) {
+		return program.region(((ClassScope) v.getScope()).getOwner()
+				.getName()
+				+ "." + v.getName());
+	}
+
+	/**
+	 * @return 类型为 arrayType 的数组的元素所在的内存区域
+	 */
+	int elementRegion(Type arrayType) {
+		return program.region(arrayType.toString());
+	}
+
+	/**
+	 * 开始生成 functy 的函数体，params 依次对应 0 号起的临时变量
+	 */
+	void beginFunc(Functy functy, List<Variable> params) {
+		currentFuncty = functy;
+		temps.clear();
+		functy.begin(params.size());
+		for (int i = 0; i < params.size(); i++) {
+			temps.put(params.get(i), i);
+		}
+		boundsError = -1;
+		sizeError = -1;
+		nullError = -1;
+	}
+
+	/**
+	 * 结束函数体：可能执行到末尾时补上 return，再放上共用的出错代码
+	 */
+	void endFunc() {
+		Functy f = currentFuncty;
+		int last = f.size() - 1;
+		if (last < 0 || f.op(last) != Tac.BRANCH && f.op(last) != Tac.RETURN
+				&& !f.isHalt(last)) {
+			genReturn(-1);
+		}
+		if (boundsError >= 0) {
+			genMark(boundsError);
+			genHalt(RuntimeError.ARRAY_INDEX_OUT_OF_BOUND);
+		}
+		if (sizeError >= 0) {
+			genMark(sizeError);
+			genHalt(RuntimeError.NEGATIVE_ARR_SIZE);
+		}
+		if (nullError >= 0) {
+			genMark(nullError);
+			genHalt(RuntimeError.NULL_POINTER);
+		}
+		currentFuncty = null;
+	}
+
+	/**
+	 * @return 局部变量或参数 v 的临时变量，第一次用到时分配
+	 */
+	int getTemp(Variable v) {
+		Integer t = temps.get(v);
+		if (t == null) {
+			t = currentFuncty.newTemp();
+			temps.put(v, t);
+		}
+		return t;
+	}
+
+	int newTemp() {
+		return currentFuncty.newTemp();
+	}
+
+	int newLabel() {
+		return currentFuncty.newLabel();
+	}
+
+	private int emitValue(int op, int y, int z) {
+		int dst = currentFuncty.newTemp();
+		currentFuncty.emit(op, dst, y, z);
+		return dst;
+	}
+
+	int genBinary(int op, int src1, int src2) {
+		return emitValue(op, src1, src2);
+	}
+
+	int genAdd(int src1, int src2) {
+		return emitValue(Tac.ADD, src1, src2);
+	}
+
+	int genSub(int src1, int src2) {
+		return emitValue(Tac.SUB, src1, src2);
+	}
+
+	int genMul(int src1, int src2) {
+		return emitValue(Tac.MUL, src1, src2);
+	}
+
+	int genLes(int src1, int src2) {
+		return emitValue(Tac.LES, src1, src2);
+	}
+
+	int genEqu(int src1, int src2) {
+		return emitValue(Tac.EQU, src1, src2);
+	}
+
+	int genNeg(int src) {
+		return emitValue(Tac.NEG, src, -1);
+	}
+
+	int genLNot(int src) {
+		return emitValue(Tac.LNOT, src, -1);
+	}
+
+	void genAssign(int dst, int src) {
+		currentFuncty.emit(Tac.ASSIGN, dst, src, -1);
+	}
+
+	int genLoadImm4(int value) {
+		return emitValue(Tac.LOAD_IMM4, value, -1);
+	}
+
+	void genLoadImm4(int dst, int value) {
+		currentFuncty.emit(Tac.LOAD_IMM4, dst, value, -1);
+	}
+
+	int genLoadStrConst(String value) {
+		return emitValue(Tac.LOAD_STR_CONST, program.intern(value), -1);
+	}
+
+	int genLoadVTable(VTable vtable) {
+		return emitValue(Tac.LOAD_VTBL, vtable.getId(), -1);
+	}
+
+	int genLoad(int base, int offset, int region) {
+		int dst = currentFuncty.newTemp();
+		currentFuncty.emit(Tac.opcode(Tac.LOAD, region), dst, base, offset);
+		return dst;
+	}
+
+	void genStore(int src, int base, int offset, int region) {
+		currentFuncty.emit(Tac.opcode(Tac.STORE, region), src, base, offset);
+	}
+
+	void genBranch(int label) {
+		currentFuncty.emit(Tac.BRANCH, -1, label, -1);
+	}
+
+	void genBeqz(int cond, int label) {
+		currentFuncty.emit(Tac.BEQZ, -1, cond, label);
+	}
+
+	void genBnez(int cond, int label) {
+		currentFuncty.emit(Tac.BNEZ, -1, cond, label);
+	}
+
+	void genMark(int label) {
+		currentFuncty.emit(Tac.MARK, -1, label, -1);
+	}
+
+	void genParm(int src) {
+		currentFuncty.emit(Tac.PARM, -1, src, -1);
+	}
+
+	void genReturn(int src) {
+		currentFuncty.emit(Tac.RETURN, -1, src, -1);
+	}
+
+	/**
+	 * @return 返回值的临时变量，hasReturnValue 为 false 时为 -1
+	 */
+	int genDirectCall(Functy target, boolean hasReturnValue) {
+		int dst = hasReturnValue ? currentFuncty.newTemp() : -1;
+		currentFuncty.emit(Tac.DIRECT_CALL, dst, target.getId(), -1);
+		return dst;
+	}
+
+	int genIndirectCall(int target, boolean hasReturnValue) {
+		int dst = hasReturnValue ? currentFuncty.newTemp() : -1;
+		currentFuncty.emit(Tac.INDIRECT_CALL, dst, target, -1);
+		return dst;
+	}
+
+	/**
+	 * 调用运行库函数，args 为各参数
+	 */
+	int genIntrinsicCall(Intrinsic intrinsic, int... args) {
+		for (int a : args) {
+			genParm(a);
+		}
+		int dst = intrinsic.hasReturnValue ? currentFuncty.newTemp() : -1;
+		currentFuncty.emit(Tac.DIRECT_CALL, dst, intrinsic.id(), -1);
+		return dst;
+	}
+
+	/**
+	 * 输出 message 后结束程序
+	 */
+	void genHalt(String message) {
+		genIntrinsicCall(Intrinsic.PRINT_STRING, genLoadStrConst(message));
+		genIntrinsicCall(Intrinsic.HALT);
+	}
+
+	/**
+	 * index 不在 array 的下标范围内时跳到出错代码
+	 */
+	void genCheckArrayIndex(int array, int index) {
+		if (boundsError < 0) {
+			boundsError = newLabel();
+		}
+		int length = genLoad(array, -4, Program.LENGTH);
+		genBeqz(genLes(index, length), boundsError);
+		genBnez(genLes(index, genLoadImm4(0)), boundsError);
+	}
+
+	/**
+	 * from 小于 0 或 to 大于 array 的长度时跳到出错代码
+	 */
+	void genCheckArrayBounds(int array, int from, int to) {
+		if (boundsError < 0) {
+			boundsError = newLabel();
+		}
+		genBnez(genLes(from, genLoadImm4(0)), boundsError);
+		genBnez(genLes(genLength(array), to), boundsError);
+	}
+
+	/**
+	 * length 为负时跳到出错代码
+	 */
+	void genCheckNewArraySize(int length) {
+		if (sizeError < 0) {
+			sizeError = newLabel();
+		}
+		genBnez(genLes(length, genLoadImm4(0)), sizeError);
+	}
+
+	/**
+	 * obj 为 null 时跳到出错代码
+	 */
+	void genCheckNull(int obj) {
+		if (nullError < 0) {
+			nullError = newLabel();
+		}
+		genBeqz(obj, nullError);
+	}
+
+	/**
+	 * @return array 的第 index 个元素的地址
+	 */
+	int genElementAddress(int array, int index) {
+		return genAdd(array, genMul(index, genLoadImm4(4)));
+	}
+
+	int genLength(int array) {
+		return genLoad(array, -4, Program.LENGTH);
+	}
+
+	/**
+	 * 分配长度为 length（不检查）的数组，元素全为 0
+	 *
+	 * @return 指向第 0 个元素的指针，长度在其前 4 个字节
+	 */
+	int genAllocArray(int length) {
+		int four = genLoadImm4(4);
+		int size = genAdd(genMul(length, four), four);
+		int obj = genIntrinsicCall(Intrinsic.ALLOCATE, size);
+		genStore(length, obj, 0, Program.LENGTH);
+		return genAdd(obj, four);
+	}
+
+	int genNewArray(int length) {
+		genCheckNewArraySize(length);
+		return genAllocArray(length);
+	}
+
+	/**
+	 * 把 src 的 [from, from + count) 复制到 dst 的 [to, to + count)
+	 */
+	void genCopyElements(int src, int from, int dst, int to, int count,
+			int region) {
+		int i = genLoadImm4(0);
+		int one = genLoadImm4(1);
+		int loop = newLabel();
+		int exit = newLabel();
+		genMark(loop);
+		genBeqz(genLes(i, count), exit);
+		int v = genLoad(genElementAddress(src, genAdd(from, i)), 0, region);
+		genStore(v, genElementAddress(dst, genAdd(to, i)), 0, region);
+		genAssign(i, genAdd(i, one));
+		genBranch(loop);
+		genMark(exit);
+	}
+
+	/**
+	 * @return obj 是否为 c 或其子类的对象（null 时为 false）
+	 */
+	int genInstanceof(int obj, Class c) {
+		int result = newTemp();
+		int exit = newLabel();
+		int loop = newLabel();
+		int yes = newLabel();
+		genLoadImm4(result, 0);
+		genBeqz(obj, exit);
+		int target = genLoadVTable(getVTable(c));
+		int vt = genLoad(obj, 0, Program.HEADER);
+		genMark(loop);
+		genBnez(genEqu(vt, target), yes);
+		genAssign(vt, genLoad(vt, 0, Program.VTABLE));
+		genBnez(vt, loop);
+		genBranch(exit);
+		genMark(yes);
+		genLoadImm4(result, 1);
+		genMark(exit);
+		return result;
+	}
+
+	/**
+	 * 按 obj（不为 null）的运行时类新建对象，复制它的全部成员变量。
+	 * 运行时类是 c 或其子类：依次与各子类的虚表比较，都不是时为 c
+	 *
+	 * @return 新对象
+	 */
+	int genCopyObject(int obj, Class c) {
+		int copy = newTemp();
+		int exit = newLabel();
+		int vt = genLoad(obj, 0, Program.HEADER);
+		for (Class d : classes) {
+			if (d != c && isSubclass(d, c)) {
+				int next = newLabel();
+				genBeqz(genEqu(vt, genLoadVTable(getVTable(d))), next);
+				genCopyFields(obj, d, copy);
+				genBranch(exit);
+				genMark(next);
+			}
+		}
+		genCopyFields(obj, c, copy);
+		genMark(exit);
+		return copy;
+	}
+
+	private void genCopyFields(int obj, Class c, int copy) {
+		genAssign(copy, genDirectCall(getConstructor(c), true));
+		for (Variable f : getFields(c)) {
+			int region = fieldRegion(f);
+			genStore(genLoad(obj, f.getOffset(), region), copy, f.getOffset(),
+					region);
+		}
+	}
+
+	private static boolean isSubclass(Class d, Class c) {
+		for (Class a = d; a != null; a = a.getParent()) {
+			if (a == c) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * obj 不是 null 且不能转换为 c 时输出错误并结束程序
+	 */
+	void genCheckCast(int obj, Class c) {
+		int exit = newLabel();
+		genBeqz(obj, exit);
+		genBnez(genInstanceof(obj, c), exit);
+		genIntrinsicCall(Intrinsic.PRINT_STRING,
+				genLoadStrConst(RuntimeError.CLASS_CAST_ERROR1));
+		int name = genLoad(genLoad(obj, 0, Program.HEADER), 4, Program.VTABLE);
+		genIntrinsicCall(Intrinsic.PRINT_STRING, name);
+		genIntrinsicCall(Intrinsic.PRINT_STRING,
+				genLoadStrConst(RuntimeError.CLASS_CAST_ERROR2));
+		genIntrinsicCall(Intrinsic.PRINT_STRING, genLoadStrConst(c.getName()));
+		genIntrinsicCall(Intrinsic.PRINT_STRING,
+				genLoadStrConst(RuntimeError.CLASS_CAST_ERROR3));
+		genIntrinsicCall(Intrinsic.HALT);
+		genMark(exit);
+	}
+
+	/**
+	 * 生成类 c 的构造函数 _C_New：分配对象，成员全为 0，填上虚表
+	 */
+	void genNewForClass(Class c, Functy functy) {
+		constructors.put(c, functy);
+		program.addFunction(functy);
+		functy.begin(0);
+		currentFuncty = functy;
+		int obj = genIntrinsicCall(Intrinsic.ALLOCATE, genLoadImm4(c.getSize()));
+		genStore(genLoadVTable(getVTable(c)), obj, 0, Program.HEADER);
+		genReturn(obj);
+		currentFuncty = null;
+	}
+
+	Functy getConstructor(Class c) {
+		return constructors.get(c);
+	}
+}
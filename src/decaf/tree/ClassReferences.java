@@ -0,0 +1,57 @@
+package decaf.tree;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 收集一组类定义中引用到的所有类名（父类、类类型、new、类型转换、instanceof
+ * 以及可能是类名的静态调用接收者），按首次出现的顺序排列。
+ */
+public class ClassReferences extends TreeScanner {
+
+	private Set<String> names = new LinkedHashSet<String>();
+
+	public static Set<String> of(List<Tree.ClassDef> classes) {
+		ClassReferences refs = new ClassReferences();
+		refs.scan(classes);
+		return refs.names;
+	}
+
+	@Override
+	protected boolean enter(Tree tree) {
+		switch (tree.tag) {
+		case Tree.CLASSDEF:
+			if (((Tree.ClassDef) tree).parent != null) {
+				names.add(((Tree.ClassDef) tree).parent);
+			}
+			break;
+		case Tree.TYPECLASS:
+			names.add(((Tree.TypeClass) tree).name);
+			break;
+		case Tree.NEWCLASS:
+			names.add(((Tree.NewClass) tree).className);
+			break;
+		case Tree.TYPECAST:
+			names.add(((Tree.TypeCast) tree).className);
+			break;
+		case Tree.TYPETEST:
+			names.add(((Tree.TypeTest) tree).className);
+			break;
+		case Tree.CALLEXPR:
+			addReceiver(((Tree.CallExpr) tree).receiver);
+			break;
+		case Tree.IDENT:
+			addReceiver(((Tree.Ident) tree).owner);
+			break;
+		}
+		return true;
+	}
+
+	private void addReceiver(Tree.Expr receiver) {
+		if (receiver instanceof Tree.Ident
+				&& ((Tree.Ident) receiver).owner == null) {
+			names.add(((Tree.Ident) receiver).name);
+		}
+	}
+}
@@ -374,6 +374,11 @@ public abstract class Tree {
     	public List<Tree> fields;
     	public Class symbol;
         public boolean sealed;
+        /**
+         * 类名和父类名的位置，没有父类时 parentLoc 为 null
+         */
+        public Location nameLoc;
+        public Location parentLoc;
 
         public ClassDef(String name, String parent, List<Tree> fields, Location loc, boolean sealed) {
             super(CLASSDEF, loc);
@@ -801,11 +806,13 @@ public abstract class Tree {
     public static class NewClass extends Expr {
 
     	public String className;
+    	public Location nameLoc;
     	public Class symbol;
 
-        public NewClass(String className, Location loc) {
+        public NewClass(String className, Location loc, Location nameLoc) {
             super(NEWCLASS, loc);
     		this.className = className;
+    		this.nameLoc = nameLoc;
         }
 
     	@Override
@@ -1099,12 +1106,15 @@ public abstract class Tree {
     public static class TypeCast extends Expr {
 
     	public String className;
+    	public Location nameLoc;
     	public Expr expr;
     	public Class symbol;
 
-        public TypeCast(String className, Expr expr, Location loc) {
+        public TypeCast(String className, Expr expr, Location loc,
+        		Location nameLoc) {
             super(TYPECAST, loc);
     		this.className = className;
+    		this.nameLoc = nameLoc;
     		this.expr = expr;
        }
 
@@ -1130,12 +1140,15 @@ public abstract class Tree {
     	
     	public Expr instance;
     	public String className;
+    	public Location nameLoc;
     	public Class symbol;
 
-        public TypeTest(Expr instance, String className, Location loc) {
+        public TypeTest(Expr instance, String className, Location loc,
+        		Location nameLoc) {
             super(TYPETEST, loc);
     		this.instance = instance;
     		this.className = className;
+    		this.nameLoc = nameLoc;
         }
 
     	@Override
@@ -1332,10 +1345,15 @@ public abstract class Tree {
     public static class TypeClass extends TypeLiteral {
 
     	public String name;
+    	/**
+    	 * 类名的位置
+    	 */
+    	public Location nameLoc;
 
-    	public TypeClass(String name, Location loc) {
+    	public TypeClass(String name, Location loc, Location nameLoc) {
     		super(TYPECLASS, loc);
     		this.name = name;
+    		this.nameLoc = nameLoc;
     	}
 
     	@Override
@@ -1379,6 +1397,10 @@ public abstract class Tree {
         public Expr instance;
         public Location idName_loc;
         public Location expr_loc;
+        /**
+         * The destination variable, set by TypeCheck.
+         */
+        public Variable symbol;
 
         public Scopy(String idName, Expr instance, Location loc, Location loc1, Location loc2) {
             super(SCOPY, loc);
@@ -1648,21 +1670,29 @@ public abstract class Tree {
 
         public Expr _1;
         public String ident;
+        public Location ident_loc;
         public Expr _2;
         public Expr _3;
         public boolean _if = false;
+        /**
+         * The bound variable and the scope declaring it, set by TypeCheck.
+         */
+        public Variable symbol;
+        public LocalScope associatedScope;
 
-        public PythonArr(Location loc, Expr _1, String ident, Expr _2) {
+        public PythonArr(Location loc, Expr _1, String ident, Expr _2, Location ident_loc) {
             super(PYTHONARR, loc);
             this._1 = _1;
             this.ident = ident;
+            this.ident_loc = ident_loc;
             this._2 = _2;
         }
 
-        public PythonArr(Location loc, Expr _1, String ident, Expr _2, Expr _3) {
+        public PythonArr(Location loc, Expr _1, String ident, Expr _2, Expr _3, Location ident_loc) {
             super(PYTHONARR, loc);
             this._1 = _1;
             this.ident = ident;
+            this.ident_loc = ident_loc;
             this._2 = _2;
             this._3 = _3;
             _if = true;
@@ -1703,12 +1733,15 @@ public abstract class Tree {
         public Location b_loc;
         public Location s_loc;
 
-        public Foreach(Location loc, TypeLiteral type, String name, Expr _1, Tree stmt) {
+        public Foreach(Location loc, TypeLiteral type, String name, Expr _1, Tree stmt, Location x_loc, Location e_loc, Location s_loc) {
             super(FOREACH, loc);
             this.var_ = name;
             this._1 = _1;
             this._3 = stmt;
             this.type = type;
+            this.x_loc = x_loc;
+            this.e_loc = e_loc;
+            this.s_loc = s_loc;
             list.add(_1);
 
             if(stmt instanceof Block) {
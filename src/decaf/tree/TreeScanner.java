@@ -0,0 +1,110 @@
+package decaf.tree;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 通用的语法树遍历器<br>
+ * Tree.Visitor 要求为每种结点写一个 visit 方法；只关心少数几种结点的遍历
+ * （收集引用、统计结点等）可以继承本类，只实现 enter 即可。
+ * 子结点通过反射枚举结点类中类型为 Tree 或 List&lt;Tree&gt; 的 public 字段，
+ * 字段表按结点类缓存。
+ */
+public abstract class TreeScanner {
+
+	private static final Map<java.lang.Class<?>, Field[]> childFields = new ConcurrentHashMap<java.lang.Class<?>, Field[]>();
+
+	/**
+	 * 进入一个结点
+	 *
+	 * @return 是否继续遍历其子结点
+	 */
+	protected abstract boolean enter(Tree tree);
+
+	/**
+	 * 离开一个结点（其子结点均已遍历）
+	 */
+	protected void leave(Tree tree) {
+	}
+
+	public void scan(Tree tree) {
+		if (tree == null || !enter(tree)) {
+			return;
+		}
+		for (Tree child : children(tree)) {
+			scan(child);
+		}
+		leave(tree);
+	}
+
+	public void scan(List<? extends Tree> trees) {
+		for (Tree t : trees) {
+			scan(t);
+		}
+	}
+
+	/**
+	 * 按字段声明顺序返回结点的直接子结点
+	 */
+	public static List<Tree> children(Tree tree) {
+		Field[] fields = fieldsOf(tree.getClass());
+		if (fields.length == 0) {
+			return Collections.emptyList();
+		}
+		List<Tree> result = new ArrayList<Tree>();
+		try {
+			for (Field f : fields) {
+				Object value = f.get(tree);
+				if (value instanceof Tree) {
+					result.add((Tree) value);
+				} else if (value instanceof List) {
+					for (Object o : (List<?>) value) {
+						if (o instanceof Tree) {
+							result.add((Tree) o);
+						}
+					}
+				}
+			}
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+		return result;
+	}
+
+	private static Field[] fieldsOf(java.lang.Class<?> c) {
+		Field[] fields = childFields.get(c);
+		if (fields == null) {
+			List<Field> list = new ArrayList<Field>();
+			collect(c, list);
+			fields = list.toArray(new Field[list.size()]);
+			childFields.put(c, fields);
+		}
+		return fields;
+	}
+
+	private static void collect(java.lang.Class<?> c, List<Field> list) {
+		if (c == Tree.class || c == Object.class) {
+			return;
+		}
+		collect(c.getSuperclass(), list);
+		for (Field f : c.getDeclaredFields()) {
+			int m = f.getModifiers();
+			if (!Modifier.isPublic(m) || Modifier.isStatic(m)) {
+				continue;
+			}
+			// Foreach 的 _1/_2/_3 已被复制进 foreachblock，各遍都只访问后者
+			if (c == Tree.Foreach.class && f.getName().startsWith("_")) {
+				continue;
+			}
+			if (Tree.class.isAssignableFrom(f.getType())
+					|| List.class.isAssignableFrom(f.getType())) {
+				list.add(f);
+			}
+		}
+	}
+}
@@ -17,6 +17,10 @@ public class ArrayType extends Type {
 		if (type.equal(BaseType.ERROR)) {
 			return true;
 		}
+		// 空数组常量
+		if (elementType.equal(BaseType.UNKNOWN) && type.isArrayType()) {
+			return true;
+		}
 		return equal(type);
 	}
 
@@ -1,6 +1,7 @@
 package decaf.typecheck;
 
 import java.util.Iterator;
+import java.util.List;
 
 import decaf.Driver;
 import decaf.tree.Tree;
@@ -13,9 +14,12 @@ import decaf.error.DecafError;
 import decaf.error.DeclConflictError;
 import decaf.error.NoMainClassError;
 import decaf.error.OverridingVarError;
+import decaf.jfr.ClassEvent;
+import decaf.jfr.Events;
 import decaf.scope.ClassScope;
 import decaf.scope.GlobalScope;
 import decaf.scope.LocalScope;
+import decaf.scope.Scope;
 import decaf.scope.ScopeStack;
 import decaf.symbol.Class;
 import decaf.symbol.Function;
@@ -45,19 +49,61 @@ public class BuildSym extends Tree.Visitor {
 	public void visitTopLevel(Tree.TopLevel program) {
 		program.globalScope = new GlobalScope();
 		table.open(program.globalScope);
+		declareClasses(program);
+		resolveClasses(program.classes);
+
 		for (Tree.ClassDef cd : program.classes) {
-			Class c = new Class(cd.name, cd.parent, cd.getLocation());
-			Class earlier = table.lookupClass(cd.name);
-			if (earlier != null) {
-				issueError(new DeclConflictError(cd.getLocation(), cd.name,
-						earlier.getLocation()));
-			} else {
-				table.declare(c);
+			if (Driver.getDriver().getErrorSink().isFull()) {
+				break;
 			}
-			cd.symbol = c;
+			cd.accept(this);
 		}
 
+		checkOverrides(program.classes);
+		checkMain(program);
+		table.close();
+	}
+
+	/**
+	 * 在（已经打开的）全局作用域中声明 program 中的所有类，
+	 * 并从接口文件载入它们引用到的其他类
+	 */
+	public void declareClasses(Tree.TopLevel program) {
 		for (Tree.ClassDef cd : program.classes) {
+			declareClass(cd);
+		}
+
+		// 其余编译单元中的类从接口文件载入
+		if (Driver.getDriver().getInterfaceLoader() != null) {
+			Driver.getDriver().getInterfaceLoader().loadReferenced(program);
+		}
+	}
+
+	/**
+	 * 在（已经打开的）全局作用域中声明一个类，与已声明的类重名时报错且不声明
+	 */
+	public void declareClass(Tree.ClassDef cd) {
+		Class c = new Class(cd.name, cd.parent, cd.getLocation());
+		Class earlier = table.lookupClass(cd.name);
+		if (earlier != null) {
+			issueError(new DeclConflictError(cd.getLocation(), cd.name,
+					earlier.getLocation()));
+		} else {
+			table.declare(c);
+		}
+		cd.symbol = c;
+	}
+
+	/**
+	 * 检查父类是否存在、继承关系是否成环，然后建立类类型
+	 */
+	public void resolveClasses(List<Tree.ClassDef> classes) {
+		checkInheritance(classes);
+		createTypes(classes);
+	}
+
+	public void checkInheritance(List<Tree.ClassDef> classes) {
+		for (Tree.ClassDef cd : classes) {
 			Class c = cd.symbol;
 			if (cd.parent != null && c.getParent() == null) {
 				issueError(new ClassNotFoundError(cd.getLocation(), cd.parent));
@@ -68,38 +114,56 @@ public class BuildSym extends Tree.Visitor {
 				c.dettachParent();
 			}
 		}
+	}
 
-		for (Tree.ClassDef cd : program.classes) {
+	public void createTypes(List<Tree.ClassDef> classes) {
+		for (Tree.ClassDef cd : classes) {
 			cd.symbol.createType();
 		}
+	}
 
+	public void checkOverrides(List<Tree.ClassDef> classes) {
+		for (Tree.ClassDef cd : classes) {
+			checkOverride(cd.symbol);
+		}
+	}
+
+	public void checkMain(Tree.TopLevel program) {
+		String mainClassName = Driver.getDriver().getOption()
+				.getMainClassName();
 		for (Tree.ClassDef cd : program.classes) {
-			cd.accept(this);
-			if (Driver.getDriver().getOption().getMainClassName().equals(
-					cd.name)) {
+			if (mainClassName.equals(cd.name)) {
 				program.main = cd.symbol;
 			}
 		}
-
-		for (Tree.ClassDef cd : program.classes) {
-			checkOverride(cd.symbol);
+		if (program.main == null) {
+			program.main = table.lookupClass(mainClassName);
 		}
-
-		if (!isMainClass(program.main)) {
-			issueError(new NoMainClassError(Driver.getDriver().getOption()
-					.getMainClassName()));
+		if (!Driver.getDriver().getOption().isLibrary()
+				&& !isMainClass(program.main)) {
+			issueError(new NoMainClassError(mainClassName));
 		}
-		table.close();
 	}
 
 	// visiting declarations
 	@Override
 	public void visitClassDef(Tree.ClassDef classDef) {
+		ClassEvent event = new ClassEvent("symbols");
+		event.begin();
+		int errors = event.isEnabled() ? Events.errors() : 0;
 		table.open(classDef.symbol.getAssociatedScope());
 		for (Tree f : classDef.fields) {
 			f.accept(this);
 		}
 		table.close();
+		event.end();
+		if (event.shouldCommit()) {
+			event.className = classDef.name;
+			event.members = classDef.fields.size();
+			event.nodes = Events.countNodes(classDef);
+			event.errors = Events.errors() - errors;
+			event.commit();
+		}
 	}
 
 	@Override
@@ -135,7 +199,8 @@ public class BuildSym extends Tree.Visitor {
 	public void visitMethodDef(Tree.MethodDef funcDef) {
 		funcDef.returnType.accept(this);
 		Function f = new Function(funcDef.statik, funcDef.name,
-				funcDef.returnType.type, funcDef.body, funcDef.getLocation());
+				funcDef.returnType.type, funcDef.body, funcDef.getLocation(),
+				((ClassScope) table.lookForScope(Scope.Kind.CLASS)).getOwner());
 		funcDef.symbol = f;
 		Symbol sym = table.lookup(funcDef.name, false);
 		if (sym != null) {
@@ -149,7 +214,14 @@ public class BuildSym extends Tree.Visitor {
 			d.accept(this);
 			f.appendParam(d.symbol);
 		}
+		buildBody(funcDef);
+		table.close();
+	}
 
+	/**
+	 * 建立方法体的局部作用域，调用时方法的形参作用域应当已经打开
+	 */
+	private void buildBody(Tree.MethodDef funcDef) {
 		funcDef.body.associatedScope = new LocalScope(funcDef.body);
 		funcDef.body.associatedScope.setCombinedtoFormal(true);
 		table.open(funcDef.body.associatedScope);
@@ -157,6 +229,21 @@ public class BuildSym extends Tree.Visitor {
 			s.accept(this);
 		}
 		table.close();
+	}
+
+	/**
+	 * 增量分析替换了 funcDef 的方法体后，为新的方法体重新建立局部作用域，
+	 * 方法本身的符号保持不变
+	 */
+	public static void rebuildBody(Tree.TopLevel program,
+			Tree.ClassDef classDef, Tree.MethodDef funcDef) {
+		ScopeStack table = new ScopeStack();
+		table.open(program.globalScope);
+		table.open(classDef.symbol.getAssociatedScope());
+		table.open(funcDef.symbol.getAssociatedScope());
+		funcDef.symbol.getAssociatedScope().setAstNode(funcDef.body);
+		new BuildSym(table).buildBody(funcDef);
+		table.close();
 		table.close();
 	}
 
@@ -301,6 +388,9 @@ public class BuildSym extends Tree.Visitor {
 			if(((Tree.TypeIdent)foreach.type).typeTag == Tree.UNKNOWN) {
 				v = new Variable(foreach.var_, BaseType.UNKNOWN, foreach.x_loc);
 				table.declare(v);
+			} else {
+				v = new Variable(foreach.var_, foreach.type.type, foreach.x_loc);
+				table.declare(v);
 			}
 		}
 		else {
@@ -338,6 +428,7 @@ public class BuildSym extends Tree.Visitor {
 		ClassScope subScope = c.getAssociatedScope();
 		table.open(parentScope);
 		Iterator<Symbol> iter = subScope.iterator();
+		boolean removed = false;
 		while (iter.hasNext()) {
 			Symbol suspect = iter.next();
 			Symbol sym = table.lookup(suspect.getName(), true);
@@ -347,26 +438,33 @@ public class BuildSym extends Tree.Visitor {
 					issueError(new DeclConflictError(suspect.getLocation(),
 							suspect.getName(), sym.getLocation()));
 					iter.remove();
+					removed = true;
 				} else if (suspect.isFunction()) {
 					if (((Function) suspect).isStatik()
 							|| ((Function) sym).isStatik()) {
 						issueError(new DeclConflictError(suspect.getLocation(),
 								suspect.getName(), sym.getLocation()));
 						iter.remove();
+						removed = true;
 					} else if (!suspect.getType().compatible(sym.getType())) {
 						issueError(new BadOverrideError(suspect.getLocation(),
 								suspect.getName(),
 								((ClassScope) sym.getScope()).getOwner()
 										.getName()));
 						iter.remove();
+						removed = true;
 					}
 				} else if (suspect.isVariable()) {
 					issueError(new OverridingVarError(suspect.getLocation(),
 							suspect.getName()));
 					iter.remove();
+					removed = true;
 				}
 			}
 		}
+		if (removed) {
+			subScope.membersChanged();
+		}
 		table.close();
 		c.setCheck(true);
 	}
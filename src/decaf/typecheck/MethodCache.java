@@ -0,0 +1,776 @@
+package decaf.typecheck;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import decaf.Driver;
+import decaf.Location;
+import decaf.error.DecafError;
+import decaf.error.ReplayedError;
+import decaf.iface.InterfaceFile;
+import decaf.iface.InterfaceLoader;
+import decaf.scope.ClassScope;
+import decaf.scope.GlobalScope;
+import decaf.scope.LocalScope;
+import decaf.scope.Scope;
+import decaf.scope.ScopeStack;
+import decaf.symbol.Class;
+import decaf.symbol.Function;
+import decaf.symbol.Symbol;
+import decaf.symbol.Variable;
+import decaf.tree.Tree;
+import decaf.tree.TreeScanner;
+import decaf.type.Type;
+import decaf.utils.MiscUtils;
+
+/**
+ * 方法体类型检查结果的缓存<br>
+ * 检查一个方法体时记录它在类作用域中做过的所有查找（包括没有找到的）及所得成员的签名，
+ * 以及它报告的错误和它对局部作用域的修改（var 变量的类型推导、foreach 变量）。
+ * 建立交叉引用索引时还记录方法体中名字的使用和声明，符号按名字（局部变量再加上声明位置）记下。
+ * 下次编译时，若方法的语法树（行号取相对于方法开头的值）、方法自身的签名和所有依赖的签名都没有变，
+ * 就直接重放记录的错误和修改，不再检查这个方法体。<br>
+ * 类的集合、继承关系和 sealed 标记（决定类型相容性）变化时整个缓存失效。<br>
+ * 被跳过的方法体没有类型标注，因此只能用于只输出作用域（-l 1）的编译。
+ */
+public class MethodCache {
+
+	private static final int MAGIC = 0xDECAFCAC;
+
+	private static final short VERSION = 3;
+
+	private static final int NO_LINE = Integer.MIN_VALUE;
+
+	/**
+	 * 方法体中报告的一个错误，行号相对于方法开头
+	 */
+	private static final class Diagnostic {
+
+		int line;
+
+		int column;
+
+		String message;
+	}
+
+	/**
+	 * 方法体对某个局部作用域中一个变量的修改
+	 */
+	private static final class Effect {
+
+		int scope;
+
+		String name;
+
+		int line;
+
+		int column;
+
+		byte[] type;
+	}
+
+	private static final int CLASS = 0;
+
+	private static final int MEMBER = 1;
+
+	private static final int LOCAL = 2;
+
+	/**
+	 * 方法体中一个名字的使用或声明，行号相对于方法开头<br>
+	 * 所指的符号是类、类的成员（owner 为类名）或局部变量和参数
+	 * （symbolLine 和 symbolColumn 是符号自身的位置）。
+	 */
+	private static final class Use {
+
+		boolean definition;
+
+		int kind;
+
+		int line;
+
+		int column;
+
+		String owner;
+
+		String name;
+
+		int symbolLine;
+
+		int symbolColumn;
+	}
+
+	/**
+	 * 在同一个进程中反复编译时提供方法体的新语法树<br>
+	 * 类型检查会改写语法树（补上隐含的 this 等），检查过的方法体不能再检查一次，
+	 * 需要重新检查时由它换上一棵新分析出来的、同样内容的方法体并为其建立作用域。
+	 */
+	public interface BodySource {
+
+		void reparse(Tree.MethodDef func);
+	}
+
+	private static final class Entry {
+
+		String hash;
+
+		String signature;
+
+		Map<String, String> dependencies = new LinkedHashMap<String, String>();
+
+		List<Diagnostic> diagnostics = new ArrayList<Diagnostic>();
+
+		List<Effect> effects = new ArrayList<Effect>();
+
+		/**
+		 * 不建立交叉引用索引时检查的方法体为 null
+		 */
+		List<Use> uses;
+	}
+
+	/**
+	 * 检查一个方法体时的记录器
+	 */
+	public final class Recorder implements ScopeStack.LookupListener {
+
+		private String key;
+
+		private int base;
+
+		private Entry entry = new Entry();
+
+		private Recorder(String key, int base, String hash, String signature) {
+			this.key = key;
+			this.base = base;
+			entry.hash = hash;
+			entry.signature = signature;
+		}
+
+		@Override
+		public void lookedUp(ClassScope scope, String name, Symbol symbol) {
+			entry.dependencies.put(
+					scope.getOwner().getName() + "." + name,
+					signatureOf(symbol));
+		}
+
+		public void error(DecafError error) {
+			Diagnostic d = new Diagnostic();
+			if (error.getLocation() == null) {
+				d.line = NO_LINE;
+			} else {
+				d.line = error.getLocation().getLine() - base;
+				d.column = error.getLocation().getColumn();
+			}
+			d.message = ReplayedError.messageOf(error);
+			entry.diagnostics.add(d);
+		}
+
+		public void use(Location loc, Symbol symbol) {
+			record(false, loc, symbol);
+		}
+
+		public void definition(Location loc, Symbol symbol) {
+			record(true, loc, symbol);
+		}
+
+		private void record(boolean definition, Location loc, Symbol symbol) {
+			if (loc == null || loc == Location.NO_LOCATION) {
+				return;
+			}
+			Use u = new Use();
+			u.definition = definition;
+			u.line = loc.getLine() - base;
+			u.column = loc.getColumn();
+			u.name = symbol.getName();
+			if (symbol.isClass()) {
+				u.kind = CLASS;
+			} else if (symbol.getScope() != null
+					&& symbol.getScope().isClassScope()) {
+				u.kind = MEMBER;
+				u.owner = ((ClassScope) symbol.getScope()).getOwner().getName();
+			} else {
+				if (symbol.getLocation() == null
+						|| symbol.getLocation() == Location.NO_LOCATION) {
+					return;
+				}
+				u.kind = LOCAL;
+				u.symbolLine = symbol.getLocation().getLine() - base;
+				u.symbolColumn = symbol.getLocation().getColumn();
+			}
+			entry.uses.add(u);
+		}
+
+		/**
+		 * 方法体检查完毕，记录它对局部作用域的修改
+		 */
+		public void finish(Tree.MethodDef func) {
+			List<LocalScope> scopes = scopesOf(func);
+			for (int i = 0; i < scopes.size(); i++) {
+				Iterator<Symbol> iter = scopes.get(i).iterator();
+				while (iter.hasNext()) {
+					Symbol symbol = iter.next();
+					Effect e = new Effect();
+					e.scope = i;
+					e.name = symbol.getName();
+					if (symbol.getLocation() == null) {
+						e.line = NO_LINE;
+					} else {
+						e.line = symbol.getLocation().getLine() - base;
+						e.column = symbol.getLocation().getColumn();
+					}
+					e.type = encode(symbol.getType());
+					entry.effects.add(e);
+				}
+			}
+			current.put(key, entry);
+			misses++;
+		}
+	}
+
+	private static final Map<java.lang.Class<?>, Field[]> scalarFields = new ConcurrentHashMap<java.lang.Class<?>, Field[]>();
+
+	/**
+	 * 上次编译留下的记录
+	 */
+	private Map<String, Entry> previous = new HashMap<String, Entry>();
+
+	/**
+	 * 本次编译中检查或重放过的方法
+	 */
+	private Map<String, Entry> current = new HashMap<String, Entry>();
+
+	/**
+	 * 上次和本次编译中见过的方法体的摘要，按语法树对象区分；
+	 * 见过的方法体可能已被类型检查改写，不能再计算摘要
+	 */
+	private Map<Tree.Block, String> previousBodies = new IdentityHashMap<Tree.Block, String>();
+
+	private Map<Tree.Block, String> currentBodies = new IdentityHashMap<Tree.Block, String>();
+
+	private BodySource bodySource;
+
+	private String source;
+
+	private String hierarchy = "";
+
+	private GlobalScope globalScope;
+
+	private InterfaceLoader resolver;
+
+	private int hits;
+
+	private int misses;
+
+	public MethodCache(String source) {
+		this.source = source;
+	}
+
+	public void setBodySource(BodySource bodySource) {
+		this.bodySource = bodySource;
+	}
+
+	/**
+	 * 开始一次类型检查，program 已经建立好符号表
+	 */
+	public void begin(Tree.TopLevel program) {
+		globalScope = program.globalScope;
+		// 只在全局作用域中解析类名，不会去载入接口文件
+		resolver = new InterfaceLoader(Collections.<File> emptyList());
+		resolver.setGlobalScope(globalScope);
+		String h = hierarchyOf(program);
+		if (!h.equals(hierarchy)) {
+			previous.clear();
+			hierarchy = h;
+		}
+		hits = misses = 0;
+	}
+
+	/**
+	 * 结束一次类型检查，本次的记录成为下次编译的依据
+	 */
+	public void end() {
+		previous = current;
+		current = new HashMap<String, Entry>();
+		previousBodies = currentBodies;
+		currentBodies = new IdentityHashMap<Tree.Block, String>();
+		globalScope = null;
+		resolver = null;
+	}
+
+	/**
+	 * 若缓存中对 func 的记录仍然有效，重放记录的错误和作用域修改
+	 *
+	 * @param xref
+	 *            不为 null 时还要把方法体中名字的使用和声明记入其中，
+	 *            没有记录这些的缓存项视为无效
+	 * @return 已经重放时返回 null，否则返回一个记录器，调用者应当在检查方法体时使用它
+	 */
+	public Recorder replayOrRecord(Tree.MethodDef func, XrefIndex xref) {
+		String key = keyOf(func);
+		String hash = previousBodies.get(func.body);
+		boolean seen = hash != null;
+		if (!seen) {
+			hash = hashOf(func);
+		}
+		String signature = signatureOf(func.symbol);
+		int base = func.getLocation().getLine();
+		Entry entry = previous.get(key);
+		if (entry == null || !entry.signature.equals(signature)
+				|| !entry.hash.equals(hash) || !isValid(entry) || xref != null
+				&& entry.uses == null) {
+			if (seen && bodySource != null) {
+				bodySource.reparse(func);
+			}
+			currentBodies.put(func.body, hash);
+			Recorder recorder = new Recorder(key, base, hash, signature);
+			if (xref != null) {
+				recorder.entry.uses = new ArrayList<Use>();
+			}
+			return recorder;
+		}
+		currentBodies.put(func.body, hash);
+
+		for (Diagnostic d : entry.diagnostics) {
+			Driver.getDriver().issueError(
+					new ReplayedError(d.line == NO_LINE ? null : new Location(
+							base + d.line, d.column), d.message));
+		}
+		List<LocalScope> scopes = scopesOf(func);
+		for (Effect e : entry.effects) {
+			LocalScope scope = scopes.get(e.scope);
+			Type type = decode(e.type);
+			Symbol symbol = scope.lookup(e.name);
+			if (symbol == null) {
+				scope.declare(new Variable(e.name, type, e.line == NO_LINE ? null
+						: new Location(base + e.line, e.column)));
+			} else {
+				symbol.setType(type);
+			}
+		}
+		if (xref != null) {
+			replayUses(func, base, entry.uses, xref);
+		}
+		current.put(key, entry);
+		hits++;
+		return null;
+	}
+
+	private void replayUses(Tree.MethodDef func, int base, List<Use> uses,
+			XrefIndex xref) {
+		Map<String, Symbol> locals = null;
+		for (Use u : uses) {
+			Symbol symbol;
+			if (u.kind == CLASS) {
+				symbol = globalScope.lookup(u.name);
+			} else if (u.kind == MEMBER) {
+				symbol = currentMember(u.owner, u.name);
+			} else {
+				if (locals == null) {
+					locals = localsOf(func, base);
+				}
+				symbol = locals.get(u.symbolLine + "," + u.symbolColumn + " "
+						+ u.name);
+			}
+			if (symbol == null) {
+				continue;
+			}
+			Location loc = new Location(base + u.line, u.column);
+			if (u.definition) {
+				xref.recordDefinition(loc, symbol);
+			} else {
+				xref.recordUse(loc, symbol);
+			}
+		}
+	}
+
+	private boolean isValid(Entry entry) {
+		for (Map.Entry<String, String> d : entry.dependencies.entrySet()) {
+			if (!d.getValue().equals(currentSignature(d.getKey()))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public int getHits() {
+		return hits;
+	}
+
+	public int getMisses() {
+		return misses;
+	}
+
+	/**
+	 * 读入缓存文件，文件不存在、已损坏或属于其他源文件时返回空缓存
+	 */
+	public static MethodCache load(File file, String source) {
+		MethodCache cache = new MethodCache(source);
+		if (!file.isFile()) {
+			return cache;
+		}
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
+			if (in.readInt() != MAGIC || in.readShort() != VERSION
+					|| !in.readUTF().equals(source)) {
+				return cache;
+			}
+			cache.hierarchy = in.readUTF();
+			int n = in.readInt();
+			for (int i = 0; i < n; i++) {
+				String key = in.readUTF();
+				cache.previous.put(key, readEntry(in));
+			}
+		} catch (IOException e) {
+			return new MethodCache(source);
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+		return cache;
+	}
+
+	public void save(File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeShort(VERSION);
+			out.writeUTF(source);
+			out.writeUTF(hierarchy);
+			out.writeInt(previous.size());
+			for (Map.Entry<String, Entry> e : previous.entrySet()) {
+				out.writeUTF(e.getKey());
+				writeEntry(out, e.getValue());
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private static Entry readEntry(DataInputStream in) throws IOException {
+		Entry entry = new Entry();
+		entry.hash = in.readUTF();
+		entry.signature = in.readUTF();
+		int n = in.readInt();
+		for (int i = 0; i < n; i++) {
+			entry.dependencies.put(in.readUTF(), in.readUTF());
+		}
+		n = in.readInt();
+		for (int i = 0; i < n; i++) {
+			Diagnostic d = new Diagnostic();
+			d.line = in.readInt();
+			d.column = in.readInt();
+			d.message = in.readUTF();
+			entry.diagnostics.add(d);
+		}
+		n = in.readInt();
+		for (int i = 0; i < n; i++) {
+			Effect e = new Effect();
+			e.scope = in.readInt();
+			e.name = in.readUTF();
+			e.line = in.readInt();
+			e.column = in.readInt();
+			e.type = new byte[in.readUnsignedShort()];
+			in.readFully(e.type);
+			entry.effects.add(e);
+		}
+		n = in.readInt();
+		if (n >= 0) {
+			entry.uses = new ArrayList<Use>();
+		}
+		for (int i = 0; i < n; i++) {
+			Use u = new Use();
+			u.definition = in.readBoolean();
+			u.kind = in.readByte();
+			u.line = in.readInt();
+			u.column = in.readInt();
+			u.owner = u.kind == MEMBER ? in.readUTF() : null;
+			u.name = in.readUTF();
+			u.symbolLine = in.readInt();
+			u.symbolColumn = in.readInt();
+			entry.uses.add(u);
+		}
+		return entry;
+	}
+
+	private static void writeEntry(DataOutputStream out, Entry entry)
+			throws IOException {
+		out.writeUTF(entry.hash);
+		out.writeUTF(entry.signature);
+		out.writeInt(entry.dependencies.size());
+		for (Map.Entry<String, String> d : entry.dependencies.entrySet()) {
+			out.writeUTF(d.getKey());
+			out.writeUTF(d.getValue());
+		}
+		out.writeInt(entry.diagnostics.size());
+		for (Diagnostic d : entry.diagnostics) {
+			out.writeInt(d.line);
+			out.writeInt(d.column);
+			out.writeUTF(d.message);
+		}
+		out.writeInt(entry.effects.size());
+		for (Effect e : entry.effects) {
+			out.writeInt(e.scope);
+			out.writeUTF(e.name);
+			out.writeInt(e.line);
+			out.writeInt(e.column);
+			out.writeShort(e.type.length);
+			out.write(e.type);
+		}
+		out.writeInt(entry.uses == null ? -1 : entry.uses.size());
+		if (entry.uses != null) {
+			for (Use u : entry.uses) {
+				out.writeBoolean(u.definition);
+				out.writeByte(u.kind);
+				out.writeInt(u.line);
+				out.writeInt(u.column);
+				if (u.kind == MEMBER) {
+					out.writeUTF(u.owner);
+				}
+				out.writeUTF(u.name);
+				out.writeInt(u.symbolLine);
+				out.writeInt(u.symbolColumn);
+			}
+		}
+	}
+
+	private static String keyOf(Tree.MethodDef func) {
+		return func.symbol.getScope() == null ? func.name : func.symbol
+				.getScope().getOwner().getName()
+				+ "." + func.name;
+	}
+
+	private static String signatureOf(Symbol symbol) {
+		if (symbol == null) {
+			return "-";
+		}
+		if (symbol.isFunction()) {
+			return (((Function) symbol).isStatik() ? "static " : "")
+					+ symbol.getType();
+		}
+		return symbol.isClass() ? "class" : symbol.getType().toString();
+	}
+
+	/**
+	 * @param key
+	 *            类名.成员名
+	 */
+	private String currentSignature(String key) {
+		int dot = key.indexOf('.');
+		if (!isClass(globalScope.lookup(key.substring(0, dot)))) {
+			return null;
+		}
+		return signatureOf(currentMember(key.substring(0, dot), key
+				.substring(dot + 1)));
+	}
+
+	private static boolean isClass(Symbol symbol) {
+		return symbol != null && symbol.isClass();
+	}
+
+	/**
+	 * @return 当前符号表中类 owner 的成员 name，没有时为 null
+	 */
+	private Symbol currentMember(String owner, String name) {
+		Symbol c = globalScope.lookup(owner);
+		return isClass(c) ? ((Class) c).getAssociatedScope().lookup(name)
+				: null;
+	}
+
+	/**
+	 * 方法的参数和方法体中声明的所有变量，以“相对行,列 名字”为键
+	 */
+	private static Map<String, Symbol> localsOf(Tree.MethodDef func, int base) {
+		List<Scope> scopes = new ArrayList<Scope>();
+		scopes.add(func.symbol.getAssociatedScope());
+		scopes.addAll(scopesOf(func));
+		Map<String, Symbol> locals = new HashMap<String, Symbol>();
+		for (Scope scope : scopes) {
+			Iterator<Symbol> iter = scope.iterator();
+			while (iter.hasNext()) {
+				Symbol symbol = iter.next();
+				Location loc = symbol.getLocation();
+				if (loc != null && loc != Location.NO_LOCATION) {
+					locals.put(loc.getLine() - base + "," + loc.getColumn()
+							+ " " + symbol.getName(), symbol);
+				}
+			}
+		}
+		return locals;
+	}
+
+	/**
+	 * 所有类的名字、父类和 sealed 标记的摘要
+	 */
+	private static String hierarchyOf(Tree.TopLevel program) {
+		Map<String, Boolean> sealed = new HashMap<String, Boolean>();
+		for (Tree.ClassDef cd : program.classes) {
+			sealed.put(cd.name, cd.sealed);
+		}
+		StringBuilder sb = new StringBuilder();
+		Iterator<Symbol> iter = program.globalScope.iterator();
+		while (iter.hasNext()) {
+			Class c = (Class) iter.next();
+			Class p = c.getParent();
+			Boolean s = sealed.get(c.getName());
+			sb.append(c.getName()).append(':')
+					.append(p == null ? "" : p.getName()).append(':')
+					.append(s == null ? c.getSealed() : s).append(';');
+		}
+		return MiscUtils.digest(bytesOf(sb));
+	}
+
+	/**
+	 * 方法语法树的摘要：结点类型、各结点的标量字段，位置的行号取相对于方法开头的值
+	 */
+	private static String hashOf(final Tree.MethodDef func) {
+		final int base = func.getLocation().getLine();
+		final StringBuilder sb = new StringBuilder();
+		new TreeScanner() {
+
+			@Override
+			protected boolean enter(Tree tree) {
+				sb.append('(').append(tree.getClass().getSimpleName());
+				try {
+					for (Field f : scalarFieldsOf(tree.getClass())) {
+						Object value = f.get(tree);
+						sb.append(' ');
+						if (value instanceof Location) {
+							Location loc = (Location) value;
+							sb.append(loc.getLine() - base).append(',')
+									.append(loc.getColumn());
+						} else if (value instanceof String) {
+							sb.append(MiscUtils.quote((String) value));
+						} else {
+							sb.append(value);
+						}
+					}
+				} catch (IllegalAccessException e) {
+					throw new IllegalStateException(e);
+				}
+				return true;
+			}
+
+			@Override
+			protected void leave(Tree tree) {
+				sb.append(')');
+			}
+
+		}.scan(func);
+		return MiscUtils.digest(bytesOf(sb));
+	}
+
+	/**
+	 * 结点类中的标量字段（基本类型、字符串、位置以及字面量的值），不含分析过程中填写的字段
+	 */
+	private static Field[] scalarFieldsOf(java.lang.Class<?> c) {
+		Field[] fields = scalarFields.get(c);
+		if (fields == null) {
+			List<Field> list = new ArrayList<Field>();
+			for (java.lang.Class<?> k = c; k != Object.class; k = k
+					.getSuperclass()) {
+				for (Field f : k.getDeclaredFields()) {
+					int m = f.getModifiers();
+					java.lang.Class<?> t = f.getType();
+					if (Modifier.isPublic(m) && !Modifier.isStatic(m)
+							&& (t == int.class || t == String.class
+									|| t == Location.class || t == Object.class || t == boolean.class
+									&& !isAnalysisFlag(f.getName()))) {
+						list.add(f);
+					}
+				}
+			}
+			fields = list.toArray(new Field[list.size()]);
+			scalarFields.put(c, fields);
+		}
+		return fields;
+	}
+
+	/**
+	 * 类型检查时才设置的布尔标记
+	 */
+	private static boolean isAnalysisFlag(String name) {
+		return name.equals("usedForRef") || name.equals("isClass")
+				|| name.equals("isArrayLength");
+	}
+
+	/**
+	 * 方法体中所有局部作用域，按语法树先序排列<br>
+	 * 数组推导式的作用域由类型检查建立，重放时还没有，这里补上一个空的作用域
+	 */
+	private static List<LocalScope> scopesOf(Tree.MethodDef func) {
+		final List<LocalScope> scopes = new ArrayList<LocalScope>();
+		new TreeScanner() {
+
+			@Override
+			protected boolean enter(Tree tree) {
+				if (tree instanceof Tree.Block
+						&& ((Tree.Block) tree).associatedScope != null) {
+					scopes.add(((Tree.Block) tree).associatedScope);
+				} else if (tree instanceof Tree.PythonArr) {
+					Tree.PythonArr p = (Tree.PythonArr) tree;
+					if (p.associatedScope == null) {
+						p.associatedScope = new LocalScope(null);
+					}
+					scopes.add(p.associatedScope);
+				}
+				return true;
+			}
+
+		}.scan(func.body);
+		return scopes;
+	}
+
+	private static byte[] encode(Type type) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			InterfaceFile.writeType(out, type);
+			out.close();
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private Type decode(byte[] type) {
+		try {
+			return InterfaceFile.readType(new DataInputStream(
+					new ByteArrayInputStream(type)), resolver);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static byte[] bytesOf(StringBuilder sb) {
+		try {
+			return sb.toString().getBytes("UTF-8");
+		} catch (java.io.UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
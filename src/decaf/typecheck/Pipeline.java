@@ -0,0 +1,671 @@
+package decaf.typecheck;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import decaf.Driver;
+import decaf.Location;
+import decaf.error.ErrorSink;
+import decaf.frontend.BaseParser;
+import decaf.scope.GlobalScope;
+import decaf.scope.LocalScope;
+import decaf.scope.ScopeStack;
+import decaf.symbol.Class;
+import decaf.symbol.Symbol;
+import decaf.symbol.Variable;
+import decaf.tree.Tree;
+import decaf.tree.TreeScanner;
+import decaf.type.BaseType;
+
+/**
+ * 流水线方式的前端：语法分析、建立符号表和类型检查在三个线程上同时进行<br>
+ * 语法分析器每分析完一个类就把它放入有界队列；符号表线程声明这个类，
+ * 一旦一个类的祖先和它用到的类名都已声明就检查继承关系、建立成员符号并检查覆盖，
+ * 再按源文件中的顺序把类交给类型检查线程（同样经过有界队列）。
+ * 类型检查一个类之前，它可能查找到的所有类（方法体中引用的类名，以及这些类的祖先和成员签名中的类，
+ * 递归地）都必须已经完成，任何一个名字尚未声明时只能等整个文件分析完。<br>
+ * 输出与分阶段编译完全相同：有语法错误时丢弃后两个阶段报告的错误，
+ * 有符号表错误时丢弃类型检查报告的错误（ErrorSink 的缓冲区是每个线程一个，可以各自撤销）。
+ */
+public final class Pipeline implements BaseParser.ClassListener {
+
+	/**
+	 * 队列的容量：语法分析领先后面的阶段太多时暂停，限制尚未处理的类占用的内存
+	 */
+	private static final int CAPACITY = 1024;
+
+	/**
+	 * 队列中表示输入结束的标记
+	 */
+	private static final Tree.ClassDef END = new Tree.ClassDef(null, null,
+			null, Location.NO_LOCATION);
+
+	private static final int DECLARED = 0;
+
+	private static final int RESOLVED = 1;
+
+	private static final int BUILT = 2;
+
+	private static final int COMPLETE = 3;
+
+	/**
+	 * 符号表线程对一个类的记录
+	 */
+	private static final class Unit {
+
+		Tree.ClassDef tree;
+
+		int state = DECLARED;
+
+		/**
+		 * 类中出现的所有类型名，都已声明并确定了继承关系后才能建立成员符号
+		 */
+		List<String> typeNames;
+
+		/**
+		 * typeNames 中前 resolvedTypes 个已经满足条件
+		 */
+		int resolvedTypes;
+
+		/**
+		 * 父类和成员签名中的类名，其他类用到本类时也会用到它们
+		 */
+		Set<String> signatureNames;
+
+		Unit(Tree.ClassDef tree) {
+			this.tree = tree;
+		}
+	}
+
+	/**
+	 * 继承关系成环，只能等到最后由 BuildSym 报错
+	 */
+	private static final Object CYCLE = new Object();
+
+	private ErrorSink errors;
+
+	private GlobalScope globalScope;
+
+	private BlockingQueue<Tree.ClassDef> parsed = new ArrayBlockingQueue<Tree.ClassDef>(
+			CAPACITY);
+
+	private BlockingQueue<Tree.ClassDef> ready = new ArrayBlockingQueue<Tree.ClassDef>(
+			CAPACITY);
+
+	private volatile Tree.TopLevel program;
+
+	private volatile boolean parseFailed;
+
+	private volatile boolean symbolsFailed;
+
+	private volatile Throwable failure;
+
+	// 以下只由符号表线程访问
+
+	private ScopeStack table;
+
+	private BuildSym builder;
+
+	private List<Unit> units = new ArrayList<Unit>();
+
+	private Map<Class, Unit> unitOf = new IdentityHashMap<Class, Unit>();
+
+	/**
+	 * 等待某个名字被声明（键为 String）或某个类前进一步（键为 Class）的类
+	 */
+	private Map<Object, List<Unit>> waiters = new HashMap<Object, List<Unit>>();
+
+	/**
+	 * 等待的条件已经变化、需要重新尝试的类
+	 */
+	private Deque<Unit> woken = new ArrayDeque<Unit>();
+
+	/**
+	 * 下一个交给类型检查的类
+	 */
+	private int cursor;
+
+	/**
+	 * 已知可以查找到的类都已完成的类，求依赖闭包时不必再展开
+	 */
+	private Set<Class> settled = Collections
+			.newSetFromMap(new IdentityHashMap<Class, Boolean>());
+
+	/**
+	 * cursor 处的类尚未求完的依赖闭包：已展开的类和待查的名字
+	 */
+	private Set<Class> walkSeen;
+
+	private List<String> walkNames;
+
+	private Pipeline(ErrorSink errors) {
+		this.errors = errors;
+		globalScope = new GlobalScope(true);
+	}
+
+	/**
+	 * 用 parser 分析输入，同时建立符号表并做类型检查
+	 *
+	 * @return 语法树，有语法错误时为 null
+	 */
+	public static Tree.TopLevel compile(BaseParser parser) {
+		return new Pipeline(Driver.getDriver().getErrorSink()).run(parser);
+	}
+
+	private Tree.TopLevel run(BaseParser parser) {
+		// Class.getParent 经由 Driver 的作用域栈查找父类
+		Driver.getDriver().getTable().open(globalScope);
+		Thread symbols = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				buildSymbols();
+			}
+
+		}, "decaf-symbols");
+		Thread checker = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				checkTypes();
+			}
+
+		}, "decaf-typecheck");
+		symbols.setDaemon(true);
+		checker.setDaemon(true);
+		symbols.start();
+		checker.start();
+
+		parser.setClassListener(this);
+		int before = errors.issuedHere();
+		Tree.TopLevel tree;
+		try {
+			tree = parser.parseFile();
+			parseFailed = tree == null || errors.issuedHere() > before;
+			if (tree != null) {
+				tree.globalScope = globalScope;
+			}
+			program = tree;
+		} catch (RuntimeException e) {
+			parseFailed = true;
+			throw e;
+		} finally {
+			parser.setClassListener(null);
+			put(parsed, END);
+		}
+		try {
+			symbols.join();
+			checker.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+		Driver.getDriver().getTable().close();
+		// 有语法错误时后面的阶段可能因不完整的输入而失败，它们的结果反正都要丢弃
+		if (failure != null && !parseFailed) {
+			throw new IllegalStateException(failure);
+		}
+		return parseFailed ? null : tree;
+	}
+
+	@Override
+	public void classParsed(Tree.ClassDef classDef) {
+		put(parsed, classDef);
+	}
+
+	private static void put(BlockingQueue<Tree.ClassDef> queue,
+			Tree.ClassDef classDef) {
+		try {
+			queue.put(classDef);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static Tree.ClassDef take(BlockingQueue<Tree.ClassDef> queue) {
+		try {
+			return queue.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * 符号表线程
+	 */
+	private void buildSymbols() {
+		int mark = errors.mark();
+		int before = errors.issuedHere();
+		boolean ended = false;
+		try {
+			table = new ScopeStack();
+			table.open(globalScope);
+			builder = new BuildSym(table);
+			while (true) {
+				Tree.ClassDef cd = take(parsed);
+				if (cd == END) {
+					ended = true;
+					break;
+				}
+				Unit unit = new Unit(cd);
+				builder.declareClass(cd);
+				unitOf.put(cd.symbol, unit);
+				units.add(unit);
+				TypeNames names = TypeNames.of(cd);
+				unit.typeNames = new ArrayList<String>(names.all);
+				unit.signatureNames = names.signature;
+				wake(cd.name);
+				woken.add(unit);
+				advance();
+				if (errors.issuedHere() == before) {
+					forward();
+				}
+			}
+			if (!parseFailed) {
+				finish();
+				symbolsFailed = errors.issuedHere() > before;
+				if (!symbolsFailed) {
+					while (cursor < units.size()) {
+						put(ready, units.get(cursor++).tree);
+					}
+				}
+			}
+		} catch (Throwable e) {
+			failure = e;
+			symbolsFailed = true;
+			// 继续取走语法分析器放入的类，以免它在队列满时一直等待
+			while (!ended && take(parsed) != END) {
+			}
+		} finally {
+			if (parseFailed) {
+				errors.reset(mark);
+			}
+			put(ready, END);
+		}
+	}
+
+	/**
+	 * 让所有被唤醒的类尽量前进，每个类只在它等待的条件变化时才重新尝试
+	 */
+	private void advance() {
+		while (!woken.isEmpty()) {
+			Unit unit = woken.poll();
+			Object blocker = null;
+			while (blocker == null && unit.state < COMPLETE) {
+				switch (unit.state) {
+				case DECLARED:
+					blocker = chainBlocker(unit);
+					if (blocker == null) {
+						List<Tree.ClassDef> one = Collections
+								.singletonList(unit.tree);
+						builder.checkInheritance(one);
+						builder.createTypes(one);
+						setState(unit, RESOLVED);
+					}
+					break;
+				case RESOLVED:
+					blocker = typeBlocker(unit);
+					if (blocker == null) {
+						unit.tree.accept(builder);
+						setState(unit, BUILT);
+					}
+					break;
+				case BUILT:
+					blocker = ancestorBlocker(unit.tree.symbol);
+					if (blocker == null) {
+						builder.checkOverrides(Collections
+								.singletonList(unit.tree));
+						setState(unit, COMPLETE);
+					}
+					break;
+				}
+			}
+			if (blocker != null && blocker != CYCLE) {
+				List<Unit> list = waiters.get(blocker);
+				if (list == null) {
+					list = new ArrayList<Unit>();
+					waiters.put(blocker, list);
+				}
+				list.add(unit);
+			}
+		}
+	}
+
+	private void setState(Unit unit, int state) {
+		unit.state = state;
+		wake(unit.tree.symbol);
+	}
+
+	private void wake(Object key) {
+		List<Unit> list = waiters.remove(key);
+		if (list != null) {
+			woken.addAll(list);
+		}
+	}
+
+	/**
+	 * 按源文件中的顺序把可以做类型检查的类交给类型检查线程
+	 */
+	private void forward() {
+		while (cursor < units.size() && isCheckable(units.get(cursor))) {
+			put(ready, units.get(cursor++).tree);
+		}
+	}
+
+	/**
+	 * 整个文件分析完后处理剩下的类，顺序与 BuildSym 相同
+	 */
+	private void finish() {
+		List<Tree.ClassDef> rest = new ArrayList<Tree.ClassDef>();
+		for (Unit unit : units) {
+			if (unit.state == DECLARED) {
+				rest.add(unit.tree);
+				unit.state = RESOLVED;
+			}
+		}
+		builder.checkInheritance(rest);
+		builder.createTypes(rest);
+		rest.clear();
+		for (Unit unit : units) {
+			if (unit.state == RESOLVED) {
+				unit.tree.accept(builder);
+				unit.state = BUILT;
+			}
+			if (unit.state == BUILT) {
+				rest.add(unit.tree);
+				unit.state = COMPLETE;
+			}
+		}
+		builder.checkOverrides(rest);
+		builder.checkMain(program);
+	}
+
+	/**
+	 * @return 祖先都已声明且不成环时为 null，否则为尚未声明的祖先名或 CYCLE
+	 *         （父类不存在和成环的情况留到最后由 BuildSym 报错）
+	 */
+	private Object chainBlocker(Unit unit) {
+		Set<Class> seen = Collections
+				.newSetFromMap(new IdentityHashMap<Class, Boolean>());
+		seen.add(unit.tree.symbol);
+		for (String name = unit.tree.parent; name != null;) {
+			Class c = table.lookupClass(name);
+			if (c == null) {
+				return name;
+			}
+			if (!seen.add(c)) {
+				return CYCLE;
+			}
+			Unit u = unitOf.get(c);
+			if (u.state >= RESOLVED) {
+				return null;
+			}
+			name = u.tree.parent;
+		}
+		return null;
+	}
+
+	/**
+	 * @return 类中第一个尚未声明的类型名或尚未确定继承关系的类，都满足时为 null
+	 */
+	private Object typeBlocker(Unit unit) {
+		for (; unit.resolvedTypes < unit.typeNames.size(); unit.resolvedTypes++) {
+			String name = unit.typeNames.get(unit.resolvedTypes);
+			Class c = table.lookupClass(name);
+			if (c == null) {
+				return name;
+			}
+			if (unitOf.get(c).state < RESOLVED) {
+				return c;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return 第一个尚未建立成员符号的祖先，都已建立时为 null
+	 */
+	private Object ancestorBlocker(Class c) {
+		for (Class p = c.getParent(); p != null; p = p.getParent()) {
+			if (unitOf.get(p).state < BUILT) {
+				return p;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 类型检查 unit 时可能查找到的类是否都已完成<br>
+	 * 依赖闭包的求值在条件不满足时暂停，下次从暂停处继续；求完后闭包中的类都记入 settled，
+	 * 之后的类遇到它们不必再展开，因此总的代价与所有类的签名大小之和成正比。
+	 */
+	private boolean isCheckable(Unit unit) {
+		if (unit.state < COMPLETE) {
+			return false;
+		}
+		if (walkNames == null) {
+			walkSeen = Collections
+					.newSetFromMap(new IdentityHashMap<Class, Boolean>());
+			walkNames = new ArrayList<String>(BodyNames.of(unit.tree,
+					globalScope));
+		}
+		while (!walkNames.isEmpty()) {
+			String name = walkNames.get(walkNames.size() - 1);
+			Class c = table.lookupClass(name);
+			if (c == null) {
+				// 可能是稍后才出现的类
+				return false;
+			}
+			if (settled.contains(c) || walkSeen.contains(c)) {
+				walkNames.remove(walkNames.size() - 1);
+				continue;
+			}
+			Unit u = unitOf.get(c);
+			if (u.state < COMPLETE) {
+				return false;
+			}
+			walkSeen.add(c);
+			walkNames.remove(walkNames.size() - 1);
+			walkNames.addAll(u.signatureNames);
+		}
+		settled.addAll(walkSeen);
+		walkSeen = null;
+		walkNames = null;
+		return true;
+	}
+
+	/**
+	 * 类型检查线程
+	 */
+	private void checkTypes() {
+		int mark = errors.mark();
+		try {
+			ScopeStack table = new ScopeStack();
+			table.open(globalScope);
+			TypeCheck checker = new TypeCheck(table);
+			for (Tree.ClassDef cd = take(ready); cd != END; cd = take(ready)) {
+				cd.accept(checker);
+			}
+		} catch (Throwable e) {
+			failure = e;
+			while (take(ready) != END) {
+			}
+		} finally {
+			if (parseFailed || symbolsFailed) {
+				errors.reset(mark);
+			}
+		}
+	}
+
+	/**
+	 * 一遍收集一个类中出现的所有类型名（TypeClass），以及其中父类和成员签名中的类名
+	 */
+	private static final class TypeNames extends TreeScanner {
+
+		private Set<String> all = new LinkedHashSet<String>();
+
+		private Set<String> signature = new LinkedHashSet<String>();
+
+		private boolean inBody;
+
+		static TypeNames of(Tree.ClassDef cd) {
+			TypeNames scanner = new TypeNames();
+			if (cd.parent != null) {
+				scanner.signature.add(cd.parent);
+			}
+			scanner.scan(cd);
+			return scanner;
+		}
+
+		@Override
+		protected boolean enter(Tree tree) {
+			switch (tree.tag) {
+			case Tree.TYPECLASS:
+				all.add(((Tree.TypeClass) tree).name);
+				if (!inBody) {
+					signature.add(((Tree.TypeClass) tree).name);
+				}
+				break;
+			case Tree.METHODDEF:
+				Tree.MethodDef md = (Tree.MethodDef) tree;
+				scan(md.returnType);
+				scan(md.formals);
+				inBody = true;
+				scan(md.body);
+				inBody = false;
+				return false;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * 收集类型检查一个类时可能在全局作用域中查找的名字：
+	 * 类型名、new、类型转换、instanceof 中的类名，以及在局部、形参和类作用域中找不到的标识符。
+	 * 作用域的打开和关闭与 TypeCheck 相同，类型检查时才声明的 foreach 变量这里看不到，
+	 * 只会多算名字，不会漏掉。
+	 */
+	private static final class BodyNames extends TreeScanner {
+
+		private Set<String> names = new LinkedHashSet<String>();
+
+		private ScopeStack table = new ScopeStack();
+
+		static Set<String> of(Tree.ClassDef cd, GlobalScope globalScope) {
+			BodyNames scanner = new BodyNames();
+			scanner.table.open(globalScope);
+			scanner.scan(cd);
+			return scanner.names;
+		}
+
+		@Override
+		protected boolean enter(Tree tree) {
+			switch (tree.tag) {
+			case Tree.CLASSDEF:
+				Tree.ClassDef cd = (Tree.ClassDef) tree;
+				if (cd.parent != null) {
+					names.add(cd.parent);
+				}
+				table.open(cd.symbol.getAssociatedScope());
+				break;
+			case Tree.METHODDEF:
+				table.open(((Tree.MethodDef) tree).symbol.getAssociatedScope());
+				break;
+			case Tree.BLOCK:
+				if (((Tree.Block) tree).associatedScope != null) {
+					table.open(((Tree.Block) tree).associatedScope);
+				}
+				break;
+			case Tree.FOREACH:
+				scanForeach((Tree.Foreach) tree);
+				return false;
+			case Tree.PYTHONARR:
+				scanPythonArr((Tree.PythonArr) tree);
+				return false;
+			case Tree.TYPECLASS:
+				names.add(((Tree.TypeClass) tree).name);
+				break;
+			case Tree.NEWCLASS:
+				names.add(((Tree.NewClass) tree).className);
+				break;
+			case Tree.TYPECAST:
+				names.add(((Tree.TypeCast) tree).className);
+				break;
+			case Tree.TYPETEST:
+				names.add(((Tree.TypeTest) tree).className);
+				break;
+			case Tree.IDENT:
+				Tree.Ident ident = (Tree.Ident) tree;
+				if (ident.owner == null && !ident.var) {
+					Symbol s = table.lookupBeforeLocation(ident.name, ident
+							.getLocation());
+					if (s == null || s.isClass()) {
+						names.add(ident.name);
+					}
+				}
+				break;
+			}
+			return true;
+		}
+
+		/**
+		 * 与 TypeCheck.visitForeach 访问同样的结点
+		 */
+		private void scanForeach(Tree.Foreach foreach) {
+			scan(foreach.type);
+			List<Tree> block = foreach.foreachblock.block;
+			table.open(foreach.foreachblock.associatedScope);
+			scan(block.get(0));
+			if (foreach._while) {
+				scan(block.get(1));
+			}
+			for (int i = foreach._while ? 2 : 1; i < block.size(); i++) {
+				scan(block.get(i));
+			}
+			table.close();
+		}
+
+		/**
+		 * 与 TypeCheck.visitPythonArr 访问同样的结点，绑定的变量放在临时的局部作用域中
+		 */
+		private void scanPythonArr(Tree.PythonArr pythonArr) {
+			scan(pythonArr._2);
+			LocalScope scope = new LocalScope(null);
+			table.open(scope);
+			table.declare(new Variable(pythonArr.ident, BaseType.ERROR,
+					pythonArr.getLocation()));
+			if (pythonArr._if) {
+				scan(pythonArr._3);
+			}
+			scan(pythonArr._1);
+			table.close();
+		}
+
+		@Override
+		protected void leave(Tree tree) {
+			switch (tree.tag) {
+			case Tree.CLASSDEF:
+			case Tree.METHODDEF:
+				table.close();
+				break;
+			case Tree.BLOCK:
+				if (((Tree.Block) tree).associatedScope != null) {
+					table.close();
+				}
+				break;
+			}
+		}
+	}
+}
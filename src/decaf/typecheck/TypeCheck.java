@@ -9,6 +9,9 @@ import decaf.Location;
 import decaf.tree.Tree;
 import decaf.error.*;
 import decaf.frontend.Parser;
+import decaf.jfr.ClassEvent;
+import decaf.jfr.Events;
+import decaf.jfr.MethodEvent;
 import decaf.scope.ClassScope;
 import decaf.scope.FormalScope;
 import decaf.scope.Scope;
@@ -29,15 +32,58 @@ public class TypeCheck extends Tree.Visitor {
 
 	private Function currentFunction;
 
+	private MethodCache cache;
+
+	private MethodCache.Recorder recorder;
+
+	private XrefIndex xref;
+
 	public TypeCheck(ScopeStack table) {
 		this.table = table;
 		breaks = new Stack<Tree>();
 	}
 
+	public TypeCheck(ScopeStack table, MethodCache cache) {
+		this(table);
+		this.cache = cache;
+	}
+
 	public static void checkType(Tree.TopLevel tree) {
 		new TypeCheck(Driver.getDriver().getTable()).visitTopLevel(tree);
 	}
 
+	/**
+	 * 类型检查，同时把每个名字的使用处记入 xref
+	 */
+	public static void checkType(Tree.TopLevel tree, XrefIndex xref) {
+		TypeCheck checker = new TypeCheck(Driver.getDriver().getTable());
+		checker.xref = xref;
+		checker.visitTopLevel(tree);
+		xref.freeze();
+	}
+
+	/**
+	 * 类型检查，输入没有变化的方法体直接重放 cache 中的结果
+	 */
+	public static void checkType(Tree.TopLevel tree, MethodCache cache) {
+		cache.begin(tree);
+		new TypeCheck(Driver.getDriver().getTable(), cache).visitTopLevel(tree);
+		cache.end();
+	}
+
+	/**
+	 * 使用缓存的类型检查，同时建立交叉引用索引：重放的方法体也重放其中记录的名字
+	 */
+	public static void checkType(Tree.TopLevel tree, MethodCache cache,
+			XrefIndex xref) {
+		cache.begin(tree);
+		TypeCheck checker = new TypeCheck(Driver.getDriver().getTable(), cache);
+		checker.xref = xref;
+		checker.visitTopLevel(tree);
+		cache.end();
+		xref.freeze();
+	}
+
 	@Override
 	public void visitBinary(Tree.Binary expr) {
 		expr.type = checkBinaryOp(expr.left, expr.right, expr.tag, expr.loc);
@@ -128,6 +174,7 @@ public class TypeCheck extends Tree.Visitor {
 		} else {
 			Function func = (Function) f;
 			callExpr.symbol = func;
+			recordUse(callExpr.getLocation(), func);
 			callExpr.type = func.getReturnType();
 			if (callExpr.receiver == null && currentFunction.isStatik()
 					&& !func.isStatik()) {
@@ -180,7 +227,7 @@ public class TypeCheck extends Tree.Visitor {
 	public void visitCallExpr(Tree.CallExpr callExpr) {
 		if (callExpr.receiver == null) {
 			ClassScope cs = (ClassScope) table.lookForScope(Kind.CLASS);
-			checkCallExpr(callExpr, cs.lookupVisible(callExpr.method));
+			checkCallExpr(callExpr, table.lookupMember(cs, callExpr.method));
 			return;
 		}
 		callExpr.receiver.usedForRef = true;
@@ -216,7 +263,7 @@ public class TypeCheck extends Tree.Visitor {
 
 		ClassScope cs = ((ClassType) callExpr.receiver.type)
 				.getClassScope();
-		checkCallExpr(callExpr, cs.lookupVisible(callExpr.method));
+		checkCallExpr(callExpr, table.lookupMember(cs, callExpr.method));
 	}
 
 	@Override
@@ -253,6 +300,7 @@ public class TypeCheck extends Tree.Visitor {
 					newClass.className));
 			newClass.type = BaseType.ERROR;
 		} else {
+			recordUse(newClass.nameLoc, c);
 			newClass.type = c.getType();
 		}
 	}
@@ -281,6 +329,8 @@ public class TypeCheck extends Tree.Visitor {
 		if (c == null) {
 			issueError(new ClassNotFoundError(instanceofExpr.getLocation(),
 					instanceofExpr.className));
+		} else {
+			recordUse(instanceofExpr.nameLoc, c);
 		}
 	}
 
@@ -298,6 +348,7 @@ public class TypeCheck extends Tree.Visitor {
 					cast.className));
 			cast.type = BaseType.ERROR;
 		} else {
+			recordUse(cast.nameLoc, c);
 			cast.type = c.getType();
 		}
 	}
@@ -315,6 +366,7 @@ public class TypeCheck extends Tree.Visitor {
 					Variable var = (Variable) v;
 					ident.type = var.getType();
 					ident.symbol = var;
+					recordUse(ident.getLocation(), var);
 					if (var.isLocalVar()) {
 						ident.lvKind = Tree.LValue.Kind.LOCAL_VAR;
 					} else if (var.isParam()) {
@@ -334,6 +386,7 @@ public class TypeCheck extends Tree.Visitor {
 					if (v.isClass()) {
 						if (ident.usedForRef) {
 							ident.isClass = true;
+							recordUse(ident.getLocation(), v);
 						} else {
 							issueError(new UndeclVarError(ident.getLocation(),
 									ident.name));
@@ -354,7 +407,7 @@ public class TypeCheck extends Tree.Visitor {
 					} else {
 						ClassScope cs = ((ClassType) ident.owner.type)
 								.getClassScope();
-						Symbol v = cs.lookupVisible(ident.name);
+						Symbol v = table.lookupMember(cs, ident.name);
 						if (v == null) {
 							issueError(new FieldNotFoundError(ident.getLocation(),
 									ident.name, ident.owner.type.toString()));
@@ -371,6 +424,7 @@ public class TypeCheck extends Tree.Visitor {
 							} else {
 								ident.symbol = (Variable) v;
 								ident.lvKind = Tree.LValue.Kind.MEMBER_VAR;
+								recordUse(ident.getLocation(), v);
 							}
 						} else {
 							ident.type = v.getType();
@@ -395,12 +449,17 @@ public class TypeCheck extends Tree.Visitor {
 
 	@Override
 	public void visitClassDef(Tree.ClassDef classDef) {
+		ClassEvent event = new ClassEvent("typecheck");
+		event.begin();
+		int errors = event.isEnabled() ? Events.errors() : 0;
 		table.open(classDef.symbol.getAssociatedScope());
+		recordDefinition(classDef.nameLoc, classDef.symbol);
 		if(classDef.sealed) {
 			table.lookup(classDef.name, true).setSealed(true);
 		}
 		if(classDef.parent != null) {
 			Symbol v = table.lookup(classDef.parent, true);
+			recordUse(classDef.parentLoc, v);
 			if(v.getSealed()) {
 				issueError(new BadSealedInherError(classDef.getLocation()));
 			}
@@ -409,25 +468,82 @@ public class TypeCheck extends Tree.Visitor {
 			f.accept(this);
 		}
 		table.close();
+		event.end();
+		if (event.shouldCommit()) {
+			event.className = classDef.name;
+			event.members = classDef.fields.size();
+			event.nodes = Events.countNodes(classDef);
+			event.errors = Events.errors() - errors;
+			event.commit();
+		}
 	}
 
 	@Override
 	public void visitMethodDef(Tree.MethodDef func) {
+		MethodEvent event = new MethodEvent();
+		event.begin();
+		int errors = event.isEnabled() ? Events.errors() : 0;
+		if (xref != null) {
+			// 签名不属于方法体，不经过缓存
+			recordDefinition(func.getLocation(), func.symbol);
+			recordTypeUses(func.returnType);
+			for (Tree.VarDef formal : func.formals) {
+				formal.accept(this);
+			}
+		}
+		boolean checked = checkMethod(func);
+		event.end();
+		if (event.shouldCommit()) {
+			event.className = func.symbol.getScope().getOwner().getName();
+			event.methodName = func.name;
+			event.nodes = Events.countNodes(func);
+			event.errors = Events.errors() - errors;
+			event.replayed = !checked;
+			event.commit();
+		}
+	}
+
+	/**
+	 * @return 是否真的检查了方法体（而不是重放了缓存中的结果）
+	 */
+	private boolean checkMethod(Tree.MethodDef func) {
 		this.currentFunction = func.symbol;
+		if (cache != null) {
+			recorder = cache.replayOrRecord(func, xref);
+			if (recorder == null) {
+				return false;
+			}
+			table.setListener(recorder);
+		}
 		table.open(func.symbol.getAssociatedScope());
 		func.body.accept(this);
 		table.close();
+		if (recorder != null) {
+			table.setListener(null);
+			recorder.finish(func);
+			recorder = null;
+		}
+		return true;
 	}
 
 	@Override
 	public void visitTopLevel(Tree.TopLevel program) {
 		table.open(program.globalScope);
 		for (Tree.ClassDef cd : program.classes) {
+			if (Driver.getDriver().getErrorSink().isFull()) {
+				break;
+			}
 			cd.accept(this);
 		}
 		table.close();
 	}
 
+	@Override
+	public void visitVarDef(Tree.VarDef varDef) {
+		recordDefinition(varDef.getLocation(), varDef.symbol);
+		recordTypeUses(varDef.type);
+	}
+
 	@Override
 	public void visitBlock(Tree.Block block) {
 		table.open(block.associatedScope);
@@ -446,6 +562,7 @@ public class TypeCheck extends Tree.Visitor {
 			Symbol symbol = table.lookup(((Tree.Ident)assign.left).name, false);
 			assign.left.type = assign.expr.type;
 			symbol.setType(assign.expr.type);
+			recordDefinition(assign.left.getLocation(), symbol);
 		}
 		if (!assign.left.type.equal(BaseType.ERROR)
 				&& (assign.left.type.isFuncType() || !assign.expr.type
@@ -566,6 +683,7 @@ public class TypeCheck extends Tree.Visitor {
 					typeClass.name));
 			typeClass.type = BaseType.ERROR;
 		} else {
+			recordUse(typeClass.nameLoc, c);
 			typeClass.type = c.getType();
 		}
 	}
@@ -590,6 +708,7 @@ public class TypeCheck extends Tree.Visitor {
 			issueError(new UndeclVarError(scopy.idName_loc, scopy.idName));
 			scopy.type = BaseType.ERROR;
 		} else {
+			recordUse(scopy.idName_loc, v);
 			scopy.instance.accept(this);
 			if(!v.getType().isClassType()) {
 				issueError(new BadScopyArgError(scopy.idName_loc, "dst", v.getType().toString()));
@@ -601,6 +720,9 @@ public class TypeCheck extends Tree.Visitor {
 				if(!(scopy.instance.type == v.getType())) {
 					issueError(new BadScopySrcError(scopy.expr_loc, v.getType().toString(), scopy.instance.type.toString()));
 				} // TODO check this message
+				if (v.isVariable()) {
+					scopy.symbol = (Variable) v;
+				}
 				/*else
 					scopy.type = v.getType();*/
 			}
@@ -705,23 +827,23 @@ public class TypeCheck extends Tree.Visitor {
 	@Override
 	public void visitForeach(Tree.Foreach foreach) {
 		table.open(foreach.foreachblock.associatedScope);
-		Tree _1 = foreach.foreachblock.block.get(0);
+		Tree.Expr _1 = (Tree.Expr) foreach.foreachblock.block.get(0);
 		_1.accept(this);
 		Tree _2 = null;
 		if(foreach._while) {
+			// 条件中可以使用循环变量，在声明之后再检查
 			_2 = foreach.foreachblock.block.get(1);
-			_2.accept(this);
 		}
 		if(foreach.type instanceof Tree.TypeIdent && ((Tree.TypeIdent)foreach.type).typeTag == Tree.UNKNOWN) { // VAR
-			if(!((Tree.Ident)_1).type.equal(BaseType.ERROR)) {
-				if(!((Tree.Ident)_1).type.isArrayType()) {
+			if(!_1.type.equal(BaseType.ERROR)) {
+				if(!_1.type.isArrayType()) {
 					Variable v = new Variable(foreach.var_, BaseType.ERROR, foreach.x_loc);
 					//foreach.symbol = new Variable(".error", BaseType.ERROR, foreach.x_loc);
 					issueError(new BadArrOperArgError(foreach.e_loc));
 					table.declare(v);
 				} else {
 					//System.out.println("**********************");
-					Variable v = new Variable(foreach.var_, ((ArrayType)(((Tree.Ident)_1).type)).getElementType(), foreach.x_loc);
+					Variable v = new Variable(foreach.var_, ((ArrayType)(_1.type)).getElementType(), foreach.x_loc);
 					//foreach.symbol = v;
 					table.declare(v);
 				}
@@ -733,10 +855,12 @@ public class TypeCheck extends Tree.Visitor {
 			}
 		} else { //TYPE
 			//System.out.println("name = " + ((Tree.Ident)_1).name);
-			if(!((Tree.Ident)_1).type.isArrayType()) {
+			if(!_1.type.isArrayType()) {
 				issueError(new BadArrOperArgError(foreach.e_loc));
 			}
 		}
+		recordDefinition(foreach.x_loc, table.lookup(foreach.var_, false));
+		recordTypeUses(foreach.type);
 		if(foreach._while) {
 			((Tree.Expr)_2).accept(this);
 			if (!((Tree.Expr)_2).type.equal(BaseType.ERROR) && !((Tree.Expr)_2).type.equal(BaseType.BOOL)) {
@@ -744,14 +868,148 @@ public class TypeCheck extends Tree.Visitor {
 			}
 		}
 		breaks.add(foreach);
-		for(int i=2;i<foreach.foreachblock.block.size();i++) {
+		// 循环体从数组（和 while 条件）之后开始
+		for(int i = foreach._while ? 2 : 1;i<foreach.foreachblock.block.size();i++) {
 			foreach.foreachblock.block.get(i).accept(this);
 		}
 		breaks.pop();
 		table.close();
 	}
 
+	@Override
+	public void visitArrayConstant(Tree.ArrayConstant arrayConstant) {
+		// 空数组的元素类型未知，可以赋给任何数组类型
+		Type elementType = BaseType.UNKNOWN;
+		boolean error = false;
+		if (!arrayConstant.empty) {
+			for (Tree.Expr e : arrayConstant.elist) {
+				e.accept(this);
+				if (e == arrayConstant.elist.get(0)) {
+					elementType = e.type;
+				} else if (!e.type.equal(elementType)) {
+					issueError(new BadArrElementError(e.getLocation()));
+					error = true;
+				}
+			}
+		}
+		arrayConstant.type = error || elementType.equal(BaseType.ERROR) ? BaseType.ERROR
+				: new ArrayType(elementType);
+	}
+
+	@Override
+	public void visitArrayConcat(Tree.ArrayConcat arrayConcat) {
+		arrayConcat.left.accept(this);
+		arrayConcat.right.accept(this);
+		Type left = arrayConcat.left.type;
+		Type right = arrayConcat.right.type;
+		arrayConcat.type = BaseType.ERROR;
+		if (left.equal(BaseType.ERROR) || right.equal(BaseType.ERROR)) {
+			return;
+		}
+		if (!left.isArrayType()) {
+			issueError(new BadArrOperArgError(arrayConcat.left.getLocation()));
+		} else if (!right.isArrayType()) {
+			issueError(new BadArrOperArgError(arrayConcat.right.getLocation()));
+		} else if (left.compatible(right)) {
+			arrayConcat.type = right;
+		} else if (right.compatible(left)) {
+			arrayConcat.type = left;
+		} else {
+			issueError(new IncompatBinOpError(arrayConcat.getLocation(), left
+					.toString(), "++", right.toString()));
+		}
+	}
+
+	@Override
+	public void visitSubArray(Tree.SubArray subArray) {
+		subArray._1.accept(this);
+		subArray._3.accept(this);
+		subArray._5.accept(this);
+		if (subArray._1.type.isArrayType()) {
+			subArray.type = subArray._1.type;
+		} else {
+			if (!subArray._1.type.equal(BaseType.ERROR)) {
+				issueError(new BadArrOperArgError(subArray._1.getLocation()));
+			}
+			subArray.type = BaseType.ERROR;
+		}
+		for (Tree.Expr e : new Tree.Expr[] { subArray._3, subArray._5 }) {
+			if (!e.type.equal(BaseType.ERROR) && !e.type.equal(BaseType.INT)) {
+				issueError(new BadArrIndexError(e.getLocation()));
+			}
+		}
+	}
+
+	@Override
+	public void visitPythonArr(Tree.PythonArr pythonArr) {
+		pythonArr._2.accept(this);
+		Type elementType = BaseType.ERROR;
+		if (pythonArr._2.type.isArrayType()) {
+			elementType = ((ArrayType) pythonArr._2.type).getElementType();
+		} else if (!pythonArr._2.type.equal(BaseType.ERROR)) {
+			issueError(new BadArrOperArgError(pythonArr._2.getLocation()));
+		}
+		// 绑定的变量只在元素表达式和条件中可见，位置取整个表达式的开头，使它先于所有的使用
+		pythonArr.associatedScope = new LocalScope(null);
+		pythonArr.symbol = new Variable(pythonArr.ident, elementType,
+				pythonArr.getLocation());
+		recordDefinition(pythonArr.ident_loc, pythonArr.symbol);
+		table.open(pythonArr.associatedScope);
+		table.declare(pythonArr.symbol);
+		if (pythonArr._if) {
+			checkTestExpr(pythonArr._3);
+		}
+		pythonArr._1.accept(this);
+		table.close();
+		Type t = pythonArr._1.type;
+		if (t.equal(BaseType.ERROR)) {
+			pythonArr.type = BaseType.ERROR;
+		} else if (t.equal(BaseType.VOID) || t.equal(BaseType.UNKNOWN)) {
+			issueError(new BadArrElementError(pythonArr._1.getLocation()));
+			pythonArr.type = BaseType.ERROR;
+		} else {
+			pythonArr.type = new ArrayType(t);
+		}
+	}
+
+	private void recordUse(Location loc, Symbol symbol) {
+		if (xref != null && symbol != null) {
+			xref.recordUse(loc, symbol);
+			if (recorder != null) {
+				recorder.use(loc, symbol);
+			}
+		}
+	}
+
+	private void recordDefinition(Location loc, Symbol symbol) {
+		if (xref != null && symbol != null) {
+			xref.recordDefinition(loc, symbol);
+			if (recorder != null) {
+				recorder.definition(loc, symbol);
+			}
+		}
+	}
+
+	/**
+	 * 记录声明的类型中用到的类名，类型已由 BuildSym 解析
+	 */
+	private void recordTypeUses(Tree.TypeLiteral type) {
+		if (xref == null) {
+			return;
+		}
+		while (type instanceof Tree.TypeArray) {
+			type = ((Tree.TypeArray) type).elementType;
+		}
+		if (type instanceof Tree.TypeClass && type.type instanceof ClassType) {
+			recordUse(((Tree.TypeClass) type).nameLoc, ((ClassType) type.type)
+					.getSymbol());
+		}
+	}
+
 	private void issueError(DecafError error) {
+		if (recorder != null) {
+			recorder.error(error);
+		}
 		Driver.getDriver().issueError(error);
 	}
 
@@ -0,0 +1,263 @@
+package decaf.typecheck;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import decaf.Location;
+import decaf.symbol.Symbol;
+import decaf.utils.IndentPrintWriter;
+
+/**
+ * 交叉引用索引：类型检查时把每个名字的使用处连到它所指的符号，并记下符号声明中名字的位置<br>
+ * 符号按第一次出现的顺序编号。位置压缩为一个 long：行号占高 32 位，列号占低 32 位，
+ * 按 long 比较即按位置比较。使用处先按报告顺序追加到两个并列数组中，
+ * {@link #freeze} 之后按位置排序（由使用处查符号时二分查找），
+ * 并按符号分组为压缩行存储（每个符号的使用处是 uses 中连续的一段）。
+ */
+public class XrefIndex {
+
+	private static final int COLUMN_BITS = 32;
+
+	private static final long COLUMN_MASK = (1L << COLUMN_BITS) - 1;
+
+	private Map<Symbol, Integer> ids = new IdentityHashMap<Symbol, Integer>();
+
+	private List<Symbol> symbols = new ArrayList<Symbol>();
+
+	/**
+	 * 各符号声明中名字的位置，没有记录时为 null
+	 */
+	private List<Location> definitions = new ArrayList<Location>();
+
+	private int count;
+
+	private long[] useLocations = new long[256];
+
+	private int[] useSymbols = new int[256];
+
+	/**
+	 * 符号 i 的使用处是 uses[first[i]] 到 uses[first[i + 1] - 1]
+	 */
+	private int[] first;
+
+	private long[] uses;
+
+	private boolean frozen;
+
+	public static long pack(Location loc) {
+		return (long) loc.getLine() << COLUMN_BITS | loc.getColumn()
+				& COLUMN_MASK;
+	}
+
+	public static int lineOf(long packed) {
+		return (int) (packed >>> COLUMN_BITS);
+	}
+
+	public static int columnOf(long packed) {
+		return (int) (packed & COLUMN_MASK);
+	}
+
+	/**
+	 * 记录位于 loc 的一处对 symbol 的使用
+	 */
+	public synchronized void recordUse(Location loc, Symbol symbol) {
+		if (frozen) {
+			throw new IllegalStateException("index is frozen");
+		}
+		if (loc == null || loc == Location.NO_LOCATION) {
+			return;
+		}
+		if (count == useLocations.length) {
+			useLocations = Arrays.copyOf(useLocations, count * 2);
+			useSymbols = Arrays.copyOf(useSymbols, count * 2);
+		}
+		useLocations[count] = pack(loc);
+		useSymbols[count] = idOf(symbol, true);
+		count++;
+	}
+
+	/**
+	 * 记录 symbol 的声明，loc 是声明中名字的位置
+	 */
+	public synchronized void recordDefinition(Location loc, Symbol symbol) {
+		if (frozen) {
+			throw new IllegalStateException("index is frozen");
+		}
+		if (loc == null || loc == Location.NO_LOCATION) {
+			return;
+		}
+		definitions.set(idOf(symbol, true), loc);
+	}
+
+	private int idOf(Symbol symbol, boolean create) {
+		Integer id = ids.get(symbol);
+		if (id == null) {
+			if (!create) {
+				return -1;
+			}
+			id = symbols.size();
+			ids.put(symbol, id);
+			symbols.add(symbol);
+			definitions.add(null);
+		}
+		return id;
+	}
+
+	/**
+	 * 结束记录，整理出按位置和按符号的两种索引
+	 */
+	public synchronized void freeze() {
+		if (frozen) {
+			return;
+		}
+		frozen = true;
+		useLocations = Arrays.copyOf(useLocations, count);
+		useSymbols = Arrays.copyOf(useSymbols, count);
+		sortByLocation(useLocations, useSymbols, count);
+
+		first = new int[symbols.size() + 1];
+		for (int i = 0; i < count; i++) {
+			first[useSymbols[i] + 1]++;
+		}
+		for (int i = 0; i < symbols.size(); i++) {
+			first[i + 1] += first[i];
+		}
+		uses = new long[count];
+		int[] next = Arrays.copyOf(first, symbols.size());
+		for (int i = 0; i < count; i++) {
+			uses[next[useSymbols[i]]++] = useLocations[i];
+		}
+	}
+
+	/**
+	 * @return 索引中的符号数，符号的编号为 0 到 size() - 1
+	 */
+	public int size() {
+		return symbols.size();
+	}
+
+	public Symbol getSymbol(int id) {
+		return symbols.get(id);
+	}
+
+	/**
+	 * @return 符号声明中名字的位置，没有记录声明时为 null
+	 */
+	public Location getDefinition(int id) {
+		return definitions.get(id);
+	}
+
+	/**
+	 * @return 符号的编号，既没有使用也没有记录声明的符号为 -1
+	 */
+	public int idOf(Symbol symbol) {
+		return idOf(symbol, false);
+	}
+
+	/**
+	 * 由使用处找定义
+	 *
+	 * @return 从位置 loc 开始的那个名字所指符号的编号，loc 处没有记录时为 -1
+	 */
+	public int symbolAt(Location loc) {
+		freeze();
+		int i = Arrays.binarySearch(useLocations, pack(loc));
+		return i < 0 ? -1 : useSymbols[i];
+	}
+
+	/**
+	 * 由定义找使用处
+	 *
+	 * @return 编号为 id 的符号的所有使用处（压缩的位置，按位置排序）
+	 */
+	public long[] usesOf(int id) {
+		freeze();
+		return Arrays.copyOfRange(uses, first[id], first[id + 1]);
+	}
+
+	public int useCount(int id) {
+		freeze();
+		return first[id + 1] - first[id];
+	}
+
+	/**
+	 * 按定义的位置输出每个被使用过的符号及其所有使用处
+	 */
+	public void printTo(IndentPrintWriter pw) {
+		freeze();
+		int n = symbols.size();
+		long[] defs = new long[n];
+		int[] order = new int[n];
+		for (int id = 0; id < n; id++) {
+			defs[id] = definitionOf(id);
+			order[id] = id;
+		}
+		sortByLocation(defs, order, n);
+		pw.println("XREF");
+		pw.incIndent();
+		for (int id : order) {
+			if (first[id] == first[id + 1]) {
+				continue;
+			}
+			pw.println(symbols.get(id));
+			pw.incIndent();
+			StringBuilder sb = new StringBuilder();
+			for (int k = first[id]; k < first[id + 1]; k++) {
+				if (sb.length() > 0) {
+					sb.append(' ');
+				}
+				sb.append('(').append(lineOf(uses[k])).append(',').append(
+						columnOf(uses[k])).append(')');
+			}
+			pw.println(sb);
+			pw.decIndent();
+		}
+		pw.decIndent();
+	}
+
+	/**
+	 * 把并列的压缩位置和符号编号的前 n 项按 (位置, 符号编号) 排序
+	 */
+	public static void sortByLocation(long[] locations, int[] ids, int n) {
+		long[] sorted = distinct(locations, n);
+		long[] keys = new long[n];
+		for (int i = 0; i < n; i++) {
+			keys[i] = rank(sorted, locations[i]) | ids[i];
+		}
+		Arrays.sort(keys);
+		for (int i = 0; i < n; i++) {
+			locations[i] = sorted[(int) (keys[i] >>> 32)];
+			ids[i] = (int) keys[i];
+		}
+	}
+
+	/**
+	 * @return values 前 n 个元素排序并去掉重复后的数组
+	 */
+	private static long[] distinct(long[] values, int n) {
+		long[] sorted = Arrays.copyOf(values, n);
+		Arrays.sort(sorted);
+		int k = 0;
+		for (int i = 0; i < n; i++) {
+			if (k == 0 || sorted[k - 1] != sorted[i]) {
+				sorted[k++] = sorted[i];
+			}
+		}
+		return Arrays.copyOf(sorted, k);
+	}
+
+	/**
+	 * @return value 在 sorted 中的序号，放在高 32 位，低 32 位留给符号编号
+	 */
+	private static long rank(long[] sorted, long value) {
+		return (long) Arrays.binarySearch(sorted, value) << 32;
+	}
+
+	private long definitionOf(int id) {
+		Location loc = symbols.get(id).getLocation();
+		return loc == null || loc == Location.NO_LOCATION ? 0 : pack(loc);
+	}
+}
@@ -0,0 +1,403 @@
+package decaf.utils;
+
+import java.io.PrintStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * 语法树、作用域、符号和类型占用的堆空间的估计（-memstats）<br>
+ * 从给定的根出发沿实例字段遍历所有可达对象，按类统计个数、浅大小和保留大小。<br>
+ * 大小是按 64 位、压缩指针的 HotSpot 布局估算的：对象头 12 字节，引用 4 字节，按 8 字节对齐；
+ * 编译器自己的类按字段计算，String、集合、数组等 JDK 对象不反射进去，而是按其内部结构建模。<br>
+ * 保留大小：语法树结点、作用域、符号和类型各自算作一个单位，
+ * 其他对象（字符串、集合、数组、Location 等）计入遍历时第一个到达它的单位，
+ * 因此共享的对象只计一次，结果与遍历顺序有关，只是近似值。<br>
+ * 另外按字段统计其中的集合，找出大部分为空的（例如没有符号的局部作用域的 LinkedHashMap）。
+ */
+public final class HeapStats {
+
+	private static final int HEADER = 12;
+
+	private static final int REFERENCE = 4;
+
+	/**
+	 * 作为保留大小单位的类所在的包
+	 */
+	private static final String[] UNIT_PACKAGES = { "decaf.tree.",
+			"decaf.scope.", "decaf.symbol.", "decaf.type." };
+
+	private static final class ClassStats {
+
+		int count;
+
+		long shallow;
+
+		long retained;
+
+		boolean unit;
+	}
+
+	private static final class ContainerStats {
+
+		int count;
+
+		int empty;
+
+		long elements;
+
+		long emptyBytes;
+	}
+
+	private Map<String, ClassStats> classes = new HashMap<String, ClassStats>();
+
+	private Map<String, ContainerStats> containers = new HashMap<String, ContainerStats>();
+
+	private IdentityHashMap<Object, Object> visited = new IdentityHashMap<Object, Object>();
+
+	private Map<java.lang.Class<?>, List<Field>> fields = new HashMap<java.lang.Class<?>, List<Field>>();
+
+	private int objects;
+
+	private long total;
+
+	private HeapStats() {
+	}
+
+	/**
+	 * 统计从 roots 可达的对象并把报告写到 out
+	 *
+	 * @param phase
+	 *            报告标题中的阶段名
+	 */
+	public static void report(String phase, PrintStream out, Object... roots) {
+		HeapStats stats = new HeapStats();
+		for (Object root : roots) {
+			stats.walk(root);
+		}
+		stats.print(phase, out);
+	}
+
+	private static boolean isUnit(java.lang.Class<?> c) {
+		if (c.isEnum()) {
+			return false;
+		}
+		for (String p : UNIT_PACKAGES) {
+			if (c.getName().startsWith(p)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isDecaf(java.lang.Class<?> c) {
+		return c.getName().startsWith("decaf.") && !c.isEnum();
+	}
+
+	/**
+	 * 非递归的深度优先遍历（语法树可能很深）
+	 */
+	private void walk(Object root) {
+		if (root == null || visited.containsKey(root)) {
+			return;
+		}
+		// 栈中的每一项为 { 对象, 它的保留大小单位, 到达它的字段名 }
+		LinkedList<Object[]> stack = new LinkedList<Object[]>();
+		visited.put(root, root);
+		stack.push(new Object[] { root, null, null });
+		while (!stack.isEmpty()) {
+			Object[] item = stack.pop();
+			Object o = item[0];
+			java.lang.Class<?> c = o.getClass();
+			Object unit = isUnit(c) ? o : item[1];
+			long size = shallowSize(o);
+			ClassStats cs = statsOf(c);
+			cs.count++;
+			cs.shallow += size;
+			cs.unit = o == unit;
+			objects++;
+			total += size;
+			if (unit != null) {
+				statsOf(unit.getClass()).retained += size;
+			}
+			if (item[2] != null) {
+				container((String) item[2], o, size);
+			}
+			for (Object[] child : children(o, unit)) {
+				if (child[0] != null && !visited.containsKey(child[0])) {
+					visited.put(child[0], child[0]);
+					stack.push(child);
+				}
+			}
+		}
+	}
+
+	private ClassStats statsOf(java.lang.Class<?> c) {
+		String name = displayName(c);
+		ClassStats cs = classes.get(name);
+		if (cs == null) {
+			cs = new ClassStats();
+			classes.put(name, cs);
+		}
+		return cs;
+	}
+
+	private static String displayName(java.lang.Class<?> c) {
+		if (c.isArray()) {
+			return displayName(c.getComponentType()) + "[]";
+		}
+		String name = c.getName();
+		return name.substring(name.lastIndexOf('.') + 1).replace('$', '.');
+	}
+
+	/**
+	 * 记录从某个字段到达的集合
+	 */
+	private void container(String site, Object o, long size) {
+		int n;
+		if (o instanceof Collection) {
+			n = ((Collection<?>) o).size();
+		} else if (o instanceof Map) {
+			n = ((Map<?, ?>) o).size();
+		} else if (o.getClass().isArray()) {
+			n = Array.getLength(o);
+		} else {
+			return;
+		}
+		String key = site + " " + displayName(o.getClass());
+		ContainerStats cs = containers.get(key);
+		if (cs == null) {
+			cs = new ContainerStats();
+			containers.put(key, cs);
+		}
+		cs.count++;
+		cs.elements += n;
+		if (n == 0) {
+			cs.empty++;
+			cs.emptyBytes += size;
+		}
+	}
+
+	/**
+	 * 要继续遍历的子对象，只进入编译器自己的类和集合、数组
+	 */
+	private List<Object[]> children(Object o, Object unit) {
+		List<Object[]> list = new ArrayList<Object[]>();
+		java.lang.Class<?> c = o.getClass();
+		if (o instanceof Map) {
+			for (Map.Entry<?, ?> e : ((Map<?, ?>) o).entrySet()) {
+				list.add(new Object[] { e.getKey(), unit, null });
+				list.add(new Object[] { e.getValue(), unit, null });
+			}
+		} else if (o instanceof Collection) {
+			for (Object e : (Collection<?>) o) {
+				list.add(new Object[] { e, unit, null });
+			}
+		} else if (c.isArray()) {
+			if (!c.getComponentType().isPrimitive()) {
+				for (Object e : (Object[]) o) {
+					list.add(new Object[] { e, unit, null });
+				}
+			}
+		} else if (isDecaf(c)) {
+			for (Field f : fieldsOf(c)) {
+				if (f.getType().isPrimitive()) {
+					continue;
+				}
+				try {
+					list.add(new Object[] { f.get(o), unit,
+							displayName(f.getDeclaringClass()) + "." + f.getName() });
+				} catch (IllegalAccessException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		}
+		return list;
+	}
+
+	private List<Field> fieldsOf(java.lang.Class<?> c) {
+		List<Field> list = fields.get(c);
+		if (list == null) {
+			list = new ArrayList<Field>();
+			for (java.lang.Class<?> k = c; k != null && k != Object.class; k = k
+					.getSuperclass()) {
+				for (Field f : k.getDeclaredFields()) {
+					if (!Modifier.isStatic(f.getModifiers())) {
+						f.setAccessible(true);
+						list.add(f);
+					}
+				}
+			}
+			fields.put(c, list);
+		}
+		return list;
+	}
+
+	private static long align(long size) {
+		return (size + 7) & ~7L;
+	}
+
+	private static long arraySize(int length, int elementSize) {
+		return align(16 + (long) length * elementSize);
+	}
+
+	/**
+	 * HashMap 的桶数组大小：首次插入时分配，容量为不小于 size / 0.75 的 2 的幂，至少 16
+	 */
+	private static long tableSize(int size) {
+		if (size == 0) {
+			return 0;
+		}
+		int capacity = 16;
+		while (capacity * 3 / 4 < size) {
+			capacity <<= 1;
+		}
+		return arraySize(capacity, REFERENCE);
+	}
+
+	private static int primitiveSize(java.lang.Class<?> c) {
+		if (c == long.class || c == double.class) {
+			return 8;
+		}
+		if (c == int.class || c == float.class) {
+			return 4;
+		}
+		if (c == short.class || c == char.class) {
+			return 2;
+		}
+		return c.isPrimitive() ? 1 : REFERENCE;
+	}
+
+	/**
+	 * 对象本身以及只属于它的 JDK 内部对象（字符串的字符数组、集合的内部数组和结点）的大小
+	 */
+	private long shallowSize(Object o) {
+		java.lang.Class<?> c = o.getClass();
+		if (c.isArray()) {
+			return arraySize(Array.getLength(o), primitiveSize(c
+					.getComponentType()));
+		}
+		if (o instanceof String) {
+			// 假定字符串压缩，只含 Latin-1 字符时每个字符一个字节
+			return 24 + arraySize(((String) o).length(), 1);
+		}
+		if (o instanceof ArrayList) {
+			int n = ((ArrayList<?>) o).size();
+			return 24 + (n == 0 ? 0 : arraySize(Math.max(10, n), REFERENCE));
+		}
+		if (o instanceof LinkedList) {
+			return 32 + 24L * ((LinkedList<?>) o).size();
+		}
+		if (o instanceof LinkedHashMap) {
+			int n = ((Map<?, ?>) o).size();
+			return 56 + tableSize(n) + 40L * n;
+		}
+		if (o instanceof HashMap) {
+			int n = ((Map<?, ?>) o).size();
+			return 48 + tableSize(n) + 32L * n;
+		}
+		if (o instanceof TreeMap) {
+			return 48 + 40L * ((Map<?, ?>) o).size();
+		}
+		if (o instanceof LinkedHashSet) {
+			int n = ((Collection<?>) o).size();
+			return 16 + 56 + tableSize(n) + 40L * n;
+		}
+		if (o instanceof java.util.HashSet) {
+			int n = ((Collection<?>) o).size();
+			return 16 + 48 + tableSize(n) + 32L * n;
+		}
+		if (o instanceof TreeSet) {
+			return 16 + 48 + 40L * ((Collection<?>) o).size();
+		}
+		if (o instanceof Long || o instanceof Double) {
+			return 24;
+		}
+		if (isDecaf(c)) {
+			long size = HEADER;
+			for (Field f : fieldsOf(c)) {
+				size += primitiveSize(f.getType());
+			}
+			return align(size);
+		}
+		// 其他对象（装箱的值、枚举常量等）只计一个最小的对象
+		return 16;
+	}
+
+	private void print(String phase, PrintStream out) {
+		out.println("== memstats after " + phase + ": " + objects
+				+ " objects, " + kb(total)
+				+ " (estimated, 64-bit compressed oops)");
+		out.println(String.format("%-32s %9s %11s %11s", "class", "count",
+				"shallow", "retained"));
+		List<Map.Entry<String, ClassStats>> rows = new ArrayList<Map.Entry<String, ClassStats>>(
+				classes.entrySet());
+		Collections.sort(rows, new Comparator<Map.Entry<String, ClassStats>>() {
+
+			@Override
+			public int compare(Map.Entry<String, ClassStats> a,
+					Map.Entry<String, ClassStats> b) {
+				long x = Math.max(a.getValue().retained, a.getValue().shallow);
+				long y = Math.max(b.getValue().retained, b.getValue().shallow);
+				return x != y ? (x > y ? -1 : 1) : a.getKey().compareTo(
+						b.getKey());
+			}
+
+		});
+		for (Map.Entry<String, ClassStats> e : rows) {
+			ClassStats cs = e.getValue();
+			out.println(String.format("%-32s %9d %11d %11s", e.getKey(),
+					cs.count, cs.shallow, cs.unit ? String.valueOf(cs.retained)
+							: "-"));
+		}
+
+		List<Map.Entry<String, ContainerStats>> sites = new ArrayList<Map.Entry<String, ContainerStats>>();
+		for (Map.Entry<String, ContainerStats> e : containers.entrySet()) {
+			if (e.getValue().empty * 2 >= e.getValue().count) {
+				sites.add(e);
+			}
+		}
+		if (sites.isEmpty()) {
+			return;
+		}
+		Collections.sort(sites,
+				new Comparator<Map.Entry<String, ContainerStats>>() {
+
+					@Override
+					public int compare(Map.Entry<String, ContainerStats> a,
+							Map.Entry<String, ContainerStats> b) {
+						long x = a.getValue().emptyBytes;
+						long y = b.getValue().emptyBytes;
+						return x != y ? (x > y ? -1 : 1) : a.getKey().compareTo(
+								b.getKey());
+					}
+
+				});
+		out.println("mostly empty containers:");
+		out.println(String.format("%-44s %11s %9s %11s", "field", "empty",
+				"avg size", "empty bytes"));
+		for (Map.Entry<String, ContainerStats> e : sites) {
+			ContainerStats cs = e.getValue();
+			out.println(String.format("%-44s %11s %9.1f %11d", e.getKey(),
+					cs.empty + "/" + cs.count, (double) cs.elements / cs.count,
+					cs.emptyBytes));
+		}
+	}
+
+	private static String kb(long bytes) {
+		return String.format("%.1f KB", bytes / 1024.0);
+	}
+}
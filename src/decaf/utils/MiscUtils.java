@@ -1,5 +1,8 @@
 package decaf.utils;
 
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
 public final class MiscUtils {
 	/**
 	 * 返回带转义符格式的字符串
@@ -31,4 +34,20 @@ public final class MiscUtils {
 		}
 		return ('"' + sb.toString() + '"');
 	}
+
+	/**
+	 * 返回数据的 SHA-1 摘要（十六进制字符串）
+	 */
+	public static String digest(byte[] data) {
+		try {
+			StringBuilder sb = new StringBuilder();
+			for (byte b : MessageDigest.getInstance("SHA-1").digest(data)) {
+				sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+				sb.append(Character.forDigit(b & 0xf, 16));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
 }
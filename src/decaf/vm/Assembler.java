@@ -0,0 +1,797 @@
+package decaf.vm;
+
+import java.util.Arrays;
+
+import decaf.tac.Functy;
+import decaf.tac.Intrinsic;
+import decaf.tac.Program;
+import decaf.tac.Tac;
+
+/**
+ * 把三地址码汇编为虚拟机指令<br>
+ * 临时变量直接作为寄存器；MARK 不占指令，标号换成代码下标；
+ * 调用前的 PARM 并入调用指令；运行库函数各有专门的指令。<br>
+ * 分派的开销远大于指令本身，因此合并 Translater 生成的常见序列：
+ * <ul>
+ * <li>比较的结果只被紧随其后的条件跳转使用时，合并为比较并跳转；</li>
+ * <li>只定值一次的常数作为加、乘和比较并跳转的立即数，其余的使用在调用时随寄存器的初值一起放好，
+ * 常数不占指令；</li>
+ * <li>只使用一次的结果紧接着赋给变量时，直接写入该变量；函数开头把局部变量初始化为 0 的指令省去；</li>
+ * <li>数组下标检查和元素地址计算分别合并为 CHKIDX 和 LOADX/STOREX，
+ * 只比较上界的检查合并为 CHKLEN，长度已在别处取出的下标检查合并为 CHKRANGE，
+ * 检查后紧接着读写同一元素时合并为 LOADXC/STOREXC，
+ * 右边较复杂的元素赋值到写入时才生成 STOREX；</li>
+ * <li>循环变量加一后紧接着与上界比较的条件跳转合并为 ADDJLT 等。</li>
+ * </ul>
+ * 先按三地址码的顺序生成带标号和常数的中间结果，再去掉标号和常数、回填跳转目标，
+ * 最后换上加法与条件跳转合并的操作码。
+ */
+final class Assembler {
+
+	/**
+	 * 第一遍中的标号：LABEL 标号
+	 */
+	private static final int LABEL = -1;
+
+	/**
+	 * 第一遍中只定值一次的常数：CONST 寄存器 常数，不生成指令，常数放在寄存器的初值中
+	 */
+	private static final int CONST = -2;
+
+	/**
+	 * EQU ... GEQ 的比较不成立时的比较
+	 */
+	private static final int[] NEGATED = { 1, 0, 5, 4, 3, 2 };
+
+	/**
+	 * EQU ... GEQ 交换两个操作数后的比较
+	 */
+	private static final int[] MIRRORED = { 0, 1, 4, 5, 2, 3 };
+
+	/**
+	 * 复制循环条件时，条件跳转之前至多复制的指令条数
+	 */
+	private static final int MAX_COPIED = 2;
+
+	private final Module module;
+
+	private int[] out = new int[256];
+
+	private int size;
+
+	private int[] args = new int[8];
+
+	private int numArgs;
+
+	private int[] uses = new int[Tac.WIDTH];
+
+	private int[] useCount;
+
+	private int[] defCount;
+
+	private boolean[] isConst;
+
+	private int[] constValue;
+
+	/**
+	 * 各临时变量第一次定值的位置
+	 */
+	private int[] firstDef;
+
+	/**
+	 * 第一个标号或跳转的位置，之前的指令在每次调用时恰好执行一次
+	 */
+	private int prologueEnd;
+
+	/**
+	 * 推迟生成的元素写入（见 deferStore），没有时为 -1
+	 */
+	private int deferredStore = -1;
+
+	private int deferredArray;
+
+	private int deferredIndex;
+
+	/**
+	 * 下一条要汇编的三地址码
+	 */
+	private int next;
+
+	private Assembler(Module module) {
+		this.module = module;
+	}
+
+	static Module assemble(Program program) {
+		Module module = new Module(program);
+		Assembler asm = new Assembler(module);
+		for (Functy f : program.getFunctions()) {
+			module.names[f.getId()] = f.getName();
+			if (f.hasBody()) {
+				module.code[f.getId()] = asm.assemble(f);
+				module.registers[f.getId()] = asm.initialRegisters(f);
+			}
+		}
+		return module;
+	}
+
+	private int[] assemble(Functy f) {
+		size = 0;
+		numArgs = 0;
+		count(f);
+		for (next = 0; next < f.size();) {
+			int i = next++;
+			if (!fuseCheckIndex(f, i) && !fuseCheckLength(f, i)
+					&& !fuseCheckRange(f, i) && !fuseCompare(f, i)
+					&& !fuseElement(f, i, -1, -1, -1) && !deferStore(f, i)) {
+				assemble(f, i, f.op(i));
+			}
+		}
+		int[] code = link(f);
+		fuse(code);
+		return code;
+	}
+
+	/**
+	 * 统计各临时变量的使用、定值次数，找出只定值一次的常数
+	 */
+	private void count(Functy f) {
+		int n = f.getNumTemps();
+		useCount = new int[n];
+		defCount = new int[n];
+		isConst = new boolean[n];
+		constValue = new int[n];
+		firstDef = new int[n];
+		Arrays.fill(firstDef, f.size());
+		prologueEnd = f.size();
+		for (int i = 0; i < f.size(); i++) {
+			int op = f.op(i);
+			if (i < prologueEnd
+					&& (op == Tac.MARK || op == Tac.BRANCH || op == Tac.BEQZ
+							|| op == Tac.BNEZ || op == Tac.RETURN)) {
+				prologueEnd = i;
+			}
+			for (int k = f.usesOf(i, uses) - 1; k >= 0; k--) {
+				useCount[uses[k]]++;
+			}
+			int d = f.defOf(i);
+			if (d >= 0) {
+				firstDef[d] = Math.min(firstDef[d], i);
+				defCount[d]++;
+				if (f.op(i) == Tac.LOAD_IMM4) {
+					constValue[d] = f.y(i);
+				}
+			}
+		}
+		for (int i = 0; i < f.size(); i++) {
+			int d = f.defOf(i);
+			if (d >= f.getNumParams() && f.op(i) == Tac.LOAD_IMM4
+					&& defCount[d] == 1) {
+				isConst[d] = true;
+			}
+		}
+	}
+
+	/**
+	 * 寄存器的初值：各常数放在各自的寄存器中
+	 */
+	private int[] initialRegisters(Functy f) {
+		int[] registers = new int[f.getNumTemps()];
+		for (int t = 0; t < registers.length; t++) {
+			if (isConst[t]) {
+				registers[t] = constValue[t];
+			}
+		}
+		return registers;
+	}
+
+	/**
+	 * t 为常数 value 时这次使用可以折叠为立即数
+	 */
+	private boolean fold(int t, int value) {
+		return isConst[t] && constValue[t] == value;
+	}
+
+	private boolean fold(int t) {
+		return fold(t, constValue[t]);
+	}
+
+	/**
+	 * 第 i 条指令的结果 t 的目标寄存器：紧接着的 x = t 是 t 唯一的使用时直接写入 x，跳过该赋值
+	 */
+	private int dst(Functy f, int i, int t) {
+		if (t >= 0 && next == i + 1 && next < f.size()
+				&& f.op(next) == Tac.ASSIGN && f.y(next) == t
+				&& useCount[t] == 1 && defCount[t] == 1 && !isConst[t]) {
+			return f.x(next++);
+		}
+		return t;
+	}
+
+	private boolean isSingleUse(int t) {
+		return useCount[t] == 1 && defCount[t] == 1;
+	}
+
+	/**
+	 * Translater.genCheckArrayIndex 的序列：
+	 * t = *(a - 4); c = i &lt; t; if (c == 0) branch L; z = 0; c2 = i &lt; z; if (c2 != 0) branch L
+	 */
+	private boolean fuseCheckIndex(Functy f, int i) {
+		if (i + 5 >= f.size() || f.op(i) != Tac.LOAD || f.z(i) != -4) {
+			return false;
+		}
+		int t = f.x(i);
+		int index = f.y(i + 1);
+		int label = f.z(i + 2);
+		if (f.op(i + 1) != Tac.LES || f.z(i + 1) != t || !isSingleUse(t)
+				|| f.op(i + 2) != Tac.BEQZ || f.y(i + 2) != f.x(i + 1)
+				|| !isSingleUse(f.x(i + 1)) || f.op(i + 3) != Tac.LOAD_IMM4
+				|| f.op(i + 4) != Tac.LES || f.y(i + 4) != index
+				|| f.z(i + 4) != f.x(i + 3) || !isSingleUse(f.x(i + 3))
+				|| f.op(i + 5) != Tac.BNEZ || f.y(i + 5) != f.x(i + 4)
+				|| !isSingleUse(f.x(i + 4)) || f.z(i + 5) != label
+				|| !fold(f.x(i + 3), 0)) {
+			return false;
+		}
+		next = i + 6;
+		// 元素地址用到的常数 4 在检查和地址计算之间，它不生成指令
+		int at = next < f.size() && f.op(next) == Tac.LOAD_IMM4
+				&& isConst[f.x(next)] ? next + 1 : next;
+		if (!fuseElement(f, at, f.y(i), index, label)) {
+			emit(Bytecode.CHKIDX, f.y(i), index, label);
+		}
+		return true;
+	}
+
+	/**
+	 * 取长度后只比较上界（已知下标非负时剩下的检查、以长度为界的循环条件）：
+	 * t = *(a - 4); c = i &lt; t; if (c == 0) branch L
+	 */
+	private boolean fuseCheckLength(Functy f, int i) {
+		if (i + 2 >= f.size() || f.op(i) != Tac.LOAD || f.z(i) != -4) {
+			return false;
+		}
+		int t = f.x(i);
+		if (f.op(i + 1) != Tac.LES || f.z(i + 1) != t || !isSingleUse(t)
+				|| f.op(i + 2) != Tac.BEQZ || f.y(i + 2) != f.x(i + 1)
+				|| !isSingleUse(f.x(i + 1))) {
+			return false;
+		}
+		emit(Bytecode.CHKLEN, f.y(i), f.y(i + 1), f.z(i + 2));
+		next = i + 3;
+		return true;
+	}
+
+	/**
+	 * 没有取长度的下标检查：c = i &lt; n; if (c == 0) branch L; z = 0; c2 = i &lt; z; if (c2 != 0) branch L
+	 */
+	private boolean fuseCheckRange(Functy f, int i) {
+		if (i + 4 >= f.size() || f.op(i) != Tac.LES) {
+			return false;
+		}
+		int index = f.y(i);
+		int label = f.z(i + 1);
+		if (!isSingleUse(f.x(i)) || f.op(i + 1) != Tac.BEQZ
+				|| f.y(i + 1) != f.x(i) || f.op(i + 2) != Tac.LOAD_IMM4
+				|| f.op(i + 3) != Tac.LES || f.y(i + 3) != index
+				|| f.z(i + 3) != f.x(i + 2) || !isSingleUse(f.x(i + 2))
+				|| f.op(i + 4) != Tac.BNEZ || f.y(i + 4) != f.x(i + 3)
+				|| !isSingleUse(f.x(i + 3)) || f.z(i + 4) != label
+				|| !fold(f.x(i + 2), 0)) {
+			return false;
+		}
+		emit(Bytecode.CHKRANGE, index, f.z(i), label);
+		next = i + 5;
+		return true;
+	}
+
+	/**
+	 * 比较或取反后紧接着以其结果为条件跳转
+	 */
+	private boolean fuseCompare(Functy f, int i) {
+		int op = f.op(i);
+		if (op == Tac.LNOT && i + 1 < f.size() && useCount[f.x(i)] == 1
+				&& (f.op(i + 1) == Tac.BEQZ || f.op(i + 1) == Tac.BNEZ)
+				&& f.y(i + 1) == f.x(i)) {
+			emit(f.op(i + 1) == Tac.BEQZ ? Bytecode.JNZ : Bytecode.JZ, f.y(i), f
+					.z(i + 1));
+			next = i + 2;
+			return true;
+		}
+		if (op < Tac.EQU || op > Tac.GEQ || i + 1 >= f.size()
+				|| useCount[f.x(i)] != 1) {
+			return false;
+		}
+		int branch = f.op(i + 1);
+		if (branch != Tac.BEQZ && branch != Tac.BNEZ || f.y(i + 1) != f.x(i)) {
+			return false;
+		}
+		int rel = op - Tac.EQU;
+		if (branch == Tac.BEQZ) {
+			rel = NEGATED[rel];
+		}
+		int a = f.y(i);
+		int b = f.z(i);
+		if (fold(b)) {
+			emit(Bytecode.JEQI + rel, a, constValue[b], f.z(i + 1));
+		} else if (fold(a)) {
+			emit(Bytecode.JEQI + MIRRORED[rel], b, constValue[a], f.z(i + 1));
+		} else {
+			emit(Bytecode.JEQ + rel, a, b, f.z(i + 1));
+		}
+		next = i + 2;
+		return true;
+	}
+
+	/**
+	 * Translater.genElementAddress 后紧接着读写该元素：
+	 * t1 = i * 4; t2 = a + t1; x = *(t2 + 0) 或 *(t2 + 0) = x
+	 *
+	 * @param label 刚检查过下标 a[i] 时为越界的标号，读写的是同一元素时与检查合并；否则为 -1
+	 */
+	private boolean fuseElement(Functy f, int i, int array, int index,
+			int label) {
+		if (i + 2 >= f.size() || f.op(i) != Tac.MUL || f.op(i + 1) != Tac.ADD) {
+			return false;
+		}
+		int t1 = f.x(i);
+		int t2 = f.x(i + 1);
+		// 赋值的右边是常数时，常数在地址计算和 STORE 之间
+		int at = i + 2;
+		if (f.op(at) == Tac.LOAD_IMM4 && at + 1 < f.size()
+				&& f.op(at + 1) == Tac.STORE && f.x(at + 1) == f.x(at)) {
+			at++;
+		}
+		int access = f.op(at);
+		if (f.z(i + 1) != t1 || !isSingleUse(t1) || !isSingleUse(t2)
+				|| access != Tac.LOAD && access != Tac.STORE || f.y(at) != t2
+				|| f.z(at) != 0 || !fold(f.z(i), 4) || label >= 0
+				&& (f.y(i + 1) != array || f.y(i) != index)) {
+			return false;
+		}
+		if (at > i + 2) {
+			next = i + 3;
+			assemble(f, i + 2, Tac.LOAD_IMM4);
+		}
+		next = at + 1;
+		if (label >= 0 && access == Tac.LOAD) {
+			emit(Bytecode.LOADXC, dst(f, at, f.x(at)), array, index, label);
+		} else if (label >= 0) {
+			emit(Bytecode.STOREXC, f.x(at), array, index, label);
+		} else if (access == Tac.LOAD) {
+			emit(Bytecode.LOADX, dst(f, at, f.x(at)), f.y(i + 1), f.y(i));
+		} else {
+			emit(Bytecode.STOREX, f.x(at), f.y(i + 1), f.y(i));
+		}
+		return true;
+	}
+
+	/**
+	 * 元素地址算好后先求右边的值再写入（a[i] = a[j] 等）：t1 = i * 4; t2 = a + t1; ...; *(t2 + 0) = x，
+	 * 中间没有标号、无条件跳转和对 a、i 的赋值时省去地址计算，到写入处生成 STOREX
+	 */
+	private boolean deferStore(Functy f, int i) {
+		if (deferredStore >= 0 || i + 2 >= f.size() || f.op(i) != Tac.MUL
+				|| f.op(i + 1) != Tac.ADD) {
+			return false;
+		}
+		int t1 = f.x(i);
+		int t2 = f.x(i + 1);
+		int array = f.y(i + 1);
+		int index = f.y(i);
+		if (f.z(i + 1) != t1 || !isSingleUse(t1) || !isSingleUse(t2)
+				|| !fold(f.z(i), 4)) {
+			return false;
+		}
+		for (int k = i + 2; k < f.size(); k++) {
+			int op = f.op(k);
+			if (op == Tac.STORE && f.y(k) == t2) {
+				if (f.z(k) != 0) {
+					return false;
+				}
+				deferredStore = k;
+				deferredArray = array;
+				deferredIndex = index;
+				next = i + 2;
+				return true;
+			}
+			int d = f.defOf(k);
+			if (op == Tac.MARK || op == Tac.BRANCH || op == Tac.RETURN
+					|| d == array || d == index) {
+				return false;
+			}
+		}
+		return false;
+	}
+
+	private void assemble(Functy f, int i, int op) {
+		if (Tac.isBinary(op)) {
+			int y = f.y(i);
+			int z = f.z(i);
+			if ((op == Tac.ADD || op == Tac.MUL) && fold(z)) {
+				emit(op == Tac.ADD ? Bytecode.ADDI : Bytecode.MULI, dst(f, i, f
+						.x(i)), y, constValue[z]);
+			} else if ((op == Tac.ADD || op == Tac.MUL) && fold(y)) {
+				emit(op == Tac.ADD ? Bytecode.ADDI : Bytecode.MULI, dst(f, i, f
+						.x(i)), z, constValue[y]);
+			} else if (op == Tac.SUB && fold(z)) {
+				emit(Bytecode.ADDI, dst(f, i, f.x(i)), y, -constValue[z]);
+			} else {
+				emit(op, dst(f, i, f.x(i)), y, z);
+			}
+			return;
+		}
+		switch (op) {
+		case Tac.NEG:
+			emit(Bytecode.NEG, dst(f, i, f.x(i)), f.y(i));
+			break;
+		case Tac.LNOT:
+			emit(Bytecode.NOT, dst(f, i, f.x(i)), f.y(i));
+			break;
+		case Tac.ASSIGN:
+			emit(Bytecode.MOV, f.x(i), f.y(i));
+			break;
+		case Tac.LOAD_IMM4:
+			if (isConst[f.x(i)]) {
+				emit(CONST, f.x(i), f.y(i));
+				break;
+			}
+			int d = dst(f, i, f.x(i));
+			// 寄存器的初值为 0，开头第一次给局部变量赋 0 不必执行
+			if (f.y(i) != 0 || i >= prologueEnd || d < f.getNumParams()
+					|| firstDef[d] < i) {
+				emit(Bytecode.LI, d, f.y(i));
+			}
+			break;
+		case Tac.LOAD_STR_CONST:
+			emit(Bytecode.LDC, dst(f, i, f.x(i)), module.pool.add(
+					ConstantPool.STRING, f.y(i)));
+			break;
+		case Tac.LOAD_VTBL:
+			emit(Bytecode.LDC, dst(f, i, f.x(i)), module.pool.add(
+					ConstantPool.VTABLE, f.y(i)));
+			break;
+		case Tac.LOAD:
+			emit(Bytecode.LOAD, dst(f, i, f.x(i)), f.y(i), f.z(i));
+			break;
+		case Tac.STORE:
+			if (i == deferredStore) {
+				emit(Bytecode.STOREX, f.x(i), deferredArray, deferredIndex);
+				deferredStore = -1;
+			} else {
+				emit(Bytecode.STORE, f.x(i), f.y(i), f.z(i));
+			}
+			break;
+		case Tac.BRANCH:
+			emit(Bytecode.JMP, f.y(i));
+			break;
+		case Tac.BEQZ:
+			emit(Bytecode.JZ, f.y(i), f.z(i));
+			break;
+		case Tac.BNEZ:
+			emit(Bytecode.JNZ, f.y(i), f.z(i));
+			break;
+		case Tac.MARK:
+			emit(LABEL, f.y(i));
+			break;
+		case Tac.PARM:
+			if (numArgs == args.length) {
+				args = Arrays.copyOf(args, numArgs * 2);
+			}
+			args[numArgs++] = f.y(i);
+			break;
+		case Tac.DIRECT_CALL:
+			if (f.y(i) < 0) {
+				assembleIntrinsic(Intrinsic.of(f.y(i)), dst(f, i, f.x(i)));
+			} else {
+				emitCall(Bytecode.CALL, dst(f, i, f.x(i)), f.y(i));
+			}
+			numArgs = 0;
+			break;
+		case Tac.INDIRECT_CALL:
+			emitCall(Bytecode.CALLR, dst(f, i, f.x(i)), f.y(i));
+			numArgs = 0;
+			break;
+		case Tac.RETURN:
+			if (f.y(i) < 0) {
+				emit(Bytecode.RETV);
+			} else {
+				emit(Bytecode.RET, f.y(i));
+			}
+			break;
+		}
+	}
+
+	private void assembleIntrinsic(Intrinsic intrinsic, int dst) {
+		switch (intrinsic) {
+		case ALLOCATE:
+			emit(Bytecode.ALLOC, dst, args[0]);
+			break;
+		case READ_LINE:
+			emit(Bytecode.READLINE, dst);
+			break;
+		case READ_INT:
+			emit(Bytecode.READINT, dst);
+			break;
+		case STRING_EQUAL:
+			emit(Bytecode.STREQ, dst, args[0], args[1]);
+			break;
+		case PRINT_INT:
+			emit(Bytecode.PRINTINT, args[0]);
+			break;
+		case PRINT_STRING:
+			emit(Bytecode.PRINTSTR, args[0]);
+			break;
+		case PRINT_BOOL:
+			emit(Bytecode.PRINTBOOL, args[0]);
+			break;
+		case HALT:
+			emit(Bytecode.HALT);
+			break;
+		}
+	}
+
+	private void emitCall(int op, int dst, int callee) {
+		emit(op, dst, callee, numArgs);
+		for (int k = 0; k < numArgs; k++) {
+			emit(args[k]);
+		}
+	}
+
+	private void emit(int... words) {
+		if (size + words.length > out.length) {
+			out = Arrays.copyOf(out, Math.max(out.length * 2, size
+					+ words.length));
+		}
+		System.arraycopy(words, 0, out, size, words.length);
+		size += words.length;
+	}
+
+	/**
+	 * 第二遍：去掉标号和常数，把跳转目标从标号换成代码下标。
+	 * 跳到循环条件的 JMP 换成条件的副本：条件中至多 MAX_COPIED 条指令之后的条件跳转改为相反的条件，
+	 * 跳回循环体，再跟一个跳到原目标的 JMP。这样条件成立（继续循环）时不再经过 JMP
+	 */
+	private int[] link(Functy f) {
+		int[] labelAt = new int[f.getNumLabels()];
+		for (int at = 0; at < size; at += lengthAt(at)) {
+			if (out[at] == LABEL) {
+				labelAt[out[at + 1]] = at;
+			}
+		}
+		int[] labels = new int[f.getNumLabels()];
+		int pc = 0;
+		for (int at = 0; at < size; at += lengthAt(at)) {
+			if (out[at] == LABEL) {
+				labels[out[at + 1]] = pc;
+			} else if (out[at] != CONST) {
+				int cond = copiedCondition(at, labelAt);
+				pc += cond < 0 ? lengthAt(at) : emittedLength(labelAt[out[at + 1]],
+						cond + lengthAt(cond)) + 2;
+			}
+		}
+		int[] code = new int[pc];
+		pc = 0;
+		for (int at = 0; at < size; at += lengthAt(at)) {
+			int cond = copiedCondition(at, labelAt);
+			if (cond < 0) {
+				pc = copy(at, at + lengthAt(at), code, pc, labels);
+				continue;
+			}
+			int from = labelAt[out[at + 1]];
+			pc = copy(from, cond, code, pc, labels);
+			int m = lengthAt(cond);
+			int target = targetOf(out[cond]);
+			System.arraycopy(out, cond, code, pc, m);
+			code[pc] = negate(out[cond]);
+			code[pc + target] = labels[out[at + 1]]
+					+ emittedLength(from, cond + m);
+			code[pc + m] = Bytecode.JMP;
+			code[pc + m + 1] = labels[out[cond + target]];
+			pc += m + 2;
+		}
+		return code;
+	}
+
+	/**
+	 * 第一遍结果中 at 处的 JMP 跳到的循环条件
+	 *
+	 * @return 条件中的条件跳转的位置，at 处不是 JMP 或目标处不是这样的条件时为 -1
+	 */
+	private int copiedCondition(int at, int[] labelAt) {
+		if (out[at] != Bytecode.JMP) {
+			return -1;
+		}
+		int n = 0;
+		for (int c = labelAt[out[at + 1]]; c < size; c += lengthAt(c)) {
+			int op = out[c];
+			if (isConditional(op)) {
+				return c;
+			}
+			if (op == LABEL || op == CONST) {
+				continue;
+			}
+			if (++n > MAX_COPIED || op == Bytecode.JMP || op >= Bytecode.CALL
+					&& op <= Bytecode.HALT) {
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * 把第一遍结果中 [from, to) 的指令复制到 code 的 pc 处，跳转目标换成代码下标
+	 *
+	 * @return 复制后的 pc
+	 */
+	private int copy(int from, int to, int[] code, int pc, int[] labels) {
+		for (int at = from; at < to; at += lengthAt(at)) {
+			int op = out[at];
+			if (op == LABEL || op == CONST) {
+				continue;
+			}
+			int n = lengthAt(at);
+			System.arraycopy(out, at, code, pc, n);
+			int target = targetOf(op);
+			if (target > 0) {
+				code[pc + target] = labels[code[pc + target]];
+			}
+			pc += n;
+		}
+		return pc;
+	}
+
+	/**
+	 * @return 第一遍结果中 [from, to) 的指令生成的代码长度（其中没有要复制条件的 JMP）
+	 */
+	private int emittedLength(int from, int to) {
+		int n = 0;
+		for (int at = from; at < to; at += lengthAt(at)) {
+			if (out[at] != LABEL && out[at] != CONST) {
+				n += lengthAt(at);
+			}
+		}
+		return n;
+	}
+
+	private static boolean isConditional(int op) {
+		return op == Bytecode.JZ || op == Bytecode.JNZ || op >= Bytecode.JEQ
+				&& op <= Bytecode.JGE || op >= Bytecode.JEQI
+				&& op <= Bytecode.JGEI;
+	}
+
+	/**
+	 * @return 条件相反的条件跳转
+	 */
+	private static int negate(int op) {
+		if (op == Bytecode.JZ) {
+			return Bytecode.JNZ;
+		} else if (op == Bytecode.JNZ) {
+			return Bytecode.JZ;
+		} else if (op <= Bytecode.JGE) {
+			return Bytecode.JEQ + NEGATED[op - Bytecode.JEQ];
+		}
+		return Bytecode.JEQI + NEGATED[op - Bytecode.JEQI];
+	}
+
+	/**
+	 * 第三遍：加法之后紧随以其结果为第一个操作数的条件跳转时，换成合并的操作码
+	 */
+	private static void fuse(int[] code) {
+		for (int pc = 0; pc < code.length; pc += length(code, pc)) {
+			int next = pc + length(code, pc);
+			if (next < code.length) {
+				int op = fused(code[pc], code[next]);
+				if (op != code[pc] && code[next + 1] == code[pc + 1]) {
+					code[pc] = op;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return op 与条件跳转 branch 合并后的操作码，不能合并时为 op
+	 */
+	private static int fused(int op, int branch) {
+		if (op == Bytecode.ADD) {
+			switch (branch) {
+			case Bytecode.JLT:
+				return Bytecode.ADDJLT;
+			case Bytecode.JLE:
+				return Bytecode.ADDJLE;
+			}
+		} else if (op == Bytecode.ADDI) {
+			switch (branch) {
+			case Bytecode.JLT:
+				return Bytecode.ADDIJLT;
+			case Bytecode.JLE:
+				return Bytecode.ADDIJLE;
+			case Bytecode.JLTI:
+				return Bytecode.ADDIJLTI;
+			}
+		}
+		return op;
+	}
+
+	/**
+	 * @return 第一遍结果中 at 处指令的长度
+	 */
+	private int lengthAt(int at) {
+		return length(out, at);
+	}
+
+	/**
+	 * @return code 中 at 处指令的长度
+	 */
+	private static int length(int[] code, int at) {
+		int op = code[at];
+		if (op <= Bytecode.GEQ && op >= 0) {
+			return 4;
+		}
+		switch (op) {
+		case LABEL:
+		case Bytecode.JMP:
+		case Bytecode.RET:
+		case Bytecode.READINT:
+		case Bytecode.READLINE:
+		case Bytecode.PRINTINT:
+		case Bytecode.PRINTSTR:
+		case Bytecode.PRINTBOOL:
+			return 2;
+		case CONST:
+		case Bytecode.NEG:
+		case Bytecode.NOT:
+		case Bytecode.MOV:
+		case Bytecode.LI:
+		case Bytecode.LDC:
+		case Bytecode.JZ:
+		case Bytecode.JNZ:
+		case Bytecode.ALLOC:
+			return 3;
+		case Bytecode.RETV:
+		case Bytecode.HALT:
+			return 1;
+		case Bytecode.CALL:
+		case Bytecode.CALLR:
+			return 4 + code[at + 3];
+		case Bytecode.LOADXC:
+		case Bytecode.STOREXC:
+			return 5;
+		default:
+			return 4;
+		}
+	}
+
+	/**
+	 * @return 跳转目标在指令中的位置，不是跳转时为 0
+	 */
+	private static int targetOf(int op) {
+		switch (op) {
+		case Bytecode.JMP:
+			return 1;
+		case Bytecode.JZ:
+		case Bytecode.JNZ:
+			return 2;
+		case Bytecode.JEQ:
+		case Bytecode.JNE:
+		case Bytecode.JLT:
+		case Bytecode.JLE:
+		case Bytecode.JGT:
+		case Bytecode.JGE:
+		case Bytecode.JEQI:
+		case Bytecode.JNEI:
+		case Bytecode.JLTI:
+		case Bytecode.JLEI:
+		case Bytecode.JGTI:
+		case Bytecode.JGEI:
+		case Bytecode.CHKIDX:
+		case Bytecode.CHKLEN:
+		case Bytecode.CHKRANGE:
+			return 3;
+		case Bytecode.LOADXC:
+		case Bytecode.STOREXC:
+			return 4;
+		default:
+			return 0;
+		}
+	}
+}
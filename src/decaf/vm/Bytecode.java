@@ -0,0 +1,183 @@
+package decaf.vm;
+
+/**
+ * 虚拟机指令的编码<br>
+ * 每个函数的代码是一个 int 数组，指令依次存放：先是操作码，其后为操作数，长度因指令而异。
+ * 操作数 d、a、b、c 为寄存器（函数内三地址码的临时变量编号，参数为前几个），
+ * 跳转目标为代码数组中的下标，k 为常量池下标，结果寄存器为 -1 时丢弃结果。
+ * <pre>
+ * 操作码                  操作数
+ * ADD ... GEQ             d a b
+ * NEG NOT MOV             d a
+ * LI                      d 常数
+ * LDC                     d k
+ * LOAD                    d a 偏移          d = *(a + 偏移)
+ * STORE                   a b 偏移          *(b + 偏移) = a
+ * JMP                     目标
+ * JZ JNZ                  a 目标
+ * JEQ ... JGE             a b 目标         比较成立时跳转
+ * CALL                    d 函数编号 n a1 ... an
+ * CALLR                   d a n a1 ... an  调用寄存器 a 中的函数
+ * RET                     a
+ * RETV
+ * ALLOC                   d a
+ * READINT READLINE        d
+ * STREQ                   d a b
+ * PRINTINT PRINTSTR PRINTBOOL  a
+ * HALT
+ * ADDI MULI               d a 常数
+ * JEQI ... JGEI           a 常数 目标      与常数比较成立时跳转
+ * LOADX                   d a b            d = a[b]，即 *(a + 4 * b)
+ * STOREX                  c a b            a[b] = c
+ * CHKIDX                  a b 目标         b 不是数组 a 的下标时跳转
+ * CHKLEN                  a b 目标         b 不小于数组 a 的长度时跳转
+ * CHKRANGE                a b 目标         a 不在 0 到 b - 1 之间时跳转
+ * LOADXC                  d a b 目标       b 不是数组 a 的下标时跳转，否则 d = a[b]
+ * STOREXC                 c a b 目标       b 不是数组 a 的下标时跳转，否则 a[b] = c
+ * ADDJLT ... ADDIJLTI     同 ADD、ADDI     接着执行紧随其后的条件跳转
+ * </pre>
+ * 二元运算的操作码与 {@link decaf.tac.Tac} 相同。最后几条是 {@link Assembler}
+ * 合并常见的三地址码序列得到的，减少分派的次数。
+ */
+final class Bytecode {
+
+	private Bytecode() {
+	}
+
+	static final int ADD = 0;
+
+	static final int SUB = 1;
+
+	static final int MUL = 2;
+
+	static final int DIV = 3;
+
+	static final int MOD = 4;
+
+	static final int LAND = 5;
+
+	static final int LOR = 6;
+
+	static final int EQU = 7;
+
+	static final int NEQ = 8;
+
+	static final int LES = 9;
+
+	static final int LEQ = 10;
+
+	static final int GTR = 11;
+
+	static final int GEQ = 12;
+
+	static final int NEG = 13;
+
+	static final int NOT = 14;
+
+	static final int MOV = 15;
+
+	static final int LI = 16;
+
+	static final int LDC = 17;
+
+	static final int LOAD = 18;
+
+	static final int STORE = 19;
+
+	static final int JMP = 20;
+
+	static final int JZ = 21;
+
+	static final int JNZ = 22;
+
+	/**
+	 * 比较并跳转，顺序与 EQU ... GEQ 相同
+	 */
+	static final int JEQ = 23;
+
+	static final int JNE = 24;
+
+	static final int JLT = 25;
+
+	static final int JLE = 26;
+
+	static final int JGT = 27;
+
+	static final int JGE = 28;
+
+	static final int CALL = 29;
+
+	static final int CALLR = 30;
+
+	static final int RET = 31;
+
+	static final int RETV = 32;
+
+	static final int ALLOC = 33;
+
+	static final int READINT = 34;
+
+	static final int READLINE = 35;
+
+	static final int STREQ = 36;
+
+	static final int PRINTINT = 37;
+
+	static final int PRINTSTR = 38;
+
+	static final int PRINTBOOL = 39;
+
+	static final int HALT = 40;
+
+	static final int ADDI = 41;
+
+	static final int MULI = 42;
+
+	/**
+	 * 与常数比较并跳转，顺序与 JEQ ... JGE 相同
+	 */
+	static final int JEQI = 43;
+
+	static final int JNEI = 44;
+
+	static final int JLTI = 45;
+
+	static final int JLEI = 46;
+
+	static final int JGTI = 47;
+
+	static final int JGEI = 48;
+
+	static final int LOADX = 49;
+
+	static final int STOREX = 50;
+
+	static final int CHKIDX = 51;
+
+	static final int CHKLEN = 52;
+
+	static final int CHKRANGE = 53;
+
+	/**
+	 * 下标检查与紧随其后的 LOADX、STOREX 合并
+	 */
+	static final int LOADXC = 54;
+
+	static final int STOREXC = 55;
+
+	/**
+	 * 与紧随其后、以结果为第一个操作数的条件跳转合并：只换操作码，后面的跳转仍留在原处，
+	 * 因此代码的布局和跳到该跳转的目标都不变
+	 */
+	static final int ADDJLT = 56;
+
+	static final int ADDJLE = 57;
+
+	static final int ADDIJLT = 58;
+
+	static final int ADDIJLE = 59;
+
+	static final int ADDIJLTI = 60;
+
+	static final int NUM_OPS = ADDIJLTI + 1;
+}
@@ -0,0 +1,56 @@
+package decaf.vm;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 整个程序共用的常量池<br>
+ * 每项为字符串常量或虚表，值为 {@link decaf.tac.Program} 中的编号；
+ * 载入时由 {@link Machine} 换成字符串句柄或虚表在堆中的地址，LDC 直接取用。
+ */
+final class ConstantPool {
+
+	static final int STRING = 0;
+
+	static final int VTABLE = 1;
+
+	private int[] kinds = new int[16];
+
+	private int[] values = new int[16];
+
+	private int size;
+
+	private Map<Long, Integer> index = new HashMap<Long, Integer>();
+
+	/**
+	 * @return 常量的下标，相同的常量只存一项
+	 */
+	int add(int kind, int value) {
+		Long key = (long) kind << 32 | value;
+		Integer k = index.get(key);
+		if (k == null) {
+			if (size == kinds.length) {
+				kinds = Arrays.copyOf(kinds, size * 2);
+				values = Arrays.copyOf(values, size * 2);
+			}
+			kinds[size] = kind;
+			values[size] = value;
+			k = size++;
+			index.put(key, k);
+		}
+		return k;
+	}
+
+	int size() {
+		return size;
+	}
+
+	int kindOf(int k) {
+		return kinds[k];
+	}
+
+	int valueOf(int k) {
+		return values[k];
+	}
+}
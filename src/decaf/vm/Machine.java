@@ -0,0 +1,567 @@
+package decaf.vm;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.List;
+
+import decaf.error.RuntimeError;
+import decaf.tac.Functy;
+import decaf.tac.Program;
+import decaf.tac.VTable;
+
+/**
+ * 寄存器式虚拟机（-vm）<br>
+ * 三地址码汇编为 {@link Bytecode} 后在一个循环中逐条分派执行，调用不占用 Java 的栈：
+ * 每次调用复制被调函数寄存器的初值作为它的寄存器，调用者的寄存器数组压入 frames，
+ * 函数编号、返回地址和结果寄存器压入 returns。分配、输入输出等不常用的指令在 slow 中执行，
+ * 分派循环只含常用的指令，便于 JIT 编译。<br>
+ * 内存是按字存放的 int 数组，地址以字节计，0 为 null；对象和数组按三地址码的布局分配，从不回收。
+ * 虚表在启动时按 {@link VTable} 的内容放入内存：父类虚表地址、类名、各方法的函数编号。
+ * 字符串以句柄表示，句柄为字符串表中的下标加 1。
+ */
+public final class Machine {
+
+	/**
+	 * 调用深度的上限，超过时报告栈溢出
+	 */
+	private static final int MAX_DEPTH = 1 << 22;
+
+	private final Module module;
+
+	private final int[] pool;
+
+	private int[][] frames = new int[256][];
+
+	private int[] returns = new int[3 * 256];
+
+	private int[] mem = new int[1 << 12];
+
+	/**
+	 * 下一个空闲字节的地址
+	 */
+	private int top = 4;
+
+	/**
+	 * 正在执行的函数的编号，只在调用、返回时改变，放在字段中以减少分派循环里的局部变量
+	 */
+	private int fid;
+
+	/**
+	 * 调用深度，即 frames 中已用的个数
+	 */
+	private int depth;
+
+	private String[] strings = new String[64];
+
+	private int numStrings;
+
+	private BufferedReader in;
+
+	private PrintWriter out;
+
+	private Machine(Module module, InputStream in, PrintStream out) {
+		this.module = module;
+		this.in = new BufferedReader(new InputStreamReader(in));
+		this.out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+				out)));
+		pool = new int[module.pool.size()];
+	}
+
+	/**
+	 * 执行 program 的 main 函数
+	 *
+	 * @return 正常结束时为 0，发生运行期错误时为 1
+	 * @throws IllegalStateException
+	 *             调用了没有方法体的函数（类只有接口文件）
+	 */
+	public static int run(Program program, InputStream in, PrintStream out) {
+		Machine vm = new Machine(Assembler.assemble(program), in, out);
+		vm.link();
+		try {
+			return vm.execute(program.getMain().getId());
+		} finally {
+			vm.out.flush();
+		}
+	}
+
+	/**
+	 * 把虚表放入内存，解析常量池
+	 */
+	private void link() {
+		Program program = module.program;
+		List<VTable> vtables = program.getVTables();
+		int[] addresses = new int[vtables.size()];
+		for (VTable vt : vtables) {
+			addresses[vt.getId()] = allocate(4 * (2 + vt.getEntries().length));
+		}
+		for (VTable vt : vtables) {
+			int at = addresses[vt.getId()] >> 2;
+			mem[at] = vt.getParent() == null ? 0 : addresses[vt.getParent()
+					.getId()];
+			mem[at + 1] = newString(vt.getClassName());
+			Functy[] entries = vt.getEntries();
+			for (int k = 0; k < entries.length; k++) {
+				mem[at + 2 + k] = entries[k].getId();
+			}
+		}
+		int[] handles = new int[program.getNumStrings()];
+		for (int k = 0; k < pool.length; k++) {
+			int value = module.pool.valueOf(k);
+			if (module.pool.kindOf(k) == ConstantPool.VTABLE) {
+				pool[k] = addresses[value];
+			} else {
+				if (handles[value] == 0) {
+					handles[value] = newString(program.getString(value));
+				}
+				pool[k] = handles[value];
+			}
+		}
+	}
+
+	/**
+	 * 分配 bytes 个字节，内容全为 0
+	 *
+	 * @return 地址
+	 */
+	private int allocate(int bytes) {
+		int at = top;
+		long end = (long) top + (bytes + 3 & ~3);
+		if (end > Integer.MAX_VALUE) {
+			throw new OutOfMemoryError("decaf heap exhausted");
+		}
+		if (end >> 2 > mem.length) {
+			mem = Arrays.copyOf(mem, (int) Math.max(mem.length * 2L, end >> 2));
+		}
+		top = (int) end;
+		return at;
+	}
+
+	private int newString(String s) {
+		if (numStrings == strings.length) {
+			strings = Arrays.copyOf(strings, numStrings * 2);
+		}
+		strings[numStrings++] = s;
+		return numStrings;
+	}
+
+	private String stringOf(int handle) {
+		return handle == 0 ? null : strings[handle - 1];
+	}
+
+	/**
+	 * 分派循环
+	 *
+	 * @return 正常结束时为 0，发生运行期错误时为 1
+	 */
+	private int execute(int main) {
+		fid = main;
+		int[] code = codeOf(main);
+		int[] r = module.registers[main].clone();
+		int[] m = mem;
+		int pc = 0;
+		for (;;) {
+			switch (code[pc]) {
+			case Bytecode.ADD:
+				r[code[pc + 1]] = r[code[pc + 2]] + r[code[pc + 3]];
+				pc += 4;
+				break;
+			case Bytecode.SUB:
+				r[code[pc + 1]] = r[code[pc + 2]] - r[code[pc + 3]];
+				pc += 4;
+				break;
+			case Bytecode.MUL:
+				r[code[pc + 1]] = r[code[pc + 2]] * r[code[pc + 3]];
+				pc += 4;
+				break;
+			case Bytecode.DIV:
+			case Bytecode.MOD: {
+				int b = r[code[pc + 3]];
+				if (b == 0) {
+					out.print(RuntimeError.DIVISION_BY_ZERO);
+					return 1;
+				}
+				int a = r[code[pc + 2]];
+				r[code[pc + 1]] = code[pc] == Bytecode.DIV ? a / b : a % b;
+				pc += 4;
+				break;
+			}
+			case Bytecode.LAND:
+				r[code[pc + 1]] = r[code[pc + 2]] != 0
+						&& r[code[pc + 3]] != 0 ? 1 : 0;
+				pc += 4;
+				break;
+			case Bytecode.LOR:
+				r[code[pc + 1]] = r[code[pc + 2]] != 0
+						|| r[code[pc + 3]] != 0 ? 1 : 0;
+				pc += 4;
+				break;
+			case Bytecode.EQU:
+				r[code[pc + 1]] = r[code[pc + 2]] == r[code[pc + 3]] ? 1
+						: 0;
+				pc += 4;
+				break;
+			case Bytecode.NEQ:
+				r[code[pc + 1]] = r[code[pc + 2]] != r[code[pc + 3]] ? 1
+						: 0;
+				pc += 4;
+				break;
+			case Bytecode.LES:
+				r[code[pc + 1]] = r[code[pc + 2]] < r[code[pc + 3]] ? 1
+						: 0;
+				pc += 4;
+				break;
+			case Bytecode.LEQ:
+				r[code[pc + 1]] = r[code[pc + 2]] <= r[code[pc + 3]] ? 1
+						: 0;
+				pc += 4;
+				break;
+			case Bytecode.GTR:
+				r[code[pc + 1]] = r[code[pc + 2]] > r[code[pc + 3]] ? 1
+						: 0;
+				pc += 4;
+				break;
+			case Bytecode.GEQ:
+				r[code[pc + 1]] = r[code[pc + 2]] >= r[code[pc + 3]] ? 1
+						: 0;
+				pc += 4;
+				break;
+			case Bytecode.NEG:
+				r[code[pc + 1]] = -r[code[pc + 2]];
+				pc += 3;
+				break;
+			case Bytecode.NOT:
+				r[code[pc + 1]] = r[code[pc + 2]] == 0 ? 1 : 0;
+				pc += 3;
+				break;
+			case Bytecode.MOV:
+				r[code[pc + 1]] = r[code[pc + 2]];
+				pc += 3;
+				break;
+			case Bytecode.LI:
+				r[code[pc + 1]] = code[pc + 2];
+				pc += 3;
+				break;
+			case Bytecode.LDC:
+				r[code[pc + 1]] = pool[code[pc + 2]];
+				pc += 3;
+				break;
+			case Bytecode.LOAD: {
+				int base = r[code[pc + 2]];
+				if (base == 0) {
+					out.print(RuntimeError.NULL_POINTER);
+					return 1;
+				}
+				r[code[pc + 1]] = m[base + code[pc + 3] >> 2];
+				pc += 4;
+				break;
+			}
+			case Bytecode.STORE: {
+				int base = r[code[pc + 2]];
+				if (base == 0) {
+					out.print(RuntimeError.NULL_POINTER);
+					return 1;
+				}
+				m[base + code[pc + 3] >> 2] = r[code[pc + 1]];
+				pc += 4;
+				break;
+			}
+			case Bytecode.JMP:
+				pc = code[pc + 1];
+				break;
+			case Bytecode.JZ:
+				pc = r[code[pc + 1]] == 0 ? code[pc + 2] : pc + 3;
+				break;
+			case Bytecode.JNZ:
+				pc = r[code[pc + 1]] != 0 ? code[pc + 2] : pc + 3;
+				break;
+			case Bytecode.JEQ:
+				pc = r[code[pc + 1]] == r[code[pc + 2]] ? code[pc + 3]
+						: pc + 4;
+				break;
+			case Bytecode.JNE:
+				pc = r[code[pc + 1]] != r[code[pc + 2]] ? code[pc + 3]
+						: pc + 4;
+				break;
+			case Bytecode.JLT:
+				pc = r[code[pc + 1]] < r[code[pc + 2]] ? code[pc + 3]
+						: pc + 4;
+				break;
+			case Bytecode.JLE:
+				pc = r[code[pc + 1]] <= r[code[pc + 2]] ? code[pc + 3]
+						: pc + 4;
+				break;
+			case Bytecode.JGT:
+				pc = r[code[pc + 1]] > r[code[pc + 2]] ? code[pc + 3]
+						: pc + 4;
+				break;
+			case Bytecode.JGE:
+				pc = r[code[pc + 1]] >= r[code[pc + 2]] ? code[pc + 3]
+						: pc + 4;
+				break;
+			case Bytecode.ADDI:
+				r[code[pc + 1]] = r[code[pc + 2]] + code[pc + 3];
+				pc += 4;
+				break;
+			case Bytecode.MULI:
+				r[code[pc + 1]] = r[code[pc + 2]] * code[pc + 3];
+				pc += 4;
+				break;
+			case Bytecode.JEQI:
+				pc = r[code[pc + 1]] == code[pc + 2] ? code[pc + 3] : pc + 4;
+				break;
+			case Bytecode.JNEI:
+				pc = r[code[pc + 1]] != code[pc + 2] ? code[pc + 3] : pc + 4;
+				break;
+			case Bytecode.JLTI:
+				pc = r[code[pc + 1]] < code[pc + 2] ? code[pc + 3] : pc + 4;
+				break;
+			case Bytecode.JLEI:
+				pc = r[code[pc + 1]] <= code[pc + 2] ? code[pc + 3] : pc + 4;
+				break;
+			case Bytecode.JGTI:
+				pc = r[code[pc + 1]] > code[pc + 2] ? code[pc + 3] : pc + 4;
+				break;
+			case Bytecode.JGEI:
+				pc = r[code[pc + 1]] >= code[pc + 2] ? code[pc + 3] : pc + 4;
+				break;
+			case Bytecode.LOADX: {
+				int base = r[code[pc + 2]];
+				if (base == 0) {
+					out.print(RuntimeError.NULL_POINTER);
+					return 1;
+				}
+				r[code[pc + 1]] = m[(base >> 2) + r[code[pc + 3]]];
+				pc += 4;
+				break;
+			}
+			case Bytecode.STOREX: {
+				int base = r[code[pc + 2]];
+				if (base == 0) {
+					out.print(RuntimeError.NULL_POINTER);
+					return 1;
+				}
+				m[(base >> 2) + r[code[pc + 3]]] = r[code[pc + 1]];
+				pc += 4;
+				break;
+			}
+			case Bytecode.CHKIDX: {
+				int base = r[code[pc + 1]];
+				if (base == 0) {
+					out.print(RuntimeError.NULL_POINTER);
+					return 1;
+				}
+				int index = r[code[pc + 2]];
+				pc = index < 0 || index >= m[(base >> 2) - 1] ? code[pc + 3]
+						: pc + 4;
+				break;
+			}
+			case Bytecode.CHKLEN: {
+				int base = r[code[pc + 1]];
+				if (base == 0) {
+					out.print(RuntimeError.NULL_POINTER);
+					return 1;
+				}
+				pc = r[code[pc + 2]] >= m[(base >> 2) - 1] ? code[pc + 3]
+						: pc + 4;
+				break;
+			}
+			case Bytecode.CHKRANGE: {
+				int index = r[code[pc + 1]];
+				pc = index < 0 || index >= r[code[pc + 2]] ? code[pc + 3]
+						: pc + 4;
+				break;
+			}
+			case Bytecode.ADDJLT: {
+				int v = r[code[pc + 2]] + r[code[pc + 3]];
+				r[code[pc + 1]] = v;
+				pc = v < r[code[pc + 6]] ? code[pc + 7] : pc + 8;
+				break;
+			}
+			case Bytecode.ADDJLE: {
+				int v = r[code[pc + 2]] + r[code[pc + 3]];
+				r[code[pc + 1]] = v;
+				pc = v <= r[code[pc + 6]] ? code[pc + 7] : pc + 8;
+				break;
+			}
+			case Bytecode.ADDIJLT: {
+				int v = r[code[pc + 2]] + code[pc + 3];
+				r[code[pc + 1]] = v;
+				pc = v < r[code[pc + 6]] ? code[pc + 7] : pc + 8;
+				break;
+			}
+			case Bytecode.ADDIJLE: {
+				int v = r[code[pc + 2]] + code[pc + 3];
+				r[code[pc + 1]] = v;
+				pc = v <= r[code[pc + 6]] ? code[pc + 7] : pc + 8;
+				break;
+			}
+			case Bytecode.ADDIJLTI: {
+				int v = r[code[pc + 2]] + code[pc + 3];
+				r[code[pc + 1]] = v;
+				pc = v < code[pc + 6] ? code[pc + 7] : pc + 8;
+				break;
+			}
+			case Bytecode.LOADXC: {
+				int base = r[code[pc + 2]];
+				if (base == 0) {
+					out.print(RuntimeError.NULL_POINTER);
+					return 1;
+				}
+				int index = r[code[pc + 3]];
+				if (index < 0 || index >= m[(base >> 2) - 1]) {
+					pc = code[pc + 4];
+				} else {
+					r[code[pc + 1]] = m[(base >> 2) + index];
+					pc += 5;
+				}
+				break;
+			}
+			case Bytecode.STOREXC: {
+				int base = r[code[pc + 2]];
+				if (base == 0) {
+					out.print(RuntimeError.NULL_POINTER);
+					return 1;
+				}
+				int index = r[code[pc + 3]];
+				if (index < 0 || index >= m[(base >> 2) - 1]) {
+					pc = code[pc + 4];
+				} else {
+					m[(base >> 2) + index] = r[code[pc + 1]];
+					pc += 5;
+				}
+				break;
+			}
+			case Bytecode.CALL:
+			case Bytecode.CALLR: {
+				int callee = code[pc] == Bytecode.CALL ? code[pc + 2]
+						: r[code[pc + 2]];
+				int[] calleeCode = codeOf(callee);
+				int n = code[pc + 3];
+				int[] calleeRegs = module.registers[callee].clone();
+				for (int k = 0; k < n; k++) {
+					calleeRegs[k] = r[code[pc + 4 + k]];
+				}
+				int depth = this.depth;
+				if (depth == frames.length) {
+					if (depth == MAX_DEPTH) {
+						out.print(RuntimeError.STACK_OVERFLOW);
+						return 1;
+					}
+					frames = Arrays.copyOf(frames, depth * 2);
+					returns = Arrays.copyOf(returns, depth * 6);
+				}
+				frames[depth] = r;
+				int[] s = returns;
+				s[3 * depth] = fid;
+				s[3 * depth + 1] = pc + 4 + n;
+				s[3 * depth + 2] = code[pc + 1];
+				this.depth = depth + 1;
+				fid = callee;
+				code = calleeCode;
+				r = calleeRegs;
+				pc = 0;
+				break;
+			}
+			case Bytecode.RET:
+			case Bytecode.RETV: {
+				int value = code[pc] == Bytecode.RET ? r[code[pc + 1]] : 0;
+				int depth = this.depth - 1;
+				if (depth < 0) {
+					return 0;
+				}
+				this.depth = depth;
+				int[] s = returns;
+				fid = s[3 * depth];
+				pc = s[3 * depth + 1];
+				r = frames[depth];
+				frames[depth] = null;
+				code = module.code[fid];
+				if (s[3 * depth + 2] >= 0) {
+					r[s[3 * depth + 2]] = value;
+				}
+				break;
+			}
+			default:
+				pc = slow(code, pc, r);
+				if (pc < 0) {
+					return 1;
+				}
+				m = mem;
+				break;
+			}
+		}
+	}
+
+	/**
+	 * 不常用的指令：分配、输入输出、字符串比较和 _Halt，放在分派循环之外
+	 *
+	 * @return 下一条指令的位置，程序结束时为 -1
+	 */
+	private int slow(int[] code, int pc, int[] r) {
+		switch (code[pc]) {
+		case Bytecode.ALLOC:
+			r[code[pc + 1]] = allocate(r[code[pc + 2]]);
+			return pc + 3;
+		case Bytecode.READINT:
+			r[code[pc + 1]] = readInteger();
+			return pc + 2;
+		case Bytecode.READLINE:
+			r[code[pc + 1]] = newString(readLine());
+			return pc + 2;
+		case Bytecode.STREQ: {
+			String a = stringOf(r[code[pc + 2]]);
+			String b = stringOf(r[code[pc + 3]]);
+			r[code[pc + 1]] = (a == null ? b == null : a.equals(b)) ? 1 : 0;
+			return pc + 4;
+		}
+		case Bytecode.PRINTINT:
+			out.print(r[code[pc + 1]]);
+			return pc + 2;
+		case Bytecode.PRINTSTR:
+			out.print(stringOf(r[code[pc + 1]]));
+			return pc + 2;
+		case Bytecode.PRINTBOOL:
+			out.print(r[code[pc + 1]] != 0 ? "true" : "false");
+			return pc + 2;
+		case Bytecode.HALT:
+			return -1;
+		default:
+			throw new IllegalStateException("bad opcode " + code[pc] + " in "
+					+ module.names[fid]);
+		}
+	}
+
+	private int[] codeOf(int fid) {
+		int[] code = module.code[fid];
+		if (code == null) {
+			throw new IllegalStateException("no body for " + module.names[fid]);
+		}
+		return code;
+	}
+
+	private int readInteger() {
+		String line = readLine();
+		try {
+			return Integer.parseInt(line.trim());
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private String readLine() {
+		out.flush();
+		try {
+			String line = in.readLine();
+			return line == null ? "" : line;
+		} catch (IOException e) {
+			return "";
+		}
+	}
+}
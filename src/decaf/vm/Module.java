@@ -0,0 +1,31 @@
+package decaf.vm;
+
+import decaf.tac.Program;
+
+/**
+ * 汇编好的程序：各函数的代码、寄存器的初值和常量池<br>
+ * 函数按 {@link Program} 中的编号存放，没有函数体的函数代码为 null。
+ */
+final class Module {
+
+	final Program program;
+
+	final ConstantPool pool = new ConstantPool();
+
+	final int[][] code;
+
+	/**
+	 * 各函数寄存器的初值：只定值一次的常数已放好，其余为 0。调用时复制一份
+	 */
+	final int[][] registers;
+
+	final String[] names;
+
+	Module(Program program) {
+		this.program = program;
+		int n = program.getFunctions().size();
+		code = new int[n][];
+		registers = new int[n][];
+		names = new String[n];
+	}
+}
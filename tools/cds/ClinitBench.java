@@ -0,0 +1,57 @@
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+
+/**
+ * 测量词法分析器和语法分析器的类初始化（&lt;clinit&gt;）时间<br>
+ * 用法: java -cp JAR tools/cds/ClinitBench.java [RUNS]（bench.sh 的最后一步）<br>
+ * 第一次用应用类载入器初始化 decaf.frontend.Lexer 和 Parser（与编译器启动时的情形相同），
+ * 之后每次用新的类载入器重新载入并初始化，输出第一次和之后各次中位数的耗时（微秒）。<br>
+ * 耗时包括类的链接（字节码校验）；加上 -XX:+UnlockDiagnosticVMOptions
+ * -XX:-BytecodeVerificationRemote 可以只看静态初始化本身。
+ */
+public class ClinitBench {
+
+	private static final String[] CLASSES = { "decaf.frontend.Lexer",
+			"decaf.frontend.Parser" };
+
+	public static void main(String[] args) throws Exception {
+		int runs = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+		URL[] path = classPath();
+		long[][] times = new long[CLASSES.length][runs];
+		for (int r = 0; r < runs; r++) {
+			// 父载入器不可见 decaf 的类，每次都重新载入
+			ClassLoader loader = r == 0 ? ClinitBench.class.getClassLoader()
+					: new URLClassLoader(path, ClassLoader
+							.getPlatformClassLoader());
+			for (int i = 0; i < CLASSES.length; i++) {
+				Class<?> c = Class.forName(CLASSES[i], false, loader);
+				long start = System.nanoTime();
+				Class.forName(CLASSES[i], true, loader);
+				times[i][r] = (System.nanoTime() - start) / 1000;
+				if (c == null) {
+					throw new AssertionError();
+				}
+			}
+		}
+		for (int i = 0; i < CLASSES.length; i++) {
+			long first = times[i][0];
+			long[] rest = Arrays.copyOfRange(times[i], 1, runs);
+			Arrays.sort(rest);
+			System.out.printf("%-24s first %6d us   median %5d us%n",
+					CLASSES[i], first, rest.length == 0 ? first
+							: rest[rest.length / 2]);
+		}
+	}
+
+	private static URL[] classPath() throws Exception {
+		String[] entries = System.getProperty("java.class.path").split(
+				File.pathSeparator);
+		URL[] urls = new URL[entries.length];
+		for (int i = 0; i < entries.length; i++) {
+			urls[i] = new File(entries[i]).toURI().toURL();
+		}
+		return urls;
+	}
+}
@@ -0,0 +1,46 @@
+#!/bin/sh
+# 比较有无 AppCDS 归档时编译一个小文件的冷启动时间
+# 用法: bench.sh JAR ARCHIVE FILE [RUNS]
+# 三种配置：关闭类数据共享、只共享 JDK 自带的默认归档、共享 decaf 的归档；
+# 各运行 RUNS 次（默认 20），输出墙钟时间的中位数和最小值（毫秒）。
+# 最后用 ClinitBench 测量词法、语法分析器的类初始化时间。
+set -e
+[ $# -ge 3 ] || { echo "usage: $0 JAR ARCHIVE FILE [RUNS]" >&2; exit 1; }
+JAR=$(cd "$(dirname "$1")" && pwd)/$(basename "$1")
+ARCHIVE=$2
+FILE=$3
+RUNS=${4:-20}
+JAVA=${JAVA_HOME:+$JAVA_HOME/bin/}java
+[ -f "$ARCHIVE" ] || { echo "$ARCHIVE not found, run train.sh first" >&2; exit 1; }
+
+now() {
+	date +%s%N
+}
+
+measure() {
+	name=$1
+	shift
+	times=""
+	i=0
+	# 先跑一次，让文件进入页缓存
+	"$JAVA" "$@" -cp "$JAR" decaf.Driver -l 1 "$FILE" >/dev/null 2>&1 || true
+	while [ $i -lt "$RUNS" ]; do
+		start=$(now)
+		"$JAVA" "$@" -cp "$JAR" decaf.Driver -l 1 "$FILE" >/dev/null 2>&1 || true
+		end=$(now)
+		times="$times $(((end - start) / 1000000))"
+		i=$((i + 1))
+	done
+	echo $times | tr ' ' '\n' | sort -n | awk -v name="$name" '
+		{ t[NR] = $1 }
+		END { printf "%-10s median %5d ms   min %5d ms   (%d runs)\n", name, t[int((NR + 1) / 2)], t[1], NR }'
+}
+
+measure "no-cds" -Xshare:off
+measure "jdk-cds" -Xshare:auto
+measure "app-cds" -Xshare:auto -XX:SharedArchiveFile="$ARCHIVE"
+
+# 含字节码校验和只算静态初始化两种情形
+"$JAVA" -cp "$JAR" "$(dirname "$0")/ClinitBench.java" "$RUNS"
+"$JAVA" -XX:+UnlockDiagnosticVMOptions -XX:-BytecodeVerificationRemote \
+	-cp "$JAR" "$(dirname "$0")/ClinitBench.java" "$RUNS"
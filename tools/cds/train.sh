@@ -0,0 +1,32 @@
+#!/bin/sh
+# 用测试用例训练并生成 decaf.jar 的 AppCDS 归档
+# 用法: train.sh JAR ARCHIVE CORPUS_DIR...
+# 对语料中的每个文件各编译一次并记下载入的类，合并后一次性转储归档；
+# 运行时必须用与转储时相同的 jar 路径（见 tools/decafc）。
+set -e
+[ $# -ge 3 ] || { echo "usage: $0 JAR ARCHIVE CORPUS_DIR..." >&2; exit 1; }
+JAR=$(cd "$(dirname "$1")" && pwd)/$(basename "$1")
+ARCHIVE=$2
+shift 2
+JAVA=${JAVA_HOME:+$JAVA_HOME/bin/}java
+WORK=$(mktemp -d)
+trap 'rm -rf "$WORK"' EXIT
+
+n=0
+for dir in "$@"; do
+	for f in "$dir"/*.decaf; do
+		[ -f "$f" ] || continue
+		n=$((n + 1))
+		# 语法树和符号表两个阶段都要走到，出错的用例同样有用（错误类也要载入）
+		for level in 0 1; do
+			"$JAVA" -Xshare:off -XX:DumpLoadedClassList="$WORK/$n.$level.lst" \
+				-cp "$JAR" decaf.Driver -l $level "$f" >/dev/null 2>&1 || true
+		done
+	done
+done
+[ $n -gt 0 ] || { echo "no .decaf files in $*" >&2; exit 1; }
+sort -u "$WORK"/*.lst > "$WORK/classes.lst"
+
+"$JAVA" -Xshare:dump -XX:SharedClassListFile="$WORK/classes.lst" \
+	-XX:SharedArchiveFile="$ARCHIVE" -cp "$JAR" >/dev/null
+echo "trained on $n file(s), $(wc -l < "$WORK/classes.lst") class(es) -> $ARCHIVE"
@@ -0,0 +1,357 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 构建时把 JFlex 生成的表预先算好<br>
+ * 用法: java TableGen SRC_DIR<br>
+ * 读入 SRC_DIR/decaf/frontend 下的 Lexer.java，
+ * 算出其中各个数组的内容，编码为同目录下 TableData.java 中的字符串常量（编码见 decaf.frontend.Tables），
+ * 再把数组的初始化换成从这些常量解出。BYACC/J 的表是数组字面量，解码反而比它慢，不处理。<br>
+ * 已经处理过的文件中找不到表，原样保留，TableData 中它的常量也保留。
+ */
+public class TableGen {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * 常量池中的字符串不超过 65535 字节，每个字符至多 3 字节
+	 */
+	private static final int PART_LENGTH = 20000;
+
+	private static final Pattern DATA_CONSTANT = Pattern
+			.compile("static final String (LEXER_\\d+) =\\s*\"(?:[^\"\\\\]++|\\\\.)*+\";");
+
+	/**
+	 * private static final char [] ZZ_CMAP = zzUnpackCMap(ZZ_CMAP_PACKED);
+	 */
+	private static final Pattern CMAP = Pattern
+			.compile("private static final char \\[\\] (\\w+) = zzUnpackCMap\\((\\w+)\\);");
+
+	/**
+	 * private static final int [] ZZ_ACTION = zzUnpackAction();
+	 */
+	private static final Pattern INT_ARRAY = Pattern
+			.compile("private static final int \\[\\] (\\w+) = (zzUnpack\\w+)\\(\\);");
+
+	private static final Pattern STRING_CONSTANT = Pattern
+			.compile("private static final String (\\w+) =\\s*((?:\"(?:[^\"\\\\]|\\\\.)*\"\\s*\\+?\\s*)+);");
+
+	private static final Pattern STRING_LITERAL = Pattern
+			.compile("\"((?:[^\"\\\\]|\\\\.)*)\"");
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.err.println("Usage: java TableGen SRC_DIR");
+			System.exit(1);
+		}
+		File dir = new File(args[0], "decaf/frontend");
+		File data = new File(dir, "TableData.java");
+		// 常量名 -> 常量的源代码
+		Map<String, String> constants = new LinkedHashMap<String, String>();
+		if (data.isFile()) {
+			Matcher m = DATA_CONSTANT.matcher(read(data));
+			while (m.find()) {
+				constants.put(m.group(1), m.group());
+			}
+		}
+		if (processLexer(new File(dir, "Lexer.java"), constants)) {
+			writeData(data, constants);
+		}
+	}
+
+	private static boolean processLexer(File source,
+			Map<String, String> constants) throws IOException {
+		String text = read(source);
+		Map<String, String> strings = new LinkedHashMap<String, String>();
+		Matcher m = STRING_CONSTANT.matcher(text);
+		while (m.find()) {
+			strings.put(m.group(1), decodeLiterals(m.group(2)));
+		}
+
+		Map<String, Object> tables = new LinkedHashMap<String, Object>();
+		int first = -1;
+		m = CMAP.matcher(text);
+		StringBuffer sb = new StringBuffer();
+		while (m.find()) {
+			first = first < 0 ? m.start() : first;
+			tables.put(m.group(1), unpackCMap(strings.get(m.group(2))));
+			m.appendReplacement(sb, "private static final char [] "
+					+ m.group(1) + " = TABLES.chars(\"" + m.group(1) + "\");");
+		}
+		m.appendTail(sb);
+		text = sb.toString();
+
+		m = INT_ARRAY.matcher(text);
+		sb = new StringBuffer();
+		while (m.find()) {
+			first = first < 0 ? m.start() : first;
+			tables.put(m.group(1), unpackInts(text, m.group(2), strings));
+			m.appendReplacement(sb, "private static final int [] "
+					+ m.group(1) + " = TABLES.ints(\"" + m.group(1) + "\");");
+		}
+		m.appendTail(sb);
+		text = sb.toString();
+		if (tables.isEmpty()) {
+			System.out.println(source + ": no tables, skipped");
+			return false;
+		}
+		int at = commentStart(text, first);
+		text = text.substring(0, at)
+				+ "/** tables precomputed at build time, see Tables */\n"
+				+ "  private static final Tables TABLES = Tables.load("
+				+ encode("LEXER", tables, constants) + ");\n\n  "
+				+ text.substring(at);
+
+		write(source, text);
+		System.out.println(source + ": " + tables.size() + " tables");
+		return true;
+	}
+
+	/**
+	 * 照 zzUnpackCMap 展开字符类表
+	 */
+	private static char[] unpackCMap(String packed) {
+		char[] map = new char[0x10000];
+		int j = 0;
+		for (int i = 0; i < packed.length();) {
+			int count = packed.charAt(i++);
+			char value = packed.charAt(i++);
+			do {
+				map[j++] = value;
+			} while (--count > 0);
+		}
+		return map;
+	}
+
+	/**
+	 * 照生成的 zzUnpackXxx() 展开整数表：长度取自其中的 new int[N]，
+	 * 依次展开其中用到的各个 XXX_PACKED_k 字符串；ZZ_TRANS 等表的值存放时加了 1
+	 */
+	private static int[] unpackInts(String text, String method,
+			Map<String, String> constants) {
+		Matcher body = Pattern.compile(
+				"private static int \\[\\] " + method
+						+ "\\(\\) \\{(.*?)\\n  \\}", Pattern.DOTALL).matcher(text);
+		if (!body.find()) {
+			throw new IllegalStateException("cannot find " + method);
+		}
+		Matcher size = Pattern.compile("new int\\[(\\d+)\\]").matcher(
+				body.group(1));
+		if (!size.find()) {
+			throw new IllegalStateException("cannot find the size in " + method);
+		}
+		Matcher unpack = Pattern.compile(
+				"private static int " + method
+						+ "\\(String packed, int offset, int \\[\\] result\\) \\{(.*?)\\n  \\}",
+				Pattern.DOTALL).matcher(text);
+		boolean decrement = unpack.find() && unpack.group(1).contains("value--");
+		int[] result = new int[Integer.parseInt(size.group(1))];
+		Matcher part = Pattern.compile(method + "\\((\\w+), offset, result\\)")
+				.matcher(body.group(1));
+		int j = 0;
+		while (part.find()) {
+			String packed = constants.get(part.group(1));
+			for (int i = 0; i < packed.length();) {
+				int count = packed.charAt(i++);
+				int value = packed.charAt(i++);
+				if (decrement) {
+					value--;
+				}
+				do {
+					result[j++] = value;
+				} while (--count > 0);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 拼接 "..." + "..." 形式的字符串常量并解释其中的转义
+	 */
+	private static String decodeLiterals(String expr) {
+		StringBuilder sb = new StringBuilder();
+		Matcher m = STRING_LITERAL.matcher(expr);
+		while (m.find()) {
+			String s = m.group(1);
+			for (int i = 0; i < s.length(); i++) {
+				char c = s.charAt(i);
+				if (c != '\\') {
+					sb.append(c);
+					continue;
+				}
+				c = s.charAt(++i);
+				if (c >= '0' && c <= '7') {
+					int end = i;
+					while (end < s.length() && end < i + 3
+							&& s.charAt(end) >= '0' && s.charAt(end) <= '7') {
+						end++;
+					}
+					// 三位的八进制转义首位只能是 0-3
+					if (end - i == 3 && s.charAt(i) > '3') {
+						end--;
+					}
+					sb.append((char) Integer.parseInt(s.substring(i, end), 8));
+					i = end - 1;
+				} else if (c == 'u') {
+					while (s.charAt(i) == 'u') {
+						i++;
+					}
+					sb.append((char) Integer.parseInt(s.substring(i, i + 4), 16));
+					i += 3;
+				} else {
+					switch (c) {
+					case 'n':
+						sb.append('\n');
+						break;
+					case 't':
+						sb.append('\t');
+						break;
+					case 'r':
+						sb.append('\r');
+						break;
+					case 'b':
+						sb.append('\b');
+						break;
+					case 'f':
+						sb.append('\f');
+						break;
+					default:
+						sb.append(c);
+					}
+				}
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * 把表编码为常量 PREFIX_0、PREFIX_1……（换掉 constants 中同一前缀的旧常量）
+	 *
+	 * @return Tables.load 的参数
+	 */
+	private static String encode(String prefix, Map<String, Object> tables,
+			Map<String, String> constants) {
+		StringBuilder data = new StringBuilder();
+		data.append((char) tables.size());
+		for (Map.Entry<String, Object> e : tables.entrySet()) {
+			data.append((char) e.getKey().length()).append(e.getKey());
+			Object table = e.getValue();
+			if (table instanceof char[]) {
+				char[] a = (char[]) table;
+				int stored = a.length;
+				while (stored > 0 && a[stored - 1] == 0) {
+					stored--;
+				}
+				header(data, 'C', a.length, stored);
+				data.append(a, 0, stored);
+			} else {
+				int[] a = (int[]) table;
+				int stored = a.length;
+				while (stored > 0 && a[stored - 1] == 0) {
+					stored--;
+				}
+				header(data, 'I', a.length, stored);
+				for (int i = 0; i < stored; i++) {
+					appendInt(data, a[i]);
+				}
+			}
+		}
+		for (Iterator<String> iter = constants.keySet().iterator(); iter
+				.hasNext();) {
+			if (iter.next().startsWith(prefix + "_")) {
+				iter.remove();
+			}
+		}
+		StringBuilder args = new StringBuilder();
+		for (int k = 0; k * PART_LENGTH < data.length(); k++) {
+			String name = prefix + "_" + k;
+			String part = data.substring(k * PART_LENGTH, Math.min(
+					data.length(), (k + 1) * PART_LENGTH));
+			constants.put(name, "static final String " + name + " =\n\t\t\t\""
+					+ escape(part) + "\";");
+			args.append(k == 0 ? "" : ", ").append("TableData.").append(name);
+		}
+		return args.toString();
+	}
+
+	private static void header(StringBuilder data, char type, int length,
+			int stored) {
+		data.append(type);
+		appendInt(data, length);
+		appendInt(data, stored);
+	}
+
+	private static void appendInt(StringBuilder data, int value) {
+		data.append((char) (value >>> 16)).append((char) value);
+	}
+
+	/**
+	 * 写成 Java 字符串常量的内容：控制字符用三位八进制转义（Unicode 转义在词法分析之前处理，
+	 * 不能用于换行等字符），非 ASCII 字符用 Unicode 转义
+	 */
+	private static String escape(String s) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < 0x20 || c == 0x7f) {
+				sb.append(String.format("\\%03o", (int) c));
+			} else if (c < 0x7f) {
+				sb.append(c);
+			} else {
+				sb.append(String.format("\\u%04x", (int) c));
+			}
+		}
+		return sb.toString();
+	}
+
+	private static void writeData(File file, Map<String, String> constants)
+			throws IOException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("package decaf.frontend;\n\n");
+		sb.append("/**\n");
+		sb.append(" * 词法分析器的表，由 tools/tablegen/TableGen 生成，不要手工修改<br>\n");
+		sb.append(" * 编码见 {@link Tables}；常量在编译时内联到 Lexer 中，运行时不会载入本类。\n");
+		sb.append(" */\n");
+		sb.append("final class TableData {\n\n");
+		sb.append("\tprivate TableData() {\n\t}\n");
+		for (String constant : constants.values()) {
+			sb.append("\n\t").append(constant).append("\n");
+		}
+		sb.append("}\n");
+		write(file, sb.toString());
+	}
+
+	/**
+	 * @return pos 处语句之前紧挨着的文档注释的开始处，没有时为 pos 所在行的行首之后的缩进处
+	 */
+	private static int commentStart(String text, int pos) {
+		int i = pos;
+		while (i > 0 && Character.isWhitespace(text.charAt(i - 1))) {
+			i--;
+		}
+		if (text.startsWith("*/", i - 2)) {
+			int open = text.lastIndexOf("/**", i);
+			if (open >= 0) {
+				return open;
+			}
+		}
+		return pos;
+	}
+
+	private static String read(File file) throws IOException {
+		return new String(Files.readAllBytes(file.toPath()), UTF8);
+	}
+
+	private static void write(File file, String text) throws IOException {
+		Files.write(file.toPath(), text.getBytes(UTF8));
+	}
+}
@@ -0,0 +1,48 @@
+#!/bin/sh
+# 比较 -run（语法树解释器）、-vm（字节码虚拟机）和 -jvm（编译为 JVM 类）执行本目录下各程序的时间
+# 用法: bench.sh JAR [RUNS]
+# 每个程序在各方式下各运行 RUNS 次（默认 5），输出墙钟时间的中位数和最小值（毫秒），
+# 各方式的输出与 -run 不同时报错。时间包括编译和 JVM 启动。
+set -e
+[ $# -ge 1 ] || { echo "usage: $0 JAR [RUNS]" >&2; exit 1; }
+JAR=$(cd "$(dirname "$1")" && pwd)/$(basename "$1")
+RUNS=${2:-5}
+JAVA=${JAVA_HOME:+$JAVA_HOME/bin/}java
+DIR=$(cd "$(dirname "$0")" && pwd)
+
+now() {
+	date +%s%N
+}
+
+measure() {
+	name=$1
+	mode=$2
+	file=$3
+	times=""
+	i=0
+	while [ $i -lt "$RUNS" ]; do
+		start=$(now)
+		"$JAVA" -cp "$JAR" decaf.Driver "$mode" "$file" >/dev/null </dev/null
+		end=$(now)
+		times="$times $(((end - start) / 1000000))"
+		i=$((i + 1))
+	done
+	echo $times | tr ' ' '\n' | sort -n | awk -v name="$name" -v mode="$mode" '
+		{ t[NR] = $1 }
+		END { printf "%-8s %-5s median %6d ms   min %6d ms   (%d runs)\n", name, mode, t[int((NR + 1) / 2)], t[1], NR }'
+}
+
+for file in "$DIR"/*.decaf; do
+	name=$(basename "$file" .decaf)
+	expected=$("$JAVA" -cp "$JAR" decaf.Driver -run "$file" </dev/null)
+	for mode in -vm -jvm; do
+		actual=$("$JAVA" -cp "$JAR" decaf.Driver $mode "$file" </dev/null)
+		if [ "$expected" != "$actual" ]; then
+			echo "$name: $mode output differs from -run" >&2
+			exit 1
+		fi
+	done
+	measure "$name" -run "$file"
+	measure "$name" -vm "$file"
+	measure "$name" -jvm "$file"
+done